@@ -44,7 +44,7 @@ public class HTTPServerExample {
 
             Box resp = Box.newMap();
             Box box = ((HTTPRequest)msg).getBody();
-            if (!box.has("isPrime")) {
+            if (box == null || !box.has("isPrime")) {
                 // We need to set an error state, so we have to wrap the
                 // response to the upper half in a HTTPResponse
                 resp.put("error", "No 'isPrime' key in request");
@@ -28,9 +28,11 @@ public class HTTPServerExampleClient {
             w.writeMethod(HTTP.Method.GET);
             w.writeUri("/calc/");
             w.writeVersion(HTTP.Version.ONE_ZERO);
+            byte[] body = ("{\"isPrime\" : " + i + "}").getBytes("UTF-8");
             w.writeHeader("User-Agent", "Juglr/0.3");
+            w.writeHeader("Content-Length", "" + body.length);
             w.startBody();
-            w.writeBody("{\"isPrime\" : " + i + "}");
+            w.writeBody(body);
             w.flush();
 
             // Read response
@@ -65,6 +65,7 @@ public class PingPongExample {
             ping.start();
         }
 
-        Thread.sleep(1000000);
+        // Wait for all pings to be answered
+        MessageBus.getDefault().shutdown(true);
     }
 }
@@ -0,0 +1,88 @@
+package juglr.bench;
+
+import juglr.Actor;
+import juglr.Message;
+import juglr.MessageBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link Actor#await} compared to calling the closure directly
+ * from {@code react}. The closure does no blocking, so the difference is
+ * the cost of the managed blocking machinery
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AwaitBenchmark {
+
+    static final int BATCH = 1000;
+
+    static class Caller extends Actor {
+        final boolean useAwait;
+        final SynchronousQueue<Long> done;
+        final Callable<Long> closure;
+
+        Caller(boolean useAwait) {
+            this.useAwait = useAwait;
+            done = new SynchronousQueue<Long>();
+            closure = new Callable<Long>() {
+                long calls;
+
+                public Long call() {
+                    return ++calls;
+                }
+            };
+        }
+
+        @Override
+        public void react(Message msg) {
+            long sum = 0;
+            try {
+                for (int i = 0; i < BATCH; i++) {
+                    sum += useAwait ? await(closure) : closure.call();
+                }
+                done.put(sum);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    MessageBus bus;
+    Caller awaiting;
+    Caller direct;
+
+    @Setup
+    public void setup() {
+        bus = MessageBus.getDefault();
+        awaiting = new Caller(true);
+        direct = new Caller(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        bus.freeAddress(awaiting.getAddress());
+        bus.freeAddress(direct.getAddress());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Long await() throws InterruptedException {
+        bus.send(new Message(), awaiting.getAddress());
+        return awaiting.done.take();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Long direct() throws InterruptedException {
+        bus.send(new Message(), direct.getAddress());
+        return direct.done.take();
+    }
+}
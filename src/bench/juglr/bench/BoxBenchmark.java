@@ -0,0 +1,113 @@
+package juglr.bench;
+
+import juglr.Box;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building Box maps and lists of typical message sizes. Run with
+ * the GC profiler, as 'ant bench' does by default, to see the allocations
+ * per Box
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoxBenchmark {
+
+    static final String[] KEYS = {
+        "id", "name", "active", "score", "tags", "meta", "counts",
+        "readings", "level", "label", "weight", "child", "version",
+        "source", "records", "status"
+    };
+
+    @Param({"4", "16"})
+    public int entries;
+
+    @Benchmark
+    public Box buildMap() {
+        Box box = Box.newMap();
+        for (int i = 0; i < entries; i++) {
+            switch (i % 4) {
+                case 0:
+                    box.put(KEYS[i], i);
+                    break;
+                case 1:
+                    box.put(KEYS[i], "value");
+                    break;
+                case 2:
+                    box.put(KEYS[i], i * 0.5);
+                    break;
+                default:
+                    box.put(KEYS[i], true);
+            }
+        }
+        return box;
+    }
+
+    @Benchmark
+    public Box buildLongList() {
+        Box box = Box.newList();
+        for (int i = 0; i < entries * 16; i++) {
+            box.add(i * 31L);
+        }
+        return box;
+    }
+
+    @Benchmark
+    public Box buildDoubleList() {
+        Box box = Box.newList();
+        for (int i = 0; i < entries * 16; i++) {
+            box.add(i * 0.25);
+        }
+        return box;
+    }
+
+    /**
+     * A typical telemetry message, where all values are numbers
+     */
+    @Benchmark
+    public Box buildTelemetry() {
+        return Box.newMap()
+                .put("timestamp", 1267000000000L + entries)
+                .put("sensor", entries)
+                .put("temperature", 21.5)
+                .put("humidity", 0.43)
+                .put("pressure", 1013.25)
+                .put("voltage", 3.3)
+                .put("uptime", 86400L * entries)
+                .put("healthy", true);
+    }
+
+    @Benchmark
+    public Box buildNested() {
+        Box box = Box.newMap().put("level", 0);
+        for (int i = 1; i < entries; i++) {
+            box = Box.newMap().put("level", i).put("child", box);
+        }
+        return box;
+    }
+
+    @Benchmark
+    public long readMap(ReadState state) {
+        long sum = 0;
+        Box box = state.box;
+        for (int i = 0; i < entries; i += 4) {
+            sum += box.getLong(KEYS[i]);
+        }
+        return sum;
+    }
+
+    @State(Scope.Thread)
+    public static class ReadState {
+        Box box;
+
+        @Setup
+        public void setup(BoxBenchmark bench) {
+            box = bench.buildMap();
+        }
+    }
+}
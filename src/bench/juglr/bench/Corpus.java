@@ -0,0 +1,131 @@
+package juglr.bench;
+
+import juglr.Box;
+
+import java.util.Random;
+
+/**
+ * Generates the documents used by the Box and JSON benchmarks. The
+ * documents are built from a fixed seed, so all runs see the same data.
+ * They mix the shapes found in real messages: records with short keys,
+ * deeply nested objects, number-heavy arrays, and strings in several
+ * scripts outside ASCII.
+ */
+public class Corpus {
+
+    /**
+     * Sizes of the generated documents
+     */
+    public static enum Size {
+        /** A single flat record of about 300 bytes */
+        SMALL(1, 2, 8),
+
+        /** Tens of records with nested metadata, about 20 KB */
+        MEDIUM(10, 6, 64),
+
+        /** Hundreds of records with deep nesting, about 2 MB */
+        LARGE(500, 12, 128);
+
+        final int records;
+        final int depth;
+        final int samples;
+
+        Size(int records, int depth, int samples) {
+            this.records = records;
+            this.depth = depth;
+            this.samples = samples;
+        }
+    }
+
+    /* Words in Latin, Danish, Greek, Cyrillic, CJK, and with characters
+     * outside the BMP. None of them need escaping in JSON */
+    private static final String[] WORDS = {
+        "actor", "message", "latency", "throughput", "mailbox",
+        "blåbærgrød", "rødgrød med fløde", "Ærø", "Øresund",
+        "λόγος", "αβγδε", "Москва", "сообщение",
+        "東京", "メッセージ", "消息队列", "서울",
+        "🚀 launch", "🌍", "naïve café"
+    };
+
+    private Corpus() {
+        // Static helpers only
+    }
+
+    /**
+     * Generate a document
+     * @param size the size of the document
+     * @return a Box of {@code MAP} type
+     */
+    public static Box generate(Size size) {
+        Random random = new Random(27);
+        if (size == Size.SMALL) {
+            return record(random, 0, size);
+        }
+
+        Box records = Box.newList();
+        for (int i = 0; i < size.records; i++) {
+            records.add(record(random, i, size));
+        }
+        return Box.newMap()
+                .put("version", 3)
+                .put("source", words(random, 3))
+                .put("records", records);
+    }
+
+    /**
+     * Generate a document and format it as JSON
+     * @param size the size of the document
+     * @return the JSON text of the document
+     */
+    public static String generateJSon(Size size) {
+        return generate(size).toString();
+    }
+
+    private static Box record(Random random, int id, Size size) {
+        Box tags = Box.newList();
+        for (int i = 0; i < 4; i++) {
+            tags.add(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        Box box = Box.newMap()
+                .put("id", id)
+                .put("name", words(random, 2))
+                .put("active", random.nextBoolean())
+                .put("score", random.nextDouble() * 100)
+                .put("tags", tags)
+                .put("meta", nested(random, size.depth));
+
+        if (size != Size.SMALL) {
+            Box counts = Box.newList();
+            Box readings = Box.newList();
+            for (int i = 0; i < size.samples; i++) {
+                counts.add(random.nextInt(1000000));
+                readings.add(random.nextGaussian() * 1000);
+            }
+            box.put("counts", counts).put("readings", readings);
+        }
+        return box;
+    }
+
+    private static Box nested(Random random, int depth) {
+        Box box = Box.newMap()
+                .put("level", depth)
+                .put("label", WORDS[random.nextInt(WORDS.length)])
+                .put("weight", random.nextDouble());
+        if (depth > 0) {
+            box.put("child", nested(random, depth - 1));
+        }
+        return box;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                buf.append(' ');
+            }
+            buf.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return buf.toString();
+    }
+}
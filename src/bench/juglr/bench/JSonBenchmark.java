@@ -0,0 +1,185 @@
+package juglr.bench;
+
+import juglr.Box;
+import juglr.CborBoxParser;
+import juglr.CborBoxWriter;
+import juglr.JSonBoxParser;
+import juglr.JSonBoxReader;
+import juglr.JSonBoxWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing and formatting JSON documents of the sizes in
+ * {@link Corpus}, and of the same documents in CBOR for comparison. Run
+ * with the GC profiler, as 'ant bench' does by default, to see the bytes
+ * allocated per document
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSonBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Corpus.Size size;
+
+    Box box;
+    String json;
+    byte[] utf8;
+    JSonBoxParser parser;
+    LegacyJSonParser legacyParser;
+    JSonBoxReader reader;
+    JSonBoxWriter writer;
+    char[] chars;
+    StringBuilder buf;
+    ByteBuffer bytes;
+    CborBoxParser cborParser;
+    CborBoxWriter cborWriter;
+    ByteBuffer cbor;
+
+    @Setup
+    public void setup() throws IOException {
+        box = Corpus.generate(size);
+        json = box.toString();
+        utf8 = json.getBytes("UTF-8");
+        parser = new JSonBoxParser();
+        legacyParser = new LegacyJSonParser();
+        reader = new JSonBoxReader(box);
+        writer = new JSonBoxWriter();
+        chars = new char[4096];
+        buf = new StringBuilder(json.length());
+        bytes = ByteBuffer.allocate(utf8.length);
+        cborParser = new CborBoxParser();
+        cborWriter = new CborBoxWriter();
+        cbor = cborWriter.write(box, ByteBuffer.allocate(utf8.length));
+        cbor.flip();
+    }
+
+    @Benchmark
+    public Box parse() {
+        return parser.parse(json);
+    }
+
+    /**
+     * Parse the UTF-8 encoded document straight from its bytes
+     */
+    @Benchmark
+    public Box parseBytes() {
+        return parser.parse(utf8);
+    }
+
+    /**
+     * Parse the document from a Reader, refilling the buffer of the parser
+     */
+    @Benchmark
+    public Box parseReader() throws IOException {
+        return parser.parse(new StringReader(json));
+    }
+
+    /**
+     * Parse the document with the two pass parser of Juglr 0.3
+     */
+    @Benchmark
+    public Box parseLegacy() throws Exception {
+        return legacyParser.parse(json);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return box.toBytes();
+    }
+
+    @Benchmark
+    public String boxToString() {
+        return box.toString();
+    }
+
+    /**
+     * Stream the document through a reused JSonBoxReader
+     */
+    @Benchmark
+    public int readerStream() throws IOException {
+        reader.reset(box);
+        int total = 0;
+        int read;
+        while ((read = reader.read(chars, 0, chars.length)) > 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Write the document into a reused StringBuilder
+     */
+    @Benchmark
+    public int writerAppend() throws IOException {
+        buf.setLength(0);
+        writer.write(box, buf);
+        return buf.length();
+    }
+
+    /**
+     * Write the document as UTF-8 into a reused ByteBuffer
+     */
+    @Benchmark
+    public int writerBuffer() {
+        bytes.clear();
+        return writer.write(box, bytes).position();
+    }
+
+    /**
+     * Check the syntax of the document and parse it into a lazy box
+     */
+    @Benchmark
+    public Box parseLazy() {
+        return parser.parseLazy(ByteBuffer.wrap(utf8));
+    }
+
+    /**
+     * Route on one field of the document and write it back out, as a
+     * proxy would, with a box parsed lazily
+     */
+    @Benchmark
+    public int forwardLazy() {
+        bytes.clear();
+        Box doc = parser.parseLazy(ByteBuffer.wrap(utf8));
+        return (int)doc.getLong("version", 0) +
+               writer.write(doc, bytes).position();
+    }
+
+    /**
+     * Route on one field of the document and write it back out, as a
+     * proxy would, with a box parsed eagerly
+     */
+    @Benchmark
+    public int forwardEager() {
+        bytes.clear();
+        Box doc = parser.parse(utf8);
+        return (int)doc.getLong("version", 0) +
+               writer.write(doc, bytes).position();
+    }
+
+    /**
+     * Parse the document from its CBOR encoding
+     */
+    @Benchmark
+    public Box parseCbor() {
+        return cborParser.parse(cbor.duplicate());
+    }
+
+    /**
+     * Write the document as CBOR into a reused ByteBuffer
+     */
+    @Benchmark
+    public int writerCbor() {
+        bytes.clear();
+        return cborWriter.write(box, bytes).position();
+    }
+}
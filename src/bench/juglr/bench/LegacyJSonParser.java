@@ -0,0 +1,57 @@
+package juglr.bench;
+
+import juglr.Box;
+import juglr.internal.org.json.JSONArray;
+import juglr.internal.org.json.JSONException;
+import juglr.internal.org.json.JSONObject;
+import juglr.internal.org.json.JSONTokener;
+
+import java.util.Iterator;
+
+/**
+ * The JSON parser of Juglr 0.3, building a JSONObject tree with the bundled
+ * org.json tokener and converting it to a {@link Box} tree. Kept as the
+ * baseline for the single pass JSonBoxParser in {@link JSonBenchmark}
+ */
+class LegacyJSonParser {
+
+    Box parse(String in) throws JSONException {
+        JSONTokener t = new JSONTokener(in);
+        if (t.more()) {
+            return convert(t.nextValue());
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Box convert(Object obj) throws JSONException {
+        if (obj instanceof Integer) {
+            return new Box((Integer)obj);
+        } else if (obj instanceof Long) {
+            return new Box((Long)obj);
+        } else if (obj instanceof Double) {
+            return new Box((Double)obj);
+        } else if (obj instanceof Boolean) {
+            return new Box((Boolean)obj);
+        } else if (obj instanceof String) {
+            return new Box((String)obj);
+        } else if (obj instanceof JSONArray) {
+            JSONArray a = (JSONArray)obj;
+            Box box = Box.newList(a.length());
+            for (int i = 0; i < a.length(); i++) {
+                box.add(convert(a.get(i)));
+            }
+            return box;
+        } else if (obj instanceof JSONObject) {
+            JSONObject o = (JSONObject)obj;
+            Iterator<String> iter = (Iterator<String>)o.keys();
+            Box box = Box.newMap(o.length());
+            while (iter.hasNext()) {
+                String key = iter.next();
+                box.put(key, convert(o.get(key)));
+            }
+            return box;
+        }
+        throw new JSONException("Unexpected object type " + obj.getClass());
+    }
+}
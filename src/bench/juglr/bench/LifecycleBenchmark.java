@@ -0,0 +1,52 @@
+package juglr.bench;
+
+import juglr.Actor;
+import juglr.Message;
+import juglr.MessageBus;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate of creating actors, which allocates an address on the bus, and of
+ * freeing their addresses again
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LifecycleBenchmark {
+
+    static class Idle extends Actor {
+        Idle(MessageBus bus) {
+            super(bus);
+        }
+
+        @Override
+        public void react(Message msg) {
+
+        }
+    }
+
+    MessageBus bus;
+
+    @Setup
+    public void setup() {
+        bus = new MessageBus();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        bus.shutdown(false);
+    }
+
+    @Benchmark
+    public void createAndFree(Blackhole hole) {
+        Idle actor = new Idle(bus);
+        hole.consume(actor);
+        bus.freeAddress(actor.getAddress());
+    }
+}
@@ -0,0 +1,80 @@
+package juglr.bench;
+
+import juglr.Actor;
+import juglr.Address;
+import juglr.Message;
+import juglr.MessageBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip latency of a message between two actors. The benchmark thread
+ * hands a ping to one actor, which sends it to the other actor and back
+ * again before handing it back
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PingPongBenchmark {
+
+    static class Pong extends Actor {
+        @Override
+        public void react(Message msg) {
+            send(new Message(), msg.getReplyTo());
+        }
+    }
+
+    static class Ping extends Actor {
+        final Address pong;
+        final SynchronousQueue<Message> done;
+        boolean waiting;
+
+        Ping(Address pong) {
+            this.pong = pong;
+            done = new SynchronousQueue<Message>();
+        }
+
+        @Override
+        public void react(Message msg) {
+            if (waiting) {
+                waiting = false;
+                try {
+                    done.put(msg);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                waiting = true;
+                send(new Message(), pong);
+            }
+        }
+    }
+
+    MessageBus bus;
+    Pong pong;
+    Ping ping;
+
+    @Setup
+    public void setup() {
+        bus = MessageBus.getDefault();
+        pong = new Pong();
+        ping = new Ping(pong.getAddress());
+    }
+
+    @TearDown
+    public void tearDown() {
+        bus.freeAddress(ping.getAddress());
+        bus.freeAddress(pong.getAddress());
+    }
+
+    @Benchmark
+    public Message roundTrip() throws InterruptedException {
+        bus.send(new Message(), ping.getAddress());
+        return ping.done.take();
+    }
+}
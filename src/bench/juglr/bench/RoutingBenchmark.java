@@ -0,0 +1,99 @@
+package juglr.bench;
+
+import juglr.Actor;
+import juglr.DelegatingActor;
+import juglr.Message;
+import juglr.MessageBus;
+import juglr.MulticastActor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of messages routed through a {@link MulticastActor} to all
+ * of its delegates, and through a {@link DelegatingActor} to one of them.
+ * All delegates forward to the same sink so the benchmark can wait for
+ * the batch to be delivered
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    static final int BATCH = 1000;
+
+    static class Forwarder extends Actor {
+        final Sink sink;
+
+        Forwarder(Sink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void react(Message msg) {
+            send(new Message(), sink.getAddress());
+        }
+    }
+
+    @Param({"2", "8", "32"})
+    public int delegates;
+
+    MessageBus bus;
+    Sink sink;
+    Forwarder[] forwarders;
+    MulticastActor multicast;
+    DelegatingActor delegating;
+
+    @Setup
+    public void setup() {
+        bus = MessageBus.getDefault();
+        sink = new Sink();
+        forwarders = new Forwarder[delegates];
+        for (int i = 0; i < delegates; i++) {
+            forwarders[i] = new Forwarder(sink);
+        }
+        multicast = new MulticastActor(forwarders);
+        delegating = new DelegatingActor(forwarders);
+    }
+
+    @TearDown
+    public void tearDown() {
+        bus.freeAddress(multicast.getAddress());
+        bus.freeAddress(delegating.getAddress());
+        for (Forwarder forwarder : forwarders) {
+            bus.freeAddress(forwarder.getAddress());
+        }
+        bus.freeAddress(sink.getAddress());
+    }
+
+    /**
+     * Messages sent to a MulticastActor. Each operation is one message
+     * delivered to all {@link #delegates} delegates
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void multicastFanOut() throws InterruptedException {
+        CountDownLatch done = sink.expect(BATCH * delegates);
+        for (int i = 0; i < BATCH; i++) {
+            bus.send(new Message(), multicast.getAddress());
+        }
+        done.await();
+    }
+
+    /**
+     * Messages sent to a DelegatingActor routing them round robin
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void delegatingRoute() throws InterruptedException {
+        CountDownLatch done = sink.expect(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            bus.send(new Message(), delegating.getAddress());
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,109 @@
+package juglr.bench;
+
+import juglr.Box;
+import juglr.BoxSchema;
+import juglr.JSonBoxParser;
+import juglr.JSonBoxWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handling a telemetry message of 20 numeric fields as a plain map
+ * and as a {@link BoxSchema} box: parsing it, reading every field, and
+ * writing it back out
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchemaBenchmark {
+
+    static final String[] FIELDS = {
+        "timestamp", "sensor", "temperature", "humidity", "pressure",
+        "voltage", "current", "rssi", "battery", "uptime", "latitude",
+        "longitude", "altitude", "speed", "heading", "co2", "pm25", "noise",
+        "lux", "sequence"
+    };
+
+    static final BoxSchema TELEMETRY = new BoxSchema(FIELDS);
+
+    byte[] utf8;
+    JSonBoxParser plainParser;
+    JSonBoxParser schemaParser;
+    JSonBoxWriter writer;
+    Box plain;
+    Box shaped;
+    BoxSchema.Field[] fields;
+    ByteBuffer bytes;
+
+    @Setup
+    public void setup() throws IOException {
+        Box box = Box.newMap();
+        for (int i = 0; i < FIELDS.length; i++) {
+            box.put(FIELDS[i], i % 2 == 0 ? new Box(1267000000L + i)
+                                          : new Box(i * 0.25));
+        }
+        utf8 = box.toBytes();
+        plainParser = new JSonBoxParser();
+        schemaParser = new JSonBoxParser(TELEMETRY);
+        writer = new JSonBoxWriter();
+        plain = plainParser.parse(utf8);
+        shaped = schemaParser.parse(utf8);
+        fields = new BoxSchema.Field[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            fields[i] = TELEMETRY.field(FIELDS[i]);
+        }
+        bytes = ByteBuffer.allocate(utf8.length);
+    }
+
+    @Benchmark
+    public Box parsePlain() {
+        return plainParser.parse(utf8);
+    }
+
+    @Benchmark
+    public Box parseSchema() {
+        return schemaParser.parse(utf8);
+    }
+
+    /**
+     * Read every field of a plain map by key
+     */
+    @Benchmark
+    public int readPlain() {
+        int n = 0;
+        for (String key : FIELDS) {
+            n += plain.get(key).getType().ordinal();
+        }
+        return n;
+    }
+
+    /**
+     * Read every field of a schema box by slot
+     */
+    @Benchmark
+    public int readSchema() {
+        int n = 0;
+        for (BoxSchema.Field field : fields) {
+            n += shaped.get(field).getType().ordinal();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int writePlain() {
+        bytes.clear();
+        return writer.write(plain, bytes).position();
+    }
+
+    @Benchmark
+    public int writeSchema() {
+        bytes.clear();
+        return writer.write(shaped, bytes).position();
+    }
+}
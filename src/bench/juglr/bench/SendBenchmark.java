@@ -0,0 +1,96 @@
+package juglr.bench;
+
+import juglr.Actor;
+import juglr.Address;
+import juglr.Message;
+import juglr.MessageBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of delivering messages from {@code send} to {@code react},
+ * from outside the bus and from many actors sending to one actor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBenchmark {
+
+    static final int BATCH = 10000;
+
+    /* Sends its share of a batch to the sink when started */
+    static class Producer extends Actor {
+        final Address sink;
+        int count;
+
+        Producer(Address sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void react(Message msg) {
+            for (int i = 0; i < count; i++) {
+                send(new Message(), sink);
+            }
+        }
+    }
+
+    @Param({"1", "4", "16"})
+    public int producers;
+
+    MessageBus bus;
+    Sink sink;
+    Producer[] senders;
+
+    @Setup
+    public void setup() {
+        bus = MessageBus.getDefault();
+        sink = new Sink();
+        senders = new Producer[producers];
+        for (int i = 0; i < producers; i++) {
+            senders[i] = new Producer(sink.getAddress());
+            senders[i].count = BATCH / producers;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        bus.freeAddress(sink.getAddress());
+        for (Producer producer : senders) {
+            bus.freeAddress(producer.getAddress());
+        }
+    }
+
+    /**
+     * Messages sent from a thread outside the bus to one actor
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendReact() throws InterruptedException {
+        CountDownLatch done = sink.expect(BATCH);
+        Address address = sink.getAddress();
+        for (int i = 0; i < BATCH; i++) {
+            bus.send(new Message(), address);
+        }
+        done.await();
+    }
+
+    /**
+     * Messages sent from {@link #producers} actors to one actor
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void fanIn() throws InterruptedException {
+        CountDownLatch done = sink.expect(
+                                    senders[0].count * senders.length);
+        for (Producer producer : senders) {
+            bus.send(new Message(), producer.getAddress());
+        }
+        done.await();
+    }
+}
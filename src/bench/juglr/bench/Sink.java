@@ -0,0 +1,34 @@
+package juglr.bench;
+
+import juglr.Actor;
+import juglr.Message;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An actor counting the messages it receives, used by benchmarks to wait
+ * for a batch of messages to be delivered without polling the bus
+ */
+class Sink extends Actor {
+
+    private int remaining;
+    private CountDownLatch done;
+
+    /**
+     * Prepare to receive {@code count} messages
+     * @param count the number of messages in the next batch
+     * @return a latch released when the batch has been received
+     */
+    synchronized CountDownLatch expect(int count) {
+        remaining = count;
+        done = new CountDownLatch(1);
+        return done;
+    }
+
+    @Override
+    public void react(Message msg) {
+        if (--remaining == 0) {
+            done.countDown();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package juglr;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ForkJoinPool;
 import static java.util.concurrent.ForkJoinPool.ManagedBlocker;
@@ -49,6 +50,12 @@ import java.util.concurrent.locks.ReentrantLock;
  * helper classes for parallelizing work, namely {@link DelegatingActor} and
  * {@link MulticastActor}.
  *
+ * <h3>Failures</h3>
+ * Any exception thrown from {@link #react} or {@link #start} is passed to
+ * the {@link Supervisor} of the actor, which decides whether the actor
+ * should resume, be restarted, or be stopped. Unless configured otherwise
+ * actors are resumed.
+ *
  * @see Message
  * @see MessageBus
  */
@@ -56,6 +63,17 @@ public abstract class Actor {
 
     private MessageBus bus;
     private Address address;
+    private Mailbox mailbox;
+    Supervisor supervisor;
+    volatile ActorMetrics metrics;
+
+    /* The named addresses of the actor, maintained by the bus so it can
+     * find them without scanning its address space. Null until the first
+     * one is allocated */
+    volatile List<Address> namedAddresses;
+
+    /* Trace context of the message being handled, guarded by this */
+    private TraceContext currentTrace;
 
     /**
      * Create an actor connected to the default message bus
@@ -71,7 +89,34 @@ public abstract class Actor {
      * @param bus the message bus the actor should connect to
      */
     public Actor(MessageBus bus) {
+        this(bus, null);
+    }
+
+    /**
+     * Create an actor connected to the default message bus, queueing
+     * incoming messages in {@code mailbox}
+     * @param mailbox the mailbox to queue incoming messages in
+     * @see MessageBus#getDefault()
+     */
+    public Actor(Mailbox mailbox) {
+        this(MessageBus.getDefault(), mailbox);
+    }
+
+    /**
+     * Create an actor connected to the {@link MessageBus} {@code bus}. If
+     * {@code mailbox} is not {@code null} incoming messages will be queued
+     * in it and delivered to {@link #react} in the order determined by the
+     * mailbox. Without a mailbox messages are dispatched to the actor as
+     * they arrive, in no particular order.
+     * @param bus the message bus the actor should connect to
+     * @param mailbox the mailbox to queue incoming messages in, or
+     *                {@code null} to dispatch messages directly
+     * @see FifoMailbox
+     * @see CoalescingMailbox
+     */
+    public Actor(MessageBus bus, Mailbox mailbox) {
         this.bus = bus;
+        this.mailbox = mailbox;
         address = bus.allocateUniqueAddress(this);
     }
 
@@ -92,6 +137,38 @@ public abstract class Actor {
         return bus;
     }
 
+    /**
+     * Get the mailbox incoming messages are queued in
+     * @return the mailbox of the actor or {@code null} if messages are
+     *         dispatched directly to the actor
+     */
+    Mailbox getMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * Take over the address, mailbox, supervisor, and metrics of
+     * {@code failed}.
+     * Used by the bus when restarting actors
+     * @param failed the actor this actor replaces
+     */
+    void replace(Actor failed) {
+        address = failed.address;
+        mailbox = failed.mailbox;
+        supervisor = failed.supervisor;
+        metrics = failed.metrics;
+        namedAddresses = failed.namedAddresses;
+    }
+
+    /**
+     * Move the actor to {@code address}. Used by the bus to give virtual
+     * actors their stable address
+     * @param address the new address of the actor
+     */
+    void rebind(Address address) {
+        this.address = address;
+    }
+
     /**
      * Returns the externalized form of this actor's {@link Address}
      * @return
@@ -106,17 +183,35 @@ public abstract class Actor {
      * <p/>
      * If the reply-to field of {@code msg} is not set, this method will set
      * it to the address of {@code this}.
+     * <p/>
+     * If the actor is handling a message with a {@link TraceContext}, this
+     * method gives {@code msg} a child of that context.
      *
      * @param msg the message to send
      * @param receiver the address of the actor to send to
      * @see Message#getSender
      */
     public final void send(Message msg, Address receiver) {
+        msg = msg.forDelivery();
         msg.setSender(this.getAddress());
         if (msg.getReplyTo() == null) {
             msg.setReplyTo(this.getAddress());
         }
-        bus.send(msg, receiver);
+
+        TraceContext parent = currentTrace;
+        if (parent != null) {
+            TraceContext trace = msg.getTrace();
+            /* When the same message is sent to several recipients, like
+             * in MulticastActor, all copies share one child context.
+             * Frozen boxes are delivered as new instances, which get a
+             * child context each */
+            if (trace == null ||
+                trace.getParentSpanId() != parent.getSpanId() ||
+                trace.getTraceId() != parent.getTraceId()) {
+                msg.setTrace(parent.child());
+            }
+        }
+        bus.post(msg, receiver);
     }
 
     /**
@@ -146,7 +241,8 @@ public abstract class Actor {
                         throws InvocationTargetException, InterruptedException {
         BlockingClosure<T> closureBlocker = new BlockingClosure<T>(closure);
 
-        ForkJoinPool.managedBlock(closureBlocker, true);
+        block(closureBlocker);
+
         if (closureBlocker.getError() != null) {
             throw new InvocationTargetException(closureBlocker.getError());
         } else {
@@ -176,7 +272,47 @@ public abstract class Actor {
             }
         };
 
-        ForkJoinPool.managedBlock(blocker, true);
+        block(blocker);
+    }
+
+    /* Block cooperatively, recording the time spent in the metrics of the
+     * actor and reporting it to the interceptors of the bus */
+    private void block(ManagedBlocker blocker) throws InterruptedException {
+        ActorMetrics m = metrics;
+        Interceptor[] chain = bus.interceptors;
+        if (m == null && chain == null) {
+            ForkJoinPool.managedBlock(blocker, true);
+            return;
+        }
+
+        if (chain != null) {
+            for (Interceptor interceptor : chain) {
+                try {
+                    interceptor.beforeBlock(this);
+                } catch (Throwable t) {
+                    MessageBus.interceptorFailed(interceptor, t);
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            ForkJoinPool.managedBlock(blocker, true);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            if (m != null) {
+                m.awaited(nanos);
+            }
+            if (chain != null) {
+                for (Interceptor interceptor : chain) {
+                    try {
+                        interceptor.afterBlock(this, nanos);
+                    } catch (Throwable t) {
+                        MessageBus.interceptorFailed(interceptor, t);
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -184,17 +320,77 @@ public abstract class Actor {
      * @param msg the message to invoke react() on
      */
     void dispatchReact(Message msg) {
+        Interceptor[] chain = bus.interceptors;
         try {
             synchronized (this) {
-                react(msg);
+                if (chain != null) {
+                    beforeReact(chain, msg);
+                }
+
+                currentTrace = msg.getTrace();
+                try {
+                    ActorMetrics m = metrics;
+                    if (m == null) {
+                        react(msg);
+                    } else {
+                        dispatchMeasured(msg, m);
+                    }
+                } finally {
+                    currentTrace = null;
+                }
+
+                if (chain != null) {
+                    afterReact(chain, msg);
+                }
             }
         } catch (Throwable t) {
             /* Catch anything, since we can't trust react() and we are running
              * in a thread, so exceptions will silently vanish if uncaught */
-            System.err.println(String.format(
-             "Error caught from actor '%s' while processing the message %s: %s",
-             this, msg, t));
-            t.printStackTrace();
+            if (chain != null) {
+                onError(chain, msg, t);
+            }
+            bus.handleFailure(this, msg, t);
+        }
+    }
+
+    private void beforeReact(Interceptor[] chain, Message msg) {
+        for (Interceptor interceptor : chain) {
+            try {
+                interceptor.beforeReact(this, msg);
+            } catch (Throwable t) {
+                MessageBus.interceptorFailed(interceptor, t);
+            }
+        }
+    }
+
+    private void afterReact(Interceptor[] chain, Message msg) {
+        for (Interceptor interceptor : chain) {
+            try {
+                interceptor.afterReact(this, msg);
+            } catch (Throwable t) {
+                MessageBus.interceptorFailed(interceptor, t);
+            }
+        }
+    }
+
+    private void onError(Interceptor[] chain, Message msg, Throwable error) {
+        for (Interceptor interceptor : chain) {
+            try {
+                interceptor.onError(this, msg, error);
+            } catch (Throwable t) {
+                MessageBus.interceptorFailed(interceptor, t);
+            }
+        }
+    }
+
+    private void dispatchMeasured(Message msg, ActorMetrics m) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            react(msg);
+            success = true;
+        } finally {
+            m.processed(System.nanoTime() - start, success);
         }
     }
 
@@ -209,9 +405,7 @@ public abstract class Actor {
         } catch (Throwable t) {
             /* Catch anything, since we can't trust start() and we are running
              * in a thread, so exceptions will silently vanish if uncaught */
-            System.err.println(String.format(
-             "Error caught from actor '%s' while starting it: %s", this, t));
-            t.printStackTrace();
+            bus.handleFailure(this, null, t);
         }
     }
 
@@ -0,0 +1,33 @@
+package juglr;
+
+/**
+ * JMX management interface for the metrics of an actor. Durations are
+ * reported in microseconds.
+ *
+ * @see ActorMetrics
+ * @see MessageBus#registerMBeans(String)
+ */
+public interface ActorMXBean {
+
+    public String getAddress();
+
+    public long getReceivedCount();
+
+    public long getProcessedCount();
+
+    public long getFailedCount();
+
+    public int getMailboxDepth();
+
+    public double getProcessingTimeMean();
+
+    public long getProcessingTime50thPercentile();
+
+    public long getProcessingTime99thPercentile();
+
+    public long getProcessingTimeMax();
+
+    public long getAwaitTimeTotal();
+
+    public void reset();
+}
@@ -0,0 +1,154 @@
+package juglr;
+
+import juglr.internal.StripedCounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runtime metrics for a single actor. Metrics are opt-in per actor and
+ * enabled by calling {@link MessageBus#enableMetrics(Address)}. Actors
+ * without metrics pay nothing for the feature beyond a single field read
+ * per message.
+ * <p/>
+ * The number of received messages is updated by the sending threads in a
+ * {@link StripedCounter}, all other metrics are updated by the thread
+ * dispatching the message to the actor. No locks are taken for updating
+ * or reading the metrics.
+ * <p/>
+ * Durations are recorded in nanoseconds by the pull API in this class, and
+ * reported in microseconds through the {@link ActorMXBean} interface.
+ *
+ * @see BusMetrics
+ * @see MessageBus#registerMBeans(String)
+ */
+public class ActorMetrics implements ActorMXBean {
+
+    private final String address;
+    private final Mailbox mailbox;
+    private final StripedCounter received;
+    private final AtomicLong failed;
+    private final AtomicLong awaitNanos;
+    private final Histogram processingTimes;
+
+    ActorMetrics(Actor actor) {
+        address = actor.getAddress().externalize();
+        mailbox = actor.getMailbox();
+        received = new StripedCounter();
+        failed = new AtomicLong();
+        awaitNanos = new AtomicLong();
+        processingTimes = new Histogram();
+    }
+
+    /**
+     * Get the external form of the address of the actor
+     * @return the address of the actor
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the number of messages sent to the actor
+     * @return the number of received messages
+     */
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    /**
+     * Get the number of messages the actor has finished processing,
+     * including messages for which it threw an exception
+     * @return the number of processed messages
+     */
+    public long getProcessedCount() {
+        return processingTimes.getCount();
+    }
+
+    /**
+     * Get the number of messages for which the actor threw an exception
+     * @return the number of failed messages
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Get the number of messages queued in the mailbox of the actor
+     * @return the mailbox depth, always {@code 0} for actors without a
+     *         mailbox
+     */
+    public int getMailboxDepth() {
+        return mailbox == null ? 0 : mailbox.size();
+    }
+
+    /**
+     * Get the histogram of the time spent in {@link Actor#react},
+     * in nanoseconds
+     * @return the processing time histogram
+     */
+    public Histogram getProcessingTimes() {
+        return processingTimes;
+    }
+
+    /**
+     * Get the total time the actor has spent blocked in
+     * {@link Actor#await} and {@link Actor#awaitTimeout}, in nanoseconds
+     * @return total await time in nanoseconds
+     */
+    public long getAwaitNanos() {
+        return awaitNanos.get();
+    }
+
+    public double getProcessingTimeMean() {
+        return processingTimes.getMean() / 1000;
+    }
+
+    public long getProcessingTime50thPercentile() {
+        return processingTimes.getPercentile(50) / 1000;
+    }
+
+    public long getProcessingTime99thPercentile() {
+        return processingTimes.getPercentile(99) / 1000;
+    }
+
+    public long getProcessingTimeMax() {
+        return processingTimes.getMax() / 1000;
+    }
+
+    public long getAwaitTimeTotal() {
+        return awaitNanos.get() / 1000;
+    }
+
+    /**
+     * Reset all metrics to zero
+     */
+    public void reset() {
+        received.reset();
+        failed.set(0);
+        awaitNanos.set(0);
+        processingTimes.reset();
+    }
+
+    void received() {
+        received.increment();
+    }
+
+    void processed(long nanos, boolean success) {
+        processingTimes.record(nanos);
+        if (!success) {
+            failed.getAndIncrement();
+        }
+    }
+
+    void awaited(long nanos) {
+        awaitNanos.getAndAdd(nanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "ActorMetrics[%s, received: %s, processed: %s, failed: %s]",
+                address, getReceivedCount(), getProcessedCount(),
+                getFailedCount());
+    }
+}
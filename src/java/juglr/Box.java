@@ -1,5 +1,9 @@
 package juglr;
 
+import juglr.internal.PersistentOrderedMap;
+import juglr.internal.PersistentVector;
+import juglr.internal.SmallMap;
+
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.*;
@@ -16,6 +20,31 @@ import java.util.*;
  * bundles the classes {@link JSonBoxReader} and {@link JSonBoxParser}
  * for this purpose. 
  * <p/>
+ * Maps keep their keys in insertion order. Small maps are stored in a flat
+ * array, which is compact and fast for the handful of keys typical for
+ * messages. Use {@link #newMap(int)} and {@link #newList(int)} when the
+ * number of children is known up front.
+ * <p/>
+ * A box can be frozen with {@link #freeze()}, or built frozen with a
+ * {@link Builder}. Frozen boxes can not be modified, so the same box can be
+ * sent to any number of actors without copying its value. Each send of a
+ * frozen map or list delivers a new box instance sharing the value, as the
+ * sender, reply-to address and trace of a message are set per delivery.
+ * Frozen maps and
+ * lists are persistent collections: {@link #with(String, Box)},
+ * {@link #without(String)} and {@link #append(Box)} return new frozen
+ * boxes sharing most of their structure with the original.
+ * <p/>
+ * {@link ByteBoxParser#parseLazy(ByteBuffer)} returns lazy boxes, which keep
+ * the raw bytes of the parsed data and only decode the children that are
+ * read. A lazy box that has not been modified is written by a
+ * {@link ByteBoxWriter} of the same format as a copy of the original
+ * bytes.
+ * <p/>
+ * Maps of a fixed shape can be declared as a {@link BoxSchema}. Schema
+ * boxes store their fields in an array, read and written through
+ * {@link BoxSchema.Field} handles without any key lookup.
+ * <p/>
  *
  * @see JSonBoxReader
  * @see JSonBoxParser
@@ -34,6 +63,78 @@ public class Box extends Message implements Serializable {
         LIST
     }
 
+    /**
+     * Builds frozen boxes of {@code MAP} or {@code LIST} type. Create one
+     * with {@link Box#buildMap()} or {@link Box#buildList()}. Children
+     * that are not frozen are frozen when the box is built
+     */
+    public static class Builder {
+        private final Box box;
+
+        Builder(Box box) {
+            this.box = box;
+        }
+
+        public Builder put(String key, Box val) {
+            box.put(key, val);
+            return this;
+        }
+
+        public Builder put(String key, long val) {
+            box.put(key, val);
+            return this;
+        }
+
+        public Builder put(String key, double val) {
+            box.put(key, val);
+            return this;
+        }
+
+        public Builder put(String key, boolean val) {
+            box.put(key, val);
+            return this;
+        }
+
+        public Builder put(String key, String val) {
+            box.put(key, val);
+            return this;
+        }
+
+        public Builder add(Box val) {
+            box.add(val);
+            return this;
+        }
+
+        public Builder add(long val) {
+            box.add(val);
+            return this;
+        }
+
+        public Builder add(double val) {
+            box.add(val);
+            return this;
+        }
+
+        public Builder add(boolean val) {
+            box.add(val);
+            return this;
+        }
+
+        public Builder add(String val) {
+            box.add(val);
+            return this;
+        }
+
+        /**
+         * Create a frozen box with the children added so far. The builder
+         * can be used again afterwards
+         * @return a new frozen box
+         */
+        public Box build() {
+            return box.freeze();
+        }
+    }
+
     /**
      * Thrown when invoking methods on a box of a type that does not admit
      * the invoked method
@@ -45,6 +146,11 @@ public class Box extends Message implements Serializable {
     }
 
     private Type type;
+
+    /* Values of INT, FLOAT and BOOLEAN boxes are stored unboxed in bits, as
+     * the long itself, the raw bits of the double, or 0 and 1. Strings,
+     * lists and maps are stored in val */
+    private long bits;
     private Serializable val;
 
     /**
@@ -56,19 +162,16 @@ public class Box extends Message implements Serializable {
 
         switch (type) {
             case INT:
-                val = 0;
-                break;
             case BOOLEAN:
-                val = false;
                 break;
             case FLOAT:
-                val = 0D;
+                bits = Double.doubleToRawLongBits(0D);
                 break;
             case LIST:
                 val = new ArrayList<Box>();
                 break;
             case MAP:
-                val = new HashMap<String, Box>();
+                val = new SmallMap<String, Box>();
                 break;
             case STRING:
                 val = "";
@@ -82,7 +185,7 @@ public class Box extends Message implements Serializable {
      */
     public Box(long val) {
         type = Type.INT;
-        this.val = val;
+        bits = val;
     }
 
     /**
@@ -91,7 +194,7 @@ public class Box extends Message implements Serializable {
      */
     public Box(double val) {
         type = Type.FLOAT;
-        this.val = val;
+        bits = Double.doubleToRawLongBits(val);
     }
 
     /**
@@ -100,7 +203,7 @@ public class Box extends Message implements Serializable {
      */
     public Box(boolean val) {
         type = Type.BOOLEAN;
-        this.val = val;
+        bits = val ? 1 : 0;
     }
 
     /**
@@ -122,12 +225,46 @@ public class Box extends Message implements Serializable {
     }
 
     /**
-     * Create a Box to hold a map of string keys to Box values
+     * Create a Box to hold a map of string keys to Box values. The box
+     * keeps the iteration order of {@code val}
      * @param val the value to store in the box
      */
     public Box(Map<String, Box> val) {
-        this.type = Type.LIST;
-        this.val = new HashMap<String, Box>(val);
+        this.type = Type.MAP;
+        this.val = new SmallMap<String, Box>(val);
+    }
+
+    /* Create a box of LIST or MAP type with room for capacity children */
+    private Box(Type type, int capacity) {
+        this.type = type;
+        if (type == Type.LIST) {
+            val = new ArrayList<Box>(capacity);
+        } else {
+            val = new SmallMap<String, Box>(capacity);
+        }
+    }
+
+    /* Create a box of LIST or MAP type around a persistent, lazy or schema
+     * collection */
+    Box(Type type, Serializable val) {
+        this.type = type;
+        this.val = val;
+    }
+
+    /**
+     * Create a builder for a frozen box of {@code MAP} type
+     * @return a new builder
+     */
+    public static Builder buildMap() {
+        return new Builder(newMap());
+    }
+
+    /**
+     * Create a builder for a frozen box of {@code LIST} type
+     * @return a new builder
+     */
+    public static Builder buildList() {
+        return new Builder(newList());
     }
 
     /**
@@ -138,6 +275,16 @@ public class Box extends Message implements Serializable {
         return new Box(Type.LIST);
     }
 
+    /**
+     * Create a Box that holds an empty list with room for {@code capacity}
+     * elements
+     * @param capacity the expected number of elements
+     * @return a new box storing an empty list
+     */
+    public static Box newList(int capacity) {
+        return new Box(Type.LIST, capacity);
+    }
+
     /**
      * Create a Box that holds an empty map of string keys to Box values
      * @return a box holding an empty map
@@ -146,6 +293,16 @@ public class Box extends Message implements Serializable {
         return new Box(Type.MAP);
     }
 
+    /**
+     * Create a Box that holds an empty map of string keys to Box values,
+     * with room for {@code capacity} keys
+     * @param capacity the expected number of keys
+     * @return a box holding an empty map
+     */
+    public static Box newMap(int capacity) {
+        return new Box(Type.MAP, capacity);
+    }
+
     /**
      * Get the type of the value stored in the box
      * @return the type of the value stored in the box
@@ -188,6 +345,17 @@ public class Box extends Message implements Serializable {
         return get(key) != null;
     }
 
+    /**
+     * Check if this box of map type has a child in {@code field}
+     * @param field the field to check
+     * @return {@code true} if the field is set
+     * @throws juglr.Box.TypeException if {@code this} is not of type
+     *                                 {@code MAP}
+     */
+    public boolean has(BoxSchema.Field field) {
+        return get(field) != null;
+    }
+
     /**
      * Return {@code true} if {@code index} is within the range of the
      * list contained in this box  of {@code LIST} type
@@ -200,11 +368,23 @@ public class Box extends Message implements Serializable {
     }
 
     /**
-     * Get the raw value contained in this box
+     * Get the raw value contained in this box. Values of {@code INT},
+     * {@code FLOAT} and {@code BOOLEAN} boxes are returned as a newly
+     * boxed {@link Long}, {@link Double} or {@link Boolean}, so prefer the
+     * typed getters like {@link #getLong()} for those
      * @return the value within this box
      */
     public Serializable getVal() {
-        return val;
+        switch (type) {
+            case INT:
+                return bits;
+            case FLOAT:
+                return Double.longBitsToDouble(bits);
+            case BOOLEAN:
+                return bits != 0;
+            default:
+                return val;
+        }
     }
 
     /**
@@ -217,6 +397,7 @@ public class Box extends Message implements Serializable {
     @SuppressWarnings("unchecked")
     public Box add(Box box) {
         checkType(Type.LIST);
+        checkNotFrozen();
         ((List<Box>)val).add(box);
         return this;
     }
@@ -297,6 +478,7 @@ public class Box extends Message implements Serializable {
     @SuppressWarnings("unchecked")
     public Box addAll(Collection<Box> boxes) {
         checkType(Type.LIST);
+        checkNotFrozen();
         ((List<Box>)val).addAll(boxes);
         return this;
     }
@@ -312,10 +494,77 @@ public class Box extends Message implements Serializable {
     @SuppressWarnings("unchecked")
     public Box put(String key, Box val) {
         checkType(Type.MAP);
+        checkNotFrozen();
         ((Map<String, Box>)this.val).put(key,val);
         return this;
     }
 
+    /**
+     * Store {@code val} in {@code field} of a box of {@code MAP} type. For
+     * boxes of the schema of the field this writes the slot of the field
+     * directly, for other maps it puts {@code val} under the name of the
+     * field
+     * @param field the field to store {@code val} in
+     * @param val the Box to store
+     * @return {@code this}
+     * @throws TypeException if this box is not of type {@code MAP}
+     * @see BoxSchema
+     */
+    public Box put(BoxSchema.Field field, Box val) {
+        checkType(Type.MAP);
+        checkNotFrozen();
+        if (this.val instanceof SchemaMap) {
+            ((SchemaMap)this.val).put(field, val);
+        } else {
+            put(field.getName(), val);
+        }
+        return this;
+    }
+
+    /**
+     * Store a value in {@code field} of a box of {@code MAP} type.
+     * @param field the field to store {@code val} in
+     * @param val the value to store
+     * @return {@code this}
+     * @throws TypeException if this box is not of type {@code MAP}
+     */
+    public Box put(BoxSchema.Field field, long val) {
+        return put(field, new Box(val));
+    }
+
+    /**
+     * Store a value in {@code field} of a box of {@code MAP} type.
+     * @param field the field to store {@code val} in
+     * @param val the value to store
+     * @return {@code this}
+     * @throws TypeException if this box is not of type {@code MAP}
+     */
+    public Box put(BoxSchema.Field field, double val) {
+        return put(field, new Box(val));
+    }
+
+    /**
+     * Store a value in {@code field} of a box of {@code MAP} type.
+     * @param field the field to store {@code val} in
+     * @param val the value to store
+     * @return {@code this}
+     * @throws TypeException if this box is not of type {@code MAP}
+     */
+    public Box put(BoxSchema.Field field, boolean val) {
+        return put(field, new Box(val));
+    }
+
+    /**
+     * Store a value in {@code field} of a box of {@code MAP} type.
+     * @param field the field to store {@code val} in
+     * @param val the value to store
+     * @return {@code this}
+     * @throws TypeException if this box is not of type {@code MAP}
+     */
+    public Box put(BoxSchema.Field field, String val) {
+        return put(field, new Box(val));
+    }
+
     /**
      * Associate a value with {@code key} in box of {@code MAP} type.
      * @param key the key to associate {@code val} with
@@ -392,6 +641,7 @@ public class Box extends Message implements Serializable {
     @SuppressWarnings("unchecked")
     public Box putAll(Map<String, Box> map) {
         checkType(Type.MAP);
+        checkNotFrozen();
         ((Map<String, Box>)val).putAll(map);
         return this;
     }
@@ -401,10 +651,9 @@ public class Box extends Message implements Serializable {
      * @return the value contained in the box
      * @throws TypeException if this box is not of type {@code INT}
      */
-    @SuppressWarnings("unchecked")
     public long getLong() {
         checkType(Type.INT);
-        return (Long)val;
+        return bits;
     }
 
     public long getLong(int index) {
@@ -421,16 +670,25 @@ public class Box extends Message implements Serializable {
         return defaultVal;
     }
 
+    public long getLong(BoxSchema.Field field) {
+        return get(field).getLong();
+    }
+
+    public long getLong(BoxSchema.Field field, long defaultVal) {
+        Box val = get(field);
+        if (val != null) return val.getLong();
+        return defaultVal;
+    }
+
     /**
      * Get the {@code double} which is contained in this Box of {@code FLOAT}
      * type
      * @return the value contained in the box
      * @throws TypeException if this box is not of type {@code FLOAT}
      */
-    @SuppressWarnings("unchecked")
     public double getFloat() {
         checkType(Type.FLOAT);
-        return (Double)val;
+        return Double.longBitsToDouble(bits);
     }
 
     public double getFloat(int index) {
@@ -447,16 +705,25 @@ public class Box extends Message implements Serializable {
         return defaultVal;
     }
 
+    public double getFloat(BoxSchema.Field field) {
+        return get(field).getFloat();
+    }
+
+    public double getFloat(BoxSchema.Field field, double defaultVal) {
+        Box val = get(field);
+        if (val != null) return val.getFloat();
+        return defaultVal;
+    }
+
     /**
      * Get the {@code boolean} which is contained in this Box of {@code BOOLEAN}
      * type
      * @return the value contained in the box
      * @throws TypeException if this box is not of type {@code BOOLEAN}
      */
-    @SuppressWarnings("unchecked")
     public boolean getBoolean() {
         checkType(Type.BOOLEAN);
-        return (Boolean)val;
+        return bits != 0;
     }
 
     public boolean getBoolean(int index) {
@@ -473,6 +740,16 @@ public class Box extends Message implements Serializable {
         return defaultVal;
     }
 
+    public boolean getBoolean(BoxSchema.Field field) {
+        return get(field).getBoolean();
+    }
+
+    public boolean getBoolean(BoxSchema.Field field, boolean defaultVal) {
+        Box val = get(field);
+        if (val != null) return val.getBoolean();
+        return defaultVal;
+    }
+
     /**
      * Get the {@link String} which is contained in this Box of {@code STRING}
      * type
@@ -499,8 +776,19 @@ public class Box extends Message implements Serializable {
         return defaultVal;
     }
 
+    public String getString(BoxSchema.Field field) {
+        return get(field).getString();
+    }
+
+    public String getString(BoxSchema.Field field, String defaultVal) {
+        Box val = get(field);
+        if (val != null) return val.getString();
+        return defaultVal;
+    }
+
     /**
-     * Get the {@link List} which is contained in this Box of {@code LIST} type
+     * Get the {@link List} which is contained in this Box of {@code LIST} type.
+     * The list of a frozen box is unmodifiable
      * @return the value contained in the box
      * @throws TypeException if this box is not of type {@code LIST}
      */
@@ -524,8 +812,19 @@ public class Box extends Message implements Serializable {
         return defaultVal;
     }
 
+    public List<Box> getList(BoxSchema.Field field) {
+        return get(field).getList();
+    }
+
+    public List<Box> getList(BoxSchema.Field field, List<Box> defaultVal) {
+        Box val = get(field);
+        if (val != null) return val.getList();
+        return defaultVal;
+    }
+
     /**
-     * Get the {@link Map} which is contained in this Box of {@code MAP} type
+     * Get the {@link Map} which is contained in this Box of {@code MAP} type.
+     * The map of a frozen box is unmodifiable
      * @return the value contained in the box
      * @throws TypeException if this box is not of type {@code MAP}
      */
@@ -549,6 +848,17 @@ public class Box extends Message implements Serializable {
         return defaultVal;
     }
 
+    public Map<String,Box> getMap(BoxSchema.Field field) {
+        return get(field).getMap();
+    }
+
+    public Map<String,Box> getMap(BoxSchema.Field field,
+                                  Map<String,Box> defaultVal) {
+        Box val = get(field);
+        if (val != null) return val.getMap();
+        return defaultVal;
+    }
+
     /**
      * Get the Box at {@code index} from a Box of LIST type.
      * @param index the index into the list from which to retrieve the child
@@ -569,6 +879,22 @@ public class Box extends Message implements Serializable {
         return getMap().get(key);
     }
 
+    /**
+     * Retrieve the child Box in {@code field} from a Box of MAP type. For
+     * boxes of the schema of the field this reads the slot of the field
+     * directly, for other maps it looks up the name of the field
+     * @param field the field to look up
+     * @return the child Box or {@code null}
+     * @see BoxSchema
+     */
+    public Box get(BoxSchema.Field field) {
+        Map<String, Box> map = getMap();
+        if (map instanceof SchemaMap) {
+            return ((SchemaMap)map).get(field);
+        }
+        return map.get(field.getName());
+    }
+
     /**
      * Return the number of immediate child StructuredMessages of this Box
      * @return The number of child boxes. This will be 0 for all
@@ -585,6 +911,137 @@ public class Box extends Message implements Serializable {
         }
     }
 
+    /**
+     * Return {@code true} if the value of this box can not be modified.
+     * Boxes of simple types are always frozen, while boxes of {@code MAP}
+     * and {@code LIST} type are frozen by {@link #freeze()} or built frozen
+     * by a {@link Builder}
+     * @return whether the box is frozen
+     */
+    public boolean isFrozen() {
+        switch (type) {
+            case MAP:
+                return val instanceof PersistentOrderedMap;
+            case LIST:
+                return val instanceof PersistentVector;
+            default:
+                return true;
+        }
+    }
+
+    /* Frozen maps and lists are shared between deliveries, so each gets an
+     * instance with its own headers. Boxes of simple types are delivered as
+     * is, like any other message */
+    @Override
+    Message forDelivery() {
+        if ((type != Type.MAP && type != Type.LIST) || !isFrozen()) {
+            return this;
+        }
+        Box copy = new Box(type, val);
+        copy.copyHeaders(this);
+        return copy;
+    }
+
+    /**
+     * Get a frozen version of this box. If the box is already frozen it is
+     * returned as is, otherwise a frozen deep copy is returned. The copy
+     * shares all children that are already frozen
+     * @return a frozen box equal to this box
+     */
+    public Box freeze() {
+        if (isFrozen()) {
+            return this;
+        }
+
+        if (type == Type.LIST) {
+            List<Box> list = getList();
+            List<Box> frozen = new ArrayList<Box>(list.size());
+            for (Box child : list) {
+                frozen.add(child.freeze());
+            }
+            return new Box(Type.LIST, PersistentVector.of(frozen));
+        }
+
+        Map<String,Box> map = getMap();
+        Map<String,Box> frozen = new SmallMap<String,Box>(map.size());
+        for (Map.Entry<String,Box> entry : map.entrySet()) {
+            frozen.put(entry.getKey(), entry.getValue().freeze());
+        }
+        return new Box(Type.MAP, PersistentOrderedMap.of(frozen));
+    }
+
+    /**
+     * Get a frozen box of {@code MAP} type with the entries of this box and
+     * {@code key} associated with {@code val}. This box is left unchanged.
+     * If this box is frozen the new box shares most of its structure
+     * with it
+     * @param key the key to associate {@code val} with
+     * @param val the value to insert, frozen if it is not already
+     * @return a new frozen box
+     * @throws TypeException if this box is not of type {@code MAP}
+     */
+    public Box with(String key, Box val) {
+        return new Box(Type.MAP, frozenMap().with(key, val.freeze()));
+    }
+
+    /**
+     * Get a frozen box of {@code MAP} type with the entries of this box
+     * except {@code key}. This box is left unchanged
+     * @param key the key to remove
+     * @return a frozen box without {@code key}
+     * @throws TypeException if this box is not of type {@code MAP}
+     */
+    public Box without(String key) {
+        PersistentOrderedMap<String,Box> map = frozenMap();
+        PersistentOrderedMap<String,Box> newMap = map.without(key);
+        return newMap == val ? this : new Box(Type.MAP, newMap);
+    }
+
+    /**
+     * Get a frozen box of {@code LIST} type with the elements of this box
+     * and {@code val} appended. This box is left unchanged
+     * @param val the value to append, frozen if it is not already
+     * @return a new frozen box
+     * @throws TypeException if this box is not of type {@code LIST}
+     */
+    public Box append(Box val) {
+        return new Box(Type.LIST, frozenList().append(val.freeze()));
+    }
+
+    /**
+     * Get a frozen box of {@code LIST} type with the elements of this box
+     * and the element at {@code index} replaced by {@code val}. This box is
+     * left unchanged
+     * @param index the position to replace
+     * @param val the new value, frozen if it is not already
+     * @return a new frozen box
+     * @throws TypeException if this box is not of type {@code LIST}
+     * @throws IndexOutOfBoundsException if {@code index} is not within the
+     *                                   list
+     */
+    public Box with(int index, Box val) {
+        return new Box(Type.LIST, frozenList().with(index, val.freeze()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private PersistentOrderedMap<String,Box> frozenMap() {
+        checkType(Type.MAP);
+        return (PersistentOrderedMap<String,Box>)freeze().val;
+    }
+
+    @SuppressWarnings("unchecked")
+    private PersistentVector<Box> frozenList() {
+        checkType(Type.LIST);
+        return (PersistentVector<Box>)freeze().val;
+    }
+
+    private void checkNotFrozen() {
+        if (isFrozen()) {
+            throw new UnsupportedOperationException(
+                                       "Box is frozen: " + type);
+        }
+    }
+
     /**
      * Assert that this Box is of type {@code t} and throw a
      * {@link juglr.Box.TypeException} if it is not.
@@ -669,11 +1126,12 @@ public class Box extends Message implements Serializable {
     public String toString() {
         switch (type) {
             case INT:
+                return Long.toString(bits);
             case FLOAT:
+                return Double.toString(Double.longBitsToDouble(bits));
             case BOOLEAN:
-                return val.toString();
+                return bits != 0 ? "true" : "false";
             case STRING:
-                return "\"" + val.toString() + "\"";
             case MAP:
             case LIST:
                 return new JSonBoxReader(this).asString();
@@ -686,43 +1144,19 @@ public class Box extends Message implements Serializable {
 
     /**
      * Return a newly allocated byte array containing this box as JSON encoded
-     * in the default system encoding.
+     * in UTF-8.
      * <p/>
-     * This method is slightly faster than {@code toString().getBytes()} in that
-     * it avoids the intermediate string representation of the box.
-     * @return a JSON data encoded in the default system encoding
+     * This method is faster than {@code toString().getBytes()} in that
+     * it encodes the box directly to bytes, without the intermediate string
+     * representation of the box.
+     * @return a JSON data encoded in UTF-8
      */
     public byte[] toBytes() {
-        switch (type) {
-            case INT:
-            case FLOAT:
-                return val.toString().getBytes();
-            case BOOLEAN:
-                if ((Boolean)val) {
-                    return new byte[]{'t', 'r', 'u', 'e'};
-                } else {
-                    return new byte[]{'f', 'a', 'l', 's', 'e'};
-                }
-            case STRING:
-            case MAP:
-            case LIST:
-                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-                Writer writer = new OutputStreamWriter(bytes);
-                try {
-                    new JSonBoxWriter().write(this, writer);
-                    writer.flush();
-                    writer.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(
-                            "I/O Exception from in-memory work. " +
-                            "This should never happen");
-                }
-                return bytes.toByteArray();
-            default:
-                // This should never happen
-                throw new RuntimeException("Unexpected message type " + type);
-        }
-
-        
+        ByteBuffer buf = new JSonBoxWriter().write(
+                                               this, ByteBuffer.allocate(256));
+        byte[] bytes = new byte[buf.position()];
+        buf.flip();
+        buf.get(bytes);
+        return bytes;
     }
 }
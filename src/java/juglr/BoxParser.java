@@ -8,11 +8,12 @@ import java.io.IOException;
 /**
  * Interface for parsers cabable of parsing {@link Box} objects
  * from character streams. Note that all implementations of this interface
- * should be thread safe.
+ * should be thread safe. Parsers of bytes implement {@link ByteBoxParser}.
  *
  * @see Box
  * @see BoxReader
  * @see JSonBoxParser
+ * @see ByteBoxParser
  */
 public interface BoxParser {
 
@@ -0,0 +1,163 @@
+package juglr;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The fixed shape of a message type: an ordered list of field names. A box
+ * created by {@link #newBox()}, or parsed by a parser created with the
+ * schema, is a box of {@code MAP} type storing the values of the fields in
+ * an array, one slot per field. Accessing the fields through their
+ * {@link Field} handles, like {@link Box#getLong(BoxSchema.Field)}, reads
+ * the slot directly, without hashing or comparing the key.
+ * <p/>
+ * Schema boxes are ordinary boxes otherwise. {@link Box#get(String)} and
+ * {@link Box#getMap()} work as for any map, and keys that are not fields
+ * of the schema can be put too, at which point the box is converted to a
+ * plain map and field access falls back to looking up the field names.
+ * The entries of a schema box are ordered as the fields of the schema.
+ * <p/>
+ * The parsers resolve the keys of schema boxes to slots from the raw key
+ * data, without creating strings, and the writers write the field names
+ * pre-encoded. Declare a schema once, typically as a constant next to the
+ * fields:
+ * <pre>
+ *   static final BoxSchema READING = new BoxSchema("sensor", "time", "value");
+ *   static final BoxSchema.Field TIME = READING.field("time");
+ *   ...
+ *   BoxParser parser = new JSonBoxParser(READING);
+ *   long time = parser.parse(data).getLong(TIME);
+ * </pre>
+ *
+ * @see JSonBoxParser#JSonBoxParser(BoxSchema)
+ * @see CborBoxParser#CborBoxParser(BoxSchema)
+ */
+public final class BoxSchema {
+
+    /**
+     * A field of a schema, addressing its slot in the boxes of the schema.
+     * Obtain fields with {@link BoxSchema#field(String)}
+     */
+    public static final class Field {
+        private final BoxSchema schema;
+        private final String name;
+        private final int slot;
+
+        private Field(BoxSchema schema, String name, int slot) {
+            this.schema = schema;
+            this.name = name;
+            this.slot = slot;
+        }
+
+        /**
+         * Get the schema this field belongs to
+         * @return the schema of the field
+         */
+        public BoxSchema getSchema() {
+            return schema;
+        }
+
+        /**
+         * Get the name of the field, which is its key in boxes of
+         * {@code MAP} type
+         * @return the name of the field
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the position of the field in the schema
+         * @return the slot of the field
+         */
+        public int getSlot() {
+            return slot;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Field[] fields;
+    private final KeyTable keys;
+
+    /* The field names encoded by the writers, by slot */
+    final byte[][] jsonKeys;
+    final byte[][] cborKeys;
+
+    /**
+     * Create a schema with the given fields, in order
+     * @param names the names of the fields
+     * @throws IllegalArgumentException if a name is given more than once
+     */
+    public BoxSchema(String... names) {
+        Set<String> seen = new HashSet<String>();
+        fields = new Field[names.length];
+        jsonKeys = new byte[names.length][];
+        cborKeys = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            if (!seen.add(names[i])) {
+                throw new IllegalArgumentException(
+                                       "Duplicate field '" + names[i] + "'");
+            }
+            fields[i] = new Field(this, names[i], i);
+            jsonKeys[i] = JSonBoxWriter.encodeKey(names[i]);
+            cborKeys[i] = CborBoxWriter.encodeKey(names[i]);
+        }
+        keys = new KeyTable(names);
+    }
+
+    /**
+     * Get the number of fields in the schema
+     * @return the number of fields
+     */
+    public int size() {
+        return fields.length;
+    }
+
+    /**
+     * Get the field named {@code name}
+     * @param name the name of the field
+     * @return the field, or {@code null} if the schema has no such field
+     */
+    public Field field(String name) {
+        int slot = keys.indexOf(name);
+        return slot < 0 ? null : fields[slot];
+    }
+
+    /**
+     * Get the field in {@code slot}
+     * @param slot the position of the field
+     * @return the field
+     * @throws IndexOutOfBoundsException if {@code slot} is not a slot of
+     *                                   the schema
+     */
+    public Field field(int slot) {
+        return fields[slot];
+    }
+
+    /**
+     * Get a dictionary of the field names of the schema. Parsers created
+     * with the schema resolve the keys of its boxes with it
+     * @return the field names as a key dictionary
+     */
+    public KeyTable getKeys() {
+        return keys;
+    }
+
+    /**
+     * Create an empty box of {@code MAP} type with the fields of this
+     * schema
+     * @return a new box with no fields set
+     */
+    public Box newBox() {
+        return new Box(Box.Type.MAP, new SchemaMap(this));
+    }
+
+    /* The slot of key, or -1 if it is not a field */
+    int slot(String key) {
+        return keys.indexOf(key);
+    }
+}
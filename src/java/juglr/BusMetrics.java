@@ -0,0 +1,123 @@
+package juglr;
+
+/**
+ * Live view of the runtime metrics of a {@link MessageBus}, obtained from
+ * {@link MessageBus#getMetrics()}. All values are read when the getters are
+ * invoked and are not an atomic snapshot of the bus.
+ *
+ * @see ActorMetrics
+ * @see MessageBus#registerMBeans(String)
+ */
+public class BusMetrics implements MessageBusMXBean {
+
+    private final MessageBus bus;
+
+    BusMetrics(MessageBus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     * Get the target parallelism of the thread pool of the bus
+     * @return the number of threads the pool tries to keep active
+     */
+    public int getParallelism() {
+        return bus.pool.getParallelism();
+    }
+
+    /**
+     * Get the number of threads in the pool, including idle and blocked
+     * threads
+     * @return the size of the thread pool
+     */
+    public int getPoolSize() {
+        return bus.pool.getPoolSize();
+    }
+
+    /**
+     * Get the number of threads currently processing tasks
+     * @return the number of active threads
+     */
+    public int getActiveThreadCount() {
+        return bus.pool.getActiveThreadCount();
+    }
+
+    /**
+     * Get the number of threads that are not blocked waiting to join tasks
+     * or in {@link Actor#await}
+     * @return the number of running threads
+     */
+    public int getRunningThreadCount() {
+        return bus.pool.getRunningThreadCount();
+    }
+
+    /**
+     * Get the number of tasks stolen by one pool thread from the queue of
+     * another
+     * @return the total steal count
+     */
+    public long getStealCount() {
+        return bus.pool.getStealCount();
+    }
+
+    /**
+     * Get the number of tasks queued in the pool. Messages queued in
+     * mailboxes are not included
+     * @return the number of queued tasks
+     */
+    public long getQueuedTaskCount() {
+        return bus.pool.getQueuedTaskCount();
+    }
+
+    /**
+     * Get the number of live actors on the bus, including active virtual
+     * actors
+     * @return the number of live actors
+     */
+    public int getActorCount() {
+        return bus.getActorCount();
+    }
+
+    /**
+     * Get the number of messages and start requests sent on the bus
+     * @return the number of sent messages
+     */
+    public long getSentCount() {
+        return bus.sent.sum();
+    }
+
+    /**
+     * Get the number of messages and start requests that have been
+     * processed
+     * @return the number of completed messages
+     */
+    public long getCompletedCount() {
+        return bus.completed.sum();
+    }
+
+    /**
+     * Get the number of messages sent but not yet processed
+     * @return the number of pending messages
+     */
+    public long getPendingCount() {
+        long completed = bus.completed.sum();
+        return Math.max(0, bus.sent.sum() - completed);
+    }
+
+    /**
+     * Get the number of dead letters counted by the current
+     * {@link DeadLetterOffice} of the bus
+     * @return the number of dead letters
+     */
+    public long getDeadLetterCount() {
+        return bus.getDeadLetterOffice().getTotalCount();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "BusMetrics[actors: %s, sent: %s, pending: %s, " +
+                "parallelism: %s, active: %s, steals: %s]",
+                getActorCount(), getSentCount(), getPendingCount(),
+                getParallelism(), getActiveThreadCount(), getStealCount());
+    }
+}
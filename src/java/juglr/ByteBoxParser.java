@@ -0,0 +1,58 @@
+package juglr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for parsers capable of parsing {@link Box} objects from bytes
+ * in the encoding of their format, such as UTF-8 encoded JSON or CBOR.
+ * This is separate from {@link BoxParser}, which parses characters, so
+ * binary formats need not implement character parsing and existing
+ * {@code BoxParser}s are not affected. Note that all implementations of
+ * this interface should be thread safe.
+ *
+ * @see JSonBoxParser
+ * @see CborBoxParser
+ */
+public interface ByteBoxParser {
+
+    /**
+     * Parse the bytes of one document read from {@code in}
+     * @param in the stream to parse
+     * @return the parsed box, or {@code null} if the stream is empty
+     * @throws IOException if there is an error reading from {@code in}
+     */
+    public Box parse(InputStream in) throws IOException;
+
+    /**
+     * Parse the bytes between the position and the limit of {@code in},
+     * advancing the position of the buffer to its limit
+     * @param in the buffer to parse
+     * @return the parsed box, or {@code null} if the buffer is empty
+     */
+    public Box parse(ByteBuffer in);
+
+    /**
+     * Parse the bytes of {@code in}
+     * @param in the bytes to parse
+     * @return the parsed box, or {@code null} if the array is empty
+     */
+    public Box parse(byte[] in);
+
+    /**
+     * Check the syntax of the bytes between the position and the limit of
+     * {@code in} and return a lazy box over them. The children of objects
+     * and arrays are decoded the first time they are read, so a box that is
+     * mostly forwarded costs little more than the syntax check. When a lazy
+     * box that has not been modified is written in the same format, the
+     * original bytes are copied verbatim.
+     * <p/>
+     * The box refers to the array of a heap buffer, which must not be
+     * modified while the box is in use. Other buffers are copied. The
+     * position of the buffer is advanced to its limit
+     * @param in the buffer to parse
+     * @return the parsed box, or {@code null} if the buffer is empty
+     */
+    public Box parseLazy(ByteBuffer in);
+}
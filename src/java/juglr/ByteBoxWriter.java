@@ -0,0 +1,26 @@
+package juglr;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for writers serializing {@link Box} objects as bytes in the
+ * encoding of their format, such as UTF-8 encoded JSON or CBOR. This is
+ * separate from {@link BoxWriter}, which writes characters, so binary
+ * formats need not implement character output and existing
+ * {@code BoxWriter}s are not affected.
+ *
+ * @see JSonBoxWriter
+ * @see CborBoxWriter
+ */
+public interface ByteBoxWriter {
+
+    /**
+     * Write {@code box} in the byte encoding of the format into {@code out},
+     * starting at the position of the buffer. Writers replace {@code out}
+     * with a larger buffer when it runs full
+     * @param box the box to write
+     * @param out the buffer to write to
+     * @return the buffer holding the written data, positioned just after it
+     */
+    public ByteBuffer write(Box box, ByteBuffer out);
+}
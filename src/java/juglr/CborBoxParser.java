@@ -0,0 +1,571 @@
+package juglr;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Parse {@link Box}es from CBOR data, as written by {@link CborBoxWriter}
+ * or any other CBOR encoder. Note that all methods on this class are
+ * thread safe.
+ * <p/>
+ * Integers, floats in half, single or double precision, booleans, text
+ * strings, arrays and maps with text keys are supported, with definite or
+ * indefinite lengths. Tags are ignored, leaving the tagged value. Byte
+ * strings, {@code null} and {@code undefined} have no {@code Box}
+ * representation and are rejected, as is any data after the first data
+ * item. Errors are reported as {@link MessageFormatException}s.
+ * <p/>
+ * CBOR is a binary format, so this is a {@link ByteBoxParser} only, and
+ * does not parse strings or readers.
+ *
+ * @see CborBoxWriter
+ * @see JSonBoxParser
+ */
+public class CborBoxParser implements ByteBoxParser {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int BREAK = 0xFF;
+
+    private final KeyTable keyTable;
+    private final BoxSchema schema;
+    private final LazyFormat lazyFormat;
+
+    /**
+     * Create a parser sharing the keys of parsed maps through the
+     * {@link KeyTable#getDefault() default key table}
+     */
+    public CborBoxParser() {
+        this(KeyTable.getDefault());
+    }
+
+    /**
+     * Create a parser sharing the keys of parsed maps through
+     * {@code keyTable}, for instance a dictionary of the keys of the
+     * messages it parses
+     * @param keyTable the table to resolve keys with
+     */
+    public CborBoxParser(KeyTable keyTable) {
+        this(keyTable, null);
+    }
+
+    /**
+     * Create a parser returning top level maps as boxes of {@code schema}.
+     * The keys of such maps are resolved to the slots of the schema
+     * straight from the input, while nested maps are parsed as plain maps.
+     * Lazy parsing does not use the schema
+     * @param schema the schema of the parsed data
+     */
+    public CborBoxParser(BoxSchema schema) {
+        this(KeyTable.getDefault(), schema);
+    }
+
+    private CborBoxParser(KeyTable keyTable, BoxSchema schema) {
+        this.keyTable = keyTable;
+        this.schema = schema;
+        lazyFormat = new LazyFormat(keyTable);
+    }
+
+    /**
+     * Parse a CBOR file into a {@code Box}
+     * @param in the file to parse
+     * @return returns a {@link Box} representing the first data item in the
+     *         file, or {@code null} in case the file is empty
+     */
+    public Box parse(File in) throws IOException {
+        InputStream stream = new FileInputStream(in);
+        try {
+            return parse(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Read {@code in} to its end and parse the data into a {@code Box}
+     * @param in the stream to parse
+     * @return returns a {@link Box} representing the data item in the
+     *         stream, or {@code null} in case the stream is empty
+     */
+    public Box parse(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) >= 0) {
+            bytes.write(buf, 0, read);
+        }
+        return parse(bytes.toByteArray());
+    }
+
+    /**
+     * Parse the CBOR data item between the position and the limit of
+     * {@code in} into a {@code Box}. The position of the buffer is advanced
+     * to its limit
+     * @param in the buffer to parse
+     * @return returns a {@link Box} representing the data item, or
+     *         {@code null} in case the buffer is empty
+     */
+    public Box parse(ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            return null;
+        }
+
+        try {
+            Box box = parseItem(in, 0, keyTable, schema);
+            if (in.hasRemaining()) {
+                throw error("Unexpected data after the CBOR value",
+                            in, in.position());
+            }
+            return box;
+        } catch (BufferUnderflowException e) {
+            throw error("Unexpected end of data", in, in.limit());
+        }
+    }
+
+    /**
+     * Parse a CBOR byte array into a {@code Box}
+     * @param in the bytes to parse
+     * @return returns a {@link Box} representing the data item, or
+     *         {@code null} in case the array is empty
+     */
+    public Box parse(byte[] in) {
+        return parse(ByteBuffer.wrap(in));
+    }
+
+    /**
+     * Check the syntax of the CBOR data item between the position and the
+     * limit of {@code in} and return a lazy box over it. Elements of arrays
+     * and maps are decoded when they are first read, and duplicate keys
+     * are detected when a map is first read. The box refers to the array
+     * of a heap buffer, which must not be modified while the box is in
+     * use. The position of the buffer is advanced to its limit
+     * @param in the buffer to parse
+     * @return returns a lazy {@link Box} representing the data item, or
+     *         {@code null} in case the buffer is empty
+     */
+    public Box parseLazy(ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            return null;
+        }
+
+        byte[] data;
+        int start;
+        if (in.hasArray()) {
+            data = in.array();
+            start = in.arrayOffset() + in.position();
+        } else {
+            data = new byte[in.remaining()];
+            in.duplicate().get(data);
+            start = 0;
+        }
+        int end = start + in.remaining();
+        in.position(in.limit());
+
+        ByteBuffer buf = ByteBuffer.wrap(data, start, end - start);
+        try {
+            skipItem(buf, 0);
+            if (buf.hasRemaining()) {
+                throw error("Unexpected data after the CBOR value",
+                            buf, buf.position());
+            }
+        } catch (BufferUnderflowException e) {
+            throw error("Unexpected end of data", buf, end);
+        }
+        return lazyFormat.decode(data, start, end);
+    }
+
+    /* Parse the item at the position of in. A map is built as a box of
+     * schema, unless it is null */
+    private static Box parseItem(ByteBuffer in, int depth,
+                                 KeyTable keyTable, BoxSchema schema) {
+        int start = in.position();
+        int initial = in.get() & 0xFF;
+        int major = initial >>> 5;
+        int info = initial & 0x1F;
+
+        switch (major) {
+            case CborBoxWriter.MAJOR_UNSIGNED:
+                long n = readArgument(info, in);
+                if (n < 0) {
+                    // Beyond the range of a long
+                    return new Box(unsignedToDouble(n));
+                }
+                return new Box(n);
+            case CborBoxWriter.MAJOR_NEGATIVE:
+                n = readArgument(info, in);
+                if (n < 0) {
+                    return new Box(-1 - unsignedToDouble(n));
+                }
+                return new Box(~n);
+            case CborBoxWriter.MAJOR_TEXT:
+                return new Box(readText(info, in));
+            case CborBoxWriter.MAJOR_ARRAY:
+                checkDepth(depth, in, start);
+                if (info == 31) {
+                    Box list = Box.newList();
+                    while (!readBreak(in)) {
+                        list.add(parseItem(in, depth + 1, keyTable, null));
+                    }
+                    return list;
+                }
+                int count = readCount(info, in, 1);
+                Box list = Box.newList(count);
+                for (int i = 0; i < count; i++) {
+                    list.add(parseItem(in, depth + 1, keyTable, null));
+                }
+                return list;
+            case CborBoxWriter.MAJOR_MAP:
+                checkDepth(depth, in, start);
+                boolean indefinite = info == 31;
+                count = indefinite ? -1 : readCount(info, in, 2);
+                Box map = schema != null ? schema.newBox() :
+                          indefinite ? Box.newMap() : Box.newMap(count);
+                KeyTable keys = schema != null ? schema.getKeys() : keyTable;
+                for (int i = 0; indefinite ? !readBreak(in) : i < count; i++) {
+                    int keyStart = in.position();
+                    int keyInitial = in.get() & 0xFF;
+                    if (keyInitial >>> 5 != CborBoxWriter.MAJOR_TEXT) {
+                        throw error("Map keys must be text strings",
+                                    in, keyStart);
+                    }
+                    String key = readKey(keyInitial & 0x1F, in, keys);
+                    int size = map.size();
+                    map.put(key, parseItem(in, depth + 1, keyTable, null));
+                    if (map.size() == size) {
+                        throw error("Duplicate key '" + key + "'",
+                                    in, keyStart);
+                    }
+                }
+                return map;
+            case CborBoxWriter.MAJOR_TAG:
+                checkDepth(depth, in, start);
+                readArgument(info, in);
+                return parseItem(in, depth + 1, keyTable, schema);
+            case CborBoxWriter.MAJOR_SIMPLE:
+                switch (initial) {
+                    case CborBoxWriter.FALSE:
+                        return new Box(false);
+                    case CborBoxWriter.TRUE:
+                        return new Box(true);
+                    case CborBoxWriter.HALF:
+                        return new Box(halfToDouble(
+                                           (int)readBigEndian(2, in)));
+                    case CborBoxWriter.SINGLE:
+                        return new Box(Float.intBitsToFloat(
+                                           (int)readBigEndian(4, in)));
+                    case CborBoxWriter.DOUBLE:
+                        return new Box(Double.longBitsToDouble(
+                                           readBigEndian(8, in)));
+                    case 0xF6:
+                        throw error("Null values are not supported",
+                                    in, start);
+                    case BREAK:
+                        throw error("Unexpected break", in, start);
+                    default:
+                        throw error("Unsupported simple value " + info,
+                                    in, start);
+                }
+            default:
+                throw error("Byte strings are not supported", in, start);
+        }
+    }
+
+    /* Move past a data item, checking its syntax without building any
+     * boxes */
+    private static void skipItem(ByteBuffer in, int depth) {
+        int start = in.position();
+        int initial = in.get() & 0xFF;
+        int major = initial >>> 5;
+        int info = initial & 0x1F;
+
+        switch (major) {
+            case CborBoxWriter.MAJOR_UNSIGNED:
+            case CborBoxWriter.MAJOR_NEGATIVE:
+                readArgument(info, in);
+                return;
+            case CborBoxWriter.MAJOR_TEXT:
+                skipText(info, in);
+                return;
+            case CborBoxWriter.MAJOR_ARRAY:
+                checkDepth(depth, in, start);
+                boolean indefinite = info == 31;
+                int count = indefinite ? -1 : readCount(info, in, 1);
+                for (int i = 0; indefinite ? !readBreak(in) : i < count; i++) {
+                    skipItem(in, depth + 1);
+                }
+                return;
+            case CborBoxWriter.MAJOR_MAP:
+                checkDepth(depth, in, start);
+                indefinite = info == 31;
+                count = indefinite ? -1 : readCount(info, in, 2);
+                for (int i = 0; indefinite ? !readBreak(in) : i < count; i++) {
+                    int keyStart = in.position();
+                    int keyInitial = in.get() & 0xFF;
+                    if (keyInitial >>> 5 != CborBoxWriter.MAJOR_TEXT) {
+                        throw error("Map keys must be text strings",
+                                    in, keyStart);
+                    }
+                    skipText(keyInitial & 0x1F, in);
+                    skipItem(in, depth + 1);
+                }
+                return;
+            case CborBoxWriter.MAJOR_TAG:
+                checkDepth(depth, in, start);
+                readArgument(info, in);
+                skipItem(in, depth + 1);
+                return;
+            case CborBoxWriter.MAJOR_SIMPLE:
+                switch (initial) {
+                    case CborBoxWriter.FALSE:
+                    case CborBoxWriter.TRUE:
+                        return;
+                    case CborBoxWriter.HALF:
+                        readBigEndian(2, in);
+                        return;
+                    case CborBoxWriter.SINGLE:
+                        readBigEndian(4, in);
+                        return;
+                    case CborBoxWriter.DOUBLE:
+                        readBigEndian(8, in);
+                        return;
+                    case 0xF6:
+                        throw error("Null values are not supported",
+                                    in, start);
+                    case BREAK:
+                        throw error("Unexpected break", in, start);
+                    default:
+                        throw error("Unsupported simple value " + info,
+                                    in, start);
+                }
+            default:
+                throw error("Byte strings are not supported", in, start);
+        }
+    }
+
+    private static void skipText(int info, ByteBuffer in) {
+        if (info != 31) {
+            int length = readCount(info, in, 1);
+            in.position(in.position() + length);
+            return;
+        }
+
+        while (!readBreak(in)) {
+            int start = in.position();
+            int initial = in.get() & 0xFF;
+            if (initial >>> 5 != CborBoxWriter.MAJOR_TEXT ||
+                (initial & 0x1F) == 31) {
+                throw error("Illegal chunk in text string", in, start);
+            }
+            int length = readCount(initial & 0x1F, in, 1);
+            in.position(in.position() + length);
+        }
+    }
+
+    /* Read the argument of a data item from the bytes following the
+     * initial byte. Arguments above Long.MAX_VALUE come out negative */
+    private static long readArgument(int info, ByteBuffer in) {
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return readBigEndian(1, in);
+            case 25:
+                return readBigEndian(2, in);
+            case 26:
+                return readBigEndian(4, in);
+            case 27:
+                return readBigEndian(8, in);
+            default:
+                throw error("Illegal additional information " + info,
+                            in, in.position() - 1);
+        }
+    }
+
+    /* Read the number of elements of an array or map, where each element
+     * takes at least minBytes bytes */
+    private static int readCount(int info, ByteBuffer in, int minBytes) {
+        int start = in.position() - 1;
+        long count = readArgument(info, in);
+        if (count < 0 || count > in.remaining() / minBytes) {
+            throw error("Length " + count + " exceeds the data", in, start);
+        }
+        return (int)count;
+    }
+
+    /* Read a map key, sharing it through keyTable. Short ASCII keys in
+     * heap buffers are resolved without allocating */
+    private static String readKey(int info, ByteBuffer in,
+                                  KeyTable keyTable) {
+        if (info == 31 || !in.hasArray()) {
+            return keyTable.intern(readText(info, in));
+        }
+
+        int length = readCount(info, in, 1);
+        byte[] array = in.array();
+        int start = in.arrayOffset() + in.position();
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            if (array[i] < 0) {
+                return keyTable.intern(decode(length, in));
+            }
+            hash = 31 * hash + array[i];
+        }
+        in.position(in.position() + length);
+        return keyTable.intern(array, start, start + length, hash);
+    }
+
+    private static String readText(int info, ByteBuffer in) {
+        if (info != 31) {
+            return decode(readCount(info, in, 1), in);
+        }
+
+        // Indefinite length, a sequence of definite length chunks
+        StringBuilder buf = new StringBuilder();
+        while (!readBreak(in)) {
+            int start = in.position();
+            int initial = in.get() & 0xFF;
+            if (initial >>> 5 != CborBoxWriter.MAJOR_TEXT ||
+                (initial & 0x1F) == 31) {
+                throw error("Illegal chunk in text string", in, start);
+            }
+            buf.append(decode(readCount(initial & 0x1F, in, 1), in));
+        }
+        return buf.toString();
+    }
+
+    private static String decode(int length, ByteBuffer in) {
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(),
+                           length, UTF8);
+            in.position(in.position() + length);
+        } else {
+            byte[] utf8 = new byte[length];
+            in.get(utf8);
+            s = new String(utf8, UTF8);
+        }
+        return s;
+    }
+
+    /* Consume the break ending an indefinite length item, if it is next */
+    private static boolean readBreak(ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            throw new BufferUnderflowException();
+        } else if ((in.get(in.position()) & 0xFF) == BREAK) {
+            in.get();
+            return true;
+        }
+        return false;
+    }
+
+    private static long readBigEndian(int bytes, ByteBuffer in) {
+        long val = 0;
+        for (int i = 0; i < bytes; i++) {
+            val = (val << 8) | (in.get() & 0xFF);
+        }
+        return val;
+    }
+
+    private static void checkDepth(int depth, ByteBuffer in, int start) {
+        if (depth >= JSonBoxParser.MAX_DEPTH) {
+            throw error("Nesting deeper than " + JSonBoxParser.MAX_DEPTH,
+                        in, start);
+        }
+    }
+
+    private static double unsignedToDouble(long n) {
+        return (double)(n >>> 1) * 2.0 + (n & 1);
+    }
+
+    private static double halfToDouble(int half) {
+        int exp = (half >> 10) & 0x1F;
+        int mant = half & 0x3FF;
+        double val;
+        if (exp == 0) {
+            val = mant * Math.pow(2, -24);
+        } else if (exp == 31) {
+            val = mant == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        } else {
+            val = (mant + 1024) * Math.pow(2, exp - 25);
+        }
+        return (half & 0x8000) != 0 ? -val : val;
+    }
+
+    private static MessageFormatException error(String msg, ByteBuffer in,
+                                                int at) {
+        in.position(in.limit());
+        return new MessageFormatException(
+                "Syntax error reading CBOR data: " + msg + " at byte " + at);
+    }
+
+    /* Lazy boxes over CBOR. Tags in front of an array or map are kept in
+     * its raw bytes */
+    static final class LazyFormat implements LazyData.Format {
+        private final KeyTable keyTable;
+
+        LazyFormat(KeyTable keyTable) {
+            this.keyTable = keyTable;
+        }
+
+        public int[] index(byte[] data, int start, int end,
+                           Map<String,Integer> keys) {
+            ByteBuffer in = ByteBuffer.wrap(data, start, end - start);
+            int initial = skipTags(in);
+            boolean map = initial >>> 5 == CborBoxWriter.MAJOR_MAP;
+            int info = initial & 0x1F;
+            boolean indefinite = info == 31;
+            int count = indefinite ? -1 : (int)readArgument(info, in);
+
+            int[] offsets = new int[indefinite ? 16 : 2 * count];
+            int n = 0;
+            for (int i = 0; indefinite ? !readBreak(in) : i < count; i++) {
+                if (map) {
+                    int keyStart = in.position();
+                    String key = readKey(in.get() & 0x1F, in, keyTable);
+                    if (keys.put(key, i) != null) {
+                        throw error("Duplicate key '" + key + "'",
+                                    in, keyStart);
+                    }
+                }
+
+                if (n == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, n * 2);
+                }
+                offsets[n++] = in.position();
+                skipItem(in, 0);
+                offsets[n++] = in.position();
+            }
+            return n == offsets.length ? offsets : Arrays.copyOf(offsets, n);
+        }
+
+        public Box decode(byte[] data, int start, int end) {
+            ByteBuffer in = ByteBuffer.wrap(data, start, end - start);
+            int major = skipTags(in) >>> 5;
+            if (major == CborBoxWriter.MAJOR_MAP) {
+                return new Box(Box.Type.MAP, new LazyMap(
+                                    new LazyData(this, data, start, end)));
+            } else if (major == CborBoxWriter.MAJOR_ARRAY) {
+                return new Box(Box.Type.LIST, new LazyList(
+                                    new LazyData(this, data, start, end)));
+            }
+
+            in.position(start);
+            return parseItem(in, 0, keyTable, null);
+        }
+
+        /* Read the initial byte of the first data item that is not a tag */
+        private static int skipTags(ByteBuffer in) {
+            int initial = in.get() & 0xFF;
+            while (initial >>> 5 == CborBoxWriter.MAJOR_TAG) {
+                readArgument(initial & 0x1F, in);
+                initial = in.get() & 0xFF;
+            }
+            return initial;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package juglr;
+
+import static juglr.internal.Buffers.ensure;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialize {@link Box}es in the Concise Binary Object Representation,
+ * CBOR, as specified in
+ * <a href="http://tools.ietf.org/html/rfc7049">RFC 7049</a>. CBOR is a
+ * compact binary counterpart to JSON: integers are stored in 1 to 9 bytes
+ * depending on their magnitude, floats as raw IEEE 754 values, and strings,
+ * lists and maps are prefixed with their length, so a reader can skip over
+ * values without scanning them.
+ * <p/>
+ * Floats are written in single precision when that represents the value
+ * exactly, and in double precision otherwise. Lists and maps are always
+ * written with definite lengths. Lazy boxes parsed from CBOR that have
+ * not been modified are copied as they are, see
+ * {@link ByteBoxParser#parseLazy(ByteBuffer)}, and the keys of
+ * {@link BoxSchema} boxes are copied pre-encoded. The writer has no state
+ * and is thread safe.
+ *
+ * @see CborBoxParser
+ * @see JSonBoxWriter
+ */
+public class CborBoxWriter implements ByteBoxWriter {
+
+    /**
+     * The media type of CBOR data
+     */
+    public static final String MEDIA_TYPE = "application/cbor";
+
+    static final int MAJOR_UNSIGNED = 0;
+    static final int MAJOR_NEGATIVE = 1;
+    static final int MAJOR_BYTES = 2;
+    static final int MAJOR_TEXT = 3;
+    static final int MAJOR_ARRAY = 4;
+    static final int MAJOR_MAP = 5;
+    static final int MAJOR_TAG = 6;
+    static final int MAJOR_SIMPLE = 7;
+
+    static final int FALSE = 0xF4;
+    static final int TRUE = 0xF5;
+    static final int HALF = 0xF9;
+    static final int SINGLE = 0xFA;
+    static final int DOUBLE = 0xFB;
+
+    /**
+     * Write {@code box} as CBOR into {@code out}, starting at the position
+     * of the buffer. If {@code out} runs full the data written so far is
+     * moved to a new, larger, buffer of the same kind, which is returned
+     * instead of {@code out}
+     * @param box the box to write
+     * @param out the buffer to write to
+     * @return the buffer holding the written data, positioned just after it.
+     *         This is {@code out} unless it was too small
+     */
+    public ByteBuffer write(Box box, ByteBuffer out) {
+        // Unmodified lazy boxes parsed from CBOR are copied as they are
+        LazyData raw = LazyData.of(box);
+        if (raw != null &&
+            raw.format instanceof CborBoxParser.LazyFormat &&
+            raw.isPristine()) {
+            return raw.copyTo(out);
+        }
+
+        switch (box.getType()) {
+            case INT:
+                long l = box.getLong();
+                if (l >= 0) {
+                    return writeHead(MAJOR_UNSIGNED, l, out);
+                }
+                // -1 - l without overflow for Long.MIN_VALUE
+                return writeHead(MAJOR_NEGATIVE, ~l, out);
+            case BOOLEAN:
+                return ensure(out, 1).put(
+                             (byte)(box.getBoolean() ? TRUE : FALSE));
+            case FLOAT:
+                double d = box.getFloat();
+                float f = (float)d;
+                if (f == d || d != d) {
+                    out = ensure(out, 5).put((byte)SINGLE);
+                    return putBigEndian(Float.floatToIntBits(f), 4, out);
+                }
+                out = ensure(out, 9).put((byte)DOUBLE);
+                return putBigEndian(Double.doubleToLongBits(d), 8, out);
+            case STRING:
+                return writeString(box.getString(), out);
+            case LIST:
+                List<Box> list = box.getList();
+                out = writeHead(MAJOR_ARRAY, list.size(), out);
+                for (Box child : list) {
+                    out = write(child, out);
+                }
+                return out;
+            case MAP:
+                SchemaMap shaped = SchemaMap.of(box);
+                if (shaped != null) {
+                    return writeShaped(shaped, out);
+                }
+
+                Map<String,Box> map = box.getMap();
+                out = writeHead(MAJOR_MAP, map.size(), out);
+                for (Map.Entry<String,Box> entry : map.entrySet()) {
+                    out = writeString(entry.getKey(), out);
+                    out = write(entry.getValue(), out);
+                }
+                return out;
+            default:
+                // This should never happen
+                throw new RuntimeException("Unexpected box type "
+                                           + box.getType());
+        }
+    }
+
+    /* Write the fields of a schema box in slot order, copying the encoded
+     * keys of the schema */
+    private ByteBuffer writeShaped(SchemaMap map, ByteBuffer out) {
+        byte[][] keys = map.schema.cborKeys;
+        out = writeHead(MAJOR_MAP, map.size(), out);
+        for (int i = 0; i < keys.length; i++) {
+            Box child = map.slot(i);
+            if (child != null) {
+                out = ensure(out, keys[i].length).put(keys[i]);
+                out = write(child, out);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Encode {@code key} as a CBOR text string, as it is written before
+     * the value of a map entry
+     * @param key the key to encode
+     * @return the encoded key
+     */
+    static byte[] encodeKey(String key) {
+        ByteBuffer buf = writeString(key, ByteBuffer.allocate(16));
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /* Write the initial byte of a data item and its argument, in as few
+     * bytes as possible. The argument is unsigned */
+    private static ByteBuffer writeHead(int major, long arg, ByteBuffer out) {
+        out = ensure(out, 9);
+        int type = major << 5;
+        if (arg >= 0 && arg < 24) {
+            out.put((byte)(type | arg));
+        } else if (arg >= 0 && arg <= 0xFF) {
+            putBigEndian(arg, 1, out.put((byte)(type | 24)));
+        } else if (arg >= 0 && arg <= 0xFFFF) {
+            putBigEndian(arg, 2, out.put((byte)(type | 25)));
+        } else if (arg >= 0 && arg <= 0xFFFFFFFFL) {
+            putBigEndian(arg, 4, out.put((byte)(type | 26)));
+        } else {
+            putBigEndian(arg, 8, out.put((byte)(type | 27)));
+        }
+        return out;
+    }
+
+    /* CBOR is big endian regardless of the byte order of the buffer */
+    private static ByteBuffer putBigEndian(long val, int bytes,
+                                           ByteBuffer out) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            out.put((byte)(val >>> shift));
+        }
+        return out;
+    }
+
+    private static ByteBuffer writeString(String s, ByteBuffer out) {
+        int len = s.length();
+        int utf8 = utf8Length(s);
+        out = writeHead(MAJOR_TEXT, utf8, out);
+        out = ensure(out, utf8);
+
+        if (utf8 == len) {
+            for (int i = 0; i < len; i++) {
+                out.put((byte)s.charAt(i));
+            }
+            return out;
+        }
+
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte)c);
+            } else if (c < 0x800) {
+                out.put((byte)(0xC0 | (c >> 6)))
+                   .put((byte)(0x80 | (c & 0x3F)));
+            } else if (isSurrogatePair(s, i)) {
+                int code = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte)(0xF0 | (code >> 18)))
+                   .put((byte)(0x80 | ((code >> 12) & 0x3F)))
+                   .put((byte)(0x80 | ((code >> 6) & 0x3F)))
+                   .put((byte)(0x80 | (code & 0x3F)));
+            } else if (c >= Character.MIN_SURROGATE &&
+                       c <= Character.MAX_SURROGATE) {
+                // Unpaired surrogate, replace it like the JDK encoders do
+                out.put((byte)'?');
+            } else {
+                out.put((byte)(0xE0 | (c >> 12)))
+                   .put((byte)(0x80 | ((c >> 6) & 0x3F)))
+                   .put((byte)(0x80 | (c & 0x3F)));
+            }
+        }
+        return out;
+    }
+
+    /* The number of bytes in the UTF-8 encoding of s written above */
+    private static int utf8Length(String s) {
+        int len = s.length();
+        int bytes = len;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                bytes += 1;
+            } else if (isSurrogatePair(s, i)) {
+                // Four bytes for the two chars
+                bytes += 2;
+                i++;
+            } else if (c < Character.MIN_SURROGATE ||
+                       c > Character.MAX_SURROGATE) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    private static boolean isSurrogatePair(String s, int i) {
+        char c = s.charAt(i);
+        return c >= Character.MIN_HIGH_SURROGATE &&
+               c <= Character.MAX_HIGH_SURROGATE &&
+               i + 1 < s.length() &&
+               Character.isLowSurrogate(s.charAt(i + 1));
+    }
+}
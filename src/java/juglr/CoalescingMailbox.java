@@ -0,0 +1,134 @@
+package juglr;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link Mailbox} that only keeps the latest message for any given key.
+ * When a message is put in the mailbox and a message with the same key is
+ * already queued, the new message replaces the queued one, but keeps its
+ * position in the queue. Messages are otherwise delivered in the order
+ * they were sent.
+ * <p/>
+ * This is useful for actors consuming streams of state updates, like price
+ * ticks or configuration changes, where only the most recent value for a
+ * key is relevant. A slow consumer will never process stale updates and
+ * the size of the mailbox is bounded by the number of distinct keys.
+ * <p/>
+ * Messages for which the {@link KeyFunction} returns {@code null} are never
+ * coalesced.
+ *
+ * @see FifoMailbox
+ */
+public class CoalescingMailbox extends Mailbox {
+
+    /**
+     * Extracts the coalescing key from a message
+     */
+    public static interface KeyFunction {
+
+        /**
+         * Get the key of {@code msg}. Queued messages with equal keys
+         * are coalesced
+         * @param msg the message to get the key for
+         * @return the key of the message or {@code null} if the message
+         *         should never be coalesced
+         */
+        public Object key(Message msg);
+    }
+
+    /**
+     * Uses the value of a given field in {@link Box} messages of
+     * {@code MAP} type as key
+     */
+    public static class BoxFieldKey implements KeyFunction {
+
+        private String field;
+
+        public BoxFieldKey(String field) {
+            this.field = field;
+        }
+
+        public Object key(Message msg) {
+            if (!(msg instanceof Box)) {
+                return null;
+            }
+
+            Box box = (Box)msg;
+            if (box.getType() != Box.Type.MAP) {
+                return null;
+            }
+
+            Box key = box.get(field);
+            if (key == null) {
+                return null;
+            }
+
+            switch (key.getType()) {
+                case MAP:
+                case LIST:
+                    return key.toString();
+                default:
+                    return key.getVal();
+            }
+        }
+    }
+
+    private final KeyFunction keyFunction;
+    private final LinkedHashMap<Object,Message> queue;
+
+    /**
+     * Create a mailbox coalescing {@link Box} messages on the value of
+     * the field {@code field}
+     * @param field the name of the field to use as coalescing key
+     */
+    public CoalescingMailbox(String field) {
+        this(new BoxFieldKey(field));
+    }
+
+    /**
+     * Create a mailbox coalescing messages on the keys returned by
+     * {@code keyFunction}
+     * @param keyFunction the function extracting the coalescing keys
+     */
+    public CoalescingMailbox(KeyFunction keyFunction) {
+        this.keyFunction = keyFunction;
+        queue = new LinkedHashMap<Object,Message>();
+    }
+
+    @Override
+    public boolean put(Message msg) {
+        Object key = keyFunction.key(msg);
+        if (key == null) {
+            // A unique key object guarantees that msg is never replaced
+            key = new Object();
+        }
+
+        synchronized (queue) {
+            return queue.put(key, msg) == null;
+        }
+    }
+
+    @Override
+    public Message poll() {
+        synchronized (queue) {
+            Iterator<Map.Entry<Object,Message>> iter =
+                                                  queue.entrySet().iterator();
+            if (!iter.hasNext()) {
+                return null;
+            }
+
+            Message msg = iter.next().getValue();
+            iter.remove();
+            return msg;
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+}
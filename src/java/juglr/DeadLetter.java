@@ -0,0 +1,92 @@
+package juglr;
+
+/**
+ * Wraps a message that could not be delivered. Dead letters are sent to the
+ * {@link DeadLetterOffice} of the bus, living at the address
+ * {@link MessageBus#DEAD_LETTERS}.
+ *
+ * @see DeadLetterOffice
+ */
+public class DeadLetter extends Message {
+
+    /**
+     * The reasons a message can end up as a dead letter
+     */
+    public enum Reason {
+        /**
+         * No actor owns the recipient address, it has never been allocated
+         * or it has been freed
+         */
+        NO_RECIPIENT,
+
+        /**
+         * The strategy of a {@link DelegatingActor} did not select a
+         * delegate for the message
+         */
+        NO_DELEGATE,
+
+        /**
+         * The recipient was stopped by its {@link Supervisor} before the
+         * message could be delivered
+         */
+        RECIPIENT_STOPPED,
+
+        /**
+         * The message bus has been shut down
+         */
+        BUS_SHUTDOWN,
+
+        /**
+         * An {@link Interceptor} rejected the message when it was sent
+         */
+        REJECTED
+    }
+
+    private Message message;
+    private Address recipient;
+    private Reason reason;
+
+    /**
+     * Create a dead letter for {@code message}
+     * @param message the message that could not be delivered
+     * @param recipient the address the message was sent to
+     * @param reason the reason the message could not be delivered
+     */
+    public DeadLetter(Message message, Address recipient, Reason reason) {
+        this.message = message;
+        this.recipient = recipient;
+        this.reason = reason;
+    }
+
+    /**
+     * Get the message that could not be delivered. The sender of the message
+     * is available from {@code getMessage().getSender()}
+     * @return the undelivered message
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the address the message was sent to
+     * @return the intended recipient of the message
+     */
+    public Address getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * Get the reason the message could not be delivered
+     * @return the reason code of the dead letter
+     */
+    public Reason getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DeadLetter[%s, recipient: '%s', sender: '%s', " +
+                             "message: %s]", reason, recipient,
+                             message.getSender(), message);
+    }
+}
@@ -0,0 +1,168 @@
+package juglr;
+
+import juglr.internal.StripedCounter;
+
+/**
+ * Receives the messages on a {@link MessageBus} that could not be
+ * delivered, wrapped in {@link DeadLetter}s. Every bus has a dead-letter
+ * office living at the address {@link MessageBus#DEAD_LETTERS}.
+ * <p/>
+ * The office keeps a count of the dead letters for each
+ * {@link DeadLetter.Reason}. The counts are updated by the bus as the
+ * messages are found undeliverable, so they are exact even if the office
+ * itself is backlogged.
+ * <p/>
+ * Dead letters are logged to {@code System.err}, but for each reason at
+ * most one dead letter is logged per log interval. The number of dead
+ * letters suppressed in between is included in the next log line. This way
+ * a storm of misrouted messages does not flood the log.
+ * <p/>
+ * To handle dead letters differently, subclass this class, override
+ * {@link #deadLetter(DeadLetter)}, and install the new office with
+ * {@link MessageBus#setDeadLetterOffice(DeadLetterOffice)}.
+ *
+ * @see DeadLetter
+ */
+public class DeadLetterOffice extends Actor {
+
+    /**
+     * Default minimum number of milliseconds between two log lines for the
+     * same reason
+     */
+    public static final long DEFAULT_LOG_INTERVAL = 1000;
+
+    private final StripedCounter[] counts;
+    private volatile long logInterval;
+
+    /* Guarded by this */
+    private final long[] nextLog;
+    private final long[] suppressed;
+
+    /**
+     * Create a dead-letter office for {@code bus}
+     * @param bus the message bus the office should connect to
+     */
+    public DeadLetterOffice(MessageBus bus) {
+        this(bus, null);
+    }
+
+    /**
+     * Create a dead-letter office for {@code bus} queueing the dead letters
+     * in {@code mailbox}, like any other actor with a mailbox. Dead letters
+     * are only handled in the thread producing them when the bus is shut
+     * down
+     * @param bus the message bus the office should connect to
+     * @param mailbox the mailbox to queue dead letters in, or {@code null}
+     *                to dispatch them directly
+     */
+    public DeadLetterOffice(MessageBus bus, Mailbox mailbox) {
+        super(bus, mailbox);
+        int numReasons = DeadLetter.Reason.values().length;
+        counts = new StripedCounter[numReasons];
+        for (int i = 0; i < numReasons; i++) {
+            counts[i] = new StripedCounter();
+        }
+        nextLog = new long[numReasons];
+        suppressed = new long[numReasons];
+        logInterval = DEFAULT_LOG_INTERVAL;
+    }
+
+    /**
+     * Get the number of dead letters with a given reason
+     * @param reason the reason to get the count for
+     * @return the number of dead letters with {@code reason}
+     */
+    public long getCount(DeadLetter.Reason reason) {
+        return counts[reason.ordinal()].sum();
+    }
+
+    /**
+     * Get the total number of dead letters
+     * @return the number of dead letters for all reasons
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (StripedCounter count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Set the minimum number of milliseconds between two log lines for the
+     * same reason. An interval of {@code 0} logs all dead letters and a
+     * negative interval disables logging
+     * @param logInterval the log interval in milliseconds
+     */
+    public void setLogInterval(long logInterval) {
+        this.logInterval = logInterval;
+    }
+
+    /**
+     * Get the minimum number of milliseconds between two log lines for the
+     * same reason
+     * @return the log interval in milliseconds
+     */
+    public long getLogInterval() {
+        return logInterval;
+    }
+
+    /**
+     * Passes incoming {@link DeadLetter}s to {@link #deadLetter}. Other
+     * messages are ignored
+     * @param msg the incoming message
+     */
+    @Override
+    public void react(Message msg) {
+        if (msg instanceof DeadLetter) {
+            deadLetter((DeadLetter)msg);
+        }
+    }
+
+    /**
+     * Handle a dead letter. The default implementation logs a sample of the
+     * dead letters. This method is invoked from a context synchronized on
+     * the office.
+     * @param letter the dead letter
+     */
+    protected void deadLetter(DeadLetter letter) {
+        long interval = logInterval;
+        if (interval < 0) {
+            return;
+        }
+
+        int reason = letter.getReason().ordinal();
+        long now = System.currentTimeMillis();
+        if (now < nextLog[reason]) {
+            suppressed[reason]++;
+            return;
+        }
+
+        if (suppressed[reason] > 0) {
+            System.err.println(String.format(
+                    "%s (%s similar dead letters suppressed)",
+                    letter, suppressed[reason]));
+        } else {
+            System.err.println(letter);
+        }
+        suppressed[reason] = 0;
+        nextLog[reason] = now + interval;
+    }
+
+    /* Called by the bus for all dead letters, delivered or not */
+    void count(DeadLetter.Reason reason) {
+        counts[reason.ordinal()].increment();
+    }
+
+    /* Handle a dead letter in the calling thread, when the bus can not
+     * deliver it */
+    void dispatchDirect(DeadLetter letter) {
+        try {
+            synchronized (this) {
+                deadLetter(letter);
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+}
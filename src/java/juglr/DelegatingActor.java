@@ -18,7 +18,8 @@ public class DelegatingActor extends Actor {
          * Select the recipient for {@code msg}
          * @param msg the message to look up a recipient for
          * @return the address to send {@code msg} to. If {@code null}
-         *         is returned the message will be silently dropped
+         *         is returned the message will be sent to the
+         *         {@link DeadLetterOffice} of the bus
          */
         public Address recipient(Message msg);
 
@@ -140,6 +141,8 @@ public class DelegatingActor extends Actor {
         Address delegate = strategy.recipient(msg);
 
         if (delegate == null) {
+            getBus().deadLetter(
+                           msg, getAddress(), DeadLetter.Reason.NO_DELEGATE);
             return;
         }
 
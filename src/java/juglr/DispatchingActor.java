@@ -0,0 +1,281 @@
+package juglr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Base class for actors dispatching incoming messages to handlers registered
+ * per message class, instead of implementing {@link #react} as a chain of
+ * {@code instanceof} checks. Handlers are typically registered in the
+ * constructor of the actor:
+ * <pre>
+ * public class Calculator extends DispatchingActor {
+ *     public Calculator() {
+ *         on(HTTPRequest.class, new Handler&lt;HTTPRequest&gt;() {
+ *             public void handle(HTTPRequest req) { ... }
+ *         });
+ *         on(Box.class, new Handler&lt;Box&gt;() {
+ *             public void handle(Box box) { ... }
+ *         });
+ *     }
+ * }
+ * </pre>
+ * A message is dispatched to the handler registered for the most specific
+ * class or interface the message is an instance of. The mapping from message
+ * classes to handlers is resolved once per actor class and message class and
+ * then shared between all instances of the actor class registering the same
+ * message classes in the same order.
+ * <p/>
+ * {@link Box} messages of {@code MAP} type can also be dispatched on the
+ * value of a discriminator field, see {@link #discriminate(String)} and
+ * {@link #on(String, Handler)}. Discriminator handlers take precedence over
+ * class handlers.
+ * <p/>
+ * Messages with no matching handler are passed to {@link #unhandled}.
+ */
+public abstract class DispatchingActor extends Actor {
+
+    /**
+     * Callback handling messages of type {@code T}
+     */
+    public static interface Handler<T extends Message> {
+
+        /**
+         * Handle an incoming message. This method is invoked from within
+         * {@link Actor#react} and the same rules apply
+         * @param msg the incoming message
+         */
+        public void handle(T msg);
+    }
+
+    /**
+     * Maps message classes to handler slots. Shared by all instances of an
+     * actor class registering the same message classes in the same order
+     */
+    static class DispatchTable {
+
+        /* Sentinel slot for message classes with no handler */
+        static final Integer NO_SLOT = -1;
+
+        final Class<?>[] types;
+        final ConcurrentMap<Class<?>,Integer> slots;
+
+        DispatchTable(Class<?>[] types) {
+            this.types = types;
+            slots = new ConcurrentHashMap<Class<?>,Integer>();
+        }
+
+        int slot(Class<?> msgClass) {
+            Integer slot = slots.get(msgClass);
+            if (slot == null) {
+                slot = resolve(msgClass);
+                slots.putIfAbsent(msgClass, slot);
+            }
+            return slot;
+        }
+
+        /* Find the most specific registered type msgClass is assignable to */
+        private Integer resolve(Class<?> msgClass) {
+            int best = -1;
+            for (int i = 0; i < types.length; i++) {
+                if (types[i].isAssignableFrom(msgClass) &&
+                    (best == -1 || types[best].isAssignableFrom(types[i]))) {
+                    best = i;
+                }
+            }
+            return best == -1 ? NO_SLOT : best;
+        }
+    }
+
+    private static final ConcurrentMap<Class<?>,DispatchTable> tables =
+                               new ConcurrentHashMap<Class<?>,DispatchTable>();
+
+    private List<Class<?>> pendingTypes;
+    private List<Handler<?>> pendingHandlers;
+    private DispatchTable table;
+    private Handler<?>[] handlers;
+
+    private String discriminator;
+    private Map<String,Handler<Box>> boxHandlers;
+
+    /**
+     * Create a dispatching actor connected to the default message bus
+     */
+    public DispatchingActor() {
+        super();
+        init();
+    }
+
+    /**
+     * Create a dispatching actor connected to {@code bus}
+     * @param bus the message bus the actor should connect to
+     */
+    public DispatchingActor(MessageBus bus) {
+        super(bus);
+        init();
+    }
+
+    /**
+     * Create a dispatching actor connected to {@code bus} queueing incoming
+     * messages in {@code mailbox}
+     * @param bus the message bus the actor should connect to
+     * @param mailbox the mailbox to queue incoming messages in, or
+     *                {@code null} to dispatch messages directly
+     */
+    public DispatchingActor(MessageBus bus, Mailbox mailbox) {
+        super(bus, mailbox);
+        init();
+    }
+
+    private void init() {
+        pendingTypes = new ArrayList<Class<?>>();
+        pendingHandlers = new ArrayList<Handler<?>>();
+    }
+
+    /**
+     * Register {@code handler} for all messages that are instances of
+     * {@code type}. Registering a handler for a type that already has a
+     * handler replaces the old handler.
+     * @param type the message class or interface to handle
+     * @param handler the handler to invoke for messages of type {@code type}
+     * @return always returns {@code this}
+     * @throws IllegalStateException if the actor has already received
+     *                               messages
+     */
+    protected <T extends Message> DispatchingActor on(
+                                   Class<T> type, Handler<? super T> handler) {
+        checkNotSealed();
+        int idx = pendingTypes.indexOf(type);
+        if (idx >= 0) {
+            pendingHandlers.set(idx, handler);
+        } else {
+            pendingTypes.add(type);
+            pendingHandlers.add(handler);
+        }
+        return this;
+    }
+
+    /**
+     * Dispatch {@link Box} messages of {@code MAP} type on the value of
+     * the field {@code field}. Handlers for the individual values are
+     * registered with {@link #on(String, Handler)}.
+     * @param field the name of the discriminator field
+     * @return always returns {@code this}
+     */
+    protected DispatchingActor discriminate(String field) {
+        checkNotSealed();
+        discriminator = field;
+        if (boxHandlers == null) {
+            boxHandlers = new HashMap<String,Handler<Box>>();
+        }
+        return this;
+    }
+
+    /**
+     * Register {@code handler} for {@link Box} messages where the
+     * discriminator field has the value {@code value}. Non-string values are
+     * matched by their JSON representation.
+     * @param value the discriminator value to handle
+     * @param handler the handler to invoke for matching boxes
+     * @return always returns {@code this}
+     * @throws IllegalStateException if no discriminator field has been set
+     *                               or the actor has already received
+     *                               messages
+     * @see #discriminate(String)
+     */
+    protected DispatchingActor on(String value, Handler<Box> handler) {
+        checkNotSealed();
+        if (discriminator == null) {
+            throw new IllegalStateException("No discriminator field set");
+        }
+        boxHandlers.put(value, handler);
+        return this;
+    }
+
+    /**
+     * Dispatch {@code msg} to the matching handler
+     * @param msg the incoming message
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public final void react(Message msg) {
+        if (table == null) {
+            seal();
+        }
+
+        if (discriminator != null && msg instanceof Box) {
+            Handler<Box> h = boxHandler((Box)msg);
+            if (h != null) {
+                h.handle((Box)msg);
+                return;
+            }
+        }
+
+        int slot = table.slot(msg.getClass());
+        if (slot < 0) {
+            unhandled(msg);
+            return;
+        }
+        ((Handler<Message>)handlers[slot]).handle(msg);
+    }
+
+    /**
+     * Invoked for messages with no matching handler. The default
+     * implementation throws a {@link MessageFormatException}.
+     * @param msg the unhandled message
+     */
+    protected void unhandled(Message msg) {
+        throw new MessageFormatException(String.format(
+                "No handler for message of type %s in actor %s",
+                msg.getClass().getName(), this));
+    }
+
+    private Handler<Box> boxHandler(Box box) {
+        if (box.getType() != Box.Type.MAP) {
+            return null;
+        }
+
+        Box value = box.get(discriminator);
+        if (value == null) {
+            return null;
+        } else if (value.getType() == Box.Type.STRING) {
+            return boxHandlers.get(value.getString());
+        } else {
+            return boxHandlers.get(value.toString());
+        }
+    }
+
+    /* Freeze the registered handlers and look up the shared table */
+    private void seal() {
+        Class<?>[] types = pendingTypes.toArray(
+                                             new Class<?>[pendingTypes.size()]);
+        DispatchTable shared = tables.get(getClass());
+        if (shared == null) {
+            DispatchTable t = new DispatchTable(types);
+            shared = tables.putIfAbsent(getClass(), t);
+            if (shared == null) {
+                shared = t;
+            }
+        }
+
+        // Instances registering different types can not share the table
+        table = Arrays.equals(shared.types, types) ?
+                                               shared : new DispatchTable(types);
+        handlers = pendingHandlers.toArray(
+                                       new Handler<?>[pendingHandlers.size()]);
+        pendingTypes = null;
+        pendingHandlers = null;
+    }
+
+    private void checkNotSealed() {
+        if (table != null) {
+            throw new IllegalStateException(
+                        "Handlers must be registered before receiving messages");
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package juglr;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock free {@link Mailbox} delivering messages in the order they
+ * were sent.
+ *
+ * @see CoalescingMailbox
+ */
+public class FifoMailbox extends Mailbox {
+
+    private final ConcurrentLinkedQueue<Message> queue;
+    private final AtomicInteger size;
+
+    public FifoMailbox() {
+        queue = new ConcurrentLinkedQueue<Message>();
+        size = new AtomicInteger(0);
+    }
+
+    @Override
+    public boolean put(Message msg) {
+        queue.offer(msg);
+        size.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public Message poll() {
+        Message msg = queue.poll();
+        if (msg != null) {
+            size.decrementAndGet();
+        }
+        return msg;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+}
@@ -0,0 +1,150 @@
+package juglr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non-negative {@code long} values, typically
+ * durations in nanoseconds. Values are counted in buckets that are
+ * logarithmically spaced with eight linear sub-buckets per power of two,
+ * so percentiles are reported with a relative error of at most 12.5%
+ * using a fixed amount of memory.
+ * <p/>
+ * Values can be recorded concurrently from many threads. Reading a
+ * percentile while values are being recorded gives an approximate result.
+ *
+ * @see ActorMetrics
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public Histogram() {
+        buckets = new AtomicLongArray(NUM_BUCKETS);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Record a value in the histogram. Negative values are recorded as
+     * {@code 0}
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        buckets.getAndIncrement(bucket(value));
+        count.getAndIncrement();
+        sum.getAndAdd(value);
+
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Get the number of recorded values
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the sum of all recorded values
+     * @return the sum of the recorded values
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Get the largest recorded value
+     * @return the largest value or {@code 0} if no values have been recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the mean of the recorded values
+     * @return the mean or {@code 0} if no values have been recorded
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double)sum.get() / n;
+    }
+
+    /**
+     * Get an upper bound for the value below which {@code percentile}
+     * percent of the recorded values fall
+     * @param percentile the percentile to get, between 0 and 100
+     * @return the value at the percentile or {@code 0} if no values have
+     *         been recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long)Math.ceil(total * Math.min(percentile, 100) / 100);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clear all recorded values. This is not atomic with respect to
+     * concurrent updates
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exp - SUB_BITS);
+        long upper = ((SUB_BUCKETS + sub) << (exp - SUB_BITS)) + width - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
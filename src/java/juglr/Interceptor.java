@@ -0,0 +1,103 @@
+package juglr;
+
+/**
+ * Hooks invoked by a {@link MessageBus} around sending messages,
+ * dispatching them to actors, and actors blocking. Interceptors are the
+ * extension point for cross cutting concerns like tracing, metrics,
+ * authorization, and sampling, without having to subclass every actor.
+ * <p/>
+ * Interceptors are registered with {@link MessageBus#addInterceptor} and
+ * invoked in the order they where added. They are invoked from many
+ * threads concurrently and must be thread safe. The react hooks are invoked
+ * in the same context synchronized on the actor as {@link Actor#react}.
+ * <p/>
+ * Exceptions thrown from interceptors are logged and otherwise ignored. A
+ * bus without interceptors pays only for a single field read per message.
+ * <p/>
+ * Implementations only interested in some of the hooks can extend
+ * {@link Adapter}.
+ *
+ * @see MessageBus#addInterceptor(Interceptor)
+ */
+public interface Interceptor {
+
+    /**
+     * Invoked before {@code msg} is sent to {@code recipient}, from the
+     * sending thread. The sender of the message has already been set.
+     * @param msg the message being sent
+     * @param recipient the address the message is sent to
+     * @return {@code true} to send the message, {@code false} to reject it,
+     *         in which case it is passed to the {@link DeadLetterOffice}
+     *         with reason {@link DeadLetter.Reason#REJECTED}
+     */
+    public boolean beforeSend(Message msg, Address recipient);
+
+    /**
+     * Invoked before {@code msg} is passed to {@link Actor#react}
+     * @param actor the receiving actor
+     * @param msg the message
+     */
+    public void beforeReact(Actor actor, Message msg);
+
+    /**
+     * Invoked after {@link Actor#react} returns normally
+     * @param actor the receiving actor
+     * @param msg the message
+     */
+    public void afterReact(Actor actor, Message msg);
+
+    /**
+     * Invoked when {@link Actor#react} throws, before the error is passed to
+     * the {@link Supervisor} of the actor
+     * @param actor the receiving actor
+     * @param msg the message
+     * @param error the error thrown by the actor
+     */
+    public void onError(Actor actor, Message msg, Throwable error);
+
+    /**
+     * Invoked when an actor is about to block in {@link Actor#await} or
+     * {@link Actor#awaitTimeout}
+     * @param actor the actor that is about to block
+     */
+    public void beforeBlock(Actor actor);
+
+    /**
+     * Invoked when an actor returns from blocking in {@link Actor#await} or
+     * {@link Actor#awaitTimeout}
+     * @param actor the actor that was blocked
+     * @param nanos the number of nanoseconds the actor was blocked
+     */
+    public void afterBlock(Actor actor, long nanos);
+
+    /**
+     * An interceptor doing nothing and accepting all messages. Subclasses
+     * override the hooks they need
+     */
+    public static class Adapter implements Interceptor {
+
+        public boolean beforeSend(Message msg, Address recipient) {
+            return true;
+        }
+
+        public void beforeReact(Actor actor, Message msg) {
+
+        }
+
+        public void afterReact(Actor actor, Message msg) {
+
+        }
+
+        public void onError(Actor actor, Message msg, Throwable error) {
+
+        }
+
+        public void beforeBlock(Actor actor) {
+
+        }
+
+        public void afterBlock(Actor actor, long nanos) {
+
+        }
+    }
+}
@@ -1,22 +1,73 @@
 package juglr;
 
-import juglr.internal.org.json.JSONTokener;
-import juglr.internal.org.json.JSONObject;
-import juglr.internal.org.json.JSONException;
-import juglr.internal.org.json.JSONArray;
-
 import java.io.*;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
 
 /**
  * Helper class for parsing strings, readers, or files into {@link Box}
  * instanses. Note that all methods on this class are thread safe.
+ * <p/>
+ * The parser is a single pass recursive descent parser building the
+ * {@link Box} tree directly from the characters of the input, without any
+ * intermediate document model. Byte input is parsed as UTF-8 without
+ * decoding it to characters first, only the contents of strings are
+ * decoded. Keys of JSON objects keep the order in which
+ * they appear in the input. The parser accepts standard JSON as described
+ * in RFC 4627, except {@code null} values, which have no {@code Box}
+ * representation. Syntax errors are reported as
+ * {@link MessageFormatException}s with the position of the error.
  *
  * @see BoxReader
  * @see JSonBoxReader
  * @see Box
  */
-public class JSonBoxParser implements BoxParser {
+public class JSonBoxParser implements BoxParser, ByteBoxParser {
+
+    /**
+     * The maximum nesting depth of objects and arrays in a document
+     */
+    public static final int MAX_DEPTH = 512;
+
+    private final KeyTable keyTable;
+    private final BoxSchema schema;
+    private final LazyFormat lazyFormat;
+
+    /**
+     * Create a parser sharing the keys of parsed maps through the
+     * {@link KeyTable#getDefault() default key table}
+     */
+    public JSonBoxParser() {
+        this(KeyTable.getDefault());
+    }
+
+    /**
+     * Create a parser sharing the keys of parsed maps through
+     * {@code keyTable}, for instance a dictionary of the keys of the
+     * messages it parses
+     * @param keyTable the table to resolve keys with
+     */
+    public JSonBoxParser(KeyTable keyTable) {
+        this(keyTable, null);
+    }
+
+    /**
+     * Create a parser returning the top level objects of documents as
+     * boxes of {@code schema}. The keys of such objects are resolved to the
+     * slots of the schema straight from the input, while nested objects
+     * are parsed as plain maps. Lazy parsing does not use the schema
+     * @param schema the schema of the parsed documents
+     */
+    public JSonBoxParser(BoxSchema schema) {
+        this(KeyTable.getDefault(), schema);
+    }
+
+    private JSonBoxParser(KeyTable keyTable, BoxSchema schema) {
+        this.keyTable = keyTable;
+        this.schema = schema;
+        lazyFormat = new LazyFormat(keyTable);
+    }
 
     /**
      * Parse a JSON formatted string into a {@code Box}
@@ -26,7 +77,7 @@ public class JSonBoxParser implements BoxParser {
      */
     public Box parse (String in) {
         try {
-            return parse(new StringReader(in));
+            return new CharParser(in, keyTable, schema).parseDocument();
         } catch (IOException e) {
             // This should never happen!
             throw new RuntimeException("Unexpected error reading string '"
@@ -35,19 +86,15 @@ public class JSonBoxParser implements BoxParser {
     }
 
     /**
-     * Parse a JSON formatted stream into a {@code Box}
+     * Parse a JSON formatted stream into a {@code Box}. Reading stops at
+     * the end of the JSON value, so the stream may stay open after it, as
+     * the body of a network request does
      * @param in the stream to parse
      * @return returns a {@link Box} representing the JSON document, or
      *         {@code null} in case the stream is empty
      */
     public Box parse (Reader in) throws IOException {
-         try {
-            return realParse(in);
-        } catch (JSONException e) {
-            throw new MessageFormatException("Syntax error reading JSON data "
-                                             + "from stream:"
-                                             + e.getMessage(), e);
-        }
+        return new CharParser(in, "stream", keyTable, schema).parseDocument();
     }
 
     /**
@@ -59,69 +106,896 @@ public class JSonBoxParser implements BoxParser {
     public Box parse (File jsonFile) throws IOException {
         Reader r = new FileReader(jsonFile);
         try {
-            return realParse(r);
-        } catch (JSONException e) {
-            throw new MessageFormatException("Syntax error reading JSON data "
-                                             + "from " + jsonFile + ": "
-                                             + e.getMessage(), e);
+            return new CharParser(r, jsonFile.toString(), keyTable,
+                                  schema).parseDocument();
+        } finally {
+            r.close();
         }
     }
 
     /**
-     * Parse a JSON formatted stream into a {@code Box}
+     * Parse a UTF-8 encoded JSON stream into a {@code Box}. Reading stops
+     * at the end of the JSON value, so the stream may stay open after it,
+     * as the body of a network request does
      * @param in the stream to parse
      * @return returns a {@link Box} representing the JSOn document, or
      *         {@code null} in case the stream is empty
      */
     public Box parse(InputStream in) throws IOException {
-        return parse(new InputStreamReader(in));
+        return new ByteParser(in, keyTable, schema).parseDocument();
+    }
+
+    /**
+     * Parse the UTF-8 encoded JSON data between the position and the limit
+     * of {@code in} into a {@code Box}. The position of the buffer is
+     * advanced to its limit
+     * @param in the buffer to parse
+     * @return returns a {@link Box} representing the JSON document, or
+     *         {@code null} in case the buffer is empty
+     */
+    public Box parse(ByteBuffer in) {
+        try {
+            return new ByteParser(in, keyTable, schema).parseDocument();
+        } catch (IOException e) {
+            // This should never happen!
+            throw new RuntimeException("Unexpected error reading buffer: "
+                                       + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse a UTF-8 encoded JSON byte array into a {@code Box}
+     * @param in the bytes to parse
+     * @return returns a {@link Box} representing the JSON document, or
+     *         {@code null} in case the array is empty
+     */
+    public Box parse(byte[] in) {
+        return parse(ByteBuffer.wrap(in));
+    }
+
+    /**
+     * Check the syntax of the UTF-8 encoded JSON data between the position
+     * and the limit of {@code in} and return a lazy box over it. Members of
+     * objects and elements of arrays are decoded when they are first read,
+     * and duplicate keys are detected when an object is first read. The
+     * box refers to the array of a heap buffer, which must not be modified
+     * while the box is in use. The position of the buffer is advanced to
+     * its limit
+     * @param in the buffer to parse
+     * @return returns a lazy {@link Box} representing the JSON document, or
+     *         {@code null} in case the buffer is empty
+     */
+    public Box parseLazy(ByteBuffer in) {
+        if (!in.hasArray()) {
+            byte[] copy = new byte[in.remaining()];
+            in.get(copy);
+            in = ByteBuffer.wrap(copy);
+        }
+
+        try {
+            return new ByteParser(in, keyTable, null)
+                                       .parseLazyDocument(lazyFormat);
+        } catch (IOException e) {
+            // This should never happen!
+            throw new RuntimeException("Unexpected error reading buffer: "
+                                       + e.getMessage(), e);
+        }
+    }
+
+    /* The state of parsing a single document. The grammar is shared by
+     * the character and byte parsers, which differ in how they buffer the
+     * input and decode strings */
+    private static abstract class Parser {
+        static final int BLOCK_SIZE = 4096;
+
+        final String source;
+        final String unit;
+        final KeyTable keyTable;
+        final BoxSchema schema;
+        int pos;
+        int limit;
+        int offset; // Number of units consumed before the buffer
+        int depth;
+        StringBuilder sb;
+
+        Parser(String source, String unit, KeyTable keyTable,
+               BoxSchema schema) {
+            this.source = source;
+            this.unit = unit;
+            this.keyTable = keyTable;
+            this.schema = schema;
+        }
+
+        /* Parse the string starting at pos, just after the opening quote */
+        abstract String parseString() throws IOException;
+
+        /* Parse the object key starting at pos, just after the opening
+         * quote, resolving it through keys */
+        abstract String parseKey(KeyTable keys) throws IOException;
+
+        /* Return the character or byte at pos without consuming it, or -1
+         * at the end of the input */
+        abstract int peek() throws IOException;
+
+        /* Whether the input is a stream, which may never end */
+        abstract boolean isStream();
+
+        Box parseDocument() throws IOException {
+            if (skipWhitespace() < 0) {
+                return null;
+            }
+
+            // Waiting for the end of a stream could block forever, so only
+            // input of known length is checked for trailing data
+            Box box = parseValue();
+            if (!isStream() && skipWhitespace() >= 0) {
+                throw error("Unexpected data after the JSON value");
+            }
+            return box;
+        }
+
+        private Box parseValue() throws IOException {
+            int c = skipWhitespace();
+            switch (c) {
+                case '{':
+                    return parseObject();
+                case '[':
+                    return parseArray();
+                case '"':
+                    pos++;
+                    return new Box(parseString());
+                case 't':
+                    expectWord("true");
+                    return new Box(true);
+                case 'f':
+                    expectWord("false");
+                    return new Box(false);
+                case 'n':
+                    expectWord("null");
+                    throw error("Null values are not supported");
+                case -1:
+                    throw error("Unexpected end of data");
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return parseNumber();
+                    }
+                    throw error("Unexpected character '" + (char)c + "'");
+            }
+        }
+
+        private Box parseObject() throws IOException {
+            enter();
+            pos++;
+            // The top level object of a schema is built in slots, with its
+            // keys resolved by the dictionary of the schema
+            boolean shaped = schema != null && depth == 1;
+            Box box = shaped ? schema.newBox() : Box.newMap();
+            KeyTable keys = shaped ? schema.getKeys() : keyTable;
+            int c = skipWhitespace();
+            if (c == '}') {
+                pos++;
+                depth--;
+                return box;
+            }
+
+            while (true) {
+                if (c != '"') {
+                    throw error("Expected a string key");
+                }
+                pos++;
+                String key = parseKey(keys);
+                if (skipWhitespace() != ':') {
+                    throw error("Expected a ':' after the key '" + key + "'");
+                }
+                pos++;
+
+                int size = box.size();
+                box.put(key, parseValue());
+                if (box.size() == size) {
+                    throw error("Duplicate key '" + key + "'");
+                }
+
+                c = skipWhitespace();
+                pos++;
+                if (c == '}') {
+                    depth--;
+                    return box;
+                } else if (c != ',') {
+                    pos--;
+                    throw error("Expected a ',' or '}'");
+                }
+                c = skipWhitespace();
+            }
+        }
+
+        private Box parseArray() throws IOException {
+            enter();
+            pos++;
+            Box box = Box.newList();
+            if (skipWhitespace() == ']') {
+                pos++;
+                depth--;
+                return box;
+            }
+
+            while (true) {
+                box.add(parseValue());
+                int c = skipWhitespace();
+                pos++;
+                if (c == ']') {
+                    depth--;
+                    return box;
+                } else if (c != ',') {
+                    pos--;
+                    throw error("Expected a ',' or ']'");
+                }
+            }
+        }
+
+        char parseEscape() throws IOException {
+            int c = peek();
+            pos++;
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return (char)c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(peek(), 16);
+                        if (digit < 0) {
+                            throw error("Illegal unicode escape");
+                        }
+                        code = code * 16 + digit;
+                        pos++;
+                    }
+                    return (char)code;
+                case -1:
+                    throw error("Unterminated string");
+                default:
+                    pos--;
+                    throw error("Illegal escape '\\" + (char)c + "'");
+            }
+        }
+
+        private Box parseNumber() throws IOException {
+            boolean negative = false;
+            if (peek() == '-') {
+                negative = true;
+                pos++;
+            }
+
+            int c = peek();
+            if (c < '0' || c > '9') {
+                throw error("Expected a digit");
+            }
+
+            // Accumulate the integer part as a negative long, which has room
+            // for Long.MIN_VALUE, and fall back to a double on overflow
+            long val = 0;
+            boolean overflow = false;
+            int digits = 0;
+            StringBuilder num = numberBuilder(negative);
+            while (c >= '0' && c <= '9') {
+                if (digits == 1 && val == 0) {
+                    throw error("Leading zeros are not allowed");
+                }
+                int d = c - '0';
+                if (val < Long.MIN_VALUE / 10 ||
+                    val * 10 < Long.MIN_VALUE + d) {
+                    overflow = true;
+                }
+                val = val * 10 - d;
+                num.append((char)c);
+                digits++;
+                pos++;
+                c = peek();
+            }
+
+            boolean fraction = false;
+            if (c == '.') {
+                fraction = true;
+                num.append('.');
+                pos++;
+                appendDigits(num);
+                c = peek();
+            }
+            if (c == 'e' || c == 'E') {
+                fraction = true;
+                num.append('e');
+                pos++;
+                c = peek();
+                if (c == '+' || c == '-') {
+                    num.append((char)c);
+                    pos++;
+                }
+                appendDigits(num);
+            }
+
+            if (fraction || overflow || (!negative && val == Long.MIN_VALUE)) {
+                return new Box(Double.parseDouble(num.toString()));
+            }
+            return new Box(negative ? val : -val);
+        }
+
+        private StringBuilder numberBuilder(boolean negative) {
+            if (sb == null) {
+                sb = new StringBuilder();
+            }
+            sb.setLength(0);
+            if (negative) {
+                sb.append('-');
+            }
+            return sb;
+        }
+
+        private void appendDigits(StringBuilder num) throws IOException {
+            int c = peek();
+            if (c < '0' || c > '9') {
+                throw error("Expected a digit");
+            }
+            while (c >= '0' && c <= '9') {
+                num.append((char)c);
+                pos++;
+                c = peek();
+            }
+        }
+
+        void expectWord(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++) {
+                if (peek() != word.charAt(i)) {
+                    throw error("Expected '" + word + "'");
+                }
+                pos++;
+            }
+        }
+
+        void enter() {
+            if (++depth > MAX_DEPTH) {
+                throw error("Nesting deeper than " + MAX_DEPTH);
+            }
+        }
+
+        /* Skip whitespace and return the next character without consuming
+         * it, or -1 at the end of the input */
+        int skipWhitespace() throws IOException {
+            while (true) {
+                int c = peek();
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    pos++;
+                } else {
+                    return c;
+                }
+            }
+        }
+
+        MessageFormatException error(String msg) {
+            return new MessageFormatException(
+                    "Syntax error reading JSON data from " + source + ": " +
+                    msg + " at " + unit + " " + (offset + pos));
+        }
     }
 
-    private Box realParse(Reader in) throws JSONException {
-        JSONTokener t = new JSONTokener(in);
-        if (t.more()) {
-            Object obj = t.nextValue();
-            return parseObject(obj);
+    /* Characters are read from the reader into buf in blocks, a string is
+     * parsed straight from its characters without a reader */
+    private static final class CharParser extends Parser {
+        private final Reader in;
+        private final char[] buf;
+
+        CharParser(String in, KeyTable keyTable, BoxSchema schema) {
+            super("stream", "character", keyTable, schema);
+            this.in = null;
+            buf = in.toCharArray();
+            limit = buf.length;
+        }
+
+        CharParser(Reader in, String source, KeyTable keyTable,
+                   BoxSchema schema) {
+            super(source, "character", keyTable, schema);
+            this.in = in;
+            buf = new char[BLOCK_SIZE];
+        }
+
+        /* Parse the string starting at pos, just after the opening quote */
+        String parseString() throws IOException {
+            // Fast path: the whole string is in buf and has no escapes
+            for (int i = pos; i < limit; i++) {
+                char c = buf[i];
+                if (c == '"') {
+                    String s = new String(buf, pos, i - pos);
+                    pos = i + 1;
+                    return s;
+                } else if (c == '\\' || c < 0x20) {
+                    break;
+                }
+            }
+
+            if (sb == null) {
+                sb = new StringBuilder();
+            }
+            sb.setLength(0);
+            while (true) {
+                int start = pos;
+                while (pos < limit) {
+                    char c = buf[pos];
+                    if (c == '"' || c == '\\') {
+                        break;
+                    } else if (c < 0x20) {
+                        throw error("Unescaped control character in string");
+                    }
+                    pos++;
+                }
+                sb.append(buf, start, pos - start);
+
+                int c = peek();
+                if (c == '"') {
+                    pos++;
+                    return sb.toString();
+                } else if (c == '\\') {
+                    pos++;
+                    sb.append(parseEscape());
+                } else if (c < 0) {
+                    throw error("Unterminated string");
+                }
+            }
+        }
+
+        String parseKey(KeyTable keys) throws IOException {
+            // Fast path: the whole key is in buf and has no escapes
+            int hash = 0;
+            for (int i = pos; i < limit; i++) {
+                char c = buf[i];
+                if (c == '"') {
+                    String key = keys.intern(buf, pos, i, hash);
+                    pos = i + 1;
+                    return key;
+                } else if (c == '\\' || c < 0x20) {
+                    break;
+                }
+                hash = 31 * hash + c;
+            }
+            return keys.intern(parseString());
+        }
+
+        boolean isStream() {
+            return in != null;
+        }
+
+        int peek() throws IOException {
+            if (pos < limit) {
+                return buf[pos];
+            } else if (in == null) {
+                return -1;
+            }
+
+            offset += limit;
+            pos = 0;
+            limit = 0;
+            int read;
+            while ((read = in.read(buf, 0, buf.length)) == 0) {
+                // Retry
+            }
+            if (read < 0) {
+                return -1;
+            }
+            limit = read;
+            return buf[0];
         }
-        return null;
     }
 
-    @SuppressWarnings("unchecked")
-    private Box parseObject (Object obj) throws JSONException {
-        Box msg;
-
-        if (obj instanceof Integer) {
-            return new Box((Integer)obj);
-        } else if (obj instanceof Long) {
-            return new Box((Long)obj);
-        } else if (obj instanceof Double) {
-            return new Box((Double)obj);
-        } else if (obj instanceof Boolean) {
-            return new Box((Boolean)obj);
-        } else if (obj instanceof String) {
-            return new Box((String)obj);
-        } else if (obj instanceof JSONArray) {
-            JSONArray a = (JSONArray)obj;
-            msg = Box.newList();
-            for (int i = 0; i < a.length(); i++) {
-                msg.add(parseObject(a.get(i)));
-            }
-            return msg;
-        } else if (obj instanceof JSONObject) {
-            JSONObject jsObj = (JSONObject)obj;
-            Iterator<String> iter = (Iterator<String>)jsObj.keys();
-            msg = Box.newMap();
-            while (iter.hasNext()) {
-                String key = iter.next();
-                msg.put(key, parseObject(jsObj.get(key)));
-            }
-            return msg;
-        } else {
-            throw new RuntimeException("Unexpected object type from JSON" +
-                                       "stream " + obj.getClass());
+    /* Parses UTF-8 bytes from a heap buffer in place, or copied in blocks
+     * from a direct buffer or a stream. The structure of the document is
+     * all ASCII, so only strings need decoding */
+    private static final class ByteParser extends Parser {
+        private final InputStream in;
+        private final ByteBuffer src;
+        private final byte[] buf;
+        private char[] chars;
+
+        ByteParser(ByteBuffer in, KeyTable keyTable, BoxSchema schema) {
+            super("buffer", "byte", keyTable, schema);
+            this.in = null;
+            if (in.hasArray()) {
+                src = null;
+                buf = in.array();
+                pos = in.arrayOffset() + in.position();
+                limit = in.arrayOffset() + in.limit();
+                offset = -pos;
+                in.position(in.limit());
+            } else {
+                src = in;
+                buf = new byte[Math.min(BLOCK_SIZE, in.remaining())];
+            }
+            chars = new char[64];
+        }
+
+        ByteParser(InputStream in, KeyTable keyTable, BoxSchema schema) {
+            super("stream", "byte", keyTable, schema);
+            this.in = in;
+            src = null;
+            buf = new byte[BLOCK_SIZE];
+            chars = new char[64];
+        }
+
+        String parseString() throws IOException {
+            int n = 0;
+            while (true) {
+                // Fast path for runs of plain ASCII, stopping at quotes,
+                // escapes, control characters and, as negative bytes, any
+                // multi byte sequence
+                while (pos < limit) {
+                    byte b = buf[pos];
+                    if (b < 0x20 || b == '"' || b == '\\') {
+                        break;
+                    }
+                    if (n == chars.length) {
+                        chars = grow(chars);
+                    }
+                    chars[n++] = (char)b;
+                    pos++;
+                }
+
+                int c = peek();
+                if (c == '"') {
+                    pos++;
+                    return new String(chars, 0, n);
+                }
+
+                if (n + 2 > chars.length) {
+                    chars = grow(chars);
+                }
+                if (c >= 0x80) {
+                    n = decode(c, chars, n);
+                } else if (c == '\\') {
+                    pos++;
+                    chars[n++] = parseEscape();
+                } else if (c < 0) {
+                    throw error("Unterminated string");
+                } else if (c < 0x20) {
+                    throw error("Unescaped control character in string");
+                }
+            }
+        }
+
+        String parseKey(KeyTable keys) throws IOException {
+            // Fast path: the whole key is in buf and is ASCII without
+            // escapes. Multi byte sequences are negative bytes
+            int hash = 0;
+            for (int i = pos; i < limit; i++) {
+                byte b = buf[i];
+                if (b == '"') {
+                    String key = keys.intern(buf, pos, i, hash);
+                    pos = i + 1;
+                    return key;
+                } else if (b < 0x20 || b == '\\') {
+                    break;
+                }
+                hash = 31 * hash + b;
+            }
+            return keys.intern(parseString());
+        }
+
+        /* Decode the multi byte sequence starting with lead at pos into
+         * chars at n, returning the new length of chars */
+        private int decode(int lead, char[] chars, int n) throws IOException {
+            int count;
+            int code;
+            int min;
+            if (lead >= 0xC2 && lead <= 0xDF) {
+                count = 1;
+                code = lead & 0x1F;
+                min = 0x80;
+            } else if (lead >= 0xE0 && lead <= 0xEF) {
+                count = 2;
+                code = lead & 0x0F;
+                min = 0x800;
+            } else if (lead >= 0xF0 && lead <= 0xF4) {
+                count = 3;
+                code = lead & 0x07;
+                min = 0x10000;
+            } else {
+                throw error("Malformed UTF-8");
+            }
+
+            pos++;
+            for (int i = 0; i < count; i++) {
+                int c = peek();
+                if ((c & 0xC0) != 0x80) {
+                    throw error("Malformed UTF-8");
+                }
+                code = (code << 6) | (c & 0x3F);
+                pos++;
+            }
+
+            if (code < min || code > Character.MAX_CODE_POINT ||
+                (code >= Character.MIN_SURROGATE &&
+                 code <= Character.MAX_SURROGATE)) {
+                throw error("Malformed UTF-8");
+            }
+            return n + Character.toChars(code, chars, n);
+        }
+
+        boolean isStream() {
+            return in != null;
+        }
+
+        int peek() throws IOException {
+            if (pos < limit) {
+                return buf[pos] & 0xFF;
+            } else if (src == null && in == null) {
+                // The whole document is in buf, which lazy boxes refer to
+                // by position, so stay at its end
+                return -1;
+            }
+
+            offset += limit;
+            pos = 0;
+            limit = 0;
+            int read;
+            if (src != null) {
+                read = Math.min(buf.length, src.remaining());
+                src.get(buf, 0, read);
+            } else {
+                while ((read = in.read(buf, 0, buf.length)) == 0) {
+                    // Retry
+                }
+            }
+
+            if (read <= 0) {
+                return -1;
+            }
+            limit = read;
+            return buf[0] & 0xFF;
+        }
+
+        /* Check the syntax of the document and return it as a lazy box
+         * over the bytes in buf */
+        Box parseLazyDocument(LazyFormat format) throws IOException {
+            if (skipWhitespace() < 0) {
+                return null;
+            }
+
+            int start = pos;
+            skipValue();
+            int end = pos;
+            if (skipWhitespace() >= 0) {
+                throw error("Unexpected data after the JSON value");
+            }
+            return format.decode(buf, start, end);
+        }
+
+        /* Locate the children of the object or array at pos, which has
+         * been checked by skipValue() before */
+        int[] index(Map<String,Integer> keys) throws IOException {
+            boolean object = peek() == '{';
+            int close = object ? '}' : ']';
+            int[] offsets = new int[16];
+            int n = 0;
+            pos++;
+            if (skipWhitespace() == close) {
+                return new int[0];
+            }
+
+            while (true) {
+                if (object) {
+                    pos++;
+                    String key = parseKey(keyTable);
+                    if (keys.put(key, n / 2) != null) {
+                        throw error("Duplicate key '" + key + "'");
+                    }
+                    skipWhitespace();
+                    pos++;
+                    skipWhitespace();
+                }
+
+                if (n == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, n * 2);
+                }
+                offsets[n++] = pos;
+                skipValue();
+                offsets[n++] = pos;
+
+                int c = skipWhitespace();
+                pos++;
+                if (c == close) {
+                    return Arrays.copyOf(offsets, n);
+                }
+                skipWhitespace();
+            }
+        }
+
+        /* Move past the value at pos, checking its syntax without building
+         * any boxes */
+        private void skipValue() throws IOException {
+            int c = skipWhitespace();
+            switch (c) {
+                case '{':
+                    enter();
+                    pos++;
+                    c = skipWhitespace();
+                    while (c != '}') {
+                        if (c != '"') {
+                            throw error("Expected a string key");
+                        }
+                        pos++;
+                        skipString();
+                        if (skipWhitespace() != ':') {
+                            throw error("Expected a ':' after the key");
+                        }
+                        pos++;
+                        skipValue();
+                        c = skipWhitespace();
+                        if (c == ',') {
+                            pos++;
+                            c = skipWhitespace();
+                        } else if (c != '}') {
+                            throw error("Expected a ',' or '}'");
+                        }
+                    }
+                    pos++;
+                    depth--;
+                    return;
+                case '[':
+                    enter();
+                    pos++;
+                    c = skipWhitespace();
+                    while (c != ']') {
+                        skipValue();
+                        c = skipWhitespace();
+                        if (c == ',') {
+                            pos++;
+                        } else if (c != ']') {
+                            throw error("Expected a ',' or ']'");
+                        }
+                    }
+                    pos++;
+                    depth--;
+                    return;
+                case '"':
+                    pos++;
+                    skipString();
+                    return;
+                case 't':
+                    expectWord("true");
+                    return;
+                case 'f':
+                    expectWord("false");
+                    return;
+                case 'n':
+                    expectWord("null");
+                    throw error("Null values are not supported");
+                case -1:
+                    throw error("Unexpected end of data");
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        skipNumber();
+                        return;
+                    }
+                    throw error("Unexpected character '" + (char)c + "'");
+            }
+        }
+
+        private void skipString() throws IOException {
+            while (true) {
+                int c = peek();
+                if (c == '"') {
+                    pos++;
+                    return;
+                } else if (c == '\\') {
+                    pos++;
+                    parseEscape();
+                } else if (c >= 0x80) {
+                    // Decode to check the encoding, chars has room for two
+                    decode(c, chars, 0);
+                } else if (c < 0) {
+                    throw error("Unterminated string");
+                } else if (c < 0x20) {
+                    throw error("Unescaped control character in string");
+                } else {
+                    pos++;
+                }
+            }
+        }
+
+        private void skipNumber() throws IOException {
+            if (peek() == '-') {
+                pos++;
+            }
+            if (peek() == '0') {
+                pos++;
+                int c = peek();
+                if (c >= '0' && c <= '9') {
+                    throw error("Leading zeros are not allowed");
+                }
+            } else {
+                skipDigits();
+            }
+
+            if (peek() == '.') {
+                pos++;
+                skipDigits();
+            }
+            int c = peek();
+            if (c == 'e' || c == 'E') {
+                pos++;
+                c = peek();
+                if (c == '+' || c == '-') {
+                    pos++;
+                }
+                skipDigits();
+            }
+        }
+
+        private void skipDigits() throws IOException {
+            int c = peek();
+            if (c < '0' || c > '9') {
+                throw error("Expected a digit");
+            }
+            while (c >= '0' && c <= '9') {
+                pos++;
+                c = peek();
+            }
+        }
+
+        private static char[] grow(char[] chars) {
+            char[] grown = new char[chars.length * 2];
+            System.arraycopy(chars, 0, grown, 0, chars.length);
+            return grown;
         }
     }
 
+    /* Lazy boxes over JSON, where each value is parsed by a ByteParser
+     * over the bytes of the value */
+    static final class LazyFormat implements LazyData.Format {
+        private final KeyTable keyTable;
+
+        LazyFormat(KeyTable keyTable) {
+            this.keyTable = keyTable;
+        }
 
+        public int[] index(byte[] data, int start, int end,
+                           Map<String,Integer> keys) {
+            try {
+                return new ByteParser(ByteBuffer.wrap(data, start, end - start),
+                                      keyTable, null).index(keys);
+            } catch (IOException e) {
+                // This should never happen!
+                throw new RuntimeException("Unexpected error reading buffer: "
+                                           + e.getMessage(), e);
+            }
+        }
 
+        public Box decode(byte[] data, int start, int end) {
+            switch (data[start]) {
+                case '{':
+                    return new Box(Box.Type.MAP, new LazyMap(
+                                    new LazyData(this, data, start, end)));
+                case '[':
+                    return new Box(Box.Type.LIST, new LazyList(
+                                    new LazyData(this, data, start, end)));
+                default:
+                    try {
+                        return new ByteParser(
+                                   ByteBuffer.wrap(data, start, end - start),
+                                   keyTable, null).parseDocument();
+                    } catch (IOException e) {
+                        // This should never happen!
+                        throw new RuntimeException(
+                                "Unexpected error reading buffer: "
+                                + e.getMessage(), e);
+                    }
+            }
+        }
+    }
 }
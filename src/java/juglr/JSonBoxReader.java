@@ -122,18 +122,26 @@ public class JSonBoxReader extends BoxReader {
                     } else {
                         buf.append(',');
                     }
-                    buf.append('"');
-                    buf.append(entry.getKey());
-                    buf.append("\":");
+                    appendString(entry.getKey());
+                    buf.append(':');
                     appendStructuredMessage(entry.getValue());
                 }
                 buf.append('}');
                 break;
             case STRING:
-                buf.append('"');
-                buf.append(m.getString());
-                buf.append('"');
+                appendString(m.getString());
                 break;
         }
     }
+
+    private void appendString(String s) {
+        try {
+            JSonBoxWriter.appendString(s, buf);
+        } catch (IOException e) {
+            // This should never happen
+            throw new RuntimeException(
+                    "I/O Exception from in-memory work. " +
+                    "This should never happen", e);
+        }
+    }
 }
@@ -1,19 +1,57 @@
 package juglr;
 
+import static juglr.internal.Buffers.ensure;
+import static juglr.internal.Buffers.grow;
+
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintStream;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
- * FIXME: Missing class docs for juglr.JSonBoxWriter
+ * Serialize {@link Box}es as JSON, either as characters to an
+ * {@link Appendable} or as UTF-8 bytes directly into a {@link ByteBuffer}.
+ * Quotes, backslashes and control characters in strings and keys are
+ * escaped.
+ * <p/>
+ * Writing to a {@code ByteBuffer} encodes strings to UTF-8 as it goes and
+ * formats integers, and floats with integral values, without allocating.
+ * Lazy boxes parsed from JSON that have not been modified are copied to
+ * the buffer as they are, see {@link ByteBoxParser#parseLazy(ByteBuffer)},
+ * and the keys of {@link BoxSchema} boxes are copied pre-encoded.
+ * The writer has no state and is thread safe.
  *
  * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
  * @since Feb 17, 2010
  */
-public class JSonBoxWriter implements BoxWriter {
-    
+public class JSonBoxWriter implements BoxWriter, ByteBoxWriter {
+
+    /* For each ASCII character the character to write after a backslash to
+     * escape it, 'u' for a \\u00XX escape, or 0 if it needs no escaping */
+    private static final byte[] ESCAPES = new byte[128];
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = 'u';
+        }
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['\t'] = 't';
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+    }
+
+    private static final byte[] HEX = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] MIN_LONG =
+                               Long.toString(Long.MIN_VALUE).getBytes();
+
     public BoxWriter write(Box box, Appendable out) throws IOException {
         switch (box.getType()) {
             case INT:
@@ -47,19 +85,244 @@ public class JSonBoxWriter implements BoxWriter {
                     } else {
                         out.append(',');
                     }
-                    out.append('"');
-                    out.append(entry.getKey());
-                    out.append("\":");
+                    appendString(entry.getKey(), out);
+                    out.append(':');
                     write(entry.getValue(), out);
                 }
                 out.append('}');
                 break;
             case STRING:
-                out.append('"');
-                out.append(box.getString());
-                out.append('"');
+                appendString(box.getString(), out);
                 break;
         }
         return this;
     }
+
+    /**
+     * Write {@code box} as UTF-8 encoded JSON into {@code out}, starting at
+     * the position of the buffer. If {@code out} runs full the data written
+     * so far is moved to a new, larger, buffer of the same kind, which is
+     * returned instead of {@code out}
+     * @param box the box to write
+     * @param out the buffer to write to
+     * @return the buffer holding the written data, positioned just after it.
+     *         This is {@code out} unless it was too small
+     */
+    public ByteBuffer write(Box box, ByteBuffer out) {
+        // Unmodified lazy boxes parsed from JSON are copied as they are
+        LazyData raw = LazyData.of(box);
+        if (raw != null &&
+            raw.format instanceof JSonBoxParser.LazyFormat &&
+            raw.isPristine()) {
+            return raw.copyTo(out);
+        }
+
+        switch (box.getType()) {
+            case INT:
+                return writeLong(box.getLong(), out);
+            case BOOLEAN:
+                byte[] bool = box.getBoolean() ? TRUE : FALSE;
+                return ensure(out, bool.length).put(bool);
+            case FLOAT:
+                return writeDouble(box.getFloat(), out);
+            case LIST:
+                out = ensure(out, 1).put((byte)'[');
+                boolean first = true;
+                for (Box child : box.getList()) {
+                    if (first) {
+                        first = false;
+                    } else {
+                        out = ensure(out, 1).put((byte)',');
+                    }
+                    out = write(child, out);
+                }
+                return ensure(out, 1).put((byte)']');
+            case MAP:
+                SchemaMap shaped = SchemaMap.of(box);
+                if (shaped != null) {
+                    return writeShaped(shaped, out);
+                }
+
+                out = ensure(out, 1).put((byte)'{');
+                first = true;
+                for (Map.Entry<String, Box> entry : box.getMap().entrySet()) {
+                    if (first) {
+                        first = false;
+                    } else {
+                        out = ensure(out, 1).put((byte)',');
+                    }
+                    out = writeString(entry.getKey(), out);
+                    out = ensure(out, 1).put((byte)':');
+                    out = write(entry.getValue(), out);
+                }
+                return ensure(out, 1).put((byte)'}');
+            case STRING:
+                return writeString(box.getString(), out);
+            default:
+                // This should never happen
+                throw new RuntimeException("Unexpected box type "
+                                           + box.getType());
+        }
+    }
+
+    /* Write the fields of a schema box in slot order, copying the encoded
+     * keys of the schema */
+    private ByteBuffer writeShaped(SchemaMap map, ByteBuffer out) {
+        byte[][] keys = map.schema.jsonKeys;
+        out = ensure(out, 1).put((byte)'{');
+        boolean first = true;
+        for (int i = 0; i < keys.length; i++) {
+            Box child = map.slot(i);
+            if (child == null) {
+                continue;
+            }
+            if (first) {
+                first = false;
+            } else {
+                out = ensure(out, 1).put((byte)',');
+            }
+            out = ensure(out, keys[i].length).put(keys[i]);
+            out = write(child, out);
+        }
+        return ensure(out, 1).put((byte)'}');
+    }
+
+    /**
+     * Encode {@code key} as a quoted and escaped UTF-8 JSON string followed
+     * by a colon, as it is written before the value of a map entry
+     * @param key the key to encode
+     * @return the encoded key
+     */
+    static byte[] encodeKey(String key) {
+        ByteBuffer buf = writeString(key, ByteBuffer.allocate(16));
+        buf = ensure(buf, 1).put((byte)':');
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /**
+     * Append {@code s} to {@code out} as a quoted and escaped JSON string
+     * @param s the string to append
+     * @param out where to append it
+     * @throws IOException if {@code out} throws an IOException
+     */
+    static void appendString(String s, Appendable out) throws IOException {
+        out.append('"');
+        int start = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 128 || ESCAPES[c] == 0) {
+                continue;
+            }
+
+            out.append(s, start, i);
+            start = i + 1;
+            byte esc = ESCAPES[c];
+            out.append('\\').append((char)esc);
+            if (esc == 'u') {
+                out.append("00")
+                   .append((char)HEX[c >> 4])
+                   .append((char)HEX[c & 0xF]);
+            }
+        }
+        out.append(s, start, len);
+        out.append('"');
+    }
+
+    private static ByteBuffer writeString(String s, ByteBuffer out) {
+        out = ensure(out, 1).put((byte)'"');
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            // Room for the longest output of a char, an escape or a
+            // surrogate pair
+            if (out.remaining() < 6) {
+                out = grow(out, 6);
+            }
+
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                byte esc = ESCAPES[c];
+                if (esc == 0) {
+                    out.put((byte)c);
+                } else if (esc == 'u') {
+                    out.put((byte)'\\').put((byte)'u')
+                       .put((byte)'0').put((byte)'0')
+                       .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+                } else {
+                    out.put((byte)'\\').put(esc);
+                }
+            } else if (c < 0x800) {
+                out.put((byte)(0xC0 | (c >> 6)))
+                   .put((byte)(0x80 | (c & 0x3F)));
+            } else if (c >= Character.MIN_HIGH_SURROGATE &&
+                       c <= Character.MAX_HIGH_SURROGATE &&
+                       i + 1 < len &&
+                       Character.isLowSurrogate(s.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte)(0xF0 | (code >> 18)))
+                   .put((byte)(0x80 | ((code >> 12) & 0x3F)))
+                   .put((byte)(0x80 | ((code >> 6) & 0x3F)))
+                   .put((byte)(0x80 | (code & 0x3F)));
+            } else if (c >= Character.MIN_SURROGATE &&
+                       c <= Character.MAX_SURROGATE) {
+                // Unpaired surrogate, replace it like the JDK encoders do
+                out.put((byte)'?');
+            } else {
+                out.put((byte)(0xE0 | (c >> 12)))
+                   .put((byte)(0x80 | ((c >> 6) & 0x3F)))
+                   .put((byte)(0x80 | (c & 0x3F)));
+            }
+        }
+        return ensure(out, 1).put((byte)'"');
+    }
+
+    private static ByteBuffer writeLong(long val, ByteBuffer out) {
+        if (val == Long.MIN_VALUE) {
+            return ensure(out, MIN_LONG.length).put(MIN_LONG);
+        }
+
+        out = ensure(out, 20);
+        if (val < 0) {
+            out.put((byte)'-');
+            val = -val;
+        }
+
+        // Write the digits backwards from the end of the number
+        int end = out.position() + digits(val);
+        for (int i = end - 1; i >= out.position(); i--) {
+            out.put(i, (byte)('0' + val % 10));
+            val /= 10;
+        }
+        out.position(end);
+        return out;
+    }
+
+    private static ByteBuffer writeDouble(double val, ByteBuffer out) {
+        // Integral values below 10^7 are formatted as the digits and ".0"
+        // by Double.toString(), which is easy to match without allocating
+        if (val > -1e7 && val < 1e7 && val == (long)val) {
+            if (Double.doubleToRawLongBits(val) < 0) {
+                // Negative values, including negative zero
+                out = ensure(out, 1).put((byte)'-');
+                val = -val;
+            }
+            out = writeLong((long)val, out);
+            return ensure(out, 2).put((byte)'.').put((byte)'0');
+        }
+
+        String s = Double.toString(val);
+        out = ensure(out, s.length());
+        for (int i = 0; i < s.length(); i++) {
+            out.put((byte)s.charAt(i));
+        }
+        return out;
+    }
+
+    private static int digits(long val) {
+        int digits = 1;
+        for (long limit = 10; val >= limit && digits < 19; limit *= 10) {
+            digits++;
+        }
+        return digits;
+    }
 }
@@ -0,0 +1,246 @@
+package juglr;
+
+import java.nio.charset.Charset;
+
+/**
+ * Resolves the keys of parsed maps to shared {@code String} instances, so
+ * the small vocabulary of keys used by messages is not allocated again for
+ * every parsed map. The hash code of a shared key is computed once when it
+ * enters the table, so map lookups with it never compute it again.
+ * <p/>
+ * A table created with a capacity is a bounded cache. Each key has one
+ * slot, and a new key replaces the key in its slot, so keys that are not
+ * part of a small vocabulary simply come and go. Parsers on any number of
+ * threads share the table without locking: a slot holds an immutable
+ * {@code String} and is replaced with a single reference write, so a
+ * parser sees either the old or the new key, both of which are correct.
+ * <p/>
+ * A table created from a list of keys is a fixed dictionary, resolving
+ * only those keys, for instance the field names of one message type.
+ * <p/>
+ * Keys longer than {@link #MAX_KEY_LENGTH} characters are never shared.
+ * Parsers use the {@link #getDefault() default table} unless they are
+ * created with another one.
+ *
+ * @see JSonBoxParser#JSonBoxParser(KeyTable)
+ * @see CborBoxParser#CborBoxParser(KeyTable)
+ */
+public final class KeyTable {
+
+    /**
+     * The maximum length of keys stored in a table
+     */
+    public static final int MAX_KEY_LENGTH = 64;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final KeyTable DEFAULT = new KeyTable(4096);
+
+    private final String[] table;
+    private final int mask;
+    private final boolean fixed;
+    private final int[] indexes; // Position of each key in a dictionary
+
+    /**
+     * Create a bounded table sharing up to {@code capacity} keys
+     * @param capacity the number of slots in the table, rounded up to a
+     *                 power of two
+     */
+    public KeyTable(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                                 "Capacity must be positive: " + capacity);
+        }
+        table = new String[Integer.highestOneBit(capacity * 2 - 1)];
+        mask = table.length - 1;
+        fixed = false;
+        indexes = null;
+    }
+
+    /**
+     * Create a fixed dictionary sharing the given keys, and no others
+     * @param keys the keys to share
+     */
+    public KeyTable(String... keys) {
+        table = new String[Integer.highestOneBit(keys.length * 4 + 1)];
+        mask = table.length - 1;
+        fixed = true;
+        indexes = new int[table.length];
+
+        // Open addressing with linear probing, at most half full
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            int slot = slot(key.hashCode());
+            while (table[slot] != null && !table[slot].equals(key)) {
+                slot = (slot + 1) & mask;
+            }
+            if (table[slot] == null) {
+                table[slot] = key;
+                indexes[slot] = i;
+            }
+        }
+    }
+
+    /**
+     * Get the table shared by all parsers created without a table of their
+     * own. It holds up to 4096 keys
+     * @return the default table
+     */
+    public static KeyTable getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the shared instance of {@code key}. If the table does not have
+     * one, a bounded table stores {@code key} and returns it, and a
+     * dictionary returns {@code key} as is
+     * @param key the key to resolve
+     * @return a string equal to {@code key}
+     */
+    public String intern(String key) {
+        if (key.length() > MAX_KEY_LENGTH) {
+            return key;
+        }
+
+        int hash = key.hashCode();
+        int slot = slot(hash);
+        while (true) {
+            String candidate = table[slot];
+            if (candidate == null) {
+                break;
+            } else if (candidate.hashCode() == hash &&
+                       candidate.equals(key)) {
+                return candidate;
+            } else if (!fixed) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (!fixed) {
+            table[slot] = key;
+        }
+        return key;
+    }
+
+    /**
+     * Resolve the key in the ASCII characters of {@code bytes} from
+     * {@code start} to {@code end}
+     * @param hash the {@link String#hashCode()} of the key
+     */
+    String intern(byte[] bytes, int start, int end, int hash) {
+        int length = end - start;
+        if (length > MAX_KEY_LENGTH) {
+            return new String(bytes, start, length, ASCII);
+        }
+
+        int slot = slot(hash);
+        while (true) {
+            String candidate = table[slot];
+            if (candidate == null) {
+                break;
+            } else if (candidate.hashCode() == hash &&
+                       matches(candidate, bytes, start, length)) {
+                return candidate;
+            } else if (!fixed) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String key = new String(bytes, start, length, ASCII);
+        if (!fixed) {
+            // Cache the hash before the key is shared
+            key.hashCode();
+            table[slot] = key;
+        }
+        return key;
+    }
+
+    /**
+     * Resolve the key in {@code chars} from {@code start} to {@code end}
+     * @param hash the {@link String#hashCode()} of the key
+     */
+    String intern(char[] chars, int start, int end, int hash) {
+        int length = end - start;
+        if (length > MAX_KEY_LENGTH) {
+            return new String(chars, start, length);
+        }
+
+        int slot = slot(hash);
+        while (true) {
+            String candidate = table[slot];
+            if (candidate == null) {
+                break;
+            } else if (candidate.hashCode() == hash &&
+                       matches(candidate, chars, start, length)) {
+                return candidate;
+            } else if (!fixed) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String key = new String(chars, start, length);
+        if (!fixed) {
+            key.hashCode();
+            table[slot] = key;
+        }
+        return key;
+    }
+
+    /**
+     * Get the position of {@code key} in the keys a dictionary was created
+     * from. Keys resolved by the dictionary are found by reference
+     * @param key the key to look up
+     * @return the index of the first occurrence of {@code key}, or -1 if
+     *         it is not in the dictionary or this is a bounded table
+     */
+    int indexOf(String key) {
+        if (indexes == null) {
+            return -1;
+        }
+
+        int hash = key.hashCode();
+        int slot = slot(hash);
+        String candidate;
+        while ((candidate = table[slot]) != null) {
+            if (candidate == key ||
+                (candidate.hashCode() == hash && candidate.equals(key))) {
+                return indexes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static boolean matches(String key, byte[] bytes, int start,
+                                   int length) {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String key, char[] chars, int start,
+                                   int length) {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
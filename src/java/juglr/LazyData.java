@@ -0,0 +1,151 @@
+package juglr;
+
+import static juglr.internal.Buffers.ensure;
+
+import juglr.internal.SmallMap;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * The undecoded bytes of an object or array in JSON or CBOR, backing the
+ * {@link LazyMap} or {@link LazyList} of a lazy {@link Box}. The children
+ * are located the first time the container is accessed, and each child is
+ * decoded the first time it is read. Children that are objects or arrays
+ * are lazy boxes themselves.
+ * <p/>
+ * The methods are synchronized, so a lazy box can be read by several
+ * actors at once like any other box that is only read.
+ */
+final class LazyData {
+
+    /**
+     * Locates and decodes the values in the bytes of one format
+     */
+    interface Format {
+
+        /**
+         * Locate the children of the container in {@code data} from
+         * {@code start} to {@code end}. For maps, each key is put in
+         * {@code keys} mapped to the number of its child
+         * @return the start and end offsets of each child, in order
+         * @throws MessageFormatException if a map has duplicate keys
+         */
+        int[] index(byte[] data, int start, int end,
+                    Map<String,Integer> keys);
+
+        /**
+         * Decode the value in {@code data} from {@code start} to
+         * {@code end}, objects and arrays as lazy boxes
+         */
+        Box decode(byte[] data, int start, int end);
+    }
+
+    final Format format;
+    private final byte[] data;
+    private final int start;
+    private final int end;
+    private Map<String,Integer> keys;
+    private int[] offsets;
+    private Box[] children;
+
+    LazyData(Format format, byte[] data, int start, int end) {
+        this.format = format;
+        this.data = data;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Get the raw data of a lazy box, if it has not been modified
+     * @param box the box to inspect
+     * @return the data of the box, or {@code null} if it is not a lazy box
+     *         or has been modified
+     */
+    static LazyData of(Box box) {
+        switch (box.getType()) {
+            case MAP:
+                Object map = box.getVal();
+                return map instanceof LazyMap ? ((LazyMap)map).data() : null;
+            case LIST:
+                Object list = box.getVal();
+                return list instanceof LazyList ?
+                       ((LazyList)list).data() : null;
+            default:
+                return null;
+        }
+    }
+
+    synchronized int size() {
+        index();
+        return children.length;
+    }
+
+    synchronized Box get(int index) {
+        index();
+        if (index < 0 || index >= children.length) {
+            throw new IndexOutOfBoundsException(
+                    "Index: " + index + ", size: " + children.length);
+        }
+
+        Box child = children[index];
+        if (child == null) {
+            child = format.decode(
+                           data, offsets[2 * index], offsets[2 * index + 1]);
+            children[index] = child;
+        }
+        return child;
+    }
+
+    synchronized Box get(Object key) {
+        index();
+        Integer index = keys.get(key);
+        return index == null ? null : get(index.intValue());
+    }
+
+    /**
+     * Get the keys of a map in order, mapped to the numbers of their
+     * children
+     */
+    synchronized Map<String,Integer> keys() {
+        index();
+        return keys;
+    }
+
+    /**
+     * Check that neither the container nor any of the children read from
+     * it have been modified, so the raw bytes still represent it
+     */
+    synchronized boolean isPristine() {
+        if (children == null) {
+            return true;
+        }
+        for (Box child : children) {
+            if (child != null &&
+                (child.getType() == Box.Type.MAP ||
+                 child.getType() == Box.Type.LIST)) {
+                LazyData raw = of(child);
+                if (raw == null || !raw.isPristine()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the raw bytes into {@code out}, growing it if needed
+     * @return the buffer holding the bytes
+     */
+    ByteBuffer copyTo(ByteBuffer out) {
+        return ensure(out, end - start).put(data, start, end - start);
+    }
+
+    private void index() {
+        if (children == null) {
+            keys = new SmallMap<String,Integer>();
+            offsets = format.index(data, start, end, keys);
+            children = new Box[offsets.length / 2];
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package juglr;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The list of a lazy {@link Box}, decoding its elements from
+ * {@link LazyData} as they are read. The first modification copies all
+ * elements to an {@link ArrayList} and drops the raw data. Lazy lists are
+ * serialized as plain lists.
+ */
+final class LazyList extends AbstractList<Box>
+                     implements RandomAccess, Serializable {
+
+    private transient LazyData data;
+    private List<Box> list;
+
+    LazyList(LazyData data) {
+        this.data = data;
+    }
+
+    /* The raw data, or null once the list has been modified */
+    LazyData data() {
+        return data;
+    }
+
+    @Override
+    public int size() {
+        return list != null ? list.size() : data.size();
+    }
+
+    @Override
+    public Box get(int index) {
+        return list != null ? list.get(index) : data.get(index);
+    }
+
+    @Override
+    public Box set(int index, Box element) {
+        return modify().set(index, element);
+    }
+
+    @Override
+    public void add(int index, Box element) {
+        modify().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public Box remove(int index) {
+        Box removed = modify().remove(index);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        modify().clear();
+        modCount++;
+    }
+
+    private List<Box> modify() {
+        if (list == null) {
+            list = new ArrayList<Box>(this);
+            data = null;
+        }
+        return list;
+    }
+
+    private Object writeReplace() {
+        return list != null ? list : new ArrayList<Box>(this);
+    }
+}
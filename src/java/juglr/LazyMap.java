@@ -0,0 +1,111 @@
+package juglr;
+
+import juglr.internal.SmallMap;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The map of a lazy {@link Box}, decoding its values from {@link LazyData}
+ * as they are read. The first modification copies all entries to a
+ * {@link SmallMap} and drops the raw data. Lazy maps are serialized as
+ * plain maps.
+ */
+final class LazyMap extends AbstractMap<String,Box> implements Serializable {
+
+    private transient LazyData data;
+    private Map<String,Box> map;
+
+    LazyMap(LazyData data) {
+        this.data = data;
+    }
+
+    /* The raw data, or null once the map has been modified */
+    LazyData data() {
+        return data;
+    }
+
+    @Override
+    public int size() {
+        return map != null ? map.size() : data.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Box get(Object key) {
+        return map != null ? map.get(key) : data.get(key);
+    }
+
+    @Override
+    public Box put(String key, Box value) {
+        return modify().put(key, value);
+    }
+
+    @Override
+    public Box remove(Object key) {
+        return modify().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        modify().clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String,Box>> entrySet() {
+        if (map != null) {
+            return map.entrySet();
+        }
+
+        final LazyData raw = data;
+        return new AbstractSet<Map.Entry<String,Box>>() {
+            @Override
+            public Iterator<Map.Entry<String,Box>> iterator() {
+                final Iterator<Map.Entry<String,Integer>> keys =
+                                            raw.keys().entrySet().iterator();
+                return new Iterator<Map.Entry<String,Box>>() {
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    public Map.Entry<String,Box> next() {
+                        Map.Entry<String,Integer> key = keys.next();
+                        Box value = raw.get(key.getValue().intValue());
+                        return new AbstractMap.SimpleImmutableEntry<String,Box>(
+                                                       key.getKey(), value);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException(
+                                         "Use Map.remove() on a lazy map");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return raw.size();
+            }
+        };
+    }
+
+    private Map<String,Box> modify() {
+        if (map == null) {
+            map = new SmallMap<String,Box>(this);
+            data = null;
+        }
+        return map;
+    }
+
+    private Object writeReplace() {
+        return map != null ? map : new SmallMap<String,Box>(this);
+    }
+}
@@ -0,0 +1,73 @@
+package juglr;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queue of pending messages for an {@link Actor}. Actors do not have a
+ * mailbox by default - in that case each message is dispatched to the
+ * actor as an independent task on the {@link MessageBus}. Actors
+ * constructed with a mailbox, see {@link Actor#Actor(MessageBus, Mailbox)},
+ * have their messages queued in the mailbox and delivered in the order
+ * given by the mailbox implementation.
+ * <p/>
+ * The message bus guarantees that there is at most one task draining a
+ * given mailbox at any time. Implementations must be thread safe with
+ * respect to concurrent calls to {@link #put} from many threads.
+ *
+ * @see FifoMailbox
+ * @see CoalescingMailbox
+ */
+public abstract class Mailbox {
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * Enqueue a message in the mailbox.
+     * @param msg the message to enqueue
+     * @return {@code true} if {@code msg} was added as a new entry and
+     *         {@code false} if it replaced a message that was already queued
+     */
+    public abstract boolean put(Message msg);
+
+    /**
+     * Remove and return the next message to deliver
+     * @return the next message or {@code null} if the mailbox is empty
+     */
+    public abstract Message poll();
+
+    /**
+     * Get the number of messages currently queued in the mailbox
+     * @return the number of queued messages
+     */
+    public abstract int size();
+
+    /**
+     * Return {@code true} if there are no messages queued in the mailbox
+     * @return {@code true} if and only if the mailbox is empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Try and mark the mailbox as scheduled for draining
+     * @return {@code true} if the caller must schedule a drain task
+     */
+    boolean trySchedule() {
+        return scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Mark the mailbox as no longer being drained
+     */
+    void unschedule() {
+        scheduled.set(false);
+    }
+
+    /**
+     * Return {@code true} if a drain task is scheduled or running
+     */
+    boolean isScheduled() {
+        return scheduled.get();
+    }
+}
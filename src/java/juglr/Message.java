@@ -18,6 +18,8 @@ public class Message {
 
     private Address sender;
     private Address replyTo;
+    private TraceContext trace;
+    private long sendTime;
 
     void setSender(Address sender) {
         this.sender = sender;
@@ -64,4 +66,57 @@ public class Message {
     public Address getReplyTo() {
         return replyTo;
     }
+
+    /**
+     * Get the value of {@link System#nanoTime()} when the message was last
+     * sent. The send time is only recorded on buses with
+     * {@link Interceptor}s, which can use it to measure how long the message
+     * was queued
+     * @return the send time in nanoseconds or {@code 0} if it has not been
+     *         recorded
+     */
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    void setSendTime(long sendTime) {
+        this.sendTime = sendTime;
+    }
+
+    /**
+     * Get the trace context of the message, identifying the chain of
+     * messages it belongs to
+     * @return the trace context or {@code null} if the message is not traced
+     * @see Tracer
+     */
+    public TraceContext getTrace() {
+        return trace;
+    }
+
+    /**
+     * Set the trace context of the message. Messages sent by an actor while
+     * it handles a traced message get a child of the context of that message
+     * automatically, so this method is normally only used to start traces.
+     * @param trace the trace context of the message
+     * @return always returns {@code this}
+     */
+    public Message setTrace(TraceContext trace) {
+        this.trace = trace;
+        return this;
+    }
+
+    /* The instance to deliver when this message is sent. Messages that
+     * may be shared by several deliveries return a copy, so each delivery
+     * has its own headers */
+    Message forDelivery() {
+        return this;
+    }
+
+    /* Copy the headers of msg to this message */
+    void copyHeaders(Message msg) {
+        sender = msg.sender;
+        replyTo = msg.replyTo;
+        trace = msg.trace;
+        sendTime = msg.sendTime;
+    }
 }
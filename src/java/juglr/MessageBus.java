@@ -1,11 +1,29 @@
 package juglr;
 
-import java.util.HashMap;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import juglr.internal.StripedCounter;
 
 /**
  * Central message hub all actors are connected to. Actors created without
@@ -16,6 +34,11 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class MessageBus {
 
+    /**
+     * The address of the {@link DeadLetterOffice} of every bus
+     */
+    public static final String DEAD_LETTERS = "/dead-letters";
+
     /**
      * Closure invoking the actor.react() method with a given message
      */
@@ -36,12 +59,74 @@ public class MessageBus {
         public void compute() {
             try {
                 Actor actor = bus.lookup(receiver);
+                if (actor == null) {
+                    bus.undeliverable(msg, receiver);
+                    return;
+                }
                 actor.dispatchReact(msg);
             } catch (Throwable t) {
                 t.printStackTrace();
                 System.err.println(String.format(
-                     "Unhandled exception from '%s'. Shutting down", receiver));
-                System.exit(27);
+                     "Unhandled exception delivering message to '%s'",
+                     receiver));
+            } finally {
+                bus.completed.increment();
+            }
+        }
+    }
+
+    /**
+     * Closure delivering the messages queued in the mailbox of an actor.
+     * At most {@link #BATCH_SIZE} messages are delivered before the closure
+     * reschedules itself, in order not to starve other actors
+     */
+    static class ForkJoinMailboxClosure extends RecursiveAction {
+
+        static final int BATCH_SIZE = 64;
+
+        private MessageBus bus;
+        private Address receiver;
+        private Mailbox mailbox;
+
+        public ForkJoinMailboxClosure(
+                             MessageBus bus, Address receiver, Mailbox mailbox) {
+            this.bus = bus;
+            this.receiver = receiver;
+            this.mailbox = mailbox;
+        }
+
+        @Override
+        public void compute() {
+            Message msg = null;
+            try {
+                int count = 0;
+                while (count < BATCH_SIZE && (msg = mailbox.poll()) != null) {
+                    /* We resolve the actor for each message since it might
+                     * have been restarted or stopped by its supervisor */
+                    Actor actor = bus.lookup(receiver);
+                    try {
+                        if (actor == null) {
+                            bus.undeliverable(msg, receiver);
+                        } else {
+                            actor.dispatchReact(msg);
+                        }
+                    } finally {
+                        bus.completed.increment();
+                    }
+                    count++;
+                }
+            } catch (Throwable t) {
+                t.printStackTrace();
+                System.err.println(String.format(
+                     "Unhandled exception delivering message %s to '%s'",
+                     msg, receiver));
+            }
+
+            /* Messages put after the last poll() and before unschedule()
+             * did not schedule a new drain, so we must check again */
+            mailbox.unschedule();
+            if (!mailbox.isEmpty() && mailbox.trySchedule()) {
+                bus.schedule(receiver, mailbox);
             }
         }
     }
@@ -64,12 +149,19 @@ public class MessageBus {
         public void compute() {
             try {
                 Actor actor = bus.lookup(receiver);
+                if (actor == null) {
+                    System.err.println(String.format(
+                            "Can not start actor. No actor at address '%s'",
+                            receiver));
+                    return;
+                }
                 actor.dispatchStart();
             } catch (Throwable t) {
                 t.printStackTrace();
                 System.err.println(String.format(
-                     "Unhandled exception from '%s'. Shutting down", receiver));
-                System.exit(28);
+                     "Unhandled exception starting '%s'", receiver));
+            } finally {
+                bus.completed.increment();
             }
         }
     }
@@ -106,8 +198,24 @@ public class MessageBus {
         return defaultBus;
     }
 
-    private ForkJoinPool pool;
-    private Map<String,Actor> addressSpace;
+    ForkJoinPool pool;
+    private Map<String,LocalAddress> addressSpace;
+    private volatile Supervisor supervisor;
+    private volatile boolean isShutdown;
+    private List<VirtualRegistry> virtualRegistries;
+    private Timer passivationTimer;
+    private volatile DeadLetterOffice deadLetterOffice;
+    private final AtomicInteger liveActors = new AtomicInteger();
+    private final BusMetrics metrics = new BusMetrics(this);
+    private String mbeanName;
+
+    /* Copy on write, null when there are no interceptors */
+    volatile Interceptor[] interceptors;
+
+    /* Number of messages and start requests submitted to, and
+     * finished by, the bus. The bus is quiescent when they are equal */
+    final StripedCounter sent = new StripedCounter();
+    final StripedCounter completed = new StripedCounter();
 
     /**
      * Create a new, empty, MessageBus. Note that actor by default register
@@ -124,24 +232,32 @@ public class MessageBus {
      */
     public MessageBus() {
         pool = new ForkJoinPool();
-        addressSpace = new HashMap<String,Actor>();
+        addressSpace = new ConcurrentHashMap<String,LocalAddress>();
+        virtualRegistries = new CopyOnWriteArrayList<VirtualRegistry>();
+        supervisor = new Supervisor(Supervisor.Directive.RESUME);
 
         pool.setAsyncMode(true);
         pool.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler(){
             public void uncaughtException(Thread t, Throwable e) {
+                /* Actor errors are handled by the supervisors, so this
+                 * should never happen. We keep the bus running regardless */
                 e.printStackTrace();
                 System.err.println(String.format(
-                     "Unhandled exception from thread '%s'. Shutting down", t));
-                System.exit(29);
+                     "Unhandled exception from thread '%s'", t));
             }
         });
+
+        deadLetterOffice = new DeadLetterOffice(this);
+        addressSpace.put(DEAD_LETTERS,
+                new LocalAddress(DEAD_LETTERS, deadLetterOffice, this));
     }
 
     public Address allocateUniqueAddress(final Actor actor) {
-        Address address =
+        LocalAddress address =
                 new LocalAddress(
                         "" + addressCounter.getAndIncrement(), actor, this);
-        addressSpace.put(address.externalize(), actor);
+        addressSpace.put(address.externalize(), address);
+        liveActors.incrementAndGet();
 
         return address;
     }
@@ -175,10 +291,16 @@ public class MessageBus {
                     "Address must start with '/' : " + name);
         }
 
-        Address address =
+        LocalAddress address =
                 new LocalAddress(
                         name, actor, this);
-        addressSpace.put(address.externalize(), actor);
+        addressSpace.put(address.externalize(), address);
+        if (actor != null) {
+            if (actor.namedAddresses == null) {
+                actor.namedAddresses = new CopyOnWriteArrayList<Address>();
+            }
+            actor.namedAddresses.add(address);
+        }
         return address;
     }
 
@@ -191,7 +313,22 @@ public class MessageBus {
      *         removed. Returns {@code false} if the address was not known
      */
     public boolean freeAddress(Address address) {
-        return addressSpace.remove(address.externalize()) != null;
+        LocalAddress local = addressSpace.remove(address.externalize());
+        if (local == null) {
+            return false;
+        }
+
+        // Make sure the fast path in lookup() no longer finds the actor
+        Actor resident = local.resident;
+        local.resident = null;
+        if (resident != null) {
+            if (resident.getAddress() == local) {
+                liveActors.decrementAndGet();
+            } else if (resident.namedAddresses != null) {
+                resident.namedAddresses.remove(local);
+            }
+        }
+        return true;
     }
 
     /**
@@ -199,12 +336,10 @@ public class MessageBus {
      * @return and iterator over all addresses registered on the bus
      */
     public Iterator<Address> list() {
-        /* We delegate work to this iter to be able to resolve the returned
-         * addresses most efficiently without looking them up.
-         * Basically this approach allows us to use the fast path enabled by
-         * LocalAddress when resolving the actor for the address via addr.resident */
-        final Iterator<String> iter = addressSpace.keySet().iterator();
-        final MessageBus dummy = this;
+        /* We return the canonical address instances, which allows us to use
+         * the fast path enabled by LocalAddress when resolving the actor for
+         * the address via addr.resident */
+        final Iterator<LocalAddress> iter = addressSpace.values().iterator();
 
         return new Iterator<Address>() {
 
@@ -213,8 +348,7 @@ public class MessageBus {
             }
 
             public Address next() {
-                String ext = iter.next();
-                return new LocalAddress(ext, addressSpace.get(ext), dummy);
+                return iter.next();
             }
 
             public void remove() {
@@ -231,10 +365,248 @@ public class MessageBus {
      * @param recipient the address of the recipient actor
      */
     public void send(Message msg, Address recipient) {
+        post(msg.forDelivery(), recipient);
+    }
+
+    /* Send msg, which is the instance to deliver, to recipient */
+    void post(Message msg, Address recipient) {
         if (recipient == null) {
             throw new NullPointerException("Recipient address is null");
         }
-        pool.submit(new ForkJoinMessageClosure(this, msg, recipient));
+        checkAccepting();
+
+        Interceptor[] chain = interceptors;
+        if (chain != null) {
+            msg.setSendTime(System.nanoTime());
+            if (!beforeSend(chain, msg, recipient)) {
+                deadLetter(msg, recipient, DeadLetter.Reason.REJECTED);
+                return;
+            }
+        }
+
+        sent.increment();
+        if (recipient instanceof VirtualAddress) {
+            sendVirtual(msg, (VirtualAddress)recipient);
+            return;
+        }
+
+        Actor actor = lookup(recipient);
+        if (actor != null && actor.metrics != null) {
+            actor.metrics.received();
+        }
+
+        Mailbox mailbox = actor == null ? null : actor.getMailbox();
+        if (mailbox == null) {
+            try {
+                pool.submit(new ForkJoinMessageClosure(this, msg, recipient));
+            } catch (RejectedExecutionException e) {
+                completed.increment();
+                deadLetter(msg, recipient, DeadLetter.Reason.BUS_SHUTDOWN);
+            }
+            return;
+        }
+
+        enqueue(msg, actor, mailbox);
+    }
+
+    private boolean beforeSend(
+                     Interceptor[] chain, Message msg, Address recipient) {
+        for (Interceptor interceptor : chain) {
+            try {
+                if (!interceptor.beforeSend(msg, recipient)) {
+                    return false;
+                }
+            } catch (Throwable t) {
+                interceptorFailed(interceptor, t);
+            }
+        }
+        return true;
+    }
+
+    static void interceptorFailed(Interceptor interceptor, Throwable t) {
+        System.err.println(String.format(
+                "Error in interceptor %s: %s", interceptor, t));
+        t.printStackTrace();
+    }
+
+    /**
+     * Add an {@link Interceptor} to the bus. Interceptors are invoked in the
+     * order they are added
+     * @param interceptor the interceptor to add
+     */
+    public synchronized void addInterceptor(Interceptor interceptor) {
+        if (interceptor == null) {
+            throw new NullPointerException("Interceptor is null");
+        }
+
+        Interceptor[] chain = interceptors;
+        if (chain == null) {
+            interceptors = new Interceptor[]{interceptor};
+            return;
+        }
+
+        Interceptor[] grown = new Interceptor[chain.length + 1];
+        System.arraycopy(chain, 0, grown, 0, chain.length);
+        grown[chain.length] = interceptor;
+        interceptors = grown;
+    }
+
+    /**
+     * Remove an {@link Interceptor} from the bus
+     * @param interceptor the interceptor to remove
+     * @return {@code true} if the interceptor was registered on the bus
+     */
+    public synchronized boolean removeInterceptor(Interceptor interceptor) {
+        Interceptor[] chain = interceptors;
+        if (chain == null) {
+            return false;
+        }
+
+        for (int i = 0; i < chain.length; i++) {
+            if (chain[i] == interceptor) {
+                if (chain.length == 1) {
+                    interceptors = null;
+                    return true;
+                }
+                Interceptor[] shrunk = new Interceptor[chain.length - 1];
+                System.arraycopy(chain, 0, shrunk, 0, i);
+                System.arraycopy(chain, i + 1, shrunk, i, shrunk.length - i);
+                interceptors = shrunk;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void enqueue(Message msg, Actor actor, Mailbox mailbox) {
+        if (!mailbox.put(msg)) {
+            // msg superseded a queued message which is now done
+            completed.increment();
+        }
+        if (mailbox.trySchedule()) {
+            schedule(actor.getAddress(), mailbox);
+        }
+    }
+
+    /* Submit a task draining mailbox. If the pool no longer accepts tasks
+     * the queued messages are turned into dead letters */
+    void schedule(Address receiver, Mailbox mailbox) {
+        try {
+            pool.submit(new ForkJoinMailboxClosure(this, receiver, mailbox));
+        } catch (RejectedExecutionException e) {
+            Message msg;
+            while ((msg = mailbox.poll()) != null) {
+                completed.increment();
+                if (msg instanceof DeadLetter) {
+                    // Queued for the office, which must not lose it
+                    deadLetterOffice.dispatchDirect((DeadLetter)msg);
+                } else {
+                    deadLetter(msg, receiver, DeadLetter.Reason.BUS_SHUTDOWN);
+                }
+            }
+            mailbox.unschedule();
+        }
+    }
+
+    /* Activate the virtual actor if needed and put msg in its mailbox. This
+     * is done under the lock for the address so that the actor can not be
+     * passivated in between */
+    private void sendVirtual(Message msg, VirtualAddress recipient) {
+        VirtualRegistry registry = recipient.registry;
+        synchronized (registry.lock(recipient.address)) {
+            VirtualActor actor;
+            try {
+                actor = registry.activate(recipient);
+            } catch (Throwable t) {
+                System.err.println(String.format(
+                        "Error activating virtual actor '%s': %s",
+                        recipient, t));
+                t.printStackTrace();
+                undeliverable(msg, recipient);
+                completed.increment();
+                return;
+            }
+
+            actor.lastActive = System.currentTimeMillis();
+            if (actor.metrics != null) {
+                actor.metrics.received();
+            }
+            enqueue(msg, actor, actor.getMailbox());
+        }
+    }
+
+    /**
+     * Serve all addresses starting with {@code prefix} by
+     * {@link VirtualActor}s created on demand by {@code factory}. Virtual
+     * actors idle for more than {@code idleTimeout} milliseconds are
+     * passivated, with their state kept off the Java heap in a
+     * {@link PassivationStore.OffHeap} store.
+     *
+     * @param prefix the address prefix, which must start and end with a
+     *               {@code /}, like {@code /session/}
+     * @param factory the factory creating the actors
+     * @param idleTimeout number of milliseconds an actor must be idle before
+     *                    it is passivated
+     * @throws AddressAlreadyOwnedException if {@code prefix} overlaps a
+     *                                      prefix that is already registered
+     * @throws IllegalAddressException if {@code prefix} does not start and
+     *                                 end with a {@code /}
+     * @see VirtualActor
+     */
+    public void registerVirtual(String prefix, VirtualActor.Factory factory,
+                                long idleTimeout)
+                                           throws AddressAlreadyOwnedException {
+        registerVirtual(
+                prefix, factory, idleTimeout, new PassivationStore.OffHeap());
+    }
+
+    /**
+     * Serve all addresses starting with {@code prefix} by
+     * {@link VirtualActor}s created on demand by {@code factory}. Virtual
+     * actors idle for more than {@code idleTimeout} milliseconds are
+     * passivated, with their state kept in {@code store}.
+     *
+     * @param prefix the address prefix, which must start and end with a
+     *               {@code /}, like {@code /session/}
+     * @param factory the factory creating the actors
+     * @param idleTimeout number of milliseconds an actor must be idle before
+     *                    it is passivated
+     * @param store the store for the state of passivated actors
+     * @throws AddressAlreadyOwnedException if {@code prefix} overlaps a
+     *                                      prefix that is already registered
+     * @throws IllegalAddressException if {@code prefix} does not start and
+     *                                 end with a {@code /}
+     * @see VirtualActor
+     */
+    public synchronized void registerVirtual(
+                                   String prefix, VirtualActor.Factory factory,
+                                   long idleTimeout, PassivationStore store)
+                                           throws AddressAlreadyOwnedException {
+        if (!prefix.startsWith("/") || !prefix.endsWith("/")) {
+            throw new IllegalAddressException(
+                    "Prefix must start and end with '/' : " + prefix);
+        }
+
+        for (VirtualRegistry registry : virtualRegistries) {
+            if (registry.prefix.startsWith(prefix) ||
+                prefix.startsWith(registry.prefix)) {
+                throw new AddressAlreadyOwnedException(prefix);
+            }
+        }
+
+        final VirtualRegistry registry =
+                       new VirtualRegistry(prefix, factory, idleTimeout, store);
+        virtualRegistries.add(registry);
+
+        if (passivationTimer == null) {
+            passivationTimer = new Timer("juglr-passivation", true);
+        }
+        long period = Math.max(10, idleTimeout / 2);
+        passivationTimer.schedule(new TimerTask() {
+            public void run() {
+                registry.sweep();
+            }
+        }, period, period);
     }
 
     /**
@@ -242,16 +614,566 @@ public class MessageBus {
      * @param recipient the address of the actor to start
      */
     public void start(Address recipient) {
+        checkAccepting();
+        sent.increment();
         pool.submit(new ForkJoinStartClosure(this, recipient));
     }
 
+    /**
+     * Return {@code true} if all messages sent on the bus have been
+     * processed, and no actors are being started.
+     * @return {@code true} if the bus is idle
+     */
+    public boolean isQuiescent() {
+        /* Both counters only grow and completed never exceeds sent. Reading
+         * completed before sent thus guarantees that if the sums are equal
+         * the bus was quiescent at some point between the two reads */
+        long done = completed.sum();
+        return sent.sum() == done;
+    }
+
+    /**
+     * Block until all messages sent on the bus have been processed,
+     * including messages sent by actors while processing other messages.
+     * This method must not be invoked from within an actor, since the
+     * message being processed by the actor counts as in-flight.
+     *
+     * @param timeout the maximum number of milliseconds to wait
+     * @return {@code true} if the bus became quiescent and {@code false} if
+     *         the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitQuiescence(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() +
+                Math.min(timeout, Long.MAX_VALUE / 1000000L) * 1000000L;
+        long backoff = 10000; // 10µs
+
+        while (!isQuiescent()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(Math.min(backoff, remaining));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            backoff = Math.min(backoff * 2, 10000000); // max 10ms
+        }
+        return true;
+    }
+
+    /**
+     * Shut down the bus and its thread pool. After this method has been
+     * invoked the bus rejects messages sent from outside the bus.
+     * <p/>
+     * If {@code drain} is {@code true} this method blocks until all
+     * messages sent on the bus have been processed. Actors may keep sending
+     * messages on the bus while it is being drained. If {@code drain} is
+     * {@code false} pending messages are discarded.
+     *
+     * @param drain whether to process all pending messages before shutting
+     *              down
+     * @throws InterruptedException if interrupted while draining the bus
+     */
+    public void shutdown(boolean drain) throws InterruptedException {
+        shutdown(drain, Long.MAX_VALUE);
+    }
+
+    /**
+     * Shut down the bus and its thread pool, waiting at most {@code timeout}
+     * milliseconds for pending messages to be processed if {@code drain}
+     * is {@code true}. If the timeout elapses any remaining messages are
+     * discarded.
+     *
+     * @param drain whether to process all pending messages before shutting
+     *              down
+     * @param timeout the maximum number of milliseconds to wait for the bus
+     *                to drain
+     * @return {@code true} if all pending messages where processed
+     * @throws InterruptedException if interrupted while draining the bus
+     * @see #shutdown(boolean)
+     */
+    public boolean shutdown(boolean drain, long timeout)
+                                                  throws InterruptedException {
+        isShutdown = true;
+        boolean drained = drain && awaitQuiescence(timeout);
+        synchronized (this) {
+            if (passivationTimer != null) {
+                passivationTimer.cancel();
+            }
+        }
+        unregisterMBeans();
+        if (drained) {
+            pool.shutdown();
+        } else {
+            pool.shutdownNow();
+        }
+        return drained;
+    }
+
+    /**
+     * Return {@code true} if {@link #shutdown} has been invoked on the bus
+     * @return whether the bus has been shut down
+     */
+    public boolean isShutdown() {
+        return isShutdown;
+    }
+
+    /* Once shut down we only accept messages from threads in our pool, so
+     * that actors can finish what they are doing while draining */
+    private void checkAccepting() {
+        if (isShutdown) {
+            Thread t = Thread.currentThread();
+            if (!(t instanceof ForkJoinWorkerThread) ||
+                ((ForkJoinWorkerThread)t).getPool() != pool) {
+                throw new IllegalStateException("MessageBus is shut down");
+            }
+        }
+    }
+
+    /**
+     * Set the default {@link Supervisor} handling failures in actors that
+     * have no supervisor of their own. The initial default supervisor
+     * resumes failing actors.
+     * @param supervisor the new default supervisor
+     * @see #supervise(Address, Supervisor)
+     */
+    public void setSupervisor(Supervisor supervisor) {
+        if (supervisor == null) {
+            throw new NullPointerException("Supervisor is null");
+        }
+        this.supervisor = supervisor;
+    }
+
+    /**
+     * Get the default {@link Supervisor} for actors on this bus
+     * @return the default supervisor
+     */
+    public Supervisor getSupervisor() {
+        return supervisor;
+    }
+
+    /**
+     * Set the {@link Supervisor} handling failures in the actor living at
+     * {@code address}. The supervisor is kept if the actor is restarted.
+     * @param address the address of the actor to supervise
+     * @param supervisor the supervisor to install or {@code null} to use
+     *                   the default supervisor of the bus
+     * @throws IllegalAddressException if there is no actor at
+     *                                 {@code address}
+     */
+    public void supervise(Address address, Supervisor supervisor) {
+        Actor actor = lookup(address);
+        if (actor == null) {
+            throw new IllegalAddressException(
+                               "No actor at address " + address);
+        }
+        actor.supervisor = supervisor;
+    }
+
+    /**
+     * Apply the supervisor directive for an error thrown by {@code actor}
+     * while processing {@code msg}
+     */
+    void handleFailure(Actor actor, Message msg, Throwable error) {
+        Supervisor sup = actor.supervisor != null ?
+                                                 actor.supervisor : supervisor;
+        Supervisor.Directive directive;
+        try {
+            directive = sup.supervise(actor, msg, error);
+            if (directive == Supervisor.Directive.ESCALATE &&
+                sup != supervisor) {
+                sup = supervisor;
+                directive = sup.supervise(actor, msg, error);
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+            directive = Supervisor.Directive.STOP;
+        }
+
+        // The bus has nobody to escalate to, so we stop the actor
+        if (directive == Supervisor.Directive.ESCALATE) {
+            directive = Supervisor.Directive.STOP;
+        }
+
+        if (msg == null) {
+            System.err.println(String.format(
+             "Error caught from actor '%s' while starting it: %s. %s",
+             actor, error, directive));
+        } else {
+            System.err.println(String.format(
+             "Error caught from actor '%s' while processing the message %s: %s. %s",
+             actor, msg, error, directive));
+        }
+        error.printStackTrace();
+
+        switch (directive) {
+            case RESUME:
+                break;
+            case RESTART:
+                restart(actor, sup);
+                break;
+            case STOP:
+                stop(actor);
+                break;
+        }
+    }
+
+    /* Replace actor with a new instance from the supervisor, taking over all
+     * addresses and the mailbox of the failed actor */
+    private void restart(Actor failed, Supervisor sup) {
+        if (failed.getAddress() instanceof VirtualAddress) {
+            restartVirtual((VirtualActor)failed);
+            return;
+        }
+
+        Actor fresh;
+        try {
+            fresh = sup.newActor(this);
+        } catch (Throwable t) {
+            System.err.println(String.format(
+                        "Error creating replacement for actor '%s': %s",
+                        failed, t));
+            t.printStackTrace();
+            stop(failed);
+            return;
+        }
+
+        if (fresh == null || fresh.getBus() != this) {
+            System.err.println(String.format(
+                        "Invalid replacement for actor '%s': %s",
+                        failed, fresh));
+            stop(failed);
+            return;
+        }
+
+        // Release the addresses the new actor was born with. It takes over
+        // the list of named addresses of the failed actor, so names it
+        // allocated itself would never be freed
+        for (LocalAddress address : addressesOf(fresh)) {
+            freeAddress(address);
+        }
+        fresh.replace(failed);
+
+        // Start the new actor while holding its lock, so messages drained
+        // from its mailbox meanwhile wait for start() before react()
+        synchronized (fresh) {
+            for (LocalAddress address : addressesOf(failed)) {
+                address.resident = fresh;
+            }
+            fresh.dispatchStart();
+        }
+    }
+
+    /* Replace a virtual actor with a new instance from its factory, with
+     * no state. The new instance takes over the mailbox of the failed one */
+    private void restartVirtual(VirtualActor failed) {
+        VirtualAddress address = (VirtualAddress)failed.getAddress();
+        VirtualRegistry registry = address.registry;
+        synchronized (registry.lock(address.address)) {
+            VirtualActor fresh;
+            try {
+                fresh = registry.create(address, null);
+            } catch (Throwable t) {
+                System.err.println(String.format(
+                        "Error creating replacement for actor '%s': %s",
+                        failed, t));
+                t.printStackTrace();
+                registry.active.remove(address.address, failed);
+                return;
+            }
+            fresh.replace(failed);
+            fresh.lastActive = System.currentTimeMillis();
+            registry.active.put(address.address, fresh);
+        }
+    }
+
+    /* Free all addresses of actor. Queued messages become dead letters */
+    private void stop(Actor actor) {
+        if (actor.getAddress() instanceof VirtualAddress) {
+            VirtualAddress address = (VirtualAddress)actor.getAddress();
+            synchronized (address.registry.lock(address.address)) {
+                address.registry.active.remove(address.address, actor);
+            }
+            return;
+        }
+
+        for (LocalAddress address : addressesOf(actor)) {
+            address.stopped = true;
+            freeAddress(address);
+        }
+        unregisterMBean(actor.metrics);
+    }
+
+    /* The unique and named addresses actor resides at */
+    private List<LocalAddress> addressesOf(Actor actor) {
+        List<LocalAddress> addresses = new ArrayList<LocalAddress>();
+        Address unique = actor.getAddress();
+        if (unique instanceof LocalAddress &&
+            ((LocalAddress)unique).resident == actor) {
+            addresses.add((LocalAddress)unique);
+        }
+        List<Address> named = actor.namedAddresses;
+        if (named != null) {
+            for (Address address : named) {
+                if (((LocalAddress)address).resident == actor) {
+                    addresses.add((LocalAddress)address);
+                }
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Handle a message that could not be delivered to {@code receiver}
+     * because there is no actor at the address
+     */
+    void undeliverable(Message msg, Address receiver) {
+        if (receiver instanceof LocalAddress &&
+            ((LocalAddress)receiver).stopped) {
+            deadLetter(msg, receiver, DeadLetter.Reason.RECIPIENT_STOPPED);
+        } else {
+            deadLetter(msg, receiver, DeadLetter.Reason.NO_RECIPIENT);
+        }
+    }
+
+    /**
+     * Count {@code msg} as a dead letter and send it to the dead-letter
+     * office. Undeliverable dead letters are dropped
+     */
+    void deadLetter(Message msg, Address recipient, DeadLetter.Reason reason) {
+        if (msg instanceof DeadLetter) {
+            // Already counted when it was created
+            return;
+        }
+        DeadLetterOffice office = deadLetterOffice;
+        office.count(reason);
+
+        // A shut down bus runs no tasks, so the office handles the letter
+        // in the calling thread
+        DeadLetter letter = new DeadLetter(msg, recipient, reason);
+        if (isShutdown) {
+            office.dispatchDirect(letter);
+            return;
+        }
+
+        sent.increment();
+        if (office.metrics != null) {
+            office.metrics.received();
+        }
+        Mailbox mailbox = office.getMailbox();
+        if (mailbox != null) {
+            enqueue(letter, office, mailbox);
+            return;
+        }
+
+        try {
+            pool.submit(new ForkJoinMessageClosure(
+                                         this, letter, office.getAddress()));
+        } catch (RejectedExecutionException e) {
+            // Dead letters can not become dead letters themselves
+            completed.increment();
+            office.dispatchDirect(letter);
+        }
+    }
+
+    /**
+     * Get the runtime metrics of the bus and its thread pool. The returned
+     * object is a live view of the bus
+     * @return the metrics of the bus
+     */
+    public BusMetrics getMetrics() {
+        return metrics;
+    }
+
+    /* Count the actors with their unique address on the bus, and the active
+     * virtual actors */
+    int getActorCount() {
+        int count = liveActors.get();
+        for (VirtualRegistry registry : virtualRegistries) {
+            count += registry.active.size();
+        }
+        return count;
+    }
+
+    /**
+     * Start collecting {@link ActorMetrics} for the actor at
+     * {@code address}. If the MBeans of the bus are registered the metrics
+     * are registered as an MBean as well. Calling this method for an actor
+     * that already collects metrics has no effect. The metrics of a virtual
+     * actor are discarded when it is passivated.
+     * @param address the address of the actor
+     * @return the metrics of the actor
+     * @throws IllegalAddressException if there is no actor at
+     *                                 {@code address}
+     */
+    public synchronized ActorMetrics enableMetrics(Address address) {
+        Actor actor = lookup(address);
+        if (actor == null) {
+            throw new IllegalAddressException(
+                               "No actor at address " + address);
+        }
+
+        if (actor.metrics == null) {
+            actor.metrics = new ActorMetrics(actor);
+            if (mbeanName != null) {
+                registerMBean(actor.metrics);
+            }
+        }
+        return actor.metrics;
+    }
+
+    /**
+     * Get the metrics of the actor at {@code address}
+     * @param address the address of the actor
+     * @return the metrics of the actor or {@code null} if there is no actor
+     *         at the address or it does not collect metrics
+     * @see #enableMetrics(Address)
+     */
+    public ActorMetrics getMetrics(Address address) {
+        Actor actor = lookup(address);
+        return actor == null ? null : actor.metrics;
+    }
+
+    /**
+     * Register the metrics of the bus and of all actors collecting metrics
+     * in the platform MBean server. The bus is registered under the object
+     * name {@code juglr:type=MessageBus,name=<name>} and actors under
+     * {@code juglr:type=Actor,bus=<name>,address=<address>}. Actors for
+     * which metrics are enabled later are registered as well.
+     * @param name the name of the bus in the object names
+     * @throws IllegalStateException if the MBeans are already registered
+     *                               or the registration fails
+     * @see #unregisterMBeans()
+     */
+    public synchronized void registerMBeans(String name) {
+        if (mbeanName != null) {
+            throw new IllegalStateException(
+                               "MBeans already registered as " + mbeanName);
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    metrics, new ObjectName("juglr:type=MessageBus,name=" +
+                                            ObjectName.quote(name)));
+        } catch (JMException e) {
+            throw new IllegalStateException(
+                               "Failed to register MBean for bus " + name, e);
+        }
+        mbeanName = name;
+
+        Map<Actor,Boolean> seen = new IdentityHashMap<Actor,Boolean>();
+        for (LocalAddress address : addressSpace.values()) {
+            Actor actor = address.resident;
+            if (actor != null && actor.metrics != null &&
+                seen.put(actor, Boolean.TRUE) == null) {
+                registerMBean(actor.metrics);
+            }
+        }
+    }
+
+    /**
+     * Remove the MBeans registered by {@link #registerMBeans(String)} from
+     * the platform MBean server. This is done automatically when the bus is
+     * shut down
+     */
+    public synchronized void unregisterMBeans() {
+        if (mbeanName == null) {
+            return;
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (ObjectName name : server.queryNames(new ObjectName(
+                    "juglr:type=Actor,bus=" + ObjectName.quote(mbeanName) +
+                    ",*"), null)) {
+                server.unregisterMBean(name);
+            }
+            server.unregisterMBean(new ObjectName(
+                    "juglr:type=MessageBus,name=" +
+                    ObjectName.quote(mbeanName)));
+        } catch (JMException e) {
+            System.err.println(String.format(
+                    "Failed to unregister MBeans for bus '%s': %s",
+                    mbeanName, e));
+        }
+        mbeanName = null;
+    }
+
+    private ObjectName actorObjectName(ActorMetrics m) throws JMException {
+        return new ObjectName("juglr:type=Actor,bus=" +
+                              ObjectName.quote(mbeanName) + ",address=" +
+                              ObjectName.quote(m.getAddress()));
+    }
+
+    /* Must be called while synchronized on the bus */
+    private void registerMBean(ActorMetrics m) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                                                     m, actorObjectName(m));
+        } catch (JMException e) {
+            System.err.println(String.format(
+                    "Failed to register MBean for actor '%s': %s",
+                    m.getAddress(), e));
+        }
+    }
+
+    private synchronized void unregisterMBean(ActorMetrics m) {
+        if (m == null || mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                                                        actorObjectName(m));
+        } catch (JMException e) {
+            // Not registered, nothing to do
+        }
+    }
+
+    /**
+     * Get the {@link DeadLetterOffice} receiving the messages on this bus
+     * that could not be delivered
+     * @return the dead-letter office of the bus
+     */
+    public DeadLetterOffice getDeadLetterOffice() {
+        return deadLetterOffice;
+    }
+
+    /**
+     * Replace the {@link DeadLetterOffice} of the bus. The new office takes
+     * over the {@link #DEAD_LETTERS} address
+     * @param office the new dead-letter office, which must be connected to
+     *               this bus
+     * @throws IllegalArgumentException if {@code office} is connected to
+     *                                  another bus
+     */
+    public synchronized void setDeadLetterOffice(DeadLetterOffice office) {
+        if (office.getBus() != this) {
+            throw new IllegalArgumentException(
+                            "Dead-letter office is connected to another bus");
+        }
+
+        LocalAddress address = addressSpace.get(DEAD_LETTERS);
+        if (address != null) {
+            address.resident = office;
+        } else {
+            addressSpace.put(DEAD_LETTERS,
+                             new LocalAddress(DEAD_LETTERS, office, this));
+        }
+        deadLetterOffice = office;
+    }
+
     private Actor lookup(Address address) {
         // Fast path lookups for local addresses
         if (address instanceof LocalAddress) {
             return ((LocalAddress) address).resolve();
+        } else if (address instanceof VirtualAddress) {
+            // Virtual actors are only activated by send()
+            return ((VirtualAddress) address).resolve();
         }
 
-        return addressSpace.get(address.externalize());
+        LocalAddress local = addressSpace.get(address.externalize());
+        return local == null ? null : local.resolve();
     }
 
     /**
@@ -262,14 +1184,35 @@ public class MessageBus {
      *         {@code null} in case no such address is registered on the bus
      */
     public Address lookup(String address) {
-        Actor actor = addressSpace.get(address);
-        return actor == null ? null : actor.getAddress();
+        LocalAddress local = addressSpace.get(address);
+        if (local != null) {
+            return local;
+        }
+
+        for (VirtualRegistry registry : virtualRegistries) {
+            if (address.startsWith(registry.prefix) &&
+                address.length() > registry.prefix.length()) {
+                return new VirtualAddress(address, registry);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Like {@link #lookup(String)}, but returns an address with no actor
+     * behind it if the address is not registered, so messages sent to it
+     * are treated as undeliverable
+     */
+    Address resolve(String address) {
+        Address result = lookup(address);
+        return result != null ? result : new LocalAddress(address, null, this);
     }
 
     private static class LocalAddress extends Address {
 
         String address;
-        Actor resident;
+        volatile Actor resident;
+        volatile boolean stopped;
         MessageBus bus;
 
         public LocalAddress(String address, Actor resident, MessageBus bus) {
@@ -297,6 +1240,159 @@ public class MessageBus {
         }
     }
 
+    /**
+     * Stable address of a virtual actor. Any number of instances may exist
+     * for the same address, so all synchronization is done on the locks of
+     * the registry
+     */
+    private static class VirtualAddress extends Address {
+
+        String address;
+        VirtualRegistry registry;
+
+        public VirtualAddress(String address, VirtualRegistry registry) {
+            this.address = address;
+            this.registry = registry;
+        }
+
+        @Override
+        public String externalize() {
+            return address;
+        }
+
+        @Override
+        public MessageBus getBus() {
+            return registry.getBus();
+        }
+
+        public Actor resolve() {
+            return registry.active.get(address);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof VirtualAddress &&
+                   ((VirtualAddress)o).address.equals(address);
+        }
+
+        @Override
+        public int hashCode() {
+            return address.hashCode();
+        }
+    }
+
+    /**
+     * Book keeping for the virtual actors under a given prefix
+     */
+    private class VirtualRegistry {
+
+        final String prefix;
+        final VirtualActor.Factory factory;
+        final long idleTimeout;
+        final PassivationStore store;
+        final ConcurrentMap<String,VirtualActor> active;
+        final Object[] locks;
+
+        VirtualRegistry(String prefix, VirtualActor.Factory factory,
+                        long idleTimeout, PassivationStore store) {
+            this.prefix = prefix;
+            this.factory = factory;
+            this.idleTimeout = idleTimeout;
+            this.store = store;
+            active = new ConcurrentHashMap<String,VirtualActor>();
+            locks = new Object[64];
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        MessageBus getBus() {
+            return MessageBus.this;
+        }
+
+        Object lock(String address) {
+            return locks[(address.hashCode() & 0x7fffffff) % locks.length];
+        }
+
+        /* Must be called holding the lock for address */
+        VirtualActor activate(VirtualAddress address) {
+            VirtualActor actor = active.get(address.address);
+            if (actor == null) {
+                Box state = store.take(address.address);
+                try {
+                    actor = create(address, state);
+                } catch (RuntimeException e) {
+                    store.put(address.address, state);
+                    throw e;
+                } catch (Error e) {
+                    store.put(address.address, state);
+                    throw e;
+                }
+                active.put(address.address, actor);
+            }
+            return actor;
+        }
+
+        /* Must be called holding the lock for address */
+        VirtualActor create(VirtualAddress address, Box state) {
+            String key = address.address.substring(prefix.length());
+            VirtualActor actor = factory.newActor(MessageBus.this, key);
+            if (actor == null || actor.getBus() != MessageBus.this) {
+                throw new IllegalStateException(
+                        "Invalid virtual actor for '" + address + "': " + actor);
+            }
+
+            // Move the actor from the address it was born with
+            freeAddress(actor.getAddress());
+            actor.rebind(address);
+            actor.setKey(key);
+            synchronized (actor) {
+                actor.activate(state);
+            }
+            return actor;
+        }
+
+        /* Passivate all actors that has been idle for too long */
+        void sweep() {
+            for (VirtualActor actor : active.values()) {
+                if (System.currentTimeMillis() - actor.lastActive <
+                                                                idleTimeout) {
+                    continue;
+                }
+
+                String address = actor.getAddress().externalize();
+                synchronized (lock(address)) {
+                    // Messages can only be put in the mailbox while we hold
+                    // the lock, and the mailbox is scheduled while the actor
+                    // is processing messages
+                    Mailbox mailbox = actor.getMailbox();
+                    if (active.get(address) != actor ||
+                        !mailbox.isEmpty() || mailbox.isScheduled() ||
+                        System.currentTimeMillis() - actor.lastActive <
+                                                                idleTimeout) {
+                        continue;
+                    }
+
+                    Box state;
+                    try {
+                        synchronized (actor) {
+                            state = actor.passivate();
+                        }
+                    } catch (Throwable t) {
+                        System.err.println(String.format(
+                             "Error passivating virtual actor '%s': %s",
+                             address, t));
+                        t.printStackTrace();
+                        continue;
+                    }
+
+                    store.put(address, state);
+                    active.remove(address);
+                }
+            }
+        }
+    }
+
     public static void main(String[] args) {
         if (System.getProperty("juglr.busclass") == null) {
             System.setProperty("juglr.busclass", "juglr.net.HTTPMessageBus");
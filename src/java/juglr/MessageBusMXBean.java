@@ -0,0 +1,32 @@
+package juglr;
+
+/**
+ * JMX management interface for the metrics of a message bus
+ *
+ * @see BusMetrics
+ * @see MessageBus#registerMBeans(String)
+ */
+public interface MessageBusMXBean {
+
+    public int getParallelism();
+
+    public int getPoolSize();
+
+    public int getActiveThreadCount();
+
+    public int getRunningThreadCount();
+
+    public long getStealCount();
+
+    public long getQueuedTaskCount();
+
+    public int getActorCount();
+
+    public long getSentCount();
+
+    public long getCompletedCount();
+
+    public long getPendingCount();
+
+    public long getDeadLetterCount();
+}
@@ -9,6 +9,12 @@ import java.util.List;
  * Asynchronously forward incoming messages to a collection of delegates
  * based on a given strategy. For cases where you want to forward messages
  * to a single actor out of a given set see {@link DelegatingActor}.
+ * <p/>
+ * All delegates receive the same message instance, unless it is a frozen
+ * {@link Box} of {@code MAP} or {@code LIST} type, see
+ * {@link Box#freeze()}. Each delegate then receives its own box, with its
+ * own sender, reply-to address and trace, sharing the value of the
+ * original box without copying it.
  *
  * @see DelegatingActor
  */
@@ -0,0 +1,284 @@
+package juglr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * A FIFO {@link Mailbox} that spills messages to disk when the actor falls
+ * behind. Up to a given threshold messages are queued on the heap. Messages
+ * arriving while the heap queue is full are serialized as
+ * {@link CborBoxWriter CBOR} and written to a ring buffer in a memory
+ * mapped file. Once the heap queue has been drained the spilled messages
+ * are read back in order.
+ * <p/>
+ * {@link Box} messages are stored entirely in the ring file, including the
+ * external forms of their sender and reply-to addresses. Other message
+ * types can not be serialized and are kept on the heap, with a placeholder
+ * in the ring file to preserve the order of the messages.
+ * <p/>
+ * If the ring file itself fills up, messages are queued on the heap until
+ * there is room in the ring again. Thus no messages are ever dropped, but
+ * the ring capacity should be sized to hold the expected backlog.
+ * <p/>
+ * The ring file is scratch space for the lifetime of the mailbox; messages
+ * are not recovered from it if the process is restarted.
+ *
+ * @see FifoMailbox
+ */
+public class OverflowMailbox extends Mailbox {
+
+    /* Marks the rest of the ring as unused, continue from offset 0 */
+    private static final int WRAP = -1;
+
+    private static final byte KIND_BOX = 1;
+    private static final byte KIND_MESSAGE = 2;
+
+    private static final CborBoxWriter writer = new CborBoxWriter();
+    private static final CborBoxParser parser = new CborBoxParser();
+
+    private final MessageBus bus;
+    private final int heapThreshold;
+    private final File file;
+    private final MappedByteBuffer ring;
+    private final int capacity;
+
+    /* All fields below are guarded by this. Messages in head are older
+     * than the messages in the ring, which are older than those in tail */
+    private final ArrayDeque<Message> head;
+    private final ArrayDeque<Message> tail;
+    private final ArrayDeque<Message> placeholders;
+    private int readPos;
+    private int writePos;
+    private int ringCount;
+    private long spilled;
+
+    /**
+     * Create a mailbox spilling to a temporary file that is deleted
+     * when the JVM exits
+     * @param bus the bus to resolve addresses of spilled messages on
+     * @param heapThreshold the maximum number of messages to queue on the
+     *                      heap before spilling to disk
+     * @param ringCapacity the size in bytes of the ring file
+     * @throws IOException if there is an error creating the ring file
+     */
+    public OverflowMailbox(MessageBus bus, int heapThreshold, int ringCapacity)
+                                                            throws IOException {
+        this(bus, createTempFile(), heapThreshold, ringCapacity);
+    }
+
+    /**
+     * Create a mailbox spilling to {@code file}. Any existing contents of
+     * the file are overwritten.
+     * @param bus the bus to resolve addresses of spilled messages on
+     * @param file the file to store the ring buffer in
+     * @param heapThreshold the maximum number of messages to queue on the
+     *                      heap before spilling to disk
+     * @param ringCapacity the size in bytes of the ring file
+     * @throws IOException if there is an error creating the ring file
+     */
+    public OverflowMailbox(MessageBus bus, File file, int heapThreshold,
+                           int ringCapacity) throws IOException {
+        this.bus = bus;
+        this.file = file;
+        this.heapThreshold = heapThreshold;
+        capacity = ringCapacity;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(ringCapacity);
+            ring = raf.getChannel().map(
+                           FileChannel.MapMode.READ_WRITE, 0, ringCapacity);
+        } finally {
+            // The mapping stays valid after closing the file
+            raf.close();
+        }
+
+        head = new ArrayDeque<Message>();
+        tail = new ArrayDeque<Message>();
+        placeholders = new ArrayDeque<Message>();
+    }
+
+    private static File createTempFile() throws IOException {
+        File file = File.createTempFile("juglr-mailbox", ".ring");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Override
+    public boolean put(Message msg) {
+        synchronized (this) {
+            if (ringCount == 0 && tail.isEmpty() &&
+                head.size() < heapThreshold) {
+                head.add(msg);
+                return true;
+            }
+        }
+
+        // Serialize outside the lock to keep contention among senders low
+        ByteBuffer record = encode(msg);
+
+        synchronized (this) {
+            if (ringCount == 0 && tail.isEmpty() &&
+                head.size() < heapThreshold) {
+                head.add(msg);
+            } else if (!tail.isEmpty() || !write(record, msg)) {
+                tail.add(msg);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized Message poll() {
+        Message msg = head.poll();
+        if (msg != null) {
+            return msg;
+        }
+
+        if (ringCount > 0) {
+            msg = read();
+
+            // Move messages queued while the ring was full into the ring
+            while (!tail.isEmpty()) {
+                Message next = tail.peek();
+                if (!write(encode(next), next)) {
+                    break;
+                }
+                tail.poll();
+            }
+            return msg;
+        }
+
+        return tail.poll();
+    }
+
+    @Override
+    public synchronized int size() {
+        return head.size() + ringCount + tail.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return head.isEmpty() && ringCount == 0 && tail.isEmpty();
+    }
+
+    /**
+     * Get the number of messages currently stored in the ring file
+     * @return the number of spilled messages
+     */
+    public synchronized int getSpilledCount() {
+        return ringCount;
+    }
+
+    /**
+     * Get the total number of messages that have been written to the ring
+     * file since the mailbox was created
+     * @return the number of messages written to disk
+     */
+    public synchronized long getTotalSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Get the file backing the ring buffer
+     * @return the ring file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /* Append a record to the ring, returns false if there is no room */
+    private boolean write(ByteBuffer record, Message msg) {
+        int needed = 4 + record.remaining();
+        if (ringCount == 0) {
+            readPos = 0;
+            writePos = 0;
+        } else if (writePos == readPos) {
+            return false;
+        }
+
+        if (writePos >= readPos) {
+            if (capacity - writePos < needed) {
+                if (needed > readPos && ringCount > 0 || needed > capacity) {
+                    return false;
+                }
+                if (capacity - writePos >= 4) {
+                    ring.putInt(writePos, WRAP);
+                }
+                writePos = 0;
+            }
+        } else if (readPos - writePos < needed) {
+            return false;
+        }
+
+        ring.putInt(writePos, record.remaining());
+        ring.position(writePos + 4);
+        ring.put(record);
+        writePos += needed;
+
+        if (!(msg instanceof Box)) {
+            placeholders.add(msg);
+        }
+        ringCount++;
+        spilled++;
+        return true;
+    }
+
+    /* Remove the oldest record from the ring and decode it */
+    private Message read() {
+        if (capacity - readPos < 4 || ring.getInt(readPos) == WRAP) {
+            readPos = 0;
+        }
+
+        int length = ring.getInt(readPos);
+        ByteBuffer buf = ring.duplicate();
+        buf.position(readPos + 4);
+        buf.limit(readPos + 4 + length);
+        readPos += 4 + length;
+        ringCount--;
+
+        if (buf.get() == KIND_MESSAGE) {
+            return placeholders.poll();
+        }
+
+        // A list of the sender, the reply-to address and the box. The box
+        // is lazy and only decoded as far as the actor reads it
+        Box record = parser.parseLazy(buf);
+        Box box = record.get(2);
+        String sender = record.get(0).getString();
+        String replyTo = record.get(1).getString();
+        // Addresses always start with a '/' so an empty string means null
+        if (sender.length() != 0) {
+            box.setSender(bus.resolve(sender));
+        }
+        if (replyTo.length() != 0) {
+            box.setReplyTo(bus.resolve(replyTo));
+        }
+        return box;
+    }
+
+    private static ByteBuffer encode(Message msg) {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        if (!(msg instanceof Box)) {
+            buf.put(KIND_MESSAGE);
+        } else {
+            Box record = Box.newList(3)
+                            .add(externalize(msg.getSender()))
+                            .add(externalize(msg.getReplyTo()))
+                            .add((Box)msg);
+            buf.put(KIND_BOX);
+            buf = writer.write(record, buf);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static String externalize(Address address) {
+        return address == null ? "" : address.externalize();
+    }
+}
@@ -0,0 +1,200 @@
+package juglr;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage for the state of passivated {@link VirtualActor}s. Implementations
+ * must be thread safe.
+ *
+ * @see VirtualActor
+ * @see MessageBus#registerVirtual(String, VirtualActor.Factory, long, PassivationStore)
+ */
+public interface PassivationStore {
+
+    /**
+     * Store the state of a passivated actor, replacing any state stored for
+     * {@code address}
+     * @param address the external form of the address of the actor
+     * @param state the state of the actor
+     */
+    public void put(String address, Box state);
+
+    /**
+     * Remove and return the state stored for {@code address}
+     * @param address the external form of the address of the actor
+     * @return the stored state or {@code null} if there is none
+     */
+    public Box take(String address);
+
+    /**
+     * A store keeping the states as JSON encoded in UTF-8 outside the Java
+     * heap. The states are packed back to back in direct byte buffers, the
+     * slabs, of {@link #DEFAULT_SLAB_SIZE} bytes unless configured
+     * otherwise, so storing a state costs a copy into the current slab
+     * rather than the allocation of a direct buffer. A state larger than a
+     * slab gets a direct buffer of its own.
+     * <p/>
+     * States are only ever appended to a slab. A slab is released to the
+     * garbage collector when all its states have been taken, and when less
+     * than a quarter of a full slab is in use its remaining states are
+     * copied to the current slab, so each slab holds at least a quarter of
+     * its size in live states.
+     */
+    public static class OffHeap implements PassivationStore {
+
+        /**
+         * The default size of the slabs of the store, 1MB
+         */
+        public static final int DEFAULT_SLAB_SIZE = 1024*1024;
+
+        /* A direct buffer holding states back to back. The bytes of a state
+         * are never overwritten, so they can be parsed after it is taken
+         * without holding the lock of the store */
+        private static final class Slab {
+            final ByteBuffer buf;
+            final List<Entry> entries;
+            int live; // Number of bytes in states that are not taken
+
+            Slab(int size) {
+                buf = ByteBuffer.allocateDirect(size);
+                entries = new ArrayList<Entry>();
+            }
+        }
+
+        /* The location of a stored state */
+        private static final class Entry {
+            final String address;
+            final Slab slab;
+            final int offset;
+            final int length;
+
+            Entry(String address, Slab slab, int offset, int length) {
+                this.address = address;
+                this.slab = slab;
+                this.offset = offset;
+                this.length = length;
+            }
+
+            ByteBuffer data() {
+                ByteBuffer data = slab.buf.duplicate();
+                data.limit(offset + length);
+                data.position(offset);
+                return data;
+            }
+        }
+
+        private final Map<String,Entry> states;
+        private final int slabSize;
+        private final ByteBoxParser parser;
+        private final ByteBoxWriter writer;
+        private Slab current;
+
+        /**
+         * Create a store with slabs of {@link #DEFAULT_SLAB_SIZE} bytes
+         */
+        public OffHeap() {
+            this(DEFAULT_SLAB_SIZE);
+        }
+
+        /**
+         * Create a store with slabs of {@code slabSize} bytes
+         * @param slabSize the number of bytes in each slab
+         * @throws IllegalArgumentException if {@code slabSize} is not
+         *                                  positive
+         */
+        public OffHeap(int slabSize) {
+            if (slabSize <= 0) {
+                throw new IllegalArgumentException(
+                                          "Illegal slab size: " + slabSize);
+            }
+            this.slabSize = slabSize;
+            states = new HashMap<String,Entry>();
+            parser = new JSonBoxParser();
+            writer = new JSonBoxWriter();
+        }
+
+        public void put(String address, Box state) {
+            if (state == null) {
+                synchronized (this) {
+                    release(states.remove(address));
+                }
+                return;
+            }
+
+            ByteBuffer data = writer.write(state, ByteBuffer.allocate(256));
+            data.flip();
+            synchronized (this) {
+                release(states.remove(address));
+                store(address, data);
+            }
+        }
+
+        public Box take(String address) {
+            Entry entry;
+            synchronized (this) {
+                entry = states.remove(address);
+                if (entry == null) {
+                    return null;
+                }
+                release(entry);
+            }
+
+            return parser.parse(entry.data());
+        }
+
+        /**
+         * Get the number of actor states held by the store
+         * @return the number of stored states
+         */
+        public synchronized int size() {
+            return states.size();
+        }
+
+        /* Copy data into the current slab, or a slab of its own if it is
+         * larger than a slab, and index it under address */
+        private void store(String address, ByteBuffer data) {
+            int length = data.remaining();
+            Slab slab;
+            if (length > slabSize) {
+                slab = new Slab(length);
+            } else {
+                if (current == null || current.buf.remaining() < length) {
+                    current = new Slab(slabSize);
+                }
+                slab = current;
+            }
+
+            Entry entry = new Entry(
+                                 address, slab, slab.buf.position(), length);
+            slab.buf.put(data);
+            slab.live += length;
+            slab.entries.add(entry);
+            states.put(address, entry);
+        }
+
+        /* Account for entry being removed from the index, moving the
+         * remaining states out of its slab if it is mostly unused */
+        private void release(Entry entry) {
+            if (entry == null) {
+                return;
+            }
+
+            Slab slab = entry.slab;
+            slab.live -= entry.length;
+            if (slab != current && slab.live > 0 &&
+                slab.live < slab.buf.capacity() / 4) {
+                for (Entry e : slab.entries) {
+                    if (states.get(e.address) == e) {
+                        store(e.address, e.data());
+                    }
+                }
+                slab.entries.clear();
+                slab.live = 0;
+            }
+        }
+    }
+}
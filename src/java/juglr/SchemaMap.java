@@ -0,0 +1,196 @@
+package juglr;
+
+import juglr.internal.SmallMap;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The map of a {@link BoxSchema} box, storing the value of each field of
+ * the schema in its slot, or {@code null} if the field is not set. Putting
+ * a key that is not a field, or a {@code null} value, copies all entries
+ * to a {@link SmallMap} and drops the slots. Schema maps are serialized as
+ * plain maps.
+ */
+final class SchemaMap extends AbstractMap<String,Box> implements Serializable {
+
+    final transient BoxSchema schema;
+    private transient Box[] slots;
+    private transient int size;
+    private Map<String,Box> map;
+
+    SchemaMap(BoxSchema schema) {
+        this.schema = schema;
+        slots = new Box[schema.size()];
+    }
+
+    /**
+     * Get the map of a schema box
+     * @param box the box to inspect
+     * @return the map of the box, or {@code null} if it is not a schema box
+     *         or has been converted to a plain map
+     */
+    static SchemaMap of(Box box) {
+        if (box.getType() != Box.Type.MAP) {
+            return null;
+        }
+        Object map = box.getVal();
+        return map instanceof SchemaMap && ((SchemaMap)map).map == null ?
+               (SchemaMap)map : null;
+    }
+
+    /* The value in slot, or null. Only valid while the slots are kept */
+    Box slot(int slot) {
+        return slots[slot];
+    }
+
+    Box get(BoxSchema.Field field) {
+        if (map == null && field.getSchema() == schema) {
+            return slots[field.getSlot()];
+        }
+        return get(field.getName());
+    }
+
+    Box put(BoxSchema.Field field, Box value) {
+        if (map == null && field.getSchema() == schema && value != null) {
+            return putSlot(field.getSlot(), value);
+        }
+        return put(field.getName(), value);
+    }
+
+    @Override
+    public int size() {
+        return map != null ? map.size() : size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Box get(Object key) {
+        if (map != null) {
+            return map.get(key);
+        }
+        int slot = key instanceof String ? schema.slot((String)key) : -1;
+        return slot < 0 ? null : slots[slot];
+    }
+
+    @Override
+    public Box put(String key, Box value) {
+        if (map == null && value != null) {
+            int slot = schema.slot(key);
+            if (slot >= 0) {
+                return putSlot(slot, value);
+            }
+        }
+        return modify().put(key, value);
+    }
+
+    @Override
+    public Box remove(Object key) {
+        if (map != null) {
+            return map.remove(key);
+        }
+        int slot = key instanceof String ? schema.slot((String)key) : -1;
+        return slot < 0 ? null : removeSlot(slot);
+    }
+
+    @Override
+    public void clear() {
+        if (map != null) {
+            map.clear();
+        } else {
+            slots = new Box[slots.length];
+            size = 0;
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String,Box>> entrySet() {
+        if (map != null) {
+            return map.entrySet();
+        }
+
+        return new AbstractSet<Map.Entry<String,Box>>() {
+            @Override
+            public Iterator<Map.Entry<String,Box>> iterator() {
+                return new Iterator<Map.Entry<String,Box>>() {
+                    int next = advance(0);
+                    int last = -1;
+
+                    public boolean hasNext() {
+                        return next < slots.length;
+                    }
+
+                    public Map.Entry<String,Box> next() {
+                        if (next >= slots.length) {
+                            throw new NoSuchElementException();
+                        }
+                        last = next;
+                        next = advance(next + 1);
+                        return new AbstractMap.SimpleImmutableEntry<String,Box>(
+                                schema.field(last).getName(), slots[last]);
+                    }
+
+                    public void remove() {
+                        if (last < 0 || map != null) {
+                            throw new IllegalStateException();
+                        }
+                        removeSlot(last);
+                        last = -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SchemaMap.this.size();
+            }
+        };
+    }
+
+    /* The first set slot from slot on */
+    private int advance(int slot) {
+        while (slot < slots.length && slots[slot] == null) {
+            slot++;
+        }
+        return slot;
+    }
+
+    private Box putSlot(int slot, Box value) {
+        Box old = slots[slot];
+        slots[slot] = value;
+        if (old == null) {
+            size++;
+        }
+        return old;
+    }
+
+    private Box removeSlot(int slot) {
+        Box old = slots[slot];
+        slots[slot] = null;
+        if (old != null) {
+            size--;
+        }
+        return old;
+    }
+
+    private Map<String,Box> modify() {
+        if (map == null) {
+            map = new SmallMap<String,Box>(this);
+            slots = null;
+        }
+        return map;
+    }
+
+    private Object writeReplace() {
+        return map != null ? map : new SmallMap<String,Box>(this);
+    }
+}
@@ -0,0 +1,156 @@
+package juglr;
+
+/**
+ * Decides what happens to an {@link Actor} when its {@link Actor#react} or
+ * {@link Actor#start} method throws. Every {@link MessageBus} has a default
+ * supervisor which can be overridden for individual actors by calling
+ * {@link MessageBus#supervise(Address, Supervisor)}.
+ * <p/>
+ * The possible outcomes of a failure are given by the {@link Directive}
+ * enumeration. Restarting an actor replaces the failed actor instance
+ * with a new one obtained from a {@link Factory}. The new actor takes over
+ * all addresses and the mailbox of the failed actor so messages sent to it
+ * are not lost, and its {@link Actor#start} method is invoked.
+ * <p/>
+ * To avoid restart loops a restarting supervisor only allows a given number
+ * of restarts within a time window. When the limit is exceeded the failing
+ * actor is stopped instead. Note that the limit is per supervisor, so
+ * actors sharing a supervisor also share the restart budget.
+ * <p/>
+ * Subclasses can override {@link #supervise} to select the directive based
+ * on the actor, message, or error.
+ *
+ * @see MessageBus#setSupervisor(Supervisor)
+ * @see MessageBus#supervise(Address, Supervisor)
+ */
+public class Supervisor {
+
+    /**
+     * The possible ways of handling a failing actor
+     */
+    public enum Directive {
+        /** Log the error and keep processing messages with the same actor */
+        RESUME,
+
+        /** Replace the actor with a new instance from the {@link Factory} */
+        RESTART,
+
+        /** Free all addresses of the actor and drop its queued messages */
+        STOP,
+
+        /**
+         * Pass the failure on to the default supervisor of the bus. If the
+         * default supervisor escalates the actor is stopped
+         */
+        ESCALATE
+    }
+
+    /**
+     * Creates replacement actors for a {@link Supervisor} with the
+     * {@link Directive#RESTART} directive
+     */
+    public static interface Factory {
+
+        /**
+         * Create a new actor instance connected to {@code bus}. The new actor
+         * takes over the addresses and mailbox of the failed actor, and is
+         * started before it handles any of the queued messages. Addresses
+         * the new actor allocated itself are freed
+         * @param bus the bus the failed actor lives on
+         * @return a new actor instance
+         */
+        public Actor newActor(MessageBus bus);
+    }
+
+    private final Directive directive;
+    private final Factory factory;
+    private final long[] restarts;
+    private final long window;
+    private int nextRestart;
+
+    /**
+     * Create a supervisor always applying {@code directive}. Use
+     * {@link #Supervisor(Factory, int, long)} to create a restarting
+     * supervisor.
+     * @param directive the directive to apply to failing actors
+     * @throws IllegalArgumentException if {@code directive} is
+     *                                  {@link Directive#RESTART}
+     */
+    public Supervisor(Directive directive) {
+        if (directive == Directive.RESTART) {
+            throw new IllegalArgumentException(
+                                "Restarting supervisors require a factory");
+        }
+        this.directive = directive;
+        factory = null;
+        restarts = null;
+        window = 0;
+    }
+
+    /**
+     * Create a supervisor restarting failing actors with new instances
+     * obtained from {@code factory}. If more than {@code maxRestarts}
+     * restarts are needed within {@code withinMillis} milliseconds the
+     * failing actor is stopped.
+     * @param factory the factory creating replacement actors
+     * @param maxRestarts the maximum number of restarts in the time window
+     * @param withinMillis the size of the time window in milliseconds
+     */
+    public Supervisor(Factory factory, int maxRestarts, long withinMillis) {
+        if (factory == null) {
+            throw new NullPointerException("Factory is null");
+        }
+        if (maxRestarts < 1) {
+            throw new IllegalArgumentException(
+                              "Maximum number of restarts must be positive");
+        }
+        directive = Directive.RESTART;
+        this.factory = factory;
+        restarts = new long[maxRestarts];
+        window = withinMillis;
+    }
+
+    /**
+     * Decide how to handle an error thrown by {@code actor}.
+     * @param actor the failing actor
+     * @param msg the message being processed when {@code actor} failed or
+     *            {@code null} if the actor failed in its {@link Actor#start}
+     *            method
+     * @param error the error thrown by {@code actor}
+     * @return the directive to apply
+     */
+    public Directive supervise(Actor actor, Message msg, Throwable error) {
+        if (directive != Directive.RESTART) {
+            return directive;
+        }
+
+        return allowRestart() ? Directive.RESTART : Directive.STOP;
+    }
+
+    /**
+     * Create a replacement for a failed actor. The default implementation
+     * uses the factory given in the constructor
+     * @param bus the bus the failed actor lives on
+     * @return the replacement actor
+     * @throws IllegalStateException if this supervisor has no factory
+     */
+    public Actor newActor(MessageBus bus) {
+        if (factory == null) {
+            throw new IllegalStateException("Supervisor has no factory");
+        }
+        return factory.newActor(bus);
+    }
+
+    /* Record a restart if we are within the limit. The restarts array is
+     * a ring buffer of the timestamps of the latest restarts */
+    private synchronized boolean allowRestart() {
+        long now = System.currentTimeMillis();
+        long oldest = restarts[nextRestart];
+        if (oldest != 0 && now - oldest < window) {
+            return false;
+        }
+        restarts[nextRestart] = now;
+        nextRestart = (nextRestart + 1) % restarts.length;
+        return true;
+    }
+}
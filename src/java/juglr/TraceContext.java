@@ -0,0 +1,177 @@
+package juglr;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Identifies the position of a {@link Message} in a chain of messages
+ * caused by one external event, like an incoming HTTP request. All messages
+ * in the chain share the same trace id. Each time an actor sends a message
+ * while it is handling a traced message, the new message gets a fresh span
+ * id, the span id of the message being handled as parent, and a hop count
+ * one larger.
+ * <p/>
+ * Trace contexts are immutable. They are created as roots by a
+ * {@link Tracer}, or from the {@link #HEADER} of an incoming HTTP request,
+ * and propagated automatically by {@link Actor#send}.
+ *
+ * @see Tracer
+ * @see Message#getTrace()
+ */
+public final class TraceContext {
+
+    /**
+     * Name of the HTTP header carrying trace contexts
+     */
+    public static final String HEADER = "Juglr-Trace";
+
+    private static final AtomicLong idSeq =
+                 new AtomicLong(System.nanoTime() ^ System.currentTimeMillis());
+
+    private final long traceId;
+    private final long spanId;
+    private final long parentSpanId;
+    private final int hop;
+    private final boolean sampled;
+    private final long created;
+
+    private TraceContext(long traceId, long spanId, long parentSpanId,
+                         int hop, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.hop = hop;
+        this.sampled = sampled;
+        created = System.nanoTime();
+    }
+
+    /**
+     * Create a context starting a new trace
+     * @param sampled whether spans in the trace should be recorded
+     * @return a new root context
+     */
+    public static TraceContext newRoot(boolean sampled) {
+        long id = newId();
+        return new TraceContext(id, id, 0, 0, sampled);
+    }
+
+    /**
+     * Create a context for the next hop in the trace
+     * @return a new context with this context as parent
+     */
+    public TraceContext child() {
+        return new TraceContext(traceId, newId(), spanId, hop + 1, sampled);
+    }
+
+    /**
+     * Get the id shared by all contexts in the trace
+     * @return the trace id
+     */
+    public long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * Get the id of this hop in the trace
+     * @return the span id
+     */
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * Get the span id of the context this context was created from
+     * @return the parent span id, or {@code 0} for root contexts
+     */
+    public long getParentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     * Get the number of hops from the root of the trace
+     * @return the hop count, {@code 0} for root contexts
+     */
+    public int getHop() {
+        return hop;
+    }
+
+    /**
+     * Return {@code true} if spans in this trace should be recorded
+     * @return whether the trace is sampled
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * Get the value of {@link System#nanoTime()} when the context was
+     * created, which is when the message carrying it was sent
+     * @return creation time in nanoseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Parse a context formatted by {@link #toString()}, as found in the
+     * {@link #HEADER} HTTP header
+     * @param s the string to parse
+     * @return the parsed context or {@code null} if {@code s} is not a
+     *         valid trace context
+     */
+    public static TraceContext parse(String s) {
+        String[] parts = s.trim().split("-");
+        if (parts.length != 5) {
+            return null;
+        }
+        try {
+            return new TraceContext(parseHex(parts[0]), parseHex(parts[1]),
+                                    parseHex(parts[2]),
+                                    Integer.parseInt(parts[3]),
+                                    "1".equals(parts[4]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Format the context as
+     * {@code <trace id>-<span id>-<parent span id>-<hop>-<sampled>}, with
+     * the ids in hex and sampled as {@code 0} or {@code 1}
+     * @return the external form of the context
+     */
+    @Override
+    public String toString() {
+        return Long.toHexString(traceId) + "-" + Long.toHexString(spanId) +
+               "-" + Long.toHexString(parentSpanId) + "-" + hop + "-" +
+               (sampled ? "1" : "0");
+    }
+
+    private static long parseHex(String s) {
+        if (s.length() == 0 || s.length() > 16) {
+            throw new NumberFormatException("Invalid id: " + s);
+        }
+
+        // Long.parseLong can not parse unsigned 64 bit hex numbers
+        long val = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int digit = Character.digit(s.charAt(i), 16);
+            if (digit < 0) {
+                throw new NumberFormatException("Invalid id: " + s);
+            }
+            val = (val << 4) | digit;
+        }
+        return val;
+    }
+
+    /* Ids are a scrambled sequence, unique within the JVM and never 0 */
+    private static long newId() {
+        long z;
+        do {
+            z = idSeq.addAndGet(0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z = z ^ (z >>> 31);
+        } while (z == 0);
+        return z;
+    }
+}
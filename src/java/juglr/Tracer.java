@@ -0,0 +1,262 @@
+package juglr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An {@link Interceptor} starting traces and recording the spans of sampled
+ * traces. A span is one hop in a trace: the delivery of a message to an
+ * actor, from the time it was sent until the actor returned from
+ * {@link Actor#react}. Spans break the latency of a hop down into time
+ * spent queued and time spent processing, which makes it easy to see which
+ * hop in a chain of actors contributes to the tail latency.
+ * <p/>
+ * Messages sent on the bus without a trace context start a new trace,
+ * which is sampled with the probability given by the sample rate. Spans of
+ * sampled traces are recorded in a fixed size ring buffer, where they
+ * overwrite the oldest spans. The buffer is read with {@link #getSpans()}
+ * and {@link #getSpans(long)}, or exported as a {@link Box} suitable for
+ * serving as JSON with {@link #export()}.
+ * <p/>
+ * Install a tracer with {@link MessageBus#addInterceptor}.
+ *
+ * @see TraceContext
+ */
+public class Tracer extends Interceptor.Adapter {
+
+    /**
+     * A recorded hop of a trace
+     */
+    public static class Span {
+        private final TraceContext context;
+        private final String recipient;
+        private final String sender;
+        private final long queuedNanos;
+        private final long processingNanos;
+        private final boolean failed;
+
+        Span(TraceContext context, String recipient, String sender,
+             long queuedNanos, long processingNanos, boolean failed) {
+            this.context = context;
+            this.recipient = recipient;
+            this.sender = sender;
+            this.queuedNanos = queuedNanos;
+            this.processingNanos = processingNanos;
+            this.failed = failed;
+        }
+
+        public TraceContext getContext() {
+            return context;
+        }
+
+        public String getRecipient() {
+            return recipient;
+        }
+
+        /**
+         * @return the external address of the sender or {@code null} if
+         *         the message was not sent by an actor
+         */
+        public String getSender() {
+            return sender;
+        }
+
+        /**
+         * @return nanoseconds from the message was sent until the actor
+         *         started processing it
+         */
+        public long getQueuedNanos() {
+            return queuedNanos;
+        }
+
+        /**
+         * @return nanoseconds the actor spent processing the message
+         */
+        public long getProcessingNanos() {
+            return processingNanos;
+        }
+
+        /**
+         * @return {@code true} if the actor threw an exception
+         */
+        public boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * Get the span as a Box of {@code MAP} type, with ids formatted in
+         * hex and durations in microseconds
+         * @return a box describing the span
+         */
+        public Box toBox() {
+            Box box = Box.newMap()
+                    .put("trace", Long.toHexString(context.getTraceId()))
+                    .put("span", Long.toHexString(context.getSpanId()))
+                    .put("parent", Long.toHexString(context.getParentSpanId()))
+                    .put("hop", context.getHop())
+                    .put("recipient", recipient)
+                    .put("queued", queuedNanos / 1000)
+                    .put("processing", processingNanos / 1000)
+                    .put("failed", failed);
+            if (sender != null) {
+                box.put("sender", sender);
+            }
+            return box;
+        }
+
+        public String toString() {
+            return toBox().toString();
+        }
+    }
+
+    private final double sampleRate;
+    private final AtomicReferenceArray<Span> spans;
+    private final AtomicLong next;
+    private final ThreadLocal<Random> random;
+    private final ThreadLocal<Dispatch> dispatch;
+
+    /* The sampled message being dispatched by a thread. Actors may forward
+     * the message they are handling, replacing its trace context and
+     * sender, so we hold on to the ones it arrived with */
+    private static class Dispatch {
+        TraceContext trace;
+        Address sender;
+        long start;
+    }
+
+    /**
+     * Create a tracer sampling new traces with probability
+     * {@code sampleRate} and keeping the latest {@code capacity} spans
+     * @param sampleRate the fraction of new traces to record, between
+     *                   {@code 0} and {@code 1}
+     * @param capacity the number of spans to keep
+     */
+    public Tracer(double sampleRate, int capacity) {
+        this.sampleRate = sampleRate;
+        spans = new AtomicReferenceArray<Span>(capacity);
+        next = new AtomicLong();
+        random = new ThreadLocal<Random>() {
+            @Override
+            protected Random initialValue() {
+                return new Random();
+            }
+        };
+        dispatch = new ThreadLocal<Dispatch>() {
+            @Override
+            protected Dispatch initialValue() {
+                return new Dispatch();
+            }
+        };
+    }
+
+    /**
+     * Give messages without a trace context a new root context, sampled
+     * according to the sample rate. Messages that are not sampled are left
+     * without a context, so they carry no tracing overhead downstream.
+     */
+    @Override
+    public boolean beforeSend(Message msg, Address recipient) {
+        if (msg.getTrace() == null && sampleRate > 0 &&
+            random.get().nextDouble() < sampleRate) {
+            msg.setTrace(TraceContext.newRoot(true));
+        }
+        return true;
+    }
+
+    @Override
+    public void beforeReact(Actor actor, Message msg) {
+        TraceContext trace = msg.getTrace();
+        Dispatch d = dispatch.get();
+        if (trace != null && trace.isSampled()) {
+            d.trace = trace;
+            d.sender = msg.getSender();
+            d.start = System.nanoTime();
+        } else {
+            d.trace = null;
+        }
+    }
+
+    @Override
+    public void afterReact(Actor actor, Message msg) {
+        record(actor, msg, false);
+    }
+
+    @Override
+    public void onError(Actor actor, Message msg, Throwable error) {
+        record(actor, msg, true);
+    }
+
+    private void record(Actor actor, Message msg, boolean failed) {
+        Dispatch d = dispatch.get();
+        TraceContext trace = d.trace;
+        if (trace == null) {
+            return;
+        }
+        d.trace = null;
+
+        long now = System.nanoTime();
+        long start = d.start;
+        Address sender = d.sender;
+        Span span = new Span(trace, actor.getAddress().externalize(),
+                             sender == null ? null : sender.externalize(),
+                             start - trace.getCreated(), now - start, failed);
+        spans.set((int)(next.getAndIncrement() % spans.length()), span);
+    }
+
+    /**
+     * Get the recorded spans, oldest first
+     * @return a copy of the spans in the ring buffer
+     */
+    public List<Span> getSpans() {
+        long end = next.get();
+        int capacity = spans.length();
+        List<Span> result = new ArrayList<Span>(capacity);
+        for (long i = Math.max(0, end - capacity); i < end; i++) {
+            Span span = spans.get((int)(i % capacity));
+            if (span != null) {
+                result.add(span);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the recorded spans of a given trace, oldest first
+     * @param traceId the id of the trace
+     * @return the spans of the trace that are still in the ring buffer
+     */
+    public List<Span> getSpans(long traceId) {
+        List<Span> result = new ArrayList<Span>();
+        for (Span span : getSpans()) {
+            if (span.getContext().getTraceId() == traceId) {
+                result.add(span);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the recorded spans as a Box of {@code LIST} type, see
+     * {@link Span#toBox()}
+     * @return a box holding all spans in the ring buffer, oldest first
+     */
+    public Box export() {
+        Box list = Box.newList();
+        for (Span span : getSpans()) {
+            list.add(span.toBox());
+        }
+        return list;
+    }
+
+    /**
+     * Remove all recorded spans
+     */
+    public void clear() {
+        for (int i = 0; i < spans.length(); i++) {
+            spans.set(i, null);
+        }
+    }
+}
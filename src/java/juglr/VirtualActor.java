@@ -0,0 +1,81 @@
+package juglr;
+
+/**
+ * An actor that is created on demand and kept in memory only while it is
+ * in use. Virtual actors are addressed by a stable name under a prefix
+ * registered with {@link MessageBus#registerVirtual}, like
+ * {@code /session/4711}. The first message sent to such an address creates
+ * the actor from a {@link Factory}.
+ * <p/>
+ * When a virtual actor has been idle for longer than the configured timeout
+ * it is <i>passivated</i>: its state is obtained by calling
+ * {@link #passivate()}, handed to a {@link PassivationStore}, and the actor
+ * instance is dropped. The next message sent to its address creates a new
+ * instance which gets the stored state passed to {@link #activate(Box)}
+ * before it receives any messages. This way only the active set of actors
+ * is kept on the heap, even if the total number of actors is huge.
+ * <p/>
+ * Virtual actors always have a {@link FifoMailbox}, and the address
+ * returned by {@link #getAddress()} is the stable name of the actor. Just
+ * like {@link #react} the methods {@link #activate} and {@link #passivate}
+ * are invoked from a context synchronized on the actor.
+ *
+ * @see MessageBus#registerVirtual(String, Factory, long)
+ */
+public abstract class VirtualActor extends Actor {
+
+    /**
+     * Creates virtual actors on demand
+     */
+    public static interface Factory {
+
+        /**
+         * Create a new virtual actor instance
+         * @param bus the bus the actor must be connected to
+         * @param key the key of the actor, that is its address without the
+         *            registered prefix
+         * @return a new virtual actor
+         */
+        public VirtualActor newActor(MessageBus bus, String key);
+    }
+
+    private String key;
+    volatile long lastActive;
+
+    /**
+     * Create a virtual actor connected to {@code bus}
+     * @param bus the message bus the actor should connect to
+     */
+    public VirtualActor(MessageBus bus) {
+        super(bus, new FifoMailbox());
+    }
+
+    /**
+     * Get the key of the actor, that is its address without the registered
+     * prefix
+     * @return the key of the actor
+     */
+    public String getKey() {
+        return key;
+    }
+
+    void setKey(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Restore the actor from its passivated state. This method is invoked
+     * before the actor receives any messages.
+     * @param state the state returned by {@link #passivate()} when the actor
+     *              was last passivated, or {@code null} if the actor is
+     *              activated for the first time
+     */
+    protected abstract void activate(Box state);
+
+    /**
+     * Return the state of the actor so it can be dropped from memory. The
+     * actor receives no more messages after this method has returned.
+     * @return the state of the actor or {@code null} if it has no state
+     */
+    protected abstract Box passivate();
+}
@@ -0,0 +1,406 @@
+package juglr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link Interceptor} detecting actors that block a worker thread of the
+ * {@link MessageBus} inside {@link Actor#react}. Actors should only block
+ * via {@link Actor#await} or {@link Actor#awaitTimeout}, which let the pool
+ * compensate for the blocked thread. An actor doing synchronous I/O
+ * directly in {@code react} silently steals a worker from all other actors.
+ * <p/>
+ * The watchdog keeps track of the running dispatches and scans them
+ * periodically from a daemon thread. Dispatches that have been running for
+ * longer than the threshold, not counting time spent in {@code await}, are
+ * reported once to the {@link Listener} of the watchdog, with the address
+ * of the actor, the type of the message, and a sample of the stack of the
+ * thread running it. The default listener logs the reports to
+ * {@code System.err}.
+ * <p/>
+ * Optionally the watchdog compensates for stalled dispatches by raising the
+ * parallelism of the pool of the bus by one for each stalled dispatch,
+ * until the dispatch completes.
+ * <p/>
+ * Install a watchdog with {@link #start()}, which adds it as an interceptor
+ * on the bus, and remove it again with {@link #stop()}.
+ */
+public class Watchdog extends Interceptor.Adapter {
+
+    /**
+     * Default number of milliseconds a dispatch may run before it is
+     * reported
+     */
+    public static final long DEFAULT_THRESHOLD = 1000;
+
+    /**
+     * Receives reports of stalled dispatches from the scanner thread of a
+     * {@link Watchdog}
+     */
+    public static interface Listener {
+
+        /**
+         * Invoked once for each dispatch running for longer than the
+         * threshold of the watchdog
+         * @param report description of the stalled dispatch
+         */
+        public void stalled(Report report);
+    }
+
+    /**
+     * Describes a dispatch that has been running for longer than the
+     * threshold of a {@link Watchdog}
+     */
+    public static class Report {
+        private final Address actor;
+        private final String messageType;
+        private final Thread thread;
+        private final long runningNanos;
+        private final StackTraceElement[] stack;
+
+        Report(Address actor, String messageType, Thread thread,
+               long runningNanos, StackTraceElement[] stack) {
+            this.actor = actor;
+            this.messageType = messageType;
+            this.thread = thread;
+            this.runningNanos = runningNanos;
+            this.stack = stack;
+        }
+
+        /**
+         * @return the address of the stalled actor
+         */
+        public Address getActor() {
+            return actor;
+        }
+
+        /**
+         * @return the class name of the message being processed
+         */
+        public String getMessageType() {
+            return messageType;
+        }
+
+        /**
+         * @return the thread running the dispatch
+         */
+        public Thread getThread() {
+            return thread;
+        }
+
+        /**
+         * @return nanoseconds the dispatch had been running outside
+         *         {@code await} when it was reported
+         */
+        public long getRunningNanos() {
+            return runningNanos;
+        }
+
+        /**
+         * @return the stack of the thread when the dispatch was reported
+         */
+        public StackTraceElement[] getStack() {
+            return stack;
+        }
+
+        public String toString() {
+            StringBuilder buf = new StringBuilder();
+            buf.append(String.format(
+                    "Actor '%s' blocked in react() for %dms processing %s " +
+                    "on thread '%s'",
+                    actor, runningNanos / 1000000, messageType,
+                    thread.getName()));
+            for (StackTraceElement frame : stack) {
+                buf.append("\n\tat ").append(frame);
+            }
+            return buf.toString();
+        }
+    }
+
+    /* A message being processed. Only the owning thread writes to it,
+     * except for the reported and compensated flags, which are written by
+     * the scanner. Compensation is handed over under the lock of the
+     * dispatch, so it is withdrawn exactly once */
+    private static class Dispatch {
+        final Actor actor;
+        final Message msg;
+        final Thread thread;
+        final long start;
+        final Dispatch outer;
+        volatile long blockedNanos;
+        volatile long blockStart;
+        volatile boolean reported;
+        volatile boolean done;
+        boolean compensated;
+
+        Dispatch(Actor actor, Message msg, Dispatch outer) {
+            this.actor = actor;
+            this.msg = msg;
+            this.outer = outer;
+            thread = Thread.currentThread();
+            start = System.nanoTime();
+        }
+
+        long runningNanos(long now) {
+            if (blockStart != 0) {
+                return 0;
+            }
+            return now - start - blockedNanos;
+        }
+    }
+
+    private static final Listener LOG = new Listener() {
+        public void stalled(Report report) {
+            System.err.println(report);
+        }
+    };
+
+    private final MessageBus bus;
+    private final long thresholdNanos;
+    private final long interval;
+    private final ConcurrentMap<Thread,Dispatch> running;
+    private final AtomicLong stalledCount;
+    private final AtomicInteger compensation;
+    private volatile Listener listener;
+    private volatile boolean compensating;
+    private volatile int maxCompensation;
+    private Thread scanner;
+
+    /**
+     * Create a watchdog for {@code bus} reporting dispatches running for
+     * longer than {@link #DEFAULT_THRESHOLD} milliseconds
+     * @param bus the bus to watch
+     */
+    public Watchdog(MessageBus bus) {
+        this(bus, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Create a watchdog for {@code bus} reporting dispatches running for
+     * longer than {@code threshold} milliseconds. The running dispatches are
+     * scanned four times per threshold
+     * @param bus the bus to watch
+     * @param threshold milliseconds a dispatch may run before it is reported
+     */
+    public Watchdog(MessageBus bus, long threshold) {
+        this(bus, threshold, Math.max(1, threshold / 4));
+    }
+
+    /**
+     * Create a watchdog for {@code bus} reporting dispatches running for
+     * longer than {@code threshold} milliseconds
+     * @param bus the bus to watch
+     * @param threshold milliseconds a dispatch may run before it is reported
+     * @param interval milliseconds between scans of the running dispatches
+     */
+    public Watchdog(MessageBus bus, long threshold, long interval) {
+        if (threshold <= 0 || interval <= 0) {
+            throw new IllegalArgumentException(
+                        "Threshold and interval must be positive: " +
+                        threshold + ", " + interval);
+        }
+        this.bus = bus;
+        this.thresholdNanos = threshold * 1000000;
+        this.interval = interval;
+        running = new ConcurrentHashMap<Thread,Dispatch>();
+        stalledCount = new AtomicLong();
+        compensation = new AtomicInteger();
+        listener = LOG;
+        maxCompensation = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Set the listener receiving the reports of stalled dispatches. The
+     * default listener logs them to {@code System.err}
+     * @param listener the new listener
+     * @return always returns {@code this}
+     */
+    public Watchdog setListener(Listener listener) {
+        if (listener == null) {
+            throw new NullPointerException("Listener is null");
+        }
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Enable or disable raising the parallelism of the pool of the bus
+     * while dispatches are stalled. Compensation is disabled by default
+     * @param compensating whether to compensate for stalled dispatches
+     * @param maxCompensation the maximum number of threads to add to the
+     *                        pool
+     * @return always returns {@code this}
+     */
+    public Watchdog setCompensating(boolean compensating,
+                                    int maxCompensation) {
+        this.maxCompensation = maxCompensation;
+        this.compensating = compensating;
+        return this;
+    }
+
+    /**
+     * Get the number of dispatches reported as stalled
+     * @return the number of reports since the watchdog was created
+     */
+    public long getStalledCount() {
+        return stalledCount.get();
+    }
+
+    /**
+     * Get the number of threads currently added to the pool to compensate
+     * for stalled dispatches
+     * @return the current compensation
+     */
+    public int getCompensation() {
+        return compensation.get();
+    }
+
+    /**
+     * Install the watchdog as an interceptor on the bus and start scanning
+     * the running dispatches
+     */
+    public synchronized void start() {
+        if (scanner != null) {
+            return;
+        }
+
+        bus.addInterceptor(this);
+        scanner = new Thread("Juglr watchdog") {
+            public void run() {
+                while (!isInterrupted()) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    scan();
+                }
+            }
+        };
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
+    /**
+     * Stop scanning and remove the watchdog from the bus. Any compensation
+     * is withdrawn when the stalled dispatches complete
+     */
+    public synchronized void stop() {
+        if (scanner == null) {
+            return;
+        }
+
+        bus.removeInterceptor(this);
+        scanner.interrupt();
+        scanner = null;
+    }
+
+    @Override
+    public void beforeReact(Actor actor, Message msg) {
+        Thread thread = Thread.currentThread();
+        running.put(thread, new Dispatch(actor, msg, running.get(thread)));
+    }
+
+    @Override
+    public void afterReact(Actor actor, Message msg) {
+        complete();
+    }
+
+    @Override
+    public void onError(Actor actor, Message msg, Throwable error) {
+        complete();
+    }
+
+    @Override
+    public void beforeBlock(Actor actor) {
+        Dispatch d = running.get(Thread.currentThread());
+        if (d != null) {
+            d.blockStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void afterBlock(Actor actor, long nanos) {
+        Dispatch d = running.get(Thread.currentThread());
+        if (d != null && d.blockStart != 0) {
+            d.blockedNanos += nanos;
+            d.blockStart = 0;
+        }
+    }
+
+    private void complete() {
+        Thread thread = Thread.currentThread();
+        Dispatch d = running.remove(thread);
+        if (d == null) {
+            return;
+        }
+
+        if (d.outer != null) {
+            running.put(thread, d.outer);
+        }
+
+        d.done = true;
+        if (d.reported) {
+            synchronized (d) {
+                if (d.compensated) {
+                    compensation.decrementAndGet();
+                    adjustParallelism(-1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Report the dispatches that have been running for longer than the
+     * threshold since the last scan. Invoked periodically by the scanner
+     * thread started by {@link #start()}
+     */
+    protected void scan() {
+        long now = System.nanoTime();
+        for (Dispatch d : running.values()) {
+            if (d.reported || d.runningNanos(now) < thresholdNanos) {
+                continue;
+            }
+
+            d.reported = true;
+            stalledCount.incrementAndGet();
+            synchronized (d) {
+                if (!d.done) {
+                    d.compensated = compensate();
+                }
+            }
+            try {
+                listener.stalled(new Report(
+                        d.actor.getAddress(), d.msg.getClass().getName(),
+                        d.thread, d.runningNanos(now),
+                        d.thread.getStackTrace()));
+            } catch (Throwable t) {
+                System.err.println("Error in watchdog listener: " + t);
+                t.printStackTrace();
+            }
+        }
+    }
+
+    private boolean compensate() {
+        if (!compensating) {
+            return false;
+        }
+
+        if (compensation.incrementAndGet() > maxCompensation) {
+            compensation.decrementAndGet();
+            return false;
+        }
+        adjustParallelism(1);
+        return true;
+    }
+
+    private void adjustParallelism(int delta) {
+        ForkJoinPool pool = bus.pool;
+        synchronized (pool) {
+            pool.setParallelism(pool.getParallelism() + delta);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package juglr.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for writing to {@link ByteBuffer}s that grow when they run full.
+ * A growing buffer is replaced by a larger one of the same kind, heap or
+ * direct, holding the data written so far, so writers return the buffer
+ * to continue with after each write.
+ */
+public class Buffers {
+
+    private Buffers() {
+        // Only static methods
+    }
+
+    /**
+     * Make sure there are {@code bytes} bytes remaining in {@code buf}
+     * @param buf the buffer to write to
+     * @param bytes the number of bytes about to be written
+     * @return {@code buf} or a larger copy of it
+     */
+    public static ByteBuffer ensure(ByteBuffer buf, int bytes) {
+        return buf.remaining() < bytes ? grow(buf, bytes) : buf;
+    }
+
+    /**
+     * Copy the data before the position of {@code buf} to a new buffer of
+     * at least twice the capacity, with room for {@code bytes} more bytes
+     * @param buf the buffer to grow
+     * @param bytes the number of bytes about to be written
+     * @return a new buffer positioned after the copied data
+     */
+    public static ByteBuffer grow(ByteBuffer buf, int bytes) {
+        int capacity = Math.max(buf.capacity() * 2,
+                                buf.position() + bytes);
+        ByteBuffer grown = buf.isDirect() ?
+                           ByteBuffer.allocateDirect(capacity) :
+                           ByteBuffer.allocate(capacity);
+        buf.flip();
+        return grown.put(buf);
+    }
+}
@@ -0,0 +1,291 @@
+package juglr.internal;
+
+import java.io.Serializable;
+
+/**
+ * An immutable hash map where updates return a new map sharing all but the
+ * changed path with the old one. The map is a hash array mapped trie: each
+ * level consumes five bits of the hash of the key, and nodes only store the
+ * children that are present, indexed by a bitmap. Keys with identical
+ * hashes end up in a collision node.
+ * <p/>
+ * Keys and values must not be {@code null}.
+ */
+public final class PersistentHashMap<K,V> implements Serializable {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<?,?> EMPTY =
+                                new PersistentHashMap<Object,Object>(0, null);
+
+    private final int size;
+    private final Node root;
+
+    private PersistentHashMap(int size, Node root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    /**
+     * Get the empty map
+     * @return a map with no entries
+     */
+    @SuppressWarnings("unchecked")
+    public static <K,V> PersistentHashMap<K,V> empty() {
+        return (PersistentHashMap<K,V>)EMPTY;
+    }
+
+    /**
+     * Get the number of entries in the map
+     * @return the size of the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Look up the value of {@code key}
+     * @param key the key to look up
+     * @return the value of {@code key} or {@code null} if it is not in the
+     *         map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (root == null) {
+            return null;
+        }
+        return (V)root.find(0, hash(key), key);
+    }
+
+    /**
+     * Return a map with {@code key} associated to {@code value}
+     * @param key the key to associate {@code value} with
+     * @param value the value to store
+     * @return a new map, or {@code this} if {@code key} is already
+     *         associated to {@code value}
+     */
+    public PersistentHashMap<K,V> with(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null value for key " + key);
+        }
+
+        boolean[] added = new boolean[1];
+        Node node = root == null ? BitmapNode.EMPTY : root;
+        Node newRoot = node.with(0, hash(key), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K,V>(added[0] ? size + 1 : size, newRoot);
+    }
+
+    /**
+     * Return a map without {@code key}
+     * @param key the key to remove
+     * @return a new map, or {@code this} if {@code key} is not in the map
+     */
+    public PersistentHashMap<K,V> without(Object key) {
+        if (root == null) {
+            return this;
+        }
+
+        Node newRoot = root.without(0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K,V>(size - 1, newRoot);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        // Spread the bits like HashMap, since String hashes of short keys
+        // differ mostly in the low bits
+        return h ^ (h >>> 16);
+    }
+
+    private static abstract class Node implements Serializable {
+        abstract Object find(int shift, int hash, Object key);
+
+        abstract Node with(int shift, int hash, Object key, Object value,
+                           boolean[] added);
+
+        /* Returns null if the node became empty */
+        abstract Node without(int shift, int hash, Object key);
+    }
+
+    /* Pairs of key and value, or null and a child node, for each bit set
+     * in the bitmap */
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        Object find(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int i = index(bit);
+            Object k = array[i];
+            if (k == null) {
+                return ((Node)array[i + 1]).find(shift + BITS, hash, key);
+            }
+            return key.equals(k) ? array[i + 1] : null;
+        }
+
+        Node with(int shift, int hash, Object key, Object value,
+                  boolean[] added) {
+            int bit = bit(hash, shift);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, i);
+                newArray[i] = key;
+                newArray[i + 1] = value;
+                System.arraycopy(array, i, newArray, i + 2, array.length - i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = ((Node)v).with(
+                                     shift + BITS, hash, key, value, added);
+                return child == v ? this : copyAndSet(i, null, child);
+            } else if (key.equals(k)) {
+                return value == v ? this : copyAndSet(i, k, value);
+            }
+
+            added[0] = true;
+            return copyAndSet(i, null, createNode(
+                                  shift + BITS, k, v, hash, key, value));
+        }
+
+        Node without(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+
+            int i = index(bit);
+            Object k = array[i];
+            if (k == null) {
+                Node child = (Node)array[i + 1];
+                Node newChild = child.without(shift + BITS, hash, key);
+                if (newChild == child) {
+                    return this;
+                } else if (newChild != null) {
+                    return copyAndSet(i, null, newChild);
+                }
+            } else if (!key.equals(k)) {
+                return this;
+            }
+
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        private BitmapNode copyAndSet(int i, Object key, Object value) {
+            Object[] newArray = array.clone();
+            newArray[i] = key;
+            newArray[i + 1] = value;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        private int index(int bit) {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    /* Keys with the same hash, as a flat array of keys and values */
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        Object find(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : array[i + 1];
+        }
+
+        Node with(int shift, int hash, Object key, Object value,
+                  boolean[] added) {
+            if (hash != this.hash) {
+                // Push this node down into a bitmap node splitting the hashes
+                return new BitmapNode(bit(this.hash, shift),
+                                      new Object[]{null, this})
+                        .with(shift, hash, key, value, added);
+            }
+
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value) {
+                    return this;
+                }
+                Object[] newArray = array.clone();
+                newArray[i + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+
+        Node without(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return this;
+            } else if (array.length == 2) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+            return new CollisionNode(hash, newArray);
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static Node createNode(int shift, Object k1, Object v1,
+                                   int h2, Object k2, Object v2) {
+        int h1 = hash(k1);
+        if (h1 == h2) {
+            return new CollisionNode(h1, new Object[]{k1, v1, k2, v2});
+        }
+        boolean[] added = new boolean[1];
+        return BitmapNode.EMPTY.with(shift, h1, k1, v1, added)
+                               .with(shift, h2, k2, v2, added);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+}
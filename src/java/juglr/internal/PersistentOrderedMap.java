@@ -0,0 +1,204 @@
+package juglr.internal;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable, insertion ordered map where updates return a new map
+ * sharing most of its structure with the old one. The entries are kept in
+ * a {@link PersistentVector} in insertion order, and a
+ * {@link PersistentHashMap} maps each key to its position in the vector.
+ * Removed entries leave a hole in the vector, which is compacted when
+ * holes make up half of it.
+ * <p/>
+ * The {@link Map} methods modifying the map throw
+ * {@link UnsupportedOperationException}. Use {@link #with} and
+ * {@link #without} instead. Keys and values must not be {@code null}.
+ */
+public final class PersistentOrderedMap<K,V> extends AbstractMap<K,V>
+                                             implements Serializable {
+
+    private static final PersistentOrderedMap<?,?> EMPTY =
+            new PersistentOrderedMap<Object,Object>(
+                    PersistentHashMap.<Object,Integer>empty(),
+                    PersistentVector.<Map.Entry<Object,Object>>empty(), 0);
+
+    private final PersistentHashMap<K,Integer> index;
+    private final PersistentVector<Map.Entry<K,V>> entries;
+    private final int holes;
+    private transient Set<Map.Entry<K,V>> entrySet;
+
+    private PersistentOrderedMap(PersistentHashMap<K,Integer> index,
+                                 PersistentVector<Map.Entry<K,V>> entries,
+                                 int holes) {
+        this.index = index;
+        this.entries = entries;
+        this.holes = holes;
+    }
+
+    /**
+     * Get the empty map
+     * @return a map with no entries
+     */
+    @SuppressWarnings("unchecked")
+    public static <K,V> PersistentOrderedMap<K,V> empty() {
+        return (PersistentOrderedMap<K,V>)EMPTY;
+    }
+
+    /**
+     * Create a map holding the entries of {@code map}, in the iteration
+     * order of {@code map}
+     * @param map the map to copy
+     * @return a new map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K,V> PersistentOrderedMap<K,V> of(
+                                       Map<? extends K, ? extends V> map) {
+        if (map instanceof PersistentOrderedMap) {
+            return (PersistentOrderedMap<K,V>)map;
+        }
+
+        PersistentHashMap<K,Integer> index = PersistentHashMap.empty();
+        List<Map.Entry<K,V>> list =
+                               new ArrayList<Map.Entry<K,V>>(map.size());
+        for (Map.Entry<? extends K, ? extends V> e : map.entrySet()) {
+            PersistentHashMap<K,Integer> newIndex =
+                                 index.with(e.getKey(), list.size());
+            if (newIndex.size() == index.size()) {
+                throw new IllegalArgumentException(
+                                       "Duplicate key " + e.getKey());
+            }
+            index = newIndex;
+            list.add(entry(e.getKey(), e.getValue()));
+        }
+        return new PersistentOrderedMap<K,V>(
+                                    index, PersistentVector.of(list), 0);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && index.get(key) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        Integer i = index.get(key);
+        return i == null ? null : entries.get(i).getValue();
+    }
+
+    /**
+     * Return a map with {@code key} associated to {@code value}. New keys
+     * are added last, existing keys keep their position
+     * @param key the key to associate {@code value} with
+     * @param value the value to store
+     * @return a new map
+     */
+    public PersistentOrderedMap<K,V> with(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null value for key " + key);
+        }
+
+        Integer i = index.get(key);
+        if (i != null) {
+            return new PersistentOrderedMap<K,V>(
+                   index, entries.with(i, entry(key, value)), holes);
+        }
+        return new PersistentOrderedMap<K,V>(
+                index.with(key, entries.size()),
+                entries.append(entry(key, value)), holes);
+    }
+
+    /**
+     * Return a map without {@code key}
+     * @param key the key to remove
+     * @return a new map, or {@code this} if {@code key} is not in the map
+     */
+    public PersistentOrderedMap<K,V> without(Object key) {
+        Integer i = key == null ? null : index.get(key);
+        if (i == null) {
+            return this;
+        }
+
+        PersistentOrderedMap<K,V> map = new PersistentOrderedMap<K,V>(
+                index.without(key), entries.with(i, null), holes + 1);
+        if (map.holes * 2 > map.entries.size()) {
+            return of(map);
+        }
+        return map;
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<K,V>>() {
+                @Override
+                public Iterator<Map.Entry<K,V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return index.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private static <K,V> Map.Entry<K,V> entry(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException("Null key");
+        }
+        return new AbstractMap.SimpleImmutableEntry<K,V>(key, value);
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        private int next;
+
+        EntryIterator() {
+            skipHoles();
+        }
+
+        public boolean hasNext() {
+            return next < entries.size();
+        }
+
+        public Map.Entry<K,V> next() {
+            if (next >= entries.size()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K,V> entry = entries.get(next++);
+            skipHoles();
+            return entry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException(
+                                          "Persistent maps are immutable");
+        }
+
+        private void skipHoles() {
+            if (holes == 0) {
+                return;
+            }
+            while (next < entries.size() && entries.get(next) == null) {
+                next++;
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package juglr.internal;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list where updates return a new list sharing all but the
+ * changed path with the old one. The elements are stored in a trie with 32
+ * way branching and the last, partially filled, block of elements kept in a
+ * separate tail, so appends and updates copy at most a handful of small
+ * arrays regardless of the size of the list.
+ * <p/>
+ * The {@link java.util.List} methods modifying the list throw
+ * {@link UnsupportedOperationException}. Use {@link #append} and
+ * {@link #with} instead.
+ */
+public final class PersistentVector<E> extends AbstractList<E>
+                                       implements RandomAccess, Serializable {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final Object[] EMPTY_NODE = new Object[0];
+
+    private static final PersistentVector<?> EMPTY =
+              new PersistentVector<Object>(0, BITS, EMPTY_NODE, EMPTY_NODE);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift,
+                             Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Get the empty vector
+     * @return a vector with no elements
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>)EMPTY;
+    }
+
+    /**
+     * Create a vector holding the elements of {@code elements}, in
+     * iteration order
+     * @param elements the elements of the new vector
+     * @return a new vector
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> of(Collection<? extends E> elements) {
+        if (elements instanceof PersistentVector) {
+            return (PersistentVector<E>)elements;
+        }
+
+        // Fill whole leaves directly instead of appending one at a time
+        PersistentVector<E> vec = empty();
+        Object[] leaf = new Object[Math.min(WIDTH, elements.size())];
+        int n = 0;
+        for (E e : elements) {
+            if (n == leaf.length) {
+                vec = vec.withTail(leaf);
+                leaf = new Object[WIDTH];
+                n = 0;
+            }
+            leaf[n++] = e;
+        }
+        if (n == 0) {
+            return vec;
+        } else if (n < leaf.length) {
+            Object[] partial = new Object[n];
+            System.arraycopy(leaf, 0, partial, 0, n);
+            leaf = partial;
+        }
+        return vec.withTail(leaf);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        return (E)leafFor(index)[index & MASK];
+    }
+
+    /**
+     * Return a vector with {@code e} added at the end
+     * @param e the element to append
+     * @return a new vector one larger than this
+     */
+    public PersistentVector<E> append(E e) {
+        int tailSize = size - tailOffset();
+        if (tailSize < WIDTH) {
+            Object[] newTail = new Object[tailSize + 1];
+            System.arraycopy(tail, 0, newTail, 0, tailSize);
+            newTail[tailSize] = e;
+            return new PersistentVector<E>(size + 1, shift, root, newTail);
+        }
+        return withTail(new Object[]{e});
+    }
+
+    /**
+     * Return a vector with the element at {@code index} replaced by
+     * {@code e}
+     * @param index the position to replace
+     * @param e the new element
+     * @return a new vector of the same size as this
+     * @throws IndexOutOfBoundsException if {@code index} is not within the
+     *                                   vector
+     */
+    public PersistentVector<E> with(int index, E e) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = e;
+            return new PersistentVector<E>(size, shift, root, newTail);
+        }
+        return new PersistentVector<E>(
+                         size, shift, setIn(shift, root, index, e), tail);
+    }
+
+    /* Move the tail into the trie, which requires it to be full unless the
+     * vector is empty, and use newTail as the tail */
+    private PersistentVector<E> withTail(Object[] newTail) {
+        if (size == 0) {
+            return new PersistentVector<E>(
+                              newTail.length, shift, root, newTail);
+        }
+
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            // The trie is full, grow it a level
+            newRoot = new Object[]{root, newPath(shift, tail)};
+            newShift += BITS;
+        } else {
+            newRoot = pushLeaf(shift, root, size - 1, tail);
+        }
+        return new PersistentVector<E>(
+                        size + newTail.length, newShift, newRoot, newTail);
+    }
+
+    private static Object[] pushLeaf(int level, Object[] parent,
+                                     int lastIndex, Object[] leaf) {
+        int sub = (lastIndex >>> level) & MASK;
+        Object[] node = new Object[sub + 1];
+        System.arraycopy(parent, 0, node, 0, Math.min(parent.length, sub));
+        if (level == BITS) {
+            node[sub] = leaf;
+        } else if (sub < parent.length) {
+            node[sub] = pushLeaf(level - BITS, (Object[])parent[sub],
+                                 lastIndex, leaf);
+        } else {
+            node[sub] = newPath(level - BITS, leaf);
+        }
+        return node;
+    }
+
+    private static Object[] newPath(int level, Object[] leaf) {
+        if (level == 0) {
+            return leaf;
+        }
+        return new Object[]{newPath(level - BITS, leaf)};
+    }
+
+    private static Object[] setIn(int level, Object[] node,
+                                  int index, Object e) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = e;
+        } else {
+            int sub = (index >>> level) & MASK;
+            copy[sub] = setIn(level - BITS, (Object[])node[sub], index, e);
+        }
+        return copy;
+    }
+
+    private Object[] leafFor(int index) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[])node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                               "Index: " + index + ", size: " + size);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package juglr.internal;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An insertion ordered map storing up to {@link #THRESHOLD} entries in one
+ * flat array of alternating keys and values, and promoting itself to a
+ * {@link LinkedHashMap} when it grows beyond that. Most maps in messages
+ * have a handful of keys, where a linear scan over one array beats hashing
+ * and is a fraction of the size of a hash table with an entry object per
+ * key.
+ * <p/>
+ * Null keys and values are allowed. The map is not thread safe.
+ */
+public class SmallMap<K,V> extends AbstractMap<K,V> implements Serializable {
+
+    /**
+     * The maximum number of entries stored in the flat array
+     */
+    public static final int THRESHOLD = 8;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    /* Keys at even and values at odd indexes. Null once promoted */
+    private Object[] table;
+    private int size;
+    private LinkedHashMap<K,V> map;
+    private transient int modCount;
+    private transient Set<Map.Entry<K,V>> entrySet;
+
+    public SmallMap() {
+        table = EMPTY;
+    }
+
+    /**
+     * Create a map with room for {@code capacity} entries
+     * @param capacity the expected number of entries
+     */
+    public SmallMap(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                                        "Negative capacity: " + capacity);
+        } else if (capacity > THRESHOLD) {
+            map = new LinkedHashMap<K,V>(capacity * 4 / 3 + 1);
+        } else {
+            table = capacity == 0 ? EMPTY : new Object[capacity * 2];
+        }
+    }
+
+    /**
+     * Create a map holding the entries of {@code m}, in the iteration order
+     * of {@code m}
+     * @param m the map to copy
+     */
+    public SmallMap(Map<? extends K, ? extends V> m) {
+        this(m.size());
+        putAll(m);
+    }
+
+    @Override
+    public int size() {
+        return map == null ? size : map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map == null ? indexOf(key) >= 0 : map.containsKey(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (map != null) {
+            return map.get(key);
+        }
+        int i = indexOf(key);
+        return i < 0 ? null : (V)table[i + 1];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (map != null) {
+            return map.put(key, value);
+        }
+
+        int i = indexOf(key);
+        if (i >= 0) {
+            V old = (V)table[i + 1];
+            table[i + 1] = value;
+            return old;
+        }
+
+        modCount++;
+        if (size == THRESHOLD) {
+            promote();
+            return map.put(key, value);
+        }
+
+        int end = size * 2;
+        if (end == table.length) {
+            Object[] grown = new Object[Math.min(
+                                Math.max(4, table.length * 2), THRESHOLD * 2)];
+            System.arraycopy(table, 0, grown, 0, end);
+            table = grown;
+        }
+        table[end] = key;
+        table[end + 1] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (map != null) {
+            return map.remove(key);
+        }
+
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        V old = (V)table[i + 1];
+        removeAt(i);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        map = null;
+        table = EMPTY;
+        size = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        if (map != null) {
+            return map.entrySet();
+        }
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<K,V>>() {
+                @Override
+                public Iterator<Map.Entry<K,V>> iterator() {
+                    return map == null ?
+                           new EntryIterator() : map.entrySet().iterator();
+                }
+
+                @Override
+                public int size() {
+                    return SmallMap.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Return {@code true} if the map has been promoted to a hash table
+     * @return whether the map has more than {@link #THRESHOLD} entries or
+     *         had so at some point
+     */
+    public boolean isPromoted() {
+        return map != null;
+    }
+
+    private int indexOf(Object key) {
+        int end = size * 2;
+        if (key == null) {
+            for (int i = 0; i < end; i += 2) {
+                if (table[i] == null) {
+                    return i;
+                }
+            }
+        } else {
+            // Shared keys match by reference, others by their cached hash
+            // before comparing contents
+            int hash = key.hashCode();
+            for (int i = 0; i < end; i += 2) {
+                Object k = table[i];
+                if (k == key ||
+                    (k != null && k.hashCode() == hash && key.equals(k))) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int i) {
+        modCount++;
+        int end = size * 2;
+        System.arraycopy(table, i + 2, table, i, end - i - 2);
+        table[end - 2] = null;
+        table[end - 1] = null;
+        size--;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void promote() {
+        map = new LinkedHashMap<K,V>(THRESHOLD * 4);
+        for (int i = 0; i < size * 2; i += 2) {
+            map.put((K)table[i], (V)table[i + 1]);
+        }
+        table = null;
+        size = 0;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<K,V>> {
+        private int next;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        public boolean hasNext() {
+            return next < size * 2;
+        }
+
+        public Map.Entry<K,V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            } else if (next >= size * 2) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next += 2;
+            return new Entry(last);
+        }
+
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            } else if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private class Entry implements Map.Entry<K,V> {
+        private final int index;
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        @SuppressWarnings("unchecked")
+        public K getKey() {
+            return (K)table[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return (V)table[index + 1];
+        }
+
+        @SuppressWarnings("unchecked")
+        public V setValue(V value) {
+            V old = (V)table[index + 1];
+            table[index + 1] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            return eq(getKey(), e.getKey()) && eq(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            K key = getKey();
+            V value = getValue();
+            return (key == null ? 0 : key.hashCode()) ^
+                   (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
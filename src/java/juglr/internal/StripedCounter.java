@@ -0,0 +1,91 @@
+package juglr.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spreading its updates over a number of cells to avoid
+ * contention when many threads update it concurrently. The cells are
+ * padded to live on separate cache lines. Reading the value of the counter
+ * sums all cells and is thus more expensive than updating it.
+ * <p/>
+ * The sum is not an atomic snapshot - concurrent updates may or may not
+ * be reflected in it.
+ */
+public class StripedCounter {
+
+    /* Number of longs between two cells, 64 bytes */
+    private static final int PAD = 8;
+
+    private static final int STRIPES;
+    static {
+        int n = 1;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        while (n < cpus * 2) {
+            n <<= 1;
+        }
+        STRIPES = n;
+    }
+
+    private final AtomicLongArray cells;
+
+    public StripedCounter() {
+        cells = new AtomicLongArray(STRIPES * PAD);
+    }
+
+    /**
+     * Add one to the counter
+     */
+    public void increment() {
+        cells.getAndIncrement(cell());
+    }
+
+    /**
+     * Subtract one from the counter
+     */
+    public void decrement() {
+        cells.getAndDecrement(cell());
+    }
+
+    /**
+     * Add {@code delta} to the counter
+     * @param delta the value to add
+     */
+    public void add(long delta) {
+        cells.getAndAdd(cell(), delta);
+    }
+
+    /**
+     * Get the sum of all cells in the counter
+     * @return the value of the counter
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PAD) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Set all cells to zero. This is not atomic with respect to concurrent
+     * updates
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PAD) {
+            cells.set(i, 0);
+        }
+    }
+
+    private static int cell() {
+        long id = Thread.currentThread().getId();
+        int h = (int)(id ^ (id >>> 32));
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return (h & (STRIPES - 1)) * PAD;
+    }
+
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
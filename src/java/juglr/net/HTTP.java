@@ -52,6 +52,7 @@ public class HTTP {
         NotAcceptable,
         RequestTimeout,
         Conflict,
+        RequestEntityTooLarge,
         InternalError;
 
         /**
@@ -89,6 +90,8 @@ public class HTTP {
                     return 408;
                 case Conflict:
                     return 409;
+                case RequestEntityTooLarge:
+                    return 413;
                 case InternalError:
                     return 500;
                 default:
@@ -132,6 +135,8 @@ public class HTTP {
                     return RequestTimeout;
                 case 409:
                     return Conflict;
+                case 413:
+                    return RequestEntityTooLarge;
                 case 500:
                     return InternalError;
                 default:
@@ -236,7 +236,7 @@ public class HTTPReader {
             public int read() throws IOException {
                 ensureBuffer();
                 try {
-                    return 128 + buf.get();
+                    return buf.get() & 0xFF;
                 } catch (BufferUnderflowException e) {
                     return -1;
                 }
@@ -3,8 +3,8 @@ package juglr.net;
 import juglr.*;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,12 +23,38 @@ import java.util.regex.Pattern;
  * dispatches incoming request to the right bottom half. When
  * the bottom half responds the upper half sends back the reply to the
  * HTTP client.
+ * <p/>
+ * Request and response bodies are JSON by default. A request with the
+ * {@code Content-Type} {@code application/cbor} is parsed as
+ * {@link CborBoxParser CBOR}. The response is written as CBOR if the
+ * {@code Accept} header of the request gives {@code application/cbor} a
+ * higher {@code q} value than {@code application/json}, or if there is no
+ * {@code Accept} header and the request body was CBOR.
+ * <p/>
+ * Request bodies are parsed {@link ByteBoxParser#parseLazy lazily}, so a
+ * bottom half only pays for decoding the parts of a request it reads, and
+ * a request body forwarded unmodified in a response of the same format is
+ * written as a copy of the original bytes. Exactly {@code Content-Length}
+ * bytes are read as the body, and requests without a
+ * {@code Content-Length}, like most {@code GET} requests, are dispatched
+ * with a {@code null} body. Requests with a malformed
+ * {@code Content-Length}, or a body shorter than it, are answered with
+ * {@code 400 Bad Request}, and bodies longer than the
+ * {@link #setMaxBodyLength maximum body length} with
+ * {@code 413 Request Entity Too Large}.
  *
  * @author Mikkel Kamstrup Erlandsen <mailto:mke@statsbiblioteket.dk>
  * @since Feb 15, 2010
  */
 public class HTTPServer {
 
+    private static final String JSON_TYPE = "application/json";
+
+    /**
+     * The default maximum length of a request body, 1MB
+     */
+    public static final int DEFAULT_MAX_BODY_LENGTH = 1024*1024;
+
     static class Handler {
         Matcher path;
         Address bottomHalf;
@@ -42,6 +68,7 @@ public class HTTPServer {
     Address tcpServer;
     MessageBus bus;
     boolean isStarted;
+    int maxBodyLength = DEFAULT_MAX_BODY_LENGTH;
 
     /**
      * Create a new HTTP server listening on port {@code port}. To start
@@ -120,6 +147,38 @@ public class HTTPServer {
         canonicalHandlers.add(h);
     }
 
+    /**
+     * Set the maximum length of request bodies. Requests with a longer
+     * {@code Content-Length} are rejected with
+     * {@code 413 Request Entity Too Large} without reading their bodies.
+     * The default is {@link #DEFAULT_MAX_BODY_LENGTH}
+     * @param maxBodyLength the maximum number of bytes in a request body
+     * @throws IllegalArgumentException if {@code maxBodyLength} is not
+     *                                  positive
+     * @throws IllegalStateException if the server has had its {@link #start()}
+     *                               method invoked
+     */
+    public void setMaxBodyLength(int maxBodyLength) {
+        if (isStarted) {
+            throw new IllegalStateException(
+                  "Body length can not be changed after HTTPServer is started");
+        }
+        if (maxBodyLength <= 0) {
+            throw new IllegalArgumentException(
+                           "Illegal maximum body length: " + maxBodyLength);
+        }
+        this.maxBodyLength = maxBodyLength;
+    }
+
+    /**
+     * Get the maximum length of request bodies
+     * @return the maximum number of bytes in a request body
+     * @see #setMaxBodyLength
+     */
+    public int getMaxBodyLength() {
+        return maxBodyLength;
+    }
+
     /**
      * Start listening on the configured port. After invoking {@code start()}
      * the {@link #registerHandler} method should not be called again
@@ -168,9 +227,14 @@ public class HTTPServer {
         public TCPChannelActor accept(SocketChannel channel) {
             return new TCPChannelActor(channel) {
                 // FIXME: Use ThreadLocals here to save memory
-                JSonBoxParser msgParser = new JSonBoxParser();
+                ByteBoxParser msgParser = new JSonBoxParser();
+                ByteBoxWriter bodyWriter = new JSonBoxWriter();
+                String bodyType = JSON_TYPE;
+                boolean hasAccept;
+                String contentLength;
                 HTTPRequestReader req = new HTTPRequestReader(channel);
                 HTTPResponseWriter resp = new HTTPResponseWriter(channel);
+                TraceContext trace;
 
                 /* The bottom half actor should send a Box back to us */
                 @Override
@@ -217,13 +281,14 @@ public class HTTPServer {
                         }
 
 
-                        while (req.readHeaderField(buf) > 0) {
-                            // FIXME: We ignore HTTP headers
+                        int headerLength;
+                        while ((headerLength = req.readHeaderField(buf)) > 0) {
+                            // FIXME: We ignore HTTP headers except content
+                            //        length, negotiation and tracing
+                            readHeader(buf, headerLength);
                         }
 
-                        Reader bodyReader =
-                                     new InputStreamReader(req.streamBody());
-                        dispatch(method, bottomHalf, uri, bodyReader);
+                        dispatch(method, bottomHalf, uri, req.streamBody());
                     } catch (IOException e) {
                         // Error writing response
                         // FIXME: Handle this gracefully
@@ -236,12 +301,20 @@ public class HTTPServer {
                 /* Send a response msg to the client and shut down the actor */
                 private void respond(HTTP.Status status, Box body) {
                     try{
-                        byte[] _body = body.toBytes();
+                        ByteBuffer _body = bodyWriter.write(
+                                           body, ByteBuffer.allocate(1024));
+                        _body.flip();
 
                         resp.writeVersion(HTTP.Version.ONE_ZERO);
                         resp.writeStatus(status);
-                        resp.writeHeader("Content-Length", "" + _body.length);
+                        resp.writeHeader("Content-Type", bodyType);
+                        resp.writeHeader("Content-Length",
+                                         "" + _body.remaining());
                         resp.writeHeader("Server", "juglr");
+                        if (trace != null) {
+                            resp.writeHeader(
+                                      TraceContext.HEADER, trace.toString());
+                        }
                         resp.startBody();
                         resp.writeBody(_body);
                     } catch (IOException e) {
@@ -267,20 +340,185 @@ public class HTTPServer {
                 }
 
                 private void dispatch(HTTP.Method method, Address bottomHalf,
-                                      CharSequence uri, Reader msgBody)
+                                      CharSequence uri, InputStream msgBody)
                                                             throws IOException {
+                    // Read exactly the announced body and parse it lazily,
+                    // so bottom halves only decode what they read. Reading
+                    // on to EOF would block until the client closes. A
+                    // request without a Content-Length has no body
+                    long length;
+                    try {
+                        length = contentLength == null ?
+                                 0 : Long.parseLong(contentLength);
+                    } catch (NumberFormatException e) {
+                        length = -1;
+                    }
+
+                    if (length < 0) {
+                        respondError(HTTP.Status.BadRequest,
+                                "Illegal Content-Length: " + contentLength);
+                        return;
+                    } else if (length > maxBodyLength) {
+                        respondError(HTTP.Status.RequestEntityTooLarge,
+                                     "Request body of " + length +
+                                     " bytes exceeds the maximum of " +
+                                     maxBodyLength);
+                        return;
+                    }
+
+                    byte[] body = new byte[(int)length];
+                    int offset = 0;
+                    while (offset < body.length) {
+                        int read = msgBody.read(
+                                         body, offset, body.length - offset);
+                        if (read < 0) {
+                            respondError(HTTP.Status.BadRequest,
+                                         "Request body shorter than its " +
+                                         "Content-Length of " + length);
+                            return;
+                        }
+                        offset += read;
+                    }
+
+                    // An empty body is parsed as null
                     Box box;
                     try {
-                        box = msgParser.parse(msgBody);
+                        box = msgParser.parseLazy(
+                                            ByteBuffer.wrap(body));
                     } catch (MessageFormatException e) {
                         respondError(HTTP.Status.BadRequest,
-                                   "Illegal JSON POST data. " + e.getMessage());
+                                   "Illegal POST data. " + e.getMessage());
                         return;
                     }
 
                     // BH should respond with a box to msg.getReplyTo()
                     // FIXME: We need a timeout to avoid leaking SocketChannels
-                    send(new HTTPRequest(uri, method, box), bottomHalf);
+                    HTTPRequest request = new HTTPRequest(uri, method, box);
+                    if (trace != null) {
+                        request.setTrace(trace.child());
+                    }
+                    send(request, bottomHalf);
+                }
+
+                /* Pick up the body length and formats and the trace context
+                 * of the client */
+                private void readHeader(byte[] buf, int length) {
+                    String value = headerValue("Content-Length", buf, length);
+                    if (value != null) {
+                        contentLength = value;
+                        return;
+                    }
+
+                    value = headerValue("Content-Type", buf, length);
+                    if (value != null) {
+                        if (isCbor(value)) {
+                            msgParser = new CborBoxParser();
+                            if (!hasAccept) {
+                                useCbor();
+                            }
+                        }
+                        return;
+                    }
+
+                    value = headerValue("Accept", buf, length);
+                    if (value != null) {
+                        hasAccept = true;
+                        if (quality(value, CborBoxWriter.MEDIA_TYPE) >
+                            quality(value, JSON_TYPE)) {
+                            useCbor();
+                        } else {
+                            bodyWriter = new JSonBoxWriter();
+                            bodyType = JSON_TYPE;
+                        }
+                        return;
+                    }
+
+                    value = headerValue(TraceContext.HEADER, buf, length);
+                    if (value != null) {
+                        trace = TraceContext.parse(value);
+                    }
+                }
+
+                private void useCbor() {
+                    bodyWriter = new CborBoxWriter();
+                    bodyType = CborBoxWriter.MEDIA_TYPE;
+                }
+
+                /* The value of the header field in buf if its name is name,
+                 * otherwise null */
+                private String headerValue(String name, byte[] buf,
+                                           int length) {
+                    int nameLength = name.length();
+                    if (length <= nameLength ||
+                        buf[nameLength] != ':') {
+                        return null;
+                    }
+
+                    String header = new String(buf, 0, length);
+                    if (header.regionMatches(true, 0, name, 0, nameLength)) {
+                        return header.substring(nameLength + 1).trim();
+                    }
+                    return null;
+                }
+
+                /* Whether the Content-Type value is CBOR, ignoring any
+                 * parameters */
+                private boolean isCbor(String contentType) {
+                    int end = contentType.indexOf(';');
+                    if (end >= 0) {
+                        contentType = contentType.substring(0, end);
+                    }
+                    return contentType.trim().equalsIgnoreCase(
+                                                  CborBoxWriter.MEDIA_TYPE);
+                }
+
+                /* The q value the media ranges of an Accept value give
+                 * type, taken from the most specific range matching it,
+                 * or 0 if no range matches */
+                private float quality(String mediaRanges, String type) {
+                    String anySubtype =
+                               type.substring(0, type.indexOf('/')) + "/*";
+                    float quality = 0;
+                    int specificity = -1;
+                    for (String range : mediaRanges.split(",")) {
+                        String[] params = range.split(";");
+                        String name = params[0].trim();
+                        int match;
+                        if (name.equalsIgnoreCase(type)) {
+                            match = 2;
+                        } else if (name.equalsIgnoreCase(anySubtype)) {
+                            match = 1;
+                        } else if (name.equals("*/*")) {
+                            match = 0;
+                        } else {
+                            continue;
+                        }
+                        if (match > specificity) {
+                            specificity = match;
+                            quality = qValue(params);
+                        }
+                    }
+                    return quality;
+                }
+
+                /* The q parameter among the parameters of a media range,
+                 * 1 if there is none, or 0 if it is malformed */
+                private float qValue(String[] params) {
+                    for (int i = 1; i < params.length; i++) {
+                        String param = params[i].trim();
+                        if (param.length() > 1 &&
+                            Character.toLowerCase(param.charAt(0)) == 'q' &&
+                            param.charAt(1) == '=') {
+                            try {
+                                float q = Float.parseFloat(
+                                                   param.substring(2).trim());
+                                return q >= 0 && q <= 1 ? q : 0;
+                            } catch (NumberFormatException e) {
+                                return 0;
+                            }
+                        }
+                    }
+                    return 1;
                 }
 
                 private Address findBottomHalf(
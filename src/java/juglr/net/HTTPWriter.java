@@ -20,7 +20,7 @@ public class HTTPWriter {
     HTTPWriter (SocketChannel channel, ByteBuffer buf) {
         this.buf = buf;
         this.channel = channel;
-        encoder = Charset.defaultCharset().newEncoder();
+        encoder = Charset.forName("UTF-8").newEncoder();
     }
 
     public void writeSpace() throws IOException {
@@ -86,6 +86,25 @@ public class HTTPWriter {
         buf.put(b);
     }
 
+    /**
+     * Write the bytes between the position and the limit of {@code bytes},
+     * advancing its position to the limit. Data that does not fit in the
+     * buffer of the writer is written directly to the channel
+     * @param bytes the data to write
+     * @throws IOException upon errors writing to the channel
+     */
+    public void writeBody(ByteBuffer bytes) throws IOException {
+        if (bytes.remaining() < buf.remaining()) {
+            buf.put(bytes);
+            return;
+        }
+
+        flush();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
     public void writeBody(byte[] bytes, int offset, int len) throws IOException {
         if (offset + len > bytes.length) {
             throw new ArrayIndexOutOfBoundsException(
@@ -0,0 +1,590 @@
+package juglr.persist;
+
+import juglr.Box;
+import juglr.ByteBoxParser;
+import juglr.JSonBoxParser;
+import juglr.JSonBoxWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of {@link Box} events and snapshots, used by
+ * {@link PersistentActor}s to survive restarts. The journal is stored in a
+ * directory as a sequence of fixed size <i>segment</i> files that are
+ * memory mapped. Records from all actors sharing the journal are
+ * interleaved in the segments and tagged with the persistence id of the
+ * owning actor.
+ * <p/>
+ * Appending a record only writes it to the mapped memory. Records are made
+ * durable by a background thread forcing the segments to disk, and
+ * {@link #sync(long)} blocks until a given record is durable. All records
+ * appended while a sync is in progress are forced by the next sync, so
+ * concurrent writers share the cost of the disk flushes - this is known as
+ * <i>group commit</i>.
+ * <p/>
+ * When the journal is opened all segments are scanned to build an index of
+ * the latest snapshot and the following events of each persistence id.
+ * Records are checksummed, and scanning stops at the first torn or corrupt
+ * record. Later records could depend on the lost ones, so the rest of
+ * that segment is cleared, new records are appended after the last good
+ * one, and any later segments are set aside by renaming them to
+ * {@code .seg.discarded}. Segments only holding records preceding the
+ * latest snapshots can be deleted by calling {@link #compact()}.
+ * <p/>
+ * Record layout:
+ * <pre>
+ * int    length of the record after the header
+ * int    CRC32 of the record after the header
+ * byte   type, EVENT or SNAPSHOT
+ * long   sequence number
+ * short  length of persistence id
+ * byte[] persistence id, UTF-8
+ * byte[] the box, as UTF-8 encoded JSON
+ * </pre>
+ * This class is thread safe.
+ *
+ * @see PersistentActor
+ */
+public class Journal {
+
+    /**
+     * Default size of journal segments, 16MB
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    static final byte EVENT = 1;
+    static final byte SNAPSHOT = 2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = HEADER_SIZE + 1 + 8 + 2;
+
+    private static class Segment {
+        final int id;
+        final File file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buf;
+
+        Segment(int id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            buf = raf.getChannel().map(
+                           FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+    }
+
+    /**
+     * Positions of the latest snapshot and the following events for a
+     * persistence id
+     */
+    private static class Index {
+        long snapshot = -1;
+        long[] events = new long[4];
+        int numEvents;
+        long seqNr;
+
+        void addEvent(long position) {
+            if (numEvents == events.length) {
+                long[] grown = new long[events.length * 2];
+                System.arraycopy(events, 0, grown, 0, numEvents);
+                events = grown;
+            }
+            events[numEvents++] = position;
+        }
+
+        void setSnapshot(long position) {
+            snapshot = position;
+            numEvents = 0;
+        }
+
+        /* The first position this id needs to recover */
+        long first() {
+            if (snapshot >= 0) return snapshot;
+            if (numEvents > 0) return events[0];
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final TreeMap<Integer,Segment> segments;
+    private final Map<String,Index> index;
+    private final ByteBoxParser parser;
+    private Segment current;
+
+    /* Set of segments written to since last sync, guarded by this */
+    private final Set<Segment> dirty;
+    private volatile long written;
+
+    /* Guarded by syncLock. The monitors of this and syncLock are never
+     * held at the same time */
+    private final Object syncLock;
+    private long synced;
+    private volatile boolean isOpen;
+
+    private final Thread flusher;
+
+    /**
+     * Open or create a journal in {@code dir} using segments of
+     * {@link #DEFAULT_SEGMENT_SIZE}
+     * @param dir the directory to store the journal in
+     * @throws IOException if there is an error reading the journal
+     */
+    public Journal(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open or create a journal in {@code dir}
+     * @param dir the directory to store the journal in
+     * @param segmentSize the size in bytes of new segment files. This is
+     *                    also the maximum size of a single record
+     * @throws IOException if there is an error reading the journal
+     */
+    public Journal(File dir, int segmentSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + dir);
+        }
+
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        segments = new TreeMap<Integer,Segment>();
+        index = new HashMap<String,Index>();
+        parser = new JSonBoxParser();
+        dirty = new LinkedHashSet<Segment>();
+        syncLock = new Object();
+
+        open();
+
+        isOpen = true;
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                flushLoop();
+            }
+        }, "JournalFlusher[" + dir + "]");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Append an event for the actor with persistence id {@code id}. The
+     * event is not guaranteed to be durable before {@link #sync} has been
+     * invoked with the returned position.
+     * @param id the persistence id of the actor
+     * @param seqNr the sequence number of the event
+     * @param event the event to store
+     * @return the position of the end of the record in the journal
+     * @throws IOException if there is an error writing the journal
+     */
+    public long appendEvent(String id, long seqNr, Box event)
+                                                            throws IOException {
+        return append(EVENT, id, seqNr, event);
+    }
+
+    /**
+     * Append a snapshot of the state of the actor with persistence id
+     * {@code id}. Recovery of the actor will start from the latest snapshot.
+     * @param id the persistence id of the actor
+     * @param seqNr the sequence number of the last event in the snapshot
+     * @param snapshot the state of the actor
+     * @return the position of the end of the record in the journal
+     * @throws IOException if there is an error writing the journal
+     */
+    public long appendSnapshot(String id, long seqNr, Box snapshot)
+                                                            throws IOException {
+        return append(SNAPSHOT, id, seqNr, snapshot);
+    }
+
+    /**
+     * Block until all records up to {@code position} have been forced to
+     * disk.
+     * @param position a position returned from one of the append methods
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException if the journal is closed before the sync completes
+     */
+    public void sync(long position) throws IOException, InterruptedException {
+        synchronized (syncLock) {
+            while (synced < position) {
+                if (!isOpen) {
+                    throw new IOException("Journal closed");
+                }
+                syncLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Get the latest snapshot for {@code id}
+     * @param id the persistence id of the actor
+     * @return the latest snapshot or {@code null} if there is none
+     * @throws IOException if there is an error reading the journal
+     */
+    public synchronized Box readSnapshot(String id) throws IOException {
+        Index idx = index.get(id);
+        if (idx == null || idx.snapshot < 0) {
+            return null;
+        }
+        return read(idx.snapshot);
+    }
+
+    /**
+     * Get all events for {@code id} that follow the latest snapshot, in the
+     * order they where appended
+     * @param id the persistence id of the actor
+     * @return the events following the latest snapshot
+     * @throws IOException if there is an error reading the journal
+     */
+    public synchronized List<Box> readEvents(String id) throws IOException {
+        Index idx = index.get(id);
+        if (idx == null) {
+            return new ArrayList<Box>(0);
+        }
+
+        List<Box> events = new ArrayList<Box>(idx.numEvents);
+        for (int i = 0; i < idx.numEvents; i++) {
+            events.add(read(idx.events[i]));
+        }
+        return events;
+    }
+
+    /**
+     * Get the sequence number of the latest record for {@code id}
+     * @param id the persistence id of the actor
+     * @return the latest sequence number or 0 if there are no records
+     */
+    public synchronized long getSequenceNumber(String id) {
+        Index idx = index.get(id);
+        return idx == null ? 0 : idx.seqNr;
+    }
+
+    /**
+     * Delete all segments that only hold records preceding the latest
+     * snapshot of every persistence id in the journal
+     * @return the number of deleted segments
+     * @throws IOException if there is an error deleting a segment
+     */
+    public synchronized int compact() throws IOException {
+        long first = Long.MAX_VALUE;
+        for (Index idx : index.values()) {
+            first = Math.min(first, idx.first());
+        }
+
+        int firstSegment = first == Long.MAX_VALUE ?
+                                            current.id : segmentOf(first);
+        int deleted = 0;
+        while (segments.firstKey() < firstSegment) {
+            Segment seg = segments.remove(segments.firstKey());
+            dirty.remove(seg);
+            seg.close();
+            if (!seg.file.delete()) {
+                throw new IOException("Unable to delete " + seg.file);
+            }
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Force all records to disk and close the journal
+     * @throws IOException if there is an error closing the segment files
+     */
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            isOpen = false;
+            syncLock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            for (Segment seg : segments.values()) {
+                seg.buf.force();
+                seg.close();
+            }
+        }
+    }
+
+    private long append(byte type, String id, long seqNr, Box box)
+                                                            throws IOException {
+        byte[] idBytes = id.getBytes("UTF-8");
+        ByteBuffer data = encode(box);
+        int length = RECORD_OVERHEAD - HEADER_SIZE + idBytes.length +
+                     data.remaining();
+        if (HEADER_SIZE + length > segmentSize) {
+            throw new IOException(String.format(
+                    "Record of %s bytes exceeds segment size %s",
+                    HEADER_SIZE + length, segmentSize));
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        for (int i = 56; i >= 0; i -= 8) {
+            crc.update((int)(seqNr >>> i));
+        }
+        crc.update(idBytes.length >>> 8);
+        crc.update(idBytes.length);
+        crc.update(idBytes);
+        crc.update(data.array(), data.arrayOffset(), data.remaining());
+
+        long end;
+        synchronized (this) {
+            if (!isOpen) {
+                throw new IOException("Journal closed");
+            }
+
+            if (current.buf.remaining() < HEADER_SIZE + length) {
+                // The zeroes at the end of the segment marks its end
+                current = newSegment(current.id + 1);
+            }
+
+            ByteBuffer buf = current.buf;
+            long position = position(current.id, buf.position());
+            buf.putInt(length)
+               .putInt((int)crc.getValue())
+               .put(type)
+               .putLong(seqNr)
+               .putShort((short)idBytes.length)
+               .put(idBytes)
+               .put(data);
+
+            index(type, id, seqNr, position);
+            dirty.add(current);
+            end = position(current.id, buf.position());
+            written = end;
+        }
+
+        synchronized (syncLock) {
+            syncLock.notifyAll();
+        }
+        return end;
+    }
+
+    private void index(byte type, String id, long seqNr, long position) {
+        Index idx = index.get(id);
+        if (idx == null) {
+            idx = new Index();
+            index.put(id, idx);
+        }
+
+        if (type == SNAPSHOT) {
+            idx.setSnapshot(position);
+        } else {
+            idx.addEvent(position);
+        }
+        idx.seqNr = Math.max(idx.seqNr, seqNr);
+    }
+
+    /* Read the box stored in the record at position */
+    private Box read(long position) throws IOException {
+        Segment seg = segments.get(segmentOf(position));
+        if (seg == null) {
+            throw new IOException("No segment for journal position " + position);
+        }
+
+        ByteBuffer buf = seg.buf.duplicate();
+        buf.position(offsetOf(position));
+        int length = buf.getInt();
+        buf.getInt(); // crc
+        buf.get(); // type
+        buf.getLong(); // seqNr
+        int idLength = buf.getShort();
+        buf.position(buf.position() + idLength);
+
+        buf.limit(buf.position() +
+                  length - (RECORD_OVERHEAD - HEADER_SIZE) - idLength);
+        return parser.parse(buf);
+    }
+
+    /* Scan all segments in dir and build the index */
+    private void open() throws IOException {
+        File[] files = dir.listFiles();
+        List<Integer> ids = new ArrayList<Integer>();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.startsWith("journal-") && name.endsWith(".seg")) {
+                    ids.add(Integer.parseInt(
+                            name.substring(8, name.length() - 4)));
+                }
+            }
+        }
+
+        if (ids.isEmpty()) {
+            current = newSegment(0);
+            return;
+        }
+
+        Collections.sort(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            int id = ids.get(i);
+            Segment seg = new Segment(id, segmentFile(id), segmentSize);
+            segments.put(id, seg);
+            current = seg;
+            if (!scan(seg)) {
+                discard(seg, ids.subList(i + 1, ids.size()));
+                break;
+            }
+        }
+        written = position(current.id, current.buf.position());
+        synced = written;
+    }
+
+    /* Index all valid records in seg and leave its position after them.
+     * Returns false if the scan stopped at a torn or corrupt record rather
+     * than at the zeroes ending the segment */
+    private boolean scan(Segment seg) throws IOException {
+        ByteBuffer buf = seg.buf;
+        buf.clear();
+        CRC32 crc = new CRC32();
+
+        while (buf.remaining() >= RECORD_OVERHEAD) {
+            int start = buf.position();
+            int length = buf.getInt();
+            int checksum = buf.getInt();
+            if (length == 0 && checksum == 0) {
+                buf.position(start);
+                return true;
+            } else if (length < RECORD_OVERHEAD - HEADER_SIZE ||
+                       length > buf.remaining()) {
+                System.err.println(String.format(
+                        "Torn journal record in %s at offset %s",
+                        seg.file, start));
+                buf.position(start);
+                return false;
+            }
+
+            byte[] record = new byte[length];
+            buf.get(record);
+            crc.reset();
+            crc.update(record);
+            if ((int)crc.getValue() != checksum) {
+                System.err.println(String.format(
+                        "Corrupt journal record in %s at offset %s",
+                        seg.file, start));
+                buf.position(start);
+                return false;
+            }
+
+            ByteBuffer rec = ByteBuffer.wrap(record);
+            byte type = rec.get();
+            long seqNr = rec.getLong();
+            int idLength = rec.getShort();
+            String id = new String(record, rec.position(), idLength, "UTF-8");
+            index(type, id, seqNr, position(seg.id, start));
+        }
+        return true;
+    }
+
+    /* Clear seg after its position, where scanning stopped at a bad record,
+     * and set the segments with the ids in later aside, so the journal
+     * continues after the last good record */
+    private void discard(Segment seg, List<Integer> later) throws IOException {
+        ByteBuffer buf = seg.buf.duplicate();
+        while (buf.hasRemaining()) {
+            buf.put((byte)0);
+        }
+        seg.buf.force();
+
+        for (int id : later) {
+            File file = segmentFile(id);
+            File discarded = new File(file.getPath() + ".discarded");
+            System.err.println(String.format(
+                    "Discarding journal segment %s after a bad record in %s",
+                    file, seg.file));
+            if (!file.renameTo(discarded)) {
+                throw new IOException("Unable to rename " + file + " to " +
+                                      discarded);
+            }
+        }
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment seg = new Segment(id, segmentFile(id), segmentSize);
+        segments.put(id, seg);
+        return seg;
+    }
+
+    private File segmentFile(int id) {
+        return new File(dir, String.format("journal-%08d.seg", id));
+    }
+
+    /* Force dirty segments to disk whenever there are unsynced records */
+    private void flushLoop() {
+        while (true) {
+            long target;
+            List<Segment> toSync;
+
+            synchronized (syncLock) {
+                while (isOpen && synced >= written) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        // Only close() stops us
+                    }
+                }
+                if (!isOpen) {
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                target = written;
+                toSync = new ArrayList<Segment>(dirty);
+                dirty.clear();
+            }
+
+            for (Segment seg : toSync) {
+                seg.buf.force();
+            }
+
+            synchronized (syncLock) {
+                synced = Math.max(synced, target);
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long)segment << 32) | offset;
+    }
+
+    private static int segmentOf(long position) {
+        return (int)(position >>> 32);
+    }
+
+    private static int offsetOf(long position) {
+        return (int)position;
+    }
+
+    /* Encode box into a heap buffer, flipped for reading */
+    private static ByteBuffer encode(Box box) {
+        ByteBuffer data = new JSonBoxWriter().write(
+                                               box, ByteBuffer.allocate(256));
+        data.flip();
+        return data;
+    }
+}
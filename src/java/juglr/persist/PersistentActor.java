@@ -0,0 +1,237 @@
+package juglr.persist;
+
+import juglr.Actor;
+import juglr.Box;
+import juglr.FifoMailbox;
+import juglr.Message;
+import juglr.MessageBus;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * An actor whose state survives restarts by recording every change to its
+ * state as a {@link Box} event in a {@link Journal}. On start up, before
+ * handling any messages, the actor restores its state from its latest
+ * snapshot and replays the events recorded after it.
+ * <p/>
+ * Subclasses handle incoming messages in {@link #receive(Message)}. To
+ * change its state an actor calls {@link #persist(Box)} with an event
+ * describing the change. The event is written to the journal and once it is
+ * durable it is passed to {@link #apply(Box)}, which must update the state.
+ * The same {@code apply} method is used when replaying events on recovery,
+ * so it must not have any other side effects than updating the state.
+ * <p/>
+ * Every {@link #getSnapshotInterval()} events a snapshot of the state is
+ * obtained from {@link #snapshot()} and written to the journal, bounding
+ * the number of events to replay on recovery.
+ * <p/>
+ * Each persistent actor is identified in the journal by a persistence id
+ * which must be stable across restarts. Many actors can share the same
+ * journal, in which case they also share its disk flushes.
+ * <p/>
+ * Persistent actors always have a {@link FifoMailbox} so that events are
+ * persisted in the order the commands causing them where received.
+ *
+ * @see Journal
+ */
+public abstract class PersistentActor extends Actor {
+
+    /**
+     * Default number of events between snapshots
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 1000;
+
+    private final Journal journal;
+    private final String persistenceId;
+    private int snapshotInterval;
+    private long seqNr;
+    private long eventsSinceSnapshot;
+    private boolean isRecovered;
+
+    /**
+     * Create a persistent actor connected to {@code bus}
+     * @param bus the message bus the actor should connect to
+     * @param journal the journal to record events in
+     * @param persistenceId the stable id of the actor in {@code journal}
+     */
+    public PersistentActor(MessageBus bus, Journal journal,
+                           String persistenceId) {
+        super(bus, new FifoMailbox());
+        this.journal = journal;
+        this.persistenceId = persistenceId;
+        snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+    }
+
+    /**
+     * Get the id identifying this actor in the journal
+     * @return the persistence id of the actor
+     */
+    public String getPersistenceId() {
+        return persistenceId;
+    }
+
+    /**
+     * Get the number of events between snapshots
+     * @return the snapshot interval
+     */
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * Set the number of events to persist between snapshots. A value of
+     * {@code 0} or less disables automatic snapshots
+     * @param snapshotInterval the number of events between snapshots
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Get the sequence number of the last event applied to the actor
+     * @return the sequence number of the last event
+     */
+    public long getSequenceNumber() {
+        return seqNr;
+    }
+
+    /**
+     * Recover the actor from the journal. Subclasses overriding this method
+     * must call {@code super.start()}.
+     */
+    @Override
+    public void start() {
+        recover();
+    }
+
+    /**
+     * Recovers the actor if needed and passes {@code msg} on to
+     * {@link #receive}
+     * @param msg the incoming message
+     */
+    @Override
+    public final void react(Message msg) {
+        recover();
+        receive(msg);
+    }
+
+    /**
+     * Handle an incoming message. This method is called with the same
+     * guarantees as {@link #react}, and always after the actor has been
+     * recovered.
+     * @param msg the incoming message
+     */
+    protected abstract void receive(Message msg);
+
+    /**
+     * Update the state of the actor with {@code event}. This is called after
+     * the event has been persisted and when replaying events on recovery.
+     * @param event the event to apply
+     */
+    protected abstract void apply(Box event);
+
+    /**
+     * Return the full state of the actor
+     * @return a snapshot of the state of the actor
+     */
+    protected abstract Box snapshot();
+
+    /**
+     * Replace the state of the actor by {@code snapshot}. This is called
+     * on recovery before any events are replayed.
+     * @param snapshot a snapshot previously returned by {@link #snapshot()}
+     */
+    protected abstract void restore(Box snapshot);
+
+    /**
+     * Write {@code event} to the journal, block until it is durable and
+     * then apply it to the actor. This method must only be called within
+     * {@link #receive} or {@link #start}
+     * @param event the event to persist
+     * @throws IOException if there is an error writing the journal
+     * @throws InterruptedException if interrupted while waiting for the
+     *                              journal
+     */
+    protected void persist(final Box event)
+                                     throws IOException, InterruptedException {
+        final long next = seqNr + 1;
+        sync(new Callable<Object>() {
+            public Object call() throws Exception {
+                journal.sync(journal.appendEvent(persistenceId, next, event));
+                return null;
+            }
+        });
+
+        seqNr = next;
+        apply(event);
+        eventsSinceSnapshot++;
+
+        if (snapshotInterval > 0 && eventsSinceSnapshot >= snapshotInterval) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Write a snapshot of the actor state to the journal and block until it
+     * is durable. After this the events preceding the snapshot need not be
+     * replayed on recovery. This method must only be called within
+     * {@link #receive} or {@link #start}
+     * @throws IOException if there is an error writing the journal
+     * @throws InterruptedException if interrupted while waiting for the
+     *                              journal
+     */
+    protected void saveSnapshot() throws IOException, InterruptedException {
+        final Box state = snapshot();
+        sync(new Callable<Object>() {
+            public Object call() throws Exception {
+                journal.sync(
+                        journal.appendSnapshot(persistenceId, seqNr, state));
+                return null;
+            }
+        });
+        eventsSinceSnapshot = 0;
+    }
+
+    /* Restore from the latest snapshot and replay the following events */
+    private void recover() {
+        if (isRecovered) {
+            return;
+        }
+
+        try {
+            Box snapshot = journal.readSnapshot(persistenceId);
+            if (snapshot != null) {
+                restore(snapshot);
+            }
+
+            List<Box> events = journal.readEvents(persistenceId);
+            for (Box event : events) {
+                apply(event);
+            }
+            eventsSinceSnapshot = events.size();
+            seqNr = journal.getSequenceNumber(persistenceId);
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "Failed to recover " + persistenceId + " from journal", e);
+        }
+        isRecovered = true;
+    }
+
+    private void sync(Callable<Object> closure)
+                                     throws IOException, InterruptedException {
+        try {
+            await(closure);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package juglr.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted when an actor returns from {@link juglr.Actor#await} or
+ * {@link juglr.Actor#awaitTimeout}
+ */
+@Enabled(false)
+@Name("juglr.Blocking")
+@Label("Actor Blocking")
+@Category("Juglr")
+@Description("An actor blocking a worker thread in await or awaitTimeout")
+public class BlockingEvent extends Event {
+
+    @Label("Actor")
+    String actor;
+
+    @Label("Actor Class")
+    Class<?> actorClass;
+
+    @Label("Blocked Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long blockedTime;
+}
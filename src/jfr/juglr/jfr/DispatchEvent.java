@@ -0,0 +1,37 @@
+package juglr.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Spans the time an actor spends in {@link juglr.Actor#react}
+ */
+@Enabled(false)
+@Name("juglr.Dispatch")
+@Label("Actor Dispatch")
+@Category("Juglr")
+@Description("An actor processing a message")
+public class DispatchEvent extends Event {
+
+    @Label("Actor")
+    String actor;
+
+    @Label("Actor Class")
+    Class<?> actorClass;
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Sender")
+    String sender;
+
+    @Label("Trace Id")
+    String traceId;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,210 @@
+package juglr.jfr;
+
+import juglr.Actor;
+import juglr.Address;
+import juglr.Interceptor;
+import juglr.Message;
+import juglr.TraceContext;
+import juglr.net.HTTPRequest;
+import juglr.net.HTTPResponse;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An {@link Interceptor} emitting JDK Flight Recorder events for the actors
+ * on a {@link juglr.MessageBus}:
+ * <ul>
+ *   <li>{@link MessageSendEvent} for every message sent</li>
+ *   <li>{@link DispatchEvent} spanning each call to {@link Actor#react}</li>
+ *   <li>{@link MailboxWaitEvent} with the time a message was queued</li>
+ *   <li>{@link BlockingEvent} when an actor returns from
+ *       {@link Actor#await} or {@link Actor#awaitTimeout}</li>
+ *   <li>{@link HTTPRequestEvent} spanning requests handled by a
+ *       {@link juglr.net.HTTPServer}</li>
+ * </ul>
+ * All events are disabled by default and must be switched on in the
+ * settings of the recording, for example with a custom {@code .jfc} file
+ * setting {@code enabled} for {@code juglr.Dispatch}. When an event is
+ * disabled the interceptor only pays for checking that it is, so it can be
+ * left installed in production.
+ * <p/>
+ * Install with {@code bus.addInterceptor(new FlightRecorderInterceptor())}.
+ * This class requires the Flight Recorder API of Java 8 update 272 or
+ * later, unlike the rest of Juglr, and is shipped in a separate jar. Run it
+ * on a Java 8 runtime, which still accepts the jsr166 ForkJoinPool with
+ * {@code -Xbootclasspath/p}, and start a recording with the events
+ * enabled, for example with
+ * {@code -XX:StartFlightRecording=settings=juglr.jfc,filename=juglr.jfr}.
+ */
+public class FlightRecorderInterceptor implements Interceptor {
+
+    /* Most requests are answered within the limit, and the ones that are
+     * not are leaked by the server too, so we just stop tracking */
+    private static final int MAX_PENDING_REQUESTS = 10000;
+
+    /* Dispatch events of the actors being dispatched by a thread. Actors
+     * blocking in await may have the thread run other actors, so it's a
+     * stack. Disabled events are pushed as null. */
+    private static class DispatchStack {
+        DispatchEvent[] events = new DispatchEvent[4];
+        int size;
+
+        void push(DispatchEvent event) {
+            if (size == events.length) {
+                DispatchEvent[] grown = new DispatchEvent[size * 2];
+                System.arraycopy(events, 0, grown, 0, size);
+                events = grown;
+            }
+            events[size++] = event;
+        }
+
+        DispatchEvent pop() {
+            if (size == 0) {
+                return null;
+            }
+            DispatchEvent event = events[--size];
+            events[size] = null;
+            return event;
+        }
+    }
+
+    private final ThreadLocal<DispatchStack> dispatching;
+    private final ConcurrentMap<Address,HTTPRequestEvent> pendingRequests;
+
+    public FlightRecorderInterceptor() {
+        dispatching = new ThreadLocal<DispatchStack>() {
+            @Override
+            protected DispatchStack initialValue() {
+                return new DispatchStack();
+            }
+        };
+        pendingRequests = new ConcurrentHashMap<Address,HTTPRequestEvent>();
+    }
+
+    public boolean beforeSend(Message msg, Address recipient) {
+        MessageSendEvent send = new MessageSendEvent();
+        if (send.isEnabled()) {
+            send.messageType = msg.getClass().getName();
+            send.sender = externalize(msg.getSender());
+            send.recipient = recipient.externalize();
+            send.traceId = traceId(msg);
+            send.commit();
+        }
+
+        if (msg instanceof HTTPRequest) {
+            beginRequest((HTTPRequest)msg, recipient);
+        } else if (!pendingRequests.isEmpty()) {
+            endRequest(msg, recipient);
+        }
+        return true;
+    }
+
+    public void beforeReact(Actor actor, Message msg) {
+        long sendTime = msg.getSendTime();
+        if (sendTime != 0) {
+            MailboxWaitEvent wait = new MailboxWaitEvent();
+            if (wait.isEnabled()) {
+                wait.waitTime = System.nanoTime() - sendTime;
+                if (wait.shouldCommit()) {
+                    wait.actor = actor.getAddress().externalize();
+                    wait.messageType = msg.getClass().getName();
+                    wait.commit();
+                }
+            }
+        }
+
+        DispatchEvent dispatch = new DispatchEvent();
+        if (dispatch.isEnabled()) {
+            dispatch.begin();
+            dispatching.get().push(dispatch);
+        } else {
+            dispatching.get().push(null);
+        }
+    }
+
+    public void afterReact(Actor actor, Message msg) {
+        endDispatch(actor, msg, false);
+    }
+
+    public void onError(Actor actor, Message msg, Throwable error) {
+        endDispatch(actor, msg, true);
+    }
+
+    public void beforeBlock(Actor actor) {
+
+    }
+
+    public void afterBlock(Actor actor, long nanos) {
+        BlockingEvent blocking = new BlockingEvent();
+        if (blocking.isEnabled()) {
+            blocking.blockedTime = nanos;
+            if (blocking.shouldCommit()) {
+                blocking.actor = actor.getAddress().externalize();
+                blocking.actorClass = actor.getClass();
+                blocking.commit();
+            }
+        }
+    }
+
+    private void endDispatch(Actor actor, Message msg, boolean failed) {
+        DispatchEvent dispatch = dispatching.get().pop();
+        if (dispatch == null) {
+            return;
+        }
+
+        dispatch.end();
+        if (dispatch.shouldCommit()) {
+            dispatch.actor = actor.getAddress().externalize();
+            dispatch.actorClass = actor.getClass();
+            dispatch.messageType = msg.getClass().getName();
+            dispatch.sender = externalize(msg.getSender());
+            dispatch.traceId = traceId(msg);
+            dispatch.failed = failed;
+            dispatch.commit();
+        }
+    }
+
+    /* The upper half of the HTTPServer sends the request to the handler,
+     * which replies to the upper half */
+    private void beginRequest(HTTPRequest request, Address handler) {
+        Address upperHalf = request.getReplyTo();
+        if (upperHalf == null ||
+            pendingRequests.size() >= MAX_PENDING_REQUESTS) {
+            return;
+        }
+
+        HTTPRequestEvent event = new HTTPRequestEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            event.method = request.getMethod().toString();
+            event.uri = request.getUri().toString();
+            event.handler = handler.externalize();
+            event.traceId = traceId(request);
+            pendingRequests.put(upperHalf, event);
+        }
+    }
+
+    private void endRequest(Message msg, Address recipient) {
+        HTTPRequestEvent event = pendingRequests.remove(recipient);
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.status = msg instanceof HTTPResponse ?
+                           ((HTTPResponse)msg).getStatus().toString() : "OK";
+            event.commit();
+        }
+    }
+
+    private static String externalize(Address address) {
+        return address == null ? null : address.externalize();
+    }
+
+    private static String traceId(Message msg) {
+        TraceContext trace = msg.getTrace();
+        return trace == null ? null : Long.toHexString(trace.getTraceId());
+    }
+}
@@ -0,0 +1,36 @@
+package juglr.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Spans an HTTP request handled by a {@link juglr.net.HTTPServer}, from the
+ * request was passed to the handler until the response was sent back to the
+ * server
+ */
+@Enabled(false)
+@Name("juglr.HTTPRequest")
+@Label("HTTP Request")
+@Category({"Juglr", "HTTP"})
+@Description("An HTTP request handled by an actor")
+public class HTTPRequestEvent extends Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("URI")
+    String uri;
+
+    @Label("Handler")
+    String handler;
+
+    @Label("Status")
+    String status;
+
+    @Label("Trace Id")
+    String traceId;
+}
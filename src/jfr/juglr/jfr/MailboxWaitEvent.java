@@ -0,0 +1,31 @@
+package juglr.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted when an actor starts processing a message, recording how long the
+ * message waited from it was sent
+ */
+@Enabled(false)
+@Name("juglr.MailboxWait")
+@Label("Mailbox Wait")
+@Category("Juglr")
+@Description("Time a message spent queued before an actor processed it")
+public class MailboxWaitEvent extends Event {
+
+    @Label("Actor")
+    String actor;
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Wait Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitTime;
+}
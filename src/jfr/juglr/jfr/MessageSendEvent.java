@@ -0,0 +1,31 @@
+package juglr.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted when a message is sent on a {@link juglr.MessageBus}
+ */
+@Enabled(false)
+@Name("juglr.MessageSend")
+@Label("Message Send")
+@Category("Juglr")
+@Description("A message sent on a message bus")
+public class MessageSendEvent extends Event {
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Sender")
+    String sender;
+
+    @Label("Recipient")
+    String recipient;
+
+    @Label("Trace Id")
+    String traceId;
+}
@@ -67,8 +67,11 @@ public class BlockingActorTest {
             bus.send(new TwoNumbers(100, i), calc.getAddress());
         }
 
-        Thread.sleep(50000);
-        System.out.println("All good. Bye");
+        long start = System.currentTimeMillis();
+        bus.shutdown(true);
+        System.out.println(String.format(
+                "All good. Processed %s messages in %sms. Bye",
+                calcs.length, System.currentTimeMillis() - start));
     }
 
 }
@@ -4,6 +4,12 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import static org.testng.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -98,6 +104,278 @@ public class BoxParserTest {
         assertEquals(result,expected);
     }
 
+    @DataProvider(name="values")
+    public Iterator<Object[]> jsonValues() {
+        List<Object[]> data = new ArrayList<Object[]>();
+
+        data.add(new Object[]{"0", new Box(0)});
+        data.add(new Object[]{"-27", new Box(-27)});
+        data.add(new Object[]{"9223372036854775807",
+                              new Box(Long.MAX_VALUE)});
+        data.add(new Object[]{"-9223372036854775808",
+                              new Box(Long.MIN_VALUE)});
+        data.add(new Object[]{"9223372036854775808",
+                              new Box(9223372036854775808.0)});
+        data.add(new Object[]{"1.5", new Box(1.5)});
+        data.add(new Object[]{"-0.25e2", new Box(-25.0)});
+        data.add(new Object[]{"1E-2", new Box(0.01)});
+        data.add(new Object[]{" true ", new Box(true)});
+        data.add(new Object[]{"\"\"", new Box("")});
+        data.add(new Object[]{"\"a\\\"b\\\\c\\/\\n\\t\"",
+                              new Box("a\"b\\c/\n\t")});
+        data.add(new Object[]{"\"\\u00e6\\u00F8\\ud83d\\ude00\"",
+                              new Box("\u00e6\u00f8\ud83d\ude00")});
+        data.add(new Object[]{"\"\u00e6\u00f8\u00e5 \u65e5\u672c\"",
+                              new Box("\u00e6\u00f8\u00e5 \u65e5\u672c")});
+
+        return data.iterator();
+    }
+
+    @Test(dataProvider="values")
+    public void parseValues(String json, Box expected) throws Exception {
+        JSonBoxParser parser = new JSonBoxParser();
+
+        assertEquals(parser.parse(json), expected);
+        assertEquals(parser.parse(new TrickleReader(json)), expected);
+
+        byte[] utf8 = json.getBytes("UTF-8");
+        assertEquals(parser.parse(utf8), expected);
+        assertEquals(parser.parse(new TrickleStream(utf8)), expected);
+        ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+        direct.put(utf8).flip();
+        assertEquals(parser.parse(direct), expected);
+        assertFalse(direct.hasRemaining());
+    }
+
+    @Test
+    public void byteBufferSlice() throws Exception {
+        byte[] data = "xx{\"\u00e6\":[1,\"\u00f8\"]}yy".getBytes("UTF-8");
+        ByteBuffer buf = ByteBuffer.wrap(data, 1, data.length - 2).slice();
+        buf.position(1);
+        buf.limit(buf.limit() - 1);
+
+        Box box = new JSonBoxParser().parse(buf);
+        assertEquals(box, Box.newMap().put("\u00e6",
+                                           Box.newList().add(1).add("\u00f8")));
+        assertEquals(buf.position(), buf.limit());
+    }
+
+    @Test
+    public void malformedUTF8() {
+        byte[][] invalid = {
+                {'"', (byte)0xC3, '"'},                    // truncated
+                {'"', (byte)0xC0, (byte)0xAF, '"'},        // overlong
+                {'"', (byte)0xED, (byte)0xA0, (byte)0x80, '"'}, // surrogate
+                {'"', (byte)0xF5, (byte)0x80, (byte)0x80, (byte)0x80, '"'},
+                {'"', (byte)0x80, '"'}                     // continuation
+        };
+        for (byte[] json : invalid) {
+            try {
+                new JSonBoxParser().parse(json);
+                fail("Expected MessageFormatException");
+            } catch (MessageFormatException e) {
+                assertTrue(e.getMessage().contains("Malformed UTF-8"),
+                           e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void keyOrder() {
+        String json = "{\"z\":1,\"a\":2,\"m\":{\"y\":[],\"b\":{}}}";
+        assertEquals(new JSonBoxParser().parse(json).toString(), json);
+    }
+
+    @Test
+    public void trickle() throws Exception {
+        // Strings and numbers split across the blocks read from the stream
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            json.append(i == 0 ? "" : ",")
+                .append("{\"key").append(i).append("\":\"val\\\"ue\",")
+                .append("\"n\":").append(i * 1001L).append("}");
+        }
+        json.append("]");
+
+        Box expected = new JSonBoxParser().parse(json.toString());
+        assertEquals(expected.size(), 2000);
+        assertEquals(expected.get(1999).getString("key1999"), "val\"ue");
+        assertEquals(new JSonBoxParser().parse(
+                new StringReader(json.toString())), expected);
+        assertEquals(new JSonBoxParser().parse(
+                new TrickleReader(json.toString())), expected);
+        assertEquals(new JSonBoxParser().parse(
+                new TrickleStream(json.toString().getBytes("UTF-8"))),
+                expected);
+    }
+
+    @Test
+    public void openStream() throws Exception {
+        // Like a request body on a socket the client keeps open, the
+        // streams block after the value instead of ending
+        String json = " {\"a\": [1, 2]} ";
+        Box expected = new JSonBoxParser().parse(json);
+        assertEquals(new JSonBoxParser().parse(
+                new OpenStream(json.getBytes("UTF-8"))), expected);
+        assertEquals(new JSonBoxParser().parse(
+                new OpenReader(json)), expected);
+
+        // Input of known length is still checked for trailing data
+        try {
+            new JSonBoxParser().parse(
+                           ByteBuffer.wrap("[1] 2".getBytes("UTF-8")));
+            fail("Expected MessageFormatException");
+        } catch (MessageFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        BoxParser parser = new JSonBoxParser();
+        assertNull(parser.parse(""));
+        assertNull(parser.parse(" \n\t"));
+        assertNull(parser.parse(new StringReader("")));
+    }
+
+    @Test
+    public void syntaxErrors() {
+        String[] invalid = {
+                "{", "[1,", "[1 2]", "{\"a\" 1}", "{\"a\":1,}", "{a:1}",
+                "[01]", "[-]", "[1.]", "[1e]", "\"abc", "\"\\x\"",
+                "\"\\u12g4\"", "\"a\nb\"", "tru", "null", "[1] 2",
+                "{\"a\":1,\"a\":2}", "'a'"
+        };
+        BoxParser parser = new JSonBoxParser();
+
+        for (String json : invalid) {
+            try {
+                parser.parse(json);
+                fail("Expected MessageFormatException for " + json);
+            } catch (MessageFormatException e) {
+                assertTrue(e.getMessage().startsWith("Syntax error"),
+                           e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void errorPosition() {
+        try {
+            new JSonBoxParser().parse("{\"a\":1 \"b\":2}");
+            fail("Expected MessageFormatException");
+        } catch (MessageFormatException e) {
+            assertTrue(e.getMessage().endsWith("at character 7"),
+                       e.getMessage());
+        }
+    }
+
+    @Test
+    public void maxDepth() {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < JSonBoxParser.MAX_DEPTH; i++) {
+            json.append('[');
+        }
+        for (int i = 0; i < JSonBoxParser.MAX_DEPTH; i++) {
+            json.append(']');
+        }
+        new JSonBoxParser().parse(json.toString());
+
+        try {
+            new JSonBoxParser().parse("[" + json + "]");
+            fail("Expected MessageFormatException");
+        } catch (MessageFormatException e) {
+            // expected
+        }
+    }
+
+    /* A reader returning at most three characters per read */
+    static class TrickleReader extends Reader {
+        private final Reader in;
+
+        TrickleReader(String s) {
+            in = new StringReader(s);
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            return in.read(buf, off, Math.min(len, 3));
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /* A stream failing reads past its data, where a socket would block */
+    static class OpenStream extends InputStream {
+        private final InputStream in;
+
+        OpenStream(byte[] data) {
+            in = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (in.available() == 0) {
+                throw new IOException("Read past the end of the data");
+            }
+            return in.read(buf, off, len);
+        }
+    }
+
+    /* A reader failing reads past its data, where a socket would block */
+    static class OpenReader extends Reader {
+        private final Reader in;
+        private int remaining;
+
+        OpenReader(String s) {
+            in = new StringReader(s);
+            remaining = s.length();
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            if (remaining == 0) {
+                throw new IOException("Read past the end of the data");
+            }
+            int read = in.read(buf, off, len);
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /* A stream returning at most three bytes per read */
+    static class TrickleStream extends InputStream {
+        private final InputStream in;
+
+        TrickleStream(byte[] data) {
+            in = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            return in.read(buf, off, Math.min(len, 3));
+        }
+    }
+
     @Test
     public void threadSafety() throws Exception {
         final String json = "{\"__store__\": [{\"__index__\": [\"firstname\"], \"__base__\": \"mybase\", \"__id__\": \"mke\", \"firstname\": \"Mikkel\", \"lastname\": \"kamstrup\"}]}";
@@ -0,0 +1,184 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Test cases for BoxSchema and boxes with slot-indexed fields
+ */
+public class BoxSchemaTest {
+
+    static final BoxSchema READING =
+                         new BoxSchema("sensor", "time", "value", "tags");
+    static final BoxSchema.Field SENSOR = READING.field("sensor");
+    static final BoxSchema.Field TIME = READING.field("time");
+    static final BoxSchema.Field VALUE = READING.field("value");
+    static final BoxSchema.Field TAGS = READING.field("tags");
+
+    static final String JSON =
+            "{\"value\": 2.5, \"sensor\": \"s1\", \"time\": 1000," +
+            " \"tags\": {\"site\": \"a\"}}";
+
+    @Test
+    public void fields() {
+        assertEquals(READING.size(), 4);
+        assertEquals(TIME.getSlot(), 1);
+        assertEquals(TIME.getName(), "time");
+        assertSame(TIME.getSchema(), READING);
+        assertSame(READING.field(1), TIME);
+        assertNull(READING.field("missing"));
+
+        try {
+            new BoxSchema("a", "b", "a");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void slots() {
+        Box box = READING.newBox();
+        assertEquals(box.getType(), Box.Type.MAP);
+        assertEquals(box.size(), 0);
+        assertFalse(box.has(TIME));
+
+        box.put(VALUE, 2.5).put(TIME, 1000).put("sensor", "s1");
+        assertEquals(box.size(), 3);
+        assertEquals(box.getLong(TIME), 1000);
+        assertEquals(box.getFloat(VALUE), 2.5);
+        assertEquals(box.getString(SENSOR), "s1");
+        assertEquals(box.getLong("time"), 1000);
+        assertNull(box.get(TAGS));
+        assertEquals(box.getLong(TAGS, -1), -1);
+
+        // Entries are in the order of the schema
+        Iterator<Map.Entry<String,Box>> entries =
+                                       box.getMap().entrySet().iterator();
+        assertEquals(entries.next().getKey(), "sensor");
+        assertEquals(entries.next().getKey(), "time");
+        entries.remove();
+        assertEquals(entries.next().getKey(), "value");
+        assertFalse(entries.hasNext());
+        assertFalse(box.has("time"));
+        assertEquals(box.size(), 2);
+
+        assertEquals(box.toString(), "{\"sensor\":\"s1\",\"value\":2.5}");
+        assertEquals(box, Box.buildMap()
+                          .put("value", 2.5)
+                          .put("sensor", "s1").build());
+    }
+
+    @Test
+    public void extraKeys() {
+        Box box = READING.newBox().put(TIME, 1).put("extra", true);
+        assertNull(SchemaMap.of(box));
+        assertEquals(box.getLong(TIME), 1);
+        assertTrue(box.getBoolean("extra"));
+
+        box.put(VALUE, 3);
+        assertEquals(box.getLong("value"), 3);
+        assertEquals(box.size(), 3);
+    }
+
+    @Test
+    public void plainMaps() {
+        Box box = Box.newMap().put(TIME, 5);
+        assertEquals(box.getLong("time"), 5);
+        assertEquals(box.getLong(TIME), 5);
+
+        // Fields of another schema are looked up by name
+        BoxSchema other = new BoxSchema("time");
+        Box shaped = other.newBox().put("time", 7);
+        assertEquals(shaped.getLong(TIME), 7);
+
+        Box frozen = READING.newBox().put(TIME, 9).freeze();
+        assertEquals(frozen.getLong(TIME), 9);
+    }
+
+    @Test
+    public void parseJSon() throws Exception {
+        JSonBoxParser parser = new JSonBoxParser(READING);
+        Box[] boxes = {
+            parser.parse(JSON),
+            parser.parse(ByteBuffer.wrap(JSON.getBytes("UTF-8"))),
+            parser.parse(new ByteArrayInputStream(JSON.getBytes("UTF-8")))
+        };
+        Box plain = new JSonBoxParser().parse(JSON);
+        for (Box box : boxes) {
+            assertNotNull(SchemaMap.of(box));
+            assertEquals(box.getLong(TIME), 1000);
+            assertEquals(box.getString(SENSOR), "s1");
+            assertNull(SchemaMap.of(box.get(TAGS)));
+            assertEquals(box.get(TAGS).getString("site"), "a");
+            assertEquals(box, plain);
+        }
+
+        // Duplicate fields are still rejected
+        try {
+            parser.parse("{\"time\": 1, \"time\": 2}");
+            fail("Expected a MessageFormatException");
+        } catch (MessageFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parseCbor() throws Exception {
+        Box plain = new JSonBoxParser().parse(JSON);
+        ByteBuffer cbor = new CborBoxWriter().write(plain,
+                                                    ByteBuffer.allocate(8));
+        cbor.flip();
+        Box box = new CborBoxParser(READING).parse(cbor);
+        assertNotNull(SchemaMap.of(box));
+        assertEquals(box.getFloat(VALUE), 2.5);
+        assertEquals(box, plain);
+    }
+
+    @Test
+    public void write() throws Exception {
+        Box box = new JSonBoxParser(READING).parse(JSON);
+        String expected = "{\"sensor\":\"s1\",\"time\":1000,\"value\":2.5," +
+                          "\"tags\":{\"site\":\"a\"}}";
+        assertEquals(new String(box.toBytes(), "UTF-8"), expected);
+        assertEquals(box.toString(), expected);
+
+        ByteBuffer cbor = new CborBoxWriter().write(box,
+                                                    ByteBuffer.allocate(8));
+        cbor.flip();
+        Box copy = new CborBoxParser().parse(cbor);
+        assertEquals(copy, box);
+        assertEquals(copy.toString(), expected);
+
+        // Keys needing escapes are encoded correctly
+        BoxSchema odd = new BoxSchema("quote\"", "smørrebrød");
+        Box oddBox = odd.newBox().put(odd.field(1), 1)
+                                 .put(odd.field(0), 2);
+        String json = new String(oddBox.toBytes(), "UTF-8");
+        assertEquals(json, "{\"quote\\\"\":2,\"smørrebrød\":1}");
+        assertEquals(new JSonBoxParser(odd).parse(json), oddBox);
+    }
+
+    @Test
+    public void serialize() throws Exception {
+        Box box = READING.newBox().put(TIME, 1).put(SENSOR, "s");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(box);
+        out.close();
+
+        Box copy = (Box)new ObjectInputStream(new ByteArrayInputStream(
+                                    bytes.toByteArray())).readObject();
+        assertEquals(copy, box);
+        assertFalse(copy.getVal() instanceof SchemaMap);
+        assertEquals(copy.getLong(TIME), 1);
+    }
+}
@@ -75,6 +75,164 @@ public class BoxTest {
         assert m.getString().equals(val);
     }
 
+    @Test
+    public void primitiveTypes() {
+        Box f = new Box(-2.5D);
+        assertEquals(f.getType(), Box.Type.FLOAT);
+        assertEquals(f.getFloat(), -2.5D);
+        assertEquals(f.getVal(), -2.5D);
+        assertEquals(new Box(Double.NaN).toString(), "NaN");
+
+        Box b = new Box(true);
+        assertEquals(b.getType(), Box.Type.BOOLEAN);
+        assertTrue(b.getBoolean());
+        assertEquals(b.getVal(), Boolean.TRUE);
+        assertEquals(b.toString(), "true");
+        assertEquals(new String(new Box(false).toBytes()), "false");
+
+        assertEquals(new Box(Long.MIN_VALUE).getVal(), Long.MIN_VALUE);
+        assertEquals(new Box(Box.Type.INT).getLong(), 0);
+        assertEquals(new Box(Box.Type.FLOAT).getFloat(), 0D);
+        assertFalse(new Box(Box.Type.BOOLEAN).getBoolean());
+
+        assertEquals(new Box(7), new Box(7L));
+        assertFalse(new Box(7).equals(new Box(7D)));
+        assertEquals(Box.newList().add(1.5).add(true),
+                     Box.newList().add(1.5).add(true));
+
+        try {
+            new Box(1).getFloat();
+            fail("Expected TypeException");
+        } catch (Box.TypeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void mapConstructor() {
+        Map<String,Box> map = new LinkedHashMap<String,Box>();
+        map.put("b", new Box(2));
+        map.put("a", new Box(1));
+
+        Box box = new Box(map);
+        assertEquals(box.getType(), Box.Type.MAP);
+        assertEquals(box.getLong("a"), 1);
+        assertEquals(box.toString(), "{\"b\":2,\"a\":1}");
+
+        map.put("c", new Box(3));
+        assertFalse(box.has("c"));
+    }
+
+    @Test
+    public void insertionOrder() {
+        Box box = Box.newMap(2);
+        for (int i = 20; i > 0; i--) {
+            box.put("k" + i, i);
+        }
+        box.put("k20", 0);
+
+        int expected = 20;
+        for (Map.Entry<String,Box> entry : box.getMap().entrySet()) {
+            assertEquals(entry.getKey(), "k" + expected);
+            expected--;
+        }
+        assertEquals(box.size(), 20);
+        assertEquals(box.getLong("k20"), 0);
+        assertEquals(Box.newList(100).add(1).size(), 1);
+    }
+
+    /* Records the messages it receives, forwarding them to next if set */
+    static class Recorder extends Actor {
+        final List<Message> received =
+                        Collections.synchronizedList(new ArrayList<Message>());
+        final Address next;
+
+        Recorder(Address next) {
+            this.next = next;
+        }
+
+        @Override
+        public void react(Message msg) {
+            received.add(msg);
+            if (next != null) {
+                send(msg, next);
+            }
+        }
+    }
+
+    @Test
+    public void frozenDelivery() throws Exception {
+        // MulticastActors live on the default bus
+        MessageBus bus = MessageBus.getDefault();
+        Recorder last = new Recorder(null);
+        Recorder forwarder = new Recorder(last.getAddress());
+        Recorder plain = new Recorder(null);
+        MulticastActor fanout = new MulticastActor(forwarder.getAddress(),
+                                                   plain.getAddress());
+
+        Box box = Box.buildMap().put("a", 1).build();
+        bus.send(box, fanout.getAddress());
+        assertTrue(bus.awaitQuiescence(10000));
+
+        // Each delivery has its own headers, sharing the value
+        assertNull(box.getSender());
+        Message forwarded = forwarder.received.get(0);
+        Message received = plain.received.get(0);
+        assertNotSame(forwarded, received);
+        assertNotSame(last.received.get(0), forwarded);
+        assertEquals(received.getSender(), fanout.getAddress());
+        assertEquals(last.received.get(0).getSender(), forwarder.getAddress());
+        assertSame(((Box)received).getMap(), box.getMap());
+        assertEquals(received, box);
+    }
+
+    @Test
+    public void frozen() {
+        Box inner = Box.newList().add(1).add(2);
+        Box box = Box.buildMap()
+                .put("a", 1)
+                .put("list", inner)
+                .put("s", "foo")
+                .build();
+        assertTrue(box.isFrozen());
+        assertTrue(box.get("list").isFrozen());
+        assertTrue(new Box(1).isFrozen());
+        assertFalse(inner.isFrozen());
+        assertEquals(box.toString(), "{\"a\":1,\"list\":[1,2],\"s\":\"foo\"}");
+
+        inner.add(3);
+        assertEquals(box.getList("list").size(), 2);
+
+        try {
+            box.put("b", 2);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            box.getList("list").add(new Box(3));
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        Box derived = box.with("b", new Box(2)).without("s");
+        assertEquals(derived.toString(), "{\"a\":1,\"list\":[1,2],\"b\":2}");
+        assertSame(derived.get("list"), box.get("list"));
+        assertEquals(box.size(), 3);
+        assertSame(box.freeze(), box);
+        assertSame(box.without("x"), box);
+
+        Box list = box.get("list").append(new Box(3)).with(0, new Box(0));
+        assertEquals(list.toString(), "[0,2,3]");
+        assertEquals(Box.newList().add(0).add(2).add(3), list);
+
+        Box copy = Box.newMap().put("m", Box.newMap().put("x", 1)).freeze();
+        assertTrue(copy.get("m").isFrozen());
+        assertEquals(Box.buildList().add(true).add("x").build().toString(),
+                     "[true,\"x\"]");
+    }
+
     @Test
     public void stringConversion() {
         assertEquals(new Box("foo").toString(), "\"foo\"");
@@ -0,0 +1,225 @@
+package juglr;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test cases for the CborBoxWriter and CborBoxParser classes. Most of the
+ * encodings are the examples from appendix A of RFC 7049
+ */
+public class CborBoxTest {
+
+    @DataProvider(name="boxes")
+    public Iterator<Object[]> boxes() {
+        List<Object[]> data = new ArrayList<Object[]>();
+
+        data.add(new Object[]{new Box(0), "00"});
+        data.add(new Object[]{new Box(23), "17"});
+        data.add(new Object[]{new Box(24), "1818"});
+        data.add(new Object[]{new Box(255), "18ff"});
+        data.add(new Object[]{new Box(256), "190100"});
+        data.add(new Object[]{new Box(65535), "19ffff"});
+        data.add(new Object[]{new Box(65536), "1a00010000"});
+        data.add(new Object[]{new Box(4294967295L), "1affffffff"});
+        data.add(new Object[]{new Box(4294967296L), "1b0000000100000000"});
+        data.add(new Object[]{new Box(Long.MAX_VALUE), "1b7fffffffffffffff"});
+        data.add(new Object[]{new Box(-1), "20"});
+        data.add(new Object[]{new Box(-24), "37"});
+        data.add(new Object[]{new Box(-25), "3818"});
+        data.add(new Object[]{new Box(-257), "390100"});
+        data.add(new Object[]{new Box(Long.MIN_VALUE), "3b7fffffffffffffff"});
+        data.add(new Object[]{new Box(1.5), "fa3fc00000"});
+        data.add(new Object[]{new Box(-0.0), "fa80000000"});
+        data.add(new Object[]{new Box(0.1), "fb3fb999999999999a"});
+        data.add(new Object[]{new Box(1.0e300), "fb7e37e43c8800759c"});
+        data.add(new Object[]{new Box(false), "f4"});
+        data.add(new Object[]{new Box(true), "f5"});
+        data.add(new Object[]{new Box(""), "60"});
+        data.add(new Object[]{new Box("a"), "6161"});
+        data.add(new Object[]{new Box("ü"), "62c3bc"});
+        data.add(new Object[]{new Box("水"), "63e6b0b4"});
+        data.add(new Object[]{new Box("𐅑"), "64f0908591"});
+        data.add(new Object[]{Box.newList().add(1).add(2).add(3), "83010203"});
+        data.add(new Object[]{
+                Box.newMap()
+                   .put("b", Box.newList().add(2).add(3))
+                   .put("a", 1),
+                "a26162820203616101"});
+
+        return data.iterator();
+    }
+
+    @Test(dataProvider="boxes")
+    public void write(Box box, String expected) {
+        // Start from a one byte buffer to grow it on every write
+        ByteBuffer buf = new CborBoxWriter().write(box,
+                                                   ByteBuffer.allocate(1));
+        buf.flip();
+        assertEquals(hex(buf), expected);
+
+        buf = new CborBoxWriter().write(box, ByteBuffer.allocateDirect(1));
+        buf.flip();
+        assertEquals(hex(buf), expected);
+    }
+
+    @Test(dataProvider="boxes")
+    public void parse(Box expected, String hex) {
+        Box box = new CborBoxParser().parse(bytes(hex));
+        assertEquals(box.toString(), expected.toString());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put(bytes(hex)).flip();
+        assertEquals(new CborBoxParser().parse(direct).toString(),
+                     expected.toString());
+        assertFalse(direct.hasRemaining());
+    }
+
+    @Test
+    public void parseOtherEncodings() {
+        CborBoxParser parser = new CborBoxParser();
+
+        // Half precision floats
+        assertEquals(parser.parse(bytes("f93c00")).getFloat(), 1.0);
+        assertEquals(parser.parse(bytes("f9c400")).getFloat(), -4.0);
+        assertEquals(parser.parse(bytes("f90001")).getFloat(),
+                     5.960464477539063e-8);
+        assertEquals(parser.parse(bytes("f97c00")).getFloat(),
+                     Double.POSITIVE_INFINITY);
+
+        // Non-minimal heads
+        assertEquals(parser.parse(bytes("1b0000000000000001")).getLong(), 1);
+
+        // Unsigned integers beyond the range of a long
+        assertEquals(parser.parse(bytes("1bffffffffffffffff")).getFloat(),
+                     18446744073709551615.0);
+
+        // Indefinite lengths
+        assertEquals(parser.parse(bytes("9f018202039f0405ffff")).toString(),
+                     "[1,[2,3],[4,5]]");
+        assertEquals(parser.parse(
+                        bytes("bf61610161629f0203ffff")).toString(),
+                     "{\"a\":1,\"b\":[2,3]}");
+        assertEquals(parser.parse(
+                        bytes("7f657374726561646d696e67ff")).getString(),
+                     "streaming");
+
+        // Tags are skipped
+        assertEquals(parser.parse(bytes("c11a514b67b0")).getLong(),
+                     1363896240L);
+
+        // Empty input
+        assertNull(parser.parse(new byte[0]));
+    }
+
+    @Test
+    public void syntaxErrors() {
+        String[] errors = {
+            "0000",                 // trailing data
+            "19 01",                // truncated integer
+            "8301 02",              // truncated array
+            "9f01",                 // unterminated indefinite array
+            "4161",                 // byte string
+            "f6",                   // null
+            "f7",                   // undefined
+            "ff",                   // lone break
+            "1c",                   // reserved additional information
+            "a10101",               // non-text key
+            "a2616101616102",       // duplicate key
+            "9bffffffffffffffff",   // absurd length
+            "7f0100ff"              // non-text chunk
+        };
+        for (String hex : errors) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes(hex));
+            try {
+                new CborBoxParser().parse(buf);
+                fail("Expected a MessageFormatException for " + hex);
+            } catch (MessageFormatException e) {
+                // expected
+                assertTrue(e.getMessage().startsWith(
+                               "Syntax error reading CBOR data: "),
+                           e.getMessage());
+                assertFalse(buf.hasRemaining());
+            }
+        }
+    }
+
+    @Test
+    public void maxDepth() {
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < JSonBoxParser.MAX_DEPTH; i++) {
+            hex.append("81");
+        }
+        hex.append("00");
+        new CborBoxParser().parse(bytes(hex.toString()));
+
+        try {
+            new CborBoxParser().parse(bytes("81" + hex));
+            fail("Expected a MessageFormatException");
+        } catch (MessageFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void roundTrip() {
+        Box box = Box.newMap()
+                     .put("id", 1234567890123L)
+                     .put("name", "Smørrebrød 😀")
+                     .put("ratio", 0.3333333333333333)
+                     .put("scale", 0.25)
+                     .put("flags", Box.newList().add(true).add(false))
+                     .put("empty", Box.newMap());
+        ByteBuffer buf = new CborBoxWriter().write(box,
+                                                   ByteBuffer.allocate(16));
+        buf.flip();
+        assertEquals(new CborBoxParser().parse(buf).toString(),
+                     box.toString());
+    }
+
+    @Test
+    public void smallerThanJSon() {
+        Box box = Box.newList();
+        for (int i = 0; i < 100; i++) {
+            box.add(Box.newList().add(i * 1000003L).add(i / 7.0).add(i < 50));
+        }
+        ByteBuffer cbor = new CborBoxWriter().write(
+                                              box, ByteBuffer.allocate(64));
+        assertTrue(cbor.position() < box.toBytes().length / 2,
+                   "CBOR " + cbor.position() + " bytes, JSON "
+                   + box.toBytes().length + " bytes");
+    }
+
+    @Test
+    public void bytesOnly() {
+        // CBOR only implements the byte interfaces, not character parsing
+        // and writing
+        assertTrue(ByteBoxParser.class.isAssignableFrom(CborBoxParser.class));
+        assertFalse(BoxParser.class.isAssignableFrom(CborBoxParser.class));
+        assertTrue(ByteBoxWriter.class.isAssignableFrom(CborBoxWriter.class));
+        assertFalse(BoxWriter.class.isAssignableFrom(CborBoxWriter.class));
+    }
+
+    private static String hex(ByteBuffer buf) {
+        StringBuilder s = new StringBuilder();
+        while (buf.hasRemaining()) {
+            s.append(String.format("%02x", buf.get() & 0xFF));
+        }
+        return s.toString();
+    }
+
+    private static byte[] bytes(String hex) {
+        hex = hex.replace(" ", "");
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)Integer.parseInt(
+                                      hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,69 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+/**
+ * Test cases for the CoalescingMailbox class
+ */
+public class CoalescingMailboxTest {
+
+    private Box tick(String symbol, long price) {
+        return Box.newMap().put("symbol", symbol).put("price", price);
+    }
+
+    @Test
+    public void emptyPoll() {
+        Mailbox mb = new CoalescingMailbox("symbol");
+        assertTrue(mb.isEmpty());
+        assertNull(mb.poll());
+    }
+
+    @Test
+    public void replaceKeepsPosition() {
+        Mailbox mb = new CoalescingMailbox("symbol");
+        assertTrue(mb.put(tick("A", 1)));
+        assertTrue(mb.put(tick("B", 1)));
+        assertFalse(mb.put(tick("A", 2)));
+        assertEquals(mb.size(), 2);
+
+        assertEquals(mb.poll(), tick("A", 2));
+        assertEquals(mb.poll(), tick("B", 1));
+        assertNull(mb.poll());
+    }
+
+    @Test
+    public void keyAfterPoll() {
+        Mailbox mb = new CoalescingMailbox("symbol");
+        mb.put(tick("A", 1));
+        assertEquals(mb.poll(), tick("A", 1));
+        assertTrue(mb.put(tick("A", 2)));
+        assertEquals(mb.size(), 1);
+    }
+
+    @Test
+    public void unkeyedNeverCoalesced() {
+        Mailbox mb = new CoalescingMailbox("symbol");
+        mb.put(new Box(1));
+        mb.put(new Box(1));
+        mb.put(Box.newMap().put("price", 1));
+        mb.put(Box.newMap().put("price", 1));
+        assertEquals(mb.size(), 4);
+    }
+
+    @Test
+    public void keyFunction() {
+        Mailbox mb = new CoalescingMailbox(new CoalescingMailbox.KeyFunction(){
+            public Object key(Message msg) {
+                return msg.getClass();
+            }
+        });
+        Message first = new Message();
+        Message last = new Message();
+        mb.put(first);
+        mb.put(new Box(27));
+        mb.put(last);
+        assertEquals(mb.size(), 2);
+        assertSame(mb.poll(), last);
+    }
+}
@@ -0,0 +1,166 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the DeadLetterOffice and dead letter handling on the
+ * MessageBus
+ */
+public class DeadLetterOfficeTest {
+
+    static class Collector extends DeadLetterOffice {
+        final BlockingQueue<DeadLetter> letters =
+                                          new LinkedBlockingQueue<DeadLetter>();
+
+        final BlockingQueue<Thread> threads = new LinkedBlockingQueue<Thread>();
+
+        Collector(MessageBus bus) {
+            super(bus);
+        }
+
+        Collector(MessageBus bus, Mailbox mailbox) {
+            super(bus, mailbox);
+        }
+
+        @Override
+        protected void deadLetter(DeadLetter letter) {
+            letters.add(letter);
+            threads.add(Thread.currentThread());
+        }
+    }
+
+    static class Idle extends Actor {
+        Idle(MessageBus bus) {
+            super(bus);
+        }
+
+        @Override
+        public void react(Message msg) {
+            throw new RuntimeException("Always failing");
+        }
+    }
+
+    @Test
+    public void freedAddress() throws Exception {
+        MessageBus bus = new MessageBus();
+        Collector office = new Collector(bus);
+        bus.setDeadLetterOffice(office);
+        assertSame(bus.getDeadLetterOffice(), office);
+
+        Idle idle = new Idle(bus);
+        Address address = idle.getAddress();
+        bus.freeAddress(address);
+
+        Box msg = new Box("lost");
+        bus.send(msg, address);
+        DeadLetter letter = office.letters.poll(10, TimeUnit.SECONDS);
+        assertNotNull(letter);
+        assertSame(letter.getMessage(), msg);
+        assertSame(letter.getRecipient(), address);
+        assertEquals(letter.getReason(), DeadLetter.Reason.NO_RECIPIENT);
+        assertEquals(office.getCount(DeadLetter.Reason.NO_RECIPIENT), 1);
+        assertEquals(office.getTotalCount(), 1);
+    }
+
+    @Test
+    public void officeMailbox() throws Exception {
+        MessageBus bus = new MessageBus();
+        Collector office = new Collector(bus, new FifoMailbox());
+        bus.setDeadLetterOffice(office);
+
+        // Rejected messages become dead letters in the sending thread
+        final Address rejected = new Idle(bus).getAddress();
+        bus.addInterceptor(new Interceptor.Adapter() {
+            @Override
+            public boolean beforeSend(Message msg, Address recipient) {
+                return recipient != rejected;
+            }
+        });
+
+        // The letters are queued, not handled by the sending thread
+        Set<Long> values = new HashSet<Long>();
+        for (int i = 0; i < 10; i++) {
+            bus.send(new Box(i), rejected);
+        }
+        for (int i = 0; i < 10; i++) {
+            DeadLetter letter = office.letters.poll(10, TimeUnit.SECONDS);
+            assertNotNull(letter);
+            assertEquals(letter.getReason(), DeadLetter.Reason.REJECTED);
+            values.add(((Box)letter.getMessage()).getLong());
+            assertNotSame(office.threads.poll(), Thread.currentThread());
+        }
+        assertEquals(values.size(), 10);
+        assertTrue(bus.awaitQuiescence(10000));
+        assertEquals(office.getCount(DeadLetter.Reason.REJECTED), 10);
+    }
+
+    @Test
+    public void stoppedRecipient() throws Exception {
+        MessageBus bus = new MessageBus();
+        bus.setSupervisor(new Supervisor(Supervisor.Directive.STOP));
+        Collector office = new Collector(bus);
+        bus.setDeadLetterOffice(office);
+
+        Idle idle = new Idle(bus);
+        bus.send(new Box("boom"), idle.getAddress());
+        assertTrue(bus.awaitQuiescence(10000));
+
+        bus.send(new Box("too late"), idle.getAddress());
+        DeadLetter letter = office.letters.poll(10, TimeUnit.SECONDS);
+        assertNotNull(letter);
+        assertEquals(letter.getReason(), DeadLetter.Reason.RECIPIENT_STOPPED);
+    }
+
+    @Test
+    public void noDelegate() throws Exception {
+        // DelegatingActors created from a strategy live on the default bus
+        MessageBus bus = MessageBus.getDefault();
+        DeadLetterOffice original = bus.getDeadLetterOffice();
+        Collector office = new Collector(bus);
+        bus.setDeadLetterOffice(office);
+
+        try {
+            DelegatingActor delegator = new DelegatingActor(
+                    new DelegatingActor.Strategy() {
+                        public Address recipient(Message msg) {
+                            return null;
+                        }
+
+                        public void start() {
+                        }
+                    });
+            bus.send(new Box("nowhere"), delegator.getAddress());
+
+            DeadLetter letter = office.letters.poll(10, TimeUnit.SECONDS);
+            assertNotNull(letter);
+            assertEquals(letter.getReason(), DeadLetter.Reason.NO_DELEGATE);
+            assertSame(letter.getRecipient(), delegator.getAddress());
+            assertEquals(office.getCount(DeadLetter.Reason.NO_DELEGATE), 1);
+        } finally {
+            bus.setDeadLetterOffice(original);
+        }
+    }
+
+    @Test
+    public void defaultOfficeCountsStorm() throws Exception {
+        MessageBus bus = new MessageBus();
+        DeadLetterOffice office = bus.getDeadLetterOffice();
+        assertSame(bus.lookup(MessageBus.DEAD_LETTERS), bus.lookup(
+                MessageBus.DEAD_LETTERS));
+
+        Idle idle = new Idle(bus);
+        bus.freeAddress(idle.getAddress());
+        for (int i = 0; i < 10000; i++) {
+            bus.send(new Box(i), idle.getAddress());
+        }
+        assertTrue(bus.awaitQuiescence(10000));
+        assertEquals(office.getCount(DeadLetter.Reason.NO_RECIPIENT), 10000);
+    }
+}
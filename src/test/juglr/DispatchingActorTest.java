@@ -0,0 +1,90 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for the DispatchingActor class
+ */
+public class DispatchingActorTest {
+
+    static class Special extends Message {}
+
+    static class Recorder extends DispatchingActor {
+        final List<String> log = new ArrayList<String>();
+
+        Recorder() {
+            on(Message.class, new Handler<Message>() {
+                public void handle(Message msg) {
+                    log.add("message");
+                }
+            });
+            on(Box.class, new Handler<Box>() {
+                public void handle(Box msg) {
+                    log.add("box");
+                }
+            });
+            on(Special.class, new Handler<Special>() {
+                public void handle(Special msg) {
+                    log.add("special");
+                }
+            });
+            discriminate("op");
+            on("add", new Handler<Box>() {
+                public void handle(Box msg) {
+                    log.add("add");
+                }
+            });
+            on("1", new Handler<Box>() {
+                public void handle(Box msg) {
+                    log.add("one");
+                }
+            });
+        }
+    }
+
+    @Test
+    public void mostSpecificClass() {
+        Recorder r = new Recorder();
+        r.react(new Special());
+        r.react(new Box(27));
+        r.react(new Message());
+        assertEquals(r.log.toString(), "[special, box, message]");
+    }
+
+    @Test
+    public void discriminator() {
+        Recorder r = new Recorder();
+        r.react(Box.newMap().put("op", "add"));
+        r.react(Box.newMap().put("op", 1));
+        r.react(Box.newMap().put("op", "unknown"));
+        r.react(Box.newMap());
+        assertEquals(r.log.toString(), "[add, one, box, box]");
+    }
+
+    @Test
+    public void sharedTable() {
+        Recorder r1 = new Recorder();
+        Recorder r2 = new Recorder();
+        r1.react(new Special());
+        r2.react(new Special());
+        assertEquals(r1.log.toString(), "[special]");
+        assertEquals(r2.log.toString(), "[special]");
+    }
+
+    @Test(expectedExceptions = MessageFormatException.class)
+    public void unhandled() {
+        DispatchingActor a = new DispatchingActor() {};
+        a.react(new Message());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void registerAfterSeal() {
+        Recorder r = new Recorder();
+        r.react(new Message());
+        r.discriminate("late");
+    }
+}
@@ -0,0 +1,131 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Test cases for Interceptors on the MessageBus
+ */
+public class InterceptorTest {
+
+    static class Recorder implements Interceptor {
+        final String name;
+        final List<String> events;
+
+        Recorder(String name, List<String> events) {
+            this.name = name;
+            this.events = events;
+        }
+
+        public boolean beforeSend(Message msg, Address recipient) {
+            events.add(name + ":send:" + msg);
+            return !"\"secret\"".equals(msg.toString());
+        }
+
+        public void beforeReact(Actor actor, Message msg) {
+            events.add(name + ":before:" + msg);
+        }
+
+        public void afterReact(Actor actor, Message msg) {
+            events.add(name + ":after:" + msg);
+        }
+
+        public void onError(Actor actor, Message msg, Throwable error) {
+            events.add(name + ":error:" + error.getMessage());
+        }
+
+        public void beforeBlock(Actor actor) {
+
+        }
+
+        public void afterBlock(Actor actor, long nanos) {
+            events.add(name + ":block");
+        }
+    }
+
+    static class Echo extends Actor {
+        Echo(MessageBus bus) {
+            super(bus, new FifoMailbox());
+        }
+
+        @Override
+        public void react(Message msg) {
+            String s = ((Box)msg).getString();
+            if ("fail".equals(s)) {
+                throw new RuntimeException("failed");
+            } else if ("sleep".equals(s)) {
+                try {
+                    awaitTimeout(10);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void hooksInOrder() throws Exception {
+        MessageBus bus = new MessageBus();
+        List<String> events = new CopyOnWriteArrayList<String>();
+        bus.addInterceptor(new Recorder("a", events));
+        bus.addInterceptor(new Recorder("b", events));
+        Echo echo = new Echo(bus);
+
+        bus.send(new Box("hello"), echo.getAddress());
+        assertTrue(bus.awaitQuiescence(10000));
+        assertEquals(events.toString(),
+                     "[a:send:\"hello\", b:send:\"hello\", " +
+                     "a:before:\"hello\", b:before:\"hello\", " +
+                     "a:after:\"hello\", b:after:\"hello\"]");
+
+        events.clear();
+        bus.send(new Box("fail"), echo.getAddress());
+        assertTrue(bus.awaitQuiescence(10000));
+        assertTrue(events.contains("a:error:failed"));
+        assertTrue(events.contains("b:error:failed"));
+        assertFalse(events.contains("a:after:\"fail\""));
+    }
+
+    @Test
+    public void blockingAndSendTime() throws Exception {
+        MessageBus bus = new MessageBus();
+        List<String> events = new CopyOnWriteArrayList<String>();
+        bus.addInterceptor(new Recorder("a", events));
+        Echo echo = new Echo(bus);
+
+        Box msg = new Box("sleep");
+        bus.send(msg, echo.getAddress());
+        assertTrue(bus.awaitQuiescence(10000));
+        assertTrue(msg.getSendTime() != 0);
+        assertEquals(events.toString(),
+                     "[a:send:\"sleep\", a:before:\"sleep\", " +
+                     "a:block, a:after:\"sleep\"]");
+    }
+
+    @Test
+    public void rejectAndRemove() throws Exception {
+        MessageBus bus = new MessageBus();
+        List<String> events = new CopyOnWriteArrayList<String>();
+        Recorder recorder = new Recorder("a", events);
+        bus.addInterceptor(recorder);
+        Echo echo = new Echo(bus);
+
+        bus.send(new Box("secret"), echo.getAddress());
+        assertTrue(bus.awaitQuiescence(10000));
+        assertFalse(events.contains("a:before:\"secret\""));
+        assertEquals(bus.getDeadLetterOffice().getCount(
+                                          DeadLetter.Reason.REJECTED), 1);
+
+        assertTrue(bus.removeInterceptor(recorder));
+        assertFalse(bus.removeInterceptor(recorder));
+        assertNull(bus.interceptors);
+
+        events.clear();
+        bus.send(new Box("secret"), echo.getAddress());
+        assertTrue(bus.awaitQuiescence(10000));
+        assertTrue(events.isEmpty());
+    }
+}
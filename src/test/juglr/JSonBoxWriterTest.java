@@ -0,0 +1,91 @@
+package juglr;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test cases for the JSonBoxWriter class
+ */
+public class JSonBoxWriterTest {
+
+    @DataProvider(name="boxes")
+    public Iterator<Object[]> boxes() {
+        List<Object[]> data = new ArrayList<Object[]>();
+
+        data.add(new Object[]{new Box(0), "0"});
+        data.add(new Object[]{new Box(-7), "-7"});
+        data.add(new Object[]{new Box(Long.MAX_VALUE), "9223372036854775807"});
+        data.add(new Object[]{new Box(Long.MIN_VALUE), "-9223372036854775808"});
+        data.add(new Object[]{new Box(1000000000000000000L),
+                              "1000000000000000000"});
+        data.add(new Object[]{new Box(0.0), "0.0"});
+        data.add(new Object[]{new Box(-0.0), "-0.0"});
+        data.add(new Object[]{new Box(-5.0), "-5.0"});
+        data.add(new Object[]{new Box(9999999.0), "9999999.0"});
+        data.add(new Object[]{new Box(1e7), "1.0E7"});
+        data.add(new Object[]{new Box(-0.125), "-0.125"});
+        data.add(new Object[]{new Box(true), "true"});
+        data.add(new Object[]{new Box(""), "\"\""});
+        data.add(new Object[]{new Box("a\"b\\c"), "\"a\\\"b\\\\c\""});
+        data.add(new Object[]{new Box("\n\t\r\b\f\u0001\u001f/"),
+                              "\"\\n\\t\\r\\b\\f\\u0001\\u001f/\""});
+        data.add(new Object[]{new Box("æøå 日本 😀"),
+                              "\"æøå 日本 😀\""});
+        data.add(new Object[]{
+                Box.newMap()
+                   .put("k\"ey", "v")
+                   .put("list", Box.newList().add(1).add(2.5).add(false))
+                   .put("map", Box.newMap()),
+                "{\"k\\\"ey\":\"v\",\"list\":[1,2.5,false],\"map\":{}}"});
+
+        return data.iterator();
+    }
+
+    @Test(dataProvider="boxes")
+    public void write(Box box, String expected) throws Exception {
+        StringBuilder buf = new StringBuilder();
+        new JSonBoxWriter().write(box, buf);
+        assertEquals(buf.toString(), expected);
+        assertEquals(box.toString(), expected);
+        assertEquals(new String(box.toBytes(), "UTF-8"), expected);
+
+        // Start from a one byte buffer to grow it on every write
+        ByteBuffer bytes = new JSonBoxWriter().write(box,
+                                                   ByteBuffer.allocate(1));
+        assertEquals(new String(bytes.array(), 0, bytes.position(), "UTF-8"),
+                     expected);
+
+        assertEquals(new JSonBoxParser().parse(box.toBytes()), box);
+    }
+
+    @Test
+    public void bufferReuse() throws Exception {
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        direct.put((byte)'x');
+        ByteBuffer out = new JSonBoxWriter().write(
+                              Box.newList().add("æ").add(12345), direct);
+
+        assertTrue(out.isDirect());
+        assertNotSame(out, direct);
+        out.flip();
+        byte[] data = new byte[out.remaining()];
+        out.get(data);
+        assertEquals(new String(data, "UTF-8"), "x[\"æ\",12345]");
+
+        ByteBuffer big = ByteBuffer.allocate(64);
+        assertSame(new JSonBoxWriter().write(new Box("abc"), big), big);
+        assertEquals(big.position(), 5);
+    }
+
+    @Test
+    public void unpairedSurrogate() throws Exception {
+        assertEquals(new String(new Box("a\ud800b").toBytes(), "UTF-8"),
+                     "\"a?b\"");
+    }
+}
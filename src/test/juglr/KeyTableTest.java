@@ -0,0 +1,124 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for KeyTable and the key sharing of the parsers
+ */
+public class KeyTableTest {
+
+    static final String JSON =
+            "{\"id\": 1, \"name\": \"a\", \"nested\": {\"id\": 2}}";
+
+    @Test
+    public void sharedAcrossParses() throws Exception {
+        KeyTable table = new KeyTable(64);
+        JSonBoxParser parser = new JSonBoxParser(table);
+        Box fromString = parser.parse(JSON);
+        Box fromBytes = parser.parse(
+                              ByteBuffer.wrap(JSON.getBytes("UTF-8")));
+        Box lazy = parser.parseLazy(ByteBuffer.wrap(JSON.getBytes("UTF-8")));
+
+        ByteBuffer cbor = new CborBoxWriter().write(fromString,
+                                                    ByteBuffer.allocate(64));
+        cbor.flip();
+        Box fromCbor = new CborBoxParser(table).parse(cbor.duplicate());
+        Box lazyCbor = new CborBoxParser(table).parseLazy(cbor);
+
+        String id = table.intern("id");
+        assertSame(firstKey(fromString), id);
+        assertSame(firstKey(fromBytes), id);
+        assertSame(firstKey(lazy), id);
+        assertSame(firstKey(fromCbor), id);
+        assertSame(firstKey(lazyCbor), id);
+        assertSame(firstKey(fromBytes.get("nested")), id);
+        assertSame(firstKey(lazyCbor.get("nested")), id);
+        assertEquals(fromCbor, fromString);
+    }
+
+    @Test
+    public void escapedKeys() throws Exception {
+        KeyTable table = new KeyTable(64);
+        String key = table.intern("tab\tkey");
+        Box box = new JSonBoxParser(table).parse("{\"tab\\tkey\": 1}");
+        assertSame(firstKey(box), key);
+
+        box = new JSonBoxParser(table).parse(ByteBuffer.wrap(
+                            "{\"tab\\tkey\": 1}".getBytes("UTF-8")));
+        assertSame(firstKey(box), key);
+    }
+
+    @Test
+    public void nonAscii() throws Exception {
+        KeyTable table = new KeyTable(64);
+        String json = "{\"smørrebrød\": 1}";
+        Box box = new JSonBoxParser(table).parse(
+                                   ByteBuffer.wrap(json.getBytes("UTF-8")));
+        assertEquals(box.getLong("smørrebrød"), 1);
+        assertSame(firstKey(box), table.intern("smørrebrød"));
+    }
+
+    @Test
+    public void dictionary() {
+        KeyTable dict = new KeyTable("id", "name", "time");
+        String id = new String("id");
+        assertSame(dict.intern(id), "id");
+        assertSame(dict.intern(new String("time")), "time");
+
+        String other = new String("other");
+        assertSame(dict.intern(other), other);
+        assertNotSame(dict.intern(new String("other")), other);
+    }
+
+    @Test
+    public void bounded() {
+        KeyTable table = new KeyTable(1);
+        String a = new String("a");
+        assertSame(table.intern(a), a);
+        assertSame(table.intern(new String("a")), a);
+
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i <= KeyTable.MAX_KEY_LENGTH; i++) {
+            buf.append('x');
+        }
+        String longKey = buf.toString();
+        assertSame(table.intern(longKey), longKey);
+        assertNotSame(table.intern(new String(longKey)), longKey);
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        final KeyTable table = new KeyTable(16);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    JSonBoxParser parser = new JSonBoxParser(table);
+                    for (int i = 0; i < 2000; i++) {
+                        String json = "{\"k" + (i % 40) + "\": " + i + "}";
+                        Box box = parser.parse(json);
+                        if (box.getLong("k" + (i % 40)) != i) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(errors.get(), 0);
+    }
+
+    static String firstKey(Box box) {
+        Iterator<String> keys = box.getMap().keySet().iterator();
+        return keys.next();
+    }
+}
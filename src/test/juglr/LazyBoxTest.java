@@ -0,0 +1,234 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Test cases for lazy boxes returned by ByteBoxParser.parseLazy()
+ */
+public class LazyBoxTest {
+
+    static final String JSON =
+            "{ \"id\" : 7, \"name\":\"Smørrebrød\",\n" +
+            "  \"tags\" : [ \"a\" , \"b\" ],\n" +
+            "  \"nested\": {\"x\": 1.5, \"deep\": [ {\"y\" : true} ] } }";
+
+    @Test
+    public void readJSon() throws Exception {
+        Box box = lazyJSon(JSON);
+        Box eager = new JSonBoxParser().parse(JSON);
+
+        assertEquals(box.getType(), Box.Type.MAP);
+        assertEquals(box.getLong("id"), 7);
+        assertEquals(box.getString("name"), "Smørrebrød");
+        assertEquals(box.get("tags").getString(1), "b");
+        assertEquals(box.get("nested").get("deep").get(0).getBoolean("y"),
+                     true);
+        assertNull(box.get("missing"));
+        assertEquals(box.size(), 4);
+        assertEquals(box, eager);
+        assertEquals(eager, box);
+        assertEquals(box.toString(), eager.toString());
+
+        Iterator<String> keys = box.getMap().keySet().iterator();
+        assertEquals(keys.next(), "id");
+        assertEquals(keys.next(), "name");
+        assertEquals(keys.next(), "tags");
+        assertEquals(keys.next(), "nested");
+        assertFalse(keys.hasNext());
+    }
+
+    @Test
+    public void scalars() throws Exception {
+        assertEquals(lazyJSon(" 42 ").getLong(), 42);
+        assertEquals(lazyJSon("\"s\"").getString(), "s");
+        assertEquals(lazyJSon("[]").size(), 0);
+        assertEquals(lazyJSon("{}").size(), 0);
+        assertNull(lazyJSon("  "));
+        assertNull(new CborBoxParser().parseLazy(ByteBuffer.allocate(0)));
+
+        // Numbers and literals ending the buffer
+        String[] values = { "42", "-1.5e3", "true", "\"s\"" };
+        for (String value : values) {
+            Box box = lazyJSon(value);
+            Box eager = new JSonBoxParser().parse(value);
+            assertNotNull(box, value);
+            assertEquals(box, eager, value);
+            assertEquals(write(box), write(eager));
+        }
+    }
+
+    @Test
+    public void offsetBuffer() throws Exception {
+        // Parse from a position other than 0
+        ByteBuffer buf = ByteBuffer.wrap("xx 42".getBytes("UTF-8"));
+        buf.position(2);
+        Box box = new JSonBoxParser().parseLazy(buf);
+        assertEquals(box.getLong(), 42);
+        assertFalse(buf.hasRemaining());
+
+        // Parse a slice with an array offset
+        buf = ByteBuffer.wrap(("xx" + JSON).getBytes("UTF-8"));
+        buf.position(2);
+        box = new JSonBoxParser().parseLazy(buf.slice());
+        assertEquals(box, new JSonBoxParser().parse(JSON));
+        assertEquals(write(box), JSON);
+
+        buf = ByteBuffer.wrap("xx-1.5e3".getBytes("UTF-8"));
+        buf.position(2);
+        assertEquals(new JSonBoxParser().parseLazy(buf.slice()).getFloat(),
+                     -1500.0);
+    }
+
+    @Test
+    public void verbatimJSon() throws Exception {
+        Box box = lazyJSon(JSON);
+
+        // Reading does not change how the box is written
+        box.get("nested").get("deep").get(0).getBoolean("y");
+        assertEquals(write(box), JSON);
+
+        // Forwarding a child copies its bytes
+        assertEquals(write(box.get("tags")), "[ \"a\" , \"b\" ]");
+
+        // Modifying a descendant rewrites its ancestors from their values,
+        // other children are still copied
+        box.get("nested").get("deep").get(0).put("z", 2);
+        assertEquals(write(box), "{\"id\":7,\"name\":\"Smørrebrød\"," +
+                "\"tags\":[ \"a\" , \"b\" ]," +
+                "\"nested\":{\"x\":1.5,\"deep\":[{\"y\":true,\"z\":2}]}}");
+        assertEquals(write(box.get("tags")), "[ \"a\" , \"b\" ]");
+    }
+
+    @Test
+    public void modify() throws Exception {
+        Box box = lazyJSon(JSON);
+        box.put("id", 8);
+        box.getMap().remove("name");
+        box.get("tags").add("c");
+        box.get("tags").getList().remove(0);
+
+        assertEquals(box.toString(), "{\"id\":8,\"tags\":[\"b\",\"c\"]," +
+                "\"nested\":{\"x\":1.5,\"deep\":[{\"y\":true}]}}");
+        assertEquals(write(box), "{\"id\":8,\"tags\":[\"b\",\"c\"]," +
+                "\"nested\":{\"x\": 1.5, \"deep\": [ {\"y\" : true} ] }}");
+    }
+
+    @Test
+    public void cbor() throws Exception {
+        Box eager = new JSonBoxParser().parse(JSON);
+        ByteBuffer buf = new CborBoxWriter().write(eager,
+                                                   ByteBuffer.allocate(16));
+        buf.flip();
+        // Append an array with a non-minimal head, which is only kept
+        // by copying the raw bytes
+        ByteBuffer bytes = ByteBuffer.allocate(buf.remaining() + 11);
+        bytes.put((byte)0x82).put(buf).put((byte)0x81)
+             .put(new byte[]{0x1b, 0, 0, 0, 0, 0, 0, 0, 1});
+        bytes.flip();
+        byte[] raw = new byte[bytes.remaining()];
+        bytes.duplicate().get(raw);
+
+        Box box = new CborBoxParser().parseLazy(bytes);
+        assertFalse(bytes.hasRemaining());
+        assertEquals(box.get(0), eager);
+        assertEquals(box.get(1).getLong(0), 1);
+        assertEquals(box.get(0).get("nested").getFloat("x"), 1.5);
+
+        ByteBuffer out = new CborBoxWriter().write(box,
+                                                   ByteBuffer.allocate(1));
+        out.flip();
+        byte[] written = new byte[out.remaining()];
+        out.get(written);
+        assertEquals(written, raw);
+
+        // Lazy CBOR is written as JSON from its values
+        assertEquals(write(box.get(0)), eager.toString());
+    }
+
+    @Test
+    public void directBuffer() throws Exception {
+        byte[] utf8 = JSON.getBytes("UTF-8");
+        ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+        direct.put(utf8).flip();
+        Box box = new JSonBoxParser().parseLazy(direct);
+        assertFalse(direct.hasRemaining());
+
+        // The bytes are copied, so the buffer can be reused
+        direct.clear();
+        direct.put(new byte[utf8.length]);
+        assertEquals(box.getString("name"), "Smørrebrød");
+        assertEquals(write(box), JSON);
+    }
+
+    @Test
+    public void syntaxErrors() throws Exception {
+        String[] errors = {
+            "{\"a\": [1, 2}", "{\"a\": 01}", "[1] 2", "{\"a\": null}",
+            "[\"\\x\"]", "{\"a\" 1}", "[1,]", "{\"a\": tru}"
+        };
+        for (String json : errors) {
+            try {
+                lazyJSon(json);
+                fail("Expected a MessageFormatException for " + json);
+            } catch (MessageFormatException e) {
+                // expected
+            }
+        }
+
+        try {
+            new CborBoxParser().parseLazy(ByteBuffer.wrap(
+                                    new byte[]{(byte)0x82, 0x01, 0x40}));
+            fail("Expected a MessageFormatException");
+        } catch (MessageFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void duplicateKeys() throws Exception {
+        Box box = lazyJSon("[{\"a\": 1, \"a\": 2}]");
+        try {
+            box.get(0).get("a");
+            fail("Expected a MessageFormatException");
+        } catch (MessageFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void serialize() throws Exception {
+        Box box = lazyJSon(JSON);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(box);
+        out.close();
+
+        Box copy = (Box)new ObjectInputStream(new ByteArrayInputStream(
+                                    bytes.toByteArray())).readObject();
+        assertEquals(copy, box);
+        assertFalse(copy.getVal() instanceof LazyMap);
+        for (Map.Entry<String,Box> entry : copy.getMap().entrySet()) {
+            assertEquals(entry.getValue(), box.get(entry.getKey()));
+        }
+    }
+
+    static Box lazyJSon(String json) throws Exception {
+        return new JSonBoxParser().parseLazy(
+                                   ByteBuffer.wrap(json.getBytes("UTF-8")));
+    }
+
+    static String write(Box box) throws Exception {
+        ByteBuffer buf = new JSonBoxWriter().write(box,
+                                                   ByteBuffer.allocate(1));
+        return new String(buf.array(), 0, buf.position(), "UTF-8");
+    }
+}
@@ -0,0 +1,122 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+
+/**
+ * Test cases for the Histogram, ActorMetrics and BusMetrics classes
+ */
+public class MetricsTest {
+
+    static class Sleeper extends Actor {
+        Sleeper(MessageBus bus) {
+            super(bus, new FifoMailbox());
+        }
+
+        @Override
+        public void react(Message msg) {
+            if (((Box)msg).getBoolean()) {
+                throw new RuntimeException("Failing on request");
+            }
+            try {
+                await(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        Thread.sleep(2);
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i);
+        }
+        assertEquals(h.getCount(), 1000);
+        assertEquals(h.getMax(), 1000);
+        assertEquals(h.getMean(), 500.5, 0.001);
+
+        long p50 = h.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125, "p50 was " + p50);
+        long p99 = h.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000, "p99 was " + p99);
+        assertEquals(h.getPercentile(100), 1000);
+
+        h.reset();
+        assertEquals(h.getPercentile(50), 0);
+    }
+
+    @Test
+    public void histogramBuckets() {
+        for (long v : new long[]{0, 7, 8, 100, 12345, Long.MAX_VALUE}) {
+            int bucket = Histogram.bucket(v);
+            assertTrue(Histogram.upperBound(bucket) >= v);
+            if (bucket > 0) {
+                assertTrue(Histogram.upperBound(bucket - 1) < v);
+            }
+        }
+    }
+
+    @Test
+    public void actorMetrics() throws Exception {
+        MessageBus bus = new MessageBus();
+        Sleeper sleeper = new Sleeper(bus);
+        assertNull(bus.getMetrics(sleeper.getAddress()));
+        ActorMetrics metrics = bus.enableMetrics(sleeper.getAddress());
+        assertSame(bus.enableMetrics(sleeper.getAddress()), metrics);
+
+        for (int i = 0; i < 10; i++) {
+            bus.send(new Box(i == 9), sleeper.getAddress());
+        }
+        assertTrue(bus.awaitQuiescence(10000));
+
+        assertEquals(metrics.getReceivedCount(), 10);
+        assertEquals(metrics.getProcessedCount(), 10);
+        assertEquals(metrics.getFailedCount(), 1);
+        assertEquals(metrics.getMailboxDepth(), 0);
+        assertTrue(metrics.getAwaitNanos() >= 9 * 2000000L);
+        assertTrue(metrics.getProcessingTimes().getMax() >= 2000000L);
+        bus.shutdown(true);
+    }
+
+    @Test
+    public void busMetricsAndJMX() throws Exception {
+        MessageBus bus = new MessageBus();
+        int actors = bus.getMetrics().getActorCount();
+        Sleeper sleeper = new Sleeper(bus);
+        assertEquals(bus.getMetrics().getActorCount(), actors + 1);
+
+        bus.enableMetrics(sleeper.getAddress());
+        bus.registerMBeans("metrics-test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName busName =
+                new ObjectName("juglr:type=MessageBus,name=\"metrics-test\"");
+        ObjectName actorName = new ObjectName(
+                "juglr:type=Actor,bus=\"metrics-test\",address=" +
+                ObjectName.quote(sleeper.getAddress().externalize()));
+
+        bus.send(new Box(false), sleeper.getAddress());
+        assertTrue(bus.awaitQuiescence(10000));
+
+        assertTrue((Integer)server.getAttribute(busName, "Parallelism") > 0);
+        assertEquals(server.getAttribute(busName, "PendingCount"), 0L);
+        assertEquals(server.getAttribute(actorName, "ProcessedCount"), 1L);
+
+        bus.freeAddress(sleeper.getAddress());
+        assertEquals(bus.getMetrics().getActorCount(), actors);
+
+        bus.shutdown(true);
+        assertFalse(server.isRegistered(busName));
+        assertFalse(server.isRegistered(actorName));
+    }
+}
@@ -0,0 +1,118 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the OverflowMailbox class
+ */
+public class OverflowMailboxTest {
+
+    static class Recorder extends Actor {
+        final List<Long> received = new ArrayList<Long>();
+
+        Recorder(MessageBus bus, Mailbox mailbox) {
+            super(bus, mailbox);
+        }
+
+        @Override
+        public void react(Message msg) {
+            received.add(((Box)msg).getLong("n"));
+        }
+    }
+
+    @Test
+    public void spillAndReadBackInOrder() throws Exception {
+        MessageBus bus = new MessageBus();
+        Address replyTo = bus.allocateNamedAddress(
+                new Recorder(bus, null), "/overflow/reply");
+        OverflowMailbox mailbox = new OverflowMailbox(bus, 10, 64 * 1024);
+
+        for (int i = 0; i < 1000; i++) {
+            Box box = Box.newMap()
+                    .put("n", i)
+                    .put("f", i / 2.0)
+                    .put("s", "msg æøå " + i)
+                    .put("l", Box.newList().add(true).add(-i));
+            box.setReplyTo(replyTo);
+            mailbox.put(box);
+        }
+        assertEquals(mailbox.size(), 1000);
+        assertTrue(mailbox.getTotalSpilled() > 0);
+
+        for (int i = 0; i < 1000; i++) {
+            Box box = (Box)mailbox.poll();
+            assertEquals(box.getLong("n"), i);
+            assertEquals(box.getFloat("f"), i / 2.0);
+            assertEquals(box.getString("s"), "msg æøå " + i);
+            assertEquals(box.getList("l").get(1).getLong(), -i);
+            assertSame(box.getReplyTo(), replyTo);
+        }
+        assertNull(mailbox.poll());
+        assertTrue(mailbox.isEmpty());
+    }
+
+    @Test
+    public void fullRingPreservesOrder() throws Exception {
+        MessageBus bus = new MessageBus();
+        OverflowMailbox mailbox = new OverflowMailbox(bus, 2, 256);
+        Message plain = new Message();
+
+        for (int i = 0; i < 200; i++) {
+            mailbox.put(i == 100 ? plain : Box.newMap().put("n", i));
+        }
+        assertTrue(mailbox.getSpilledCount() < 200);
+
+        for (int i = 0; i < 200; i++) {
+            // Interleave puts and polls to exercise wrapping of the ring
+            if (i % 3 == 0) {
+                mailbox.put(Box.newMap().put("n", 200 + i / 3));
+            }
+            Message msg = mailbox.poll();
+            if (i == 100) {
+                assertSame(msg, plain);
+            } else {
+                assertEquals(((Box)msg).getLong("n"), i);
+            }
+        }
+        for (int i = 0; i < 67; i++) {
+            assertEquals(((Box)mailbox.poll()).getLong("n"), 200 + i);
+        }
+        assertTrue(mailbox.isEmpty());
+    }
+
+    @Test
+    public void actorReceivesInOrder() throws Exception {
+        MessageBus bus = new MessageBus();
+        final CountDownLatch gate = new CountDownLatch(1);
+        Recorder recorder = new Recorder(
+                bus, new OverflowMailbox(bus, 5, 4096)) {
+            @Override
+            public void react(Message msg) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.react(msg);
+            }
+        };
+
+        for (int i = 0; i < 500; i++) {
+            bus.send(Box.newMap().put("n", i), recorder.getAddress());
+        }
+        gate.countDown();
+        assertTrue(bus.awaitQuiescence(10000));
+
+        assertEquals(recorder.received.size(), 500);
+        for (int i = 0; i < 500; i++) {
+            assertEquals((long)recorder.received.get(i), i);
+        }
+        bus.shutdown(false);
+    }
+}
@@ -0,0 +1,86 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for quiescence detection and draining of the MessageBus
+ */
+public class QuiescenceTest {
+
+    /* Forwards each message to the next actor in the chain, the last actor
+     * in the chain counts the messages */
+    static class Link extends Actor {
+        Address next;
+        AtomicInteger count;
+
+        Link(MessageBus bus, Address next, AtomicInteger count) {
+            super(bus);
+            this.next = next;
+            this.count = count;
+        }
+
+        @Override
+        public void react(Message msg) {
+            if (next == null) {
+                count.incrementAndGet();
+            } else {
+                send(msg, next);
+            }
+        }
+    }
+
+    private Address chain(MessageBus bus, int length, AtomicInteger count) {
+        Address next = null;
+        for (int i = 0; i < length; i++) {
+            next = new Link(bus, next, count).getAddress();
+        }
+        return next;
+    }
+
+    @Test
+    public void idleBus() throws Exception {
+        MessageBus bus = new MessageBus();
+        assertTrue(bus.isQuiescent());
+        assertTrue(bus.awaitQuiescence(0));
+    }
+
+    @Test
+    public void awaitChain() throws Exception {
+        MessageBus bus = new MessageBus();
+        AtomicInteger count = new AtomicInteger();
+        Address head = chain(bus, 20, count);
+
+        for (int i = 0; i < 1000; i++) {
+            bus.send(new Box(i), head);
+        }
+
+        assertTrue(bus.awaitQuiescence(30000));
+        assertEquals(count.get(), 1000);
+    }
+
+    @Test
+    public void drainOnShutdown() throws Exception {
+        MessageBus bus = new MessageBus();
+        AtomicInteger count = new AtomicInteger();
+        Address head = chain(bus, 20, count);
+
+        for (int i = 0; i < 1000; i++) {
+            bus.send(new Box(i), head);
+        }
+
+        assertTrue(bus.shutdown(true, 30000));
+        assertEquals(count.get(), 1000);
+        assertTrue(bus.isShutdown());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectAfterShutdown() throws Exception {
+        MessageBus bus = new MessageBus();
+        Address head = chain(bus, 1, new AtomicInteger());
+        bus.shutdown(true);
+        bus.send(new Box(1), head);
+    }
+}
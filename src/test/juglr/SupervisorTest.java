@@ -0,0 +1,225 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for the Supervisor class and actor restarts on the MessageBus
+ */
+public class SupervisorTest {
+
+    static final Box BOOM = new Box("boom");
+
+    static class Fragile extends Actor {
+        static final AtomicInteger instances = new AtomicInteger();
+        final int instance;
+        final CountDownLatch handled;
+
+        Fragile(MessageBus bus, CountDownLatch handled) {
+            super(bus, new FifoMailbox());
+            instance = instances.incrementAndGet();
+            this.handled = handled;
+        }
+
+        @Override
+        public void react(Message msg) {
+            if (BOOM.equals(msg)) {
+                throw new RuntimeException("Poisoned message");
+            }
+            send(new Box(instance), msg.getReplyTo());
+            handled.countDown();
+        }
+    }
+
+    /* Reports to seen whether it was started when handling a message */
+    static class SlowStart extends Actor {
+        final BlockingQueue<Boolean> seen;
+        volatile boolean started;
+
+        SlowStart(MessageBus bus, BlockingQueue<Boolean> seen) {
+            super(bus, new FifoMailbox());
+            this.seen = seen;
+        }
+
+        @Override
+        public void start() {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            started = true;
+        }
+
+        @Override
+        public void react(Message msg) {
+            if (BOOM.equals(msg)) {
+                throw new RuntimeException("Poisoned message");
+            }
+            seen.add(started);
+        }
+    }
+
+    static class Probe extends Actor {
+        volatile long lastInstance;
+        final CountDownLatch replies = new CountDownLatch(1);
+
+        Probe(MessageBus bus) {
+            super(bus);
+        }
+
+        @Override
+        public void react(Message msg) {
+            lastInstance = ((Box)msg).getLong();
+            replies.countDown();
+        }
+    }
+
+    @Test
+    public void fixedDirective() {
+        Supervisor sup = new Supervisor(Supervisor.Directive.STOP);
+        assertEquals(sup.supervise(null, null, new Exception()),
+                     Supervisor.Directive.STOP);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void restartRequiresFactory() {
+        new Supervisor(Supervisor.Directive.RESTART);
+    }
+
+    @Test
+    public void restartRateLimit() {
+        Supervisor sup = new Supervisor(new Supervisor.Factory() {
+            public Actor newActor(MessageBus bus) {
+                return null;
+            }
+        }, 2, 60000);
+
+        assertEquals(sup.supervise(null, null, new Exception()),
+                     Supervisor.Directive.RESTART);
+        assertEquals(sup.supervise(null, null, new Exception()),
+                     Supervisor.Directive.RESTART);
+        assertEquals(sup.supervise(null, null, new Exception()),
+                     Supervisor.Directive.STOP);
+    }
+
+    @Test
+    public void restartKeepsAddressAndMailbox() throws Exception {
+        final MessageBus bus = new MessageBus();
+        final CountDownLatch handled = new CountDownLatch(1);
+        Fragile fragile = new Fragile(bus, handled);
+        Address address = bus.allocateNamedAddress(fragile, "/fragile");
+        int firstInstance = fragile.instance;
+
+        bus.supervise(fragile.getAddress(), new Supervisor(
+                new Supervisor.Factory() {
+                    public Actor newActor(MessageBus bus) {
+                        return new Fragile(bus, handled);
+                    }
+                }, 1, 60000));
+
+        Probe probe = new Probe(bus);
+        bus.send(BOOM, address);
+        bus.send(new Box("ping").setReplyTo(probe.getAddress()), address);
+
+        assertTrue(handled.await(10, TimeUnit.SECONDS));
+        assertTrue(probe.replies.await(10, TimeUnit.SECONDS));
+        assertTrue(probe.lastInstance > firstInstance);
+        assertNotNull(bus.lookup("/fragile"));
+    }
+
+    @Test
+    public void stopFreesAddresses() throws Exception {
+        MessageBus bus = new MessageBus();
+        bus.setSupervisor(new Supervisor(Supervisor.Directive.STOP));
+        Fragile fragile = new Fragile(bus, new CountDownLatch(1));
+        bus.allocateNamedAddress(fragile, "/fragile");
+
+        bus.send(BOOM, fragile.getAddress());
+        for (int i = 0; i < 100 && bus.lookup("/fragile") != null; i++) {
+            Thread.sleep(50);
+        }
+        assertNull(bus.lookup("/fragile"));
+        assertNull(bus.lookup(fragile.getAddress().externalize()));
+    }
+
+    @Test
+    public void stopAfterRestart() throws Exception {
+        final MessageBus bus = new MessageBus();
+        final CountDownLatch handled = new CountDownLatch(1);
+        Fragile fragile = new Fragile(bus, handled);
+        Address name = bus.allocateNamedAddress(fragile, "/twice");
+        Address moved = bus.allocateNamedAddress(fragile, "/moved");
+
+        // Restart once, then stop
+        bus.supervise(fragile.getAddress(), new Supervisor(
+                new Supervisor.Factory() {
+                    public Actor newActor(MessageBus bus) {
+                        return new Fragile(bus, handled);
+                    }
+                }, 1, 60000));
+
+        Probe probe = new Probe(bus);
+        bus.send(BOOM, name);
+        bus.send(new Box("ping").setReplyTo(probe.getAddress()), name);
+        assertTrue(probe.replies.await(10, TimeUnit.SECONDS));
+
+        // A freed name given to another actor is not stopped with the
+        // restarted actor
+        assertTrue(bus.freeAddress(moved));
+        Probe other = new Probe(bus);
+        bus.allocateNamedAddress(other, "/moved");
+
+        bus.send(BOOM, name);
+        for (int i = 0; i < 100 && bus.lookup("/twice") != null; i++) {
+            Thread.sleep(50);
+        }
+        assertNull(bus.lookup("/twice"));
+        assertNull(bus.lookup(fragile.getAddress().externalize()));
+        assertNotNull(bus.lookup("/moved"));
+    }
+
+    @Test
+    public void restartStartsBeforeReact() throws Exception {
+        MessageBus bus = new MessageBus();
+        final BlockingQueue<Boolean> seen = new LinkedBlockingQueue<Boolean>();
+        SlowStart slow = new SlowStart(bus, seen);
+        Address address = slow.getAddress();
+
+        // The replacement allocates a name of its own
+        bus.supervise(address, new Supervisor(
+                new Supervisor.Factory() {
+                    public Actor newActor(MessageBus bus) {
+                        SlowStart fresh = new SlowStart(bus, seen);
+                        try {
+                            bus.allocateNamedAddress(fresh, "/own");
+                        } catch (AddressAlreadyOwnedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return fresh;
+                    }
+                }, 1, 60000));
+
+        bus.send(BOOM, address);
+        for (int i = 0; i < 5; i++) {
+            bus.send(new Box("ping"), address);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(seen.poll(10, TimeUnit.SECONDS), Boolean.TRUE);
+        }
+        assertNull(bus.lookup("/own"));
+
+        bus.send(BOOM, address);
+        for (int i = 0; i < 100 && bus.lookup(address.externalize()) != null;
+             i++) {
+            Thread.sleep(50);
+        }
+        assertNull(bus.lookup(address.externalize()));
+    }
+}
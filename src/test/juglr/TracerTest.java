@@ -0,0 +1,101 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.List;
+
+/**
+ * Test cases for the TraceContext and Tracer classes
+ */
+public class TracerTest {
+
+    static class Forwarder extends Actor {
+        Address next;
+
+        Forwarder(MessageBus bus, Address next) {
+            super(bus);
+            this.next = next;
+        }
+
+        @Override
+        public void react(Message msg) {
+            if (next != null) {
+                send(new Box("forwarded"), next);
+            }
+        }
+    }
+
+    @Test
+    public void formatAndParse() {
+        TraceContext root = TraceContext.newRoot(true);
+        TraceContext child = root.child();
+        assertEquals(child.getTraceId(), root.getTraceId());
+        assertEquals(child.getParentSpanId(), root.getSpanId());
+        assertEquals(child.getHop(), 1);
+
+        TraceContext parsed = TraceContext.parse(child.toString());
+        assertEquals(parsed.getTraceId(), child.getTraceId());
+        assertEquals(parsed.getSpanId(), child.getSpanId());
+        assertEquals(parsed.getParentSpanId(), child.getParentSpanId());
+        assertEquals(parsed.getHop(), 1);
+        assertTrue(parsed.isSampled());
+
+        assertNull(TraceContext.parse("garbage"));
+        assertNull(TraceContext.parse("1-2-3-x-1"));
+    }
+
+    @Test
+    public void propagateThroughChain() throws Exception {
+        // MulticastActors live on the default bus
+        MessageBus bus = MessageBus.getDefault();
+        Tracer tracer = new Tracer(1.0, 100);
+        bus.addInterceptor(tracer);
+
+        try {
+            Forwarder c = new Forwarder(bus, null);
+            Forwarder b = new Forwarder(bus, c.getAddress());
+            MulticastActor fanout = new MulticastActor(b.getAddress(),
+                                                       c.getAddress());
+
+            bus.send(new Box("start"), fanout.getAddress());
+            assertTrue(bus.awaitQuiescence(10000));
+
+            List<Tracer.Span> spans = tracer.getSpans();
+            assertEquals(spans.size(), 4, spans.toString());
+            long traceId = spans.get(0).getContext().getTraceId();
+            assertEquals(tracer.getSpans(traceId).size(), 4);
+
+            int[] hops = new int[3];
+            for (Tracer.Span span : spans) {
+                hops[span.getContext().getHop()]++;
+            }
+            // fanout at hop 0, b and c at hop 1 sharing a span,
+            // and c again at hop 2
+            assertEquals(hops[0], 1);
+            assertEquals(hops[1], 2);
+            assertEquals(hops[2], 1);
+            assertEquals(tracer.export().size(), 4);
+
+            tracer.clear();
+            assertTrue(tracer.getSpans().isEmpty());
+        } finally {
+            bus.removeInterceptor(tracer);
+        }
+    }
+
+    @Test
+    public void unsampled() throws Exception {
+        MessageBus bus = new MessageBus();
+        Tracer tracer = new Tracer(0, 100);
+        bus.addInterceptor(tracer);
+        Forwarder b = new Forwarder(bus, null);
+        Forwarder a = new Forwarder(bus, b.getAddress());
+
+        Box msg = new Box("start");
+        bus.send(msg, a.getAddress());
+        assertTrue(bus.awaitQuiescence(10000));
+        assertNull(msg.getTrace());
+        assertTrue(tracer.getSpans().isEmpty());
+    }
+}
@@ -0,0 +1,142 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for virtual actors and their passivation
+ */
+public class VirtualActorTest {
+
+    static class Counter extends VirtualActor {
+        long count;
+
+        Counter(MessageBus bus) {
+            super(bus);
+        }
+
+        @Override
+        protected void activate(Box state) {
+            count = state == null ? 0 : state.getLong("count");
+        }
+
+        @Override
+        protected Box passivate() {
+            return Box.newMap().put("count", count);
+        }
+
+        @Override
+        public void react(Message msg) {
+            count++;
+            send(Box.newMap().put("key", getKey()).put("count", count),
+                 msg.getReplyTo());
+        }
+    }
+
+    static class Probe extends Actor {
+        final BlockingQueue<Box> replies = new LinkedBlockingQueue<Box>();
+
+        Probe(MessageBus bus) {
+            super(bus);
+        }
+
+        @Override
+        public void react(Message msg) {
+            replies.add((Box)msg);
+        }
+    }
+
+    @Test
+    public void activateAndPassivate() throws Exception {
+        MessageBus bus = new MessageBus();
+        PassivationStore.OffHeap store = new PassivationStore.OffHeap();
+        bus.registerVirtual("/counter/", new VirtualActor.Factory() {
+            public VirtualActor newActor(MessageBus bus, String key) {
+                return new Counter(bus);
+            }
+        }, 50, store);
+
+        Probe probe = new Probe(bus);
+        Address counter = bus.lookup("/counter/a");
+        assertNotNull(counter);
+        assertEquals(counter.externalize(), "/counter/a");
+
+        bus.send(new Message().setReplyTo(probe.getAddress()), counter);
+        bus.send(new Message().setReplyTo(probe.getAddress()), counter);
+        assertEquals(probe.replies.poll(10, TimeUnit.SECONDS).getLong("count"),
+                     1);
+        Box reply = probe.replies.poll(10, TimeUnit.SECONDS);
+        assertEquals(reply.getLong("count"), 2);
+        assertEquals(reply.getString("key"), "a");
+
+        for (int i = 0; i < 200 && store.size() == 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(store.size(), 1);
+
+        bus.send(new Message().setReplyTo(probe.getAddress()),
+                 bus.lookup("/counter/a"));
+        assertEquals(probe.replies.poll(10, TimeUnit.SECONDS).getLong("count"),
+                     3);
+        assertEquals(store.size(), 0);
+    }
+
+    @Test(expectedExceptions = AddressAlreadyOwnedException.class)
+    public void overlappingPrefix() throws Exception {
+        MessageBus bus = new MessageBus();
+        VirtualActor.Factory factory = new VirtualActor.Factory() {
+            public VirtualActor newActor(MessageBus bus, String key) {
+                return new Counter(bus);
+            }
+        };
+        bus.registerVirtual("/a/", factory, 1000);
+        bus.registerVirtual("/a/b/", factory, 1000);
+    }
+
+    @Test
+    public void offHeapStore() {
+        PassivationStore store = new PassivationStore.OffHeap();
+        Box state = Box.newMap().put("name", "æøå").put("n", 27);
+        store.put("/x", state);
+        assertEquals(store.take("/x"), state);
+        assertNull(store.take("/x"));
+    }
+
+    @Test
+    public void offHeapSlabs() {
+        // Small slabs, so states fill them up, are compacted out of them,
+        // and some are larger than a slab
+        PassivationStore.OffHeap store = new PassivationStore.OffHeap(256);
+        Map<String,Box> expected = new HashMap<String,Box>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            String address = "/a/" + random.nextInt(50);
+            if (random.nextInt(3) == 0) {
+                assertEquals(store.take(address), expected.remove(address));
+            } else {
+                int length = random.nextInt(i % 7 == 0 ? 300 : 40);
+                StringBuilder text = new StringBuilder();
+                for (int n = 0; n < length; n++) {
+                    text.append((char)('a' + random.nextInt(26)));
+                }
+                Box state = Box.newMap().put("i", i)
+                                        .put("text", text.toString());
+                store.put(address, state);
+                expected.put(address, state);
+            }
+            assertEquals(store.size(), expected.size());
+        }
+
+        for (Map.Entry<String,Box> e : expected.entrySet()) {
+            assertEquals(store.take(e.getKey()), e.getValue());
+        }
+        assertEquals(store.size(), 0);
+    }
+}
@@ -0,0 +1,107 @@
+package juglr;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Test cases for the Watchdog class
+ */
+public class WatchdogTest {
+
+    static class Sleeper extends Actor {
+        Sleeper(MessageBus bus) {
+            super(bus);
+        }
+
+        @Override
+        public void react(Message msg) {
+            try {
+                if ("await".equals(((Box)msg).getString())) {
+                    awaitTimeout(300);
+                } else {
+                    Thread.sleep(300);
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    static class Collector implements Watchdog.Listener {
+        final List<Watchdog.Report> reports =
+                                 new CopyOnWriteArrayList<Watchdog.Report>();
+
+        public void stalled(Watchdog.Report report) {
+            reports.add(report);
+        }
+    }
+
+    @Test
+    public void reportBlocking() throws Exception {
+        MessageBus bus = new MessageBus();
+        Collector collector = new Collector();
+        Watchdog watchdog = new Watchdog(bus, 50, 10).setListener(collector);
+        watchdog.start();
+        try {
+            Sleeper sleeper = new Sleeper(bus);
+            bus.send(new Box("sleep"), sleeper.getAddress());
+            assertTrue(bus.awaitQuiescence(10000));
+
+            assertEquals(collector.reports.size(), 1);
+            assertEquals(watchdog.getStalledCount(), 1);
+            Watchdog.Report report = collector.reports.get(0);
+            assertSame(report.getActor(), sleeper.getAddress());
+            assertEquals(report.getMessageType(), Box.class.getName());
+            assertTrue(report.getRunningNanos() >= 50000000);
+            assertTrue(report.toString().contains("Sleeper.react"),
+                       report.toString());
+        } finally {
+            watchdog.stop();
+        }
+    }
+
+    @Test
+    public void ignoreAwait() throws Exception {
+        MessageBus bus = new MessageBus();
+        Collector collector = new Collector();
+        Watchdog watchdog = new Watchdog(bus, 50, 10).setListener(collector);
+        watchdog.start();
+        try {
+            Sleeper sleeper = new Sleeper(bus);
+            bus.send(new Box("await"), sleeper.getAddress());
+            assertTrue(bus.awaitQuiescence(10000));
+            assertTrue(collector.reports.isEmpty());
+        } finally {
+            watchdog.stop();
+        }
+    }
+
+    @Test
+    public void compensate() throws Exception {
+        MessageBus bus = new MessageBus();
+        int parallelism = bus.pool.getParallelism();
+        Watchdog watchdog = new Watchdog(bus, 50, 10)
+                                    .setListener(new Collector())
+                                    .setCompensating(true, 1);
+        watchdog.start();
+        try {
+            Sleeper a = new Sleeper(bus);
+            Sleeper b = new Sleeper(bus);
+            bus.send(new Box("sleep"), a.getAddress());
+            bus.send(new Box("sleep"), b.getAddress());
+            Thread.sleep(200);
+            assertEquals(watchdog.getCompensation(), 1);
+            assertEquals(bus.pool.getParallelism(), parallelism + 1);
+
+            assertTrue(bus.awaitQuiescence(10000));
+            assertEquals(watchdog.getStalledCount(), 2);
+            assertEquals(watchdog.getCompensation(), 0);
+            assertEquals(bus.pool.getParallelism(), parallelism);
+        } finally {
+            watchdog.stop();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package juglr.internal;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test cases for the PersistentHashMap and PersistentOrderedMap classes
+ */
+public class PersistentHashMapTest {
+
+    /* A key with a configurable hash, to force collisions */
+    static class Key {
+        final String name;
+        final int hash;
+
+        Key(String name, int hash) {
+            this.name = name;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key)o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    @Test
+    public void againstHashMap() {
+        Random random = new Random(42);
+        Map<String,Integer> expected = new HashMap<String,Integer>();
+        PersistentHashMap<String,Integer> map = PersistentHashMap.empty();
+
+        for (int i = 0; i < 20000; i++) {
+            String key = "k" + random.nextInt(5000);
+            if (random.nextInt(4) == 0) {
+                expected.remove(key);
+                map = map.without(key);
+            } else {
+                expected.put(key, i);
+                map = map.with(key, i);
+            }
+            assertEquals(map.size(), expected.size());
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(map.get("k" + i), expected.get("k" + i));
+        }
+    }
+
+    @Test
+    public void collisions() {
+        PersistentHashMap<Key,String> map = PersistentHashMap.empty();
+        map = map.with(new Key("a", 7), "a")
+                 .with(new Key("b", 7), "b")
+                 .with(new Key("c", 7 | (1 << 20)), "c");
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(new Key("b", 7)), "b");
+        assertEquals(map.get(new Key("c", 7 | (1 << 20))), "c");
+
+        PersistentHashMap<Key,String> removed = map.without(new Key("a", 7));
+        assertEquals(removed.size(), 2);
+        assertNull(removed.get(new Key("a", 7)));
+        assertEquals(map.get(new Key("a", 7)), "a");
+        assertSame(map.without(new Key("x", 7)), map);
+    }
+
+    @Test
+    public void orderedMap() {
+        PersistentOrderedMap<String,Integer> map = PersistentOrderedMap.empty();
+        for (int i = 0; i < 10; i++) {
+            map = map.with("k" + i, i);
+        }
+        PersistentOrderedMap<String,Integer> changed =
+                                map.with("k3", 33).without("k5").with("k5", 5);
+
+        assertEquals(map.toString(),
+                     "{k0=0, k1=1, k2=2, k3=3, k4=4, k5=5, k6=6, k7=7, k8=8, k9=9}");
+        assertEquals(changed.toString(),
+                     "{k0=0, k1=1, k2=2, k3=33, k4=4, k6=6, k7=7, k8=8, k9=9, k5=5}");
+        assertEquals(changed.get("k3").intValue(), 33);
+        assertFalse(changed.containsKey("k10"));
+
+        // Removing most keys compacts the holes
+        for (int i = 0; i < 9; i++) {
+            if (i != 5) {
+                changed = changed.without("k" + i);
+            }
+        }
+        assertEquals(changed.toString(), "{k9=9, k5=5}");
+
+        try {
+            map.put("x", 1);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
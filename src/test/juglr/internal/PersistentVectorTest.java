@@ -0,0 +1,75 @@
+package juglr.internal;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for the PersistentVector class
+ */
+public class PersistentVectorTest {
+
+    @Test
+    public void appendAndGet() {
+        PersistentVector<Integer> vec = PersistentVector.empty();
+        List<PersistentVector<Integer>> versions =
+                                   new ArrayList<PersistentVector<Integer>>();
+        for (int i = 0; i < 40000; i++) {
+            versions.add(vec);
+            vec = vec.append(i);
+        }
+
+        assertEquals(vec.size(), 40000);
+        for (int i = 0; i < vec.size(); i++) {
+            assertEquals(vec.get(i).intValue(), i);
+        }
+
+        // Old versions are unaffected by later appends
+        assertEquals(versions.get(1057).size(), 1057);
+        assertEquals(versions.get(1057).get(1056).intValue(), 1056);
+        assertTrue(PersistentVector.empty().isEmpty());
+    }
+
+    @Test
+    public void of() {
+        for (int size : new int[]{0, 1, 31, 32, 33, 1024, 1056, 1057, 40000}) {
+            List<Integer> list = new ArrayList<Integer>();
+            for (int i = 0; i < size; i++) {
+                list.add(i);
+            }
+            PersistentVector<Integer> vec = PersistentVector.of(list);
+            assertEquals(vec, list);
+            assertEquals(vec.append(-1).get(size).intValue(), -1);
+        }
+    }
+
+    @Test
+    public void with() {
+        PersistentVector<Integer> vec = PersistentVector.empty();
+        for (int i = 0; i < 2000; i++) {
+            vec = vec.append(i);
+        }
+
+        PersistentVector<Integer> changed = vec.with(5, -5).with(1999, -1999);
+        assertEquals(changed.get(5).intValue(), -5);
+        assertEquals(changed.get(1999).intValue(), -1999);
+        assertEquals(vec.get(5).intValue(), 5);
+        assertEquals(vec.get(1999).intValue(), 1999);
+
+        try {
+            vec.with(2000, 0);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        try {
+            vec.add(1);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package juglr.internal;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Test cases for the SmallMap class
+ */
+public class SmallMapTest {
+
+    @Test
+    public void putGetRemove() {
+        SmallMap<String,Integer> map = new SmallMap<String,Integer>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put("a", 1));
+        assertNull(map.put("b", 2));
+        assertNull(map.put(null, 3));
+        assertEquals(map.put("a", 4), Integer.valueOf(1));
+
+        assertEquals(map.size(), 3);
+        assertEquals(map.get("a"), Integer.valueOf(4));
+        assertEquals(map.get(null), Integer.valueOf(3));
+        assertTrue(map.containsKey("b"));
+        assertFalse(map.containsKey("c"));
+
+        assertEquals(map.remove("a"), Integer.valueOf(4));
+        assertNull(map.remove("a"));
+        assertEquals(map.toString(), "{b=2, null=3}");
+        assertFalse(map.isPromoted());
+    }
+
+    @Test
+    public void promote() {
+        SmallMap<String,Integer> map = new SmallMap<String,Integer>();
+        Map<String,Integer> expected = new HashMap<String,Integer>();
+        for (int i = 0; i <= SmallMap.THRESHOLD; i++) {
+            assertFalse(map.isPromoted());
+            map.put("k" + i, i);
+            expected.put("k" + i, i);
+        }
+
+        assertTrue(map.isPromoted());
+        assertEquals(map, expected);
+        assertEquals(expected, map);
+        assertEquals(map.hashCode(), expected.hashCode());
+
+        int i = 0;
+        for (String key : map.keySet()) {
+            assertEquals(key, "k" + i++);
+        }
+    }
+
+    @Test
+    public void iteratorRemoveAndSet() {
+        SmallMap<String,Integer> map = new SmallMap<String,Integer>(4);
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+
+        Iterator<Map.Entry<String,Integer>> iter = map.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String,Integer> entry = iter.next();
+            if (entry.getKey().equals("b")) {
+                iter.remove();
+            } else {
+                entry.setValue(entry.getValue() * 10);
+            }
+        }
+        assertEquals(map.toString(), "{a=10, c=30}");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serialize() throws Exception {
+        SmallMap<String,Integer> map = new SmallMap<String,Integer>();
+        map.put("x", 1);
+        map.put("y", 2);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(
+                            new ByteArrayInputStream(bytes.toByteArray()));
+        SmallMap<String,Integer> copy =
+                                    (SmallMap<String,Integer>)in.readObject();
+        assertEquals(copy, map);
+        copy.put("z", 3);
+        assertEquals(copy.size(), 3);
+    }
+}
@@ -0,0 +1,173 @@
+package juglr.net;
+
+import juglr.Actor;
+import juglr.Box;
+import juglr.JSonBoxParser;
+import juglr.Message;
+import juglr.MessageBus;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Test cases for HTTPServer, sending requests over a socket
+ */
+public class HTTPServerTest {
+
+    /* Replies with the body of the request, or with {"empty": true} if
+     * it has none */
+    static class Echo extends Actor {
+
+        Echo(MessageBus bus) {
+            super(bus);
+        }
+
+        @Override
+        public void react(Message msg) {
+            Box body = ((HTTPRequest)msg).getBody();
+            if (body == null) {
+                body = Box.newMap().put("empty", true);
+            }
+            send(body, msg.getReplyTo());
+        }
+    }
+
+    MessageBus bus;
+    int port;
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        ServerSocket free = new ServerSocket(0);
+        port = free.getLocalPort();
+        free.close();
+
+        bus = new MessageBus();
+        HTTPServer server = new HTTPServer(port, bus);
+        server.setMaxBodyLength(64);
+        server.registerHandler("^/echo/?$", new Echo(bus).getAddress(),
+                               HTTP.Method.GET, HTTP.Method.POST);
+        server.start();
+    }
+
+    @AfterClass
+    public void stopServer() throws Exception {
+        bus.shutdown(false);
+    }
+
+    private String request(String headers, String body, boolean close)
+                                                            throws IOException {
+        return request("POST", headers, body, close);
+    }
+
+    /*
+     * Send a request and return the response. The output of the socket is
+     * left open, unless close is set, so the server must not read past the
+     * body of the request
+     */
+    private String request(String method, String headers, String body,
+                           boolean close) throws IOException {
+        Socket sock = new Socket("localhost", port);
+        try {
+            sock.setSoTimeout(5000);
+            OutputStream out = sock.getOutputStream();
+            out.write((method + " /echo HTTP/1.0\r\n" + headers + "\r\n" +
+                       body).getBytes("UTF-8"));
+            out.flush();
+            if (close) {
+                sock.shutdownOutput();
+            }
+
+            InputStream in = sock.getInputStream();
+            ByteArrayOutputStream resp = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                resp.write(buf, 0, read);
+            }
+            return resp.toString("UTF-8");
+        } finally {
+            sock.close();
+        }
+    }
+
+    private Box body(String response) {
+        return new JSonBoxParser().parse(
+                  response.substring(response.indexOf("\r\n\r\n") + 4));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        String body = "{\"echo\": [1, 2, \"three\"]}";
+        String resp = request(
+                   "Content-Length: " + body.length() + "\r\n", body, false);
+        assertTrue(resp.startsWith("HTTP/1.0 200"), resp);
+        assertEquals(body(resp), new JSonBoxParser().parse(body));
+    }
+
+    @Test
+    public void tooLarge() throws Exception {
+        String resp = request("Content-Length: 65\r\n", "{}", false);
+        assertTrue(resp.startsWith("HTTP/1.0 413"), resp);
+        assertTrue(body(resp).has("error"));
+    }
+
+    @Test
+    public void noBody() throws Exception {
+        Box empty = Box.newMap().put("empty", true);
+        String resp = request("GET", "", "", false);
+        assertTrue(resp.startsWith("HTTP/1.0 200"), resp);
+        assertEquals(body(resp), empty);
+
+        resp = request("Content-Length: 0\r\n", "", false);
+        assertTrue(resp.startsWith("HTTP/1.0 200"), resp);
+        assertEquals(body(resp), empty);
+    }
+
+    @Test
+    public void illegalLength() throws Exception {
+        String resp = request("Content-Length: ten\r\n", "{}", false);
+        assertTrue(resp.startsWith("HTTP/1.0 400"), resp);
+
+        resp = request("Content-Length: -2\r\n", "{}", false);
+        assertTrue(resp.startsWith("HTTP/1.0 400"), resp);
+    }
+
+    /* The Content-Type of the response to a request with Accept value */
+    private String responseType(String accept) throws IOException {
+        String body = "{}";
+        String resp = request("Content-Length: " + body.length() + "\r\n" +
+                              "Accept: " + accept + "\r\n", body, false);
+        assertTrue(resp.startsWith("HTTP/1.0 200"), resp);
+        int start = resp.indexOf("Content-Type: ") + "Content-Type: ".length();
+        return resp.substring(start, resp.indexOf("\r\n", start));
+    }
+
+    @Test
+    public void accept() throws Exception {
+        assertEquals(responseType("application/cbor"), "application/cbor");
+        assertEquals(responseType("application/cbor;q=0"), "application/json");
+        assertEquals(responseType("application/json, application/cbor;q=0.5"),
+                     "application/json");
+        assertEquals(responseType("application/json;q=0.5, application/cbor"),
+                     "application/cbor");
+        assertEquals(responseType("application/*;q=0.2, application/cbor"),
+                     "application/cbor");
+        assertEquals(responseType("application/cbor;q=0.5, */*"),
+                     "application/json");
+    }
+
+    @Test
+    public void shortBody() throws Exception {
+        String resp = request("Content-Length: 20\r\n", "{\"a\": 1}", true);
+        assertTrue(resp.startsWith("HTTP/1.0 400"), resp);
+        assertTrue(body(resp).getString("error").contains("shorter"));
+    }
+}
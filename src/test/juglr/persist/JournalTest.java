@@ -0,0 +1,228 @@
+package juglr.persist;
+
+import juglr.Box;
+import juglr.Message;
+import juglr.MessageBus;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the Journal and PersistentActor classes
+ */
+public class JournalTest {
+
+    static File newDir() throws IOException {
+        File dir = File.createTempFile("journal", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    static class Counter extends PersistentActor {
+        long count;
+        final CountDownLatch done;
+
+        Counter(MessageBus bus, Journal journal, int expected) {
+            super(bus, journal, "counter");
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        protected void receive(Message msg) {
+            try {
+                persist(new Box(((Box)msg).getLong()));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            done.countDown();
+        }
+
+        @Override
+        protected void apply(Box event) {
+            count += event.getLong();
+        }
+
+        @Override
+        protected Box snapshot() {
+            return Box.newMap().put("count", count);
+        }
+
+        @Override
+        protected void restore(Box snapshot) {
+            count = snapshot.getLong("count");
+        }
+    }
+
+    @Test
+    public void appendAndReopen() throws Exception {
+        File dir = newDir();
+        Journal journal = new Journal(dir, 4096);
+        journal.sync(journal.appendEvent("a", 1, new Box("one")));
+        journal.appendEvent("b", 1, Box.newMap().put("x", 27));
+        journal.sync(journal.appendEvent("a", 2, new Box("two")));
+        journal.close();
+
+        journal = new Journal(dir, 4096);
+        List<Box> events = journal.readEvents("a");
+        assertEquals(events.size(), 2);
+        assertEquals(events.get(0).getString(), "one");
+        assertEquals(events.get(1).getString(), "two");
+        assertEquals(journal.readEvents("b").get(0).getLong("x"), 27);
+        assertEquals(journal.getSequenceNumber("a"), 2);
+        assertNull(journal.readSnapshot("a"));
+        journal.close();
+    }
+
+    @Test
+    public void snapshotTruncatesReplay() throws Exception {
+        Journal journal = new Journal(newDir(), 4096);
+        journal.appendEvent("a", 1, new Box(1));
+        journal.appendSnapshot("a", 1, new Box("state"));
+        journal.sync(journal.appendEvent("a", 2, new Box(2)));
+
+        assertEquals(journal.readSnapshot("a").getString(), "state");
+        assertEquals(journal.readEvents("a").size(), 1);
+        assertEquals(journal.readEvents("a").get(0).getLong(), 2);
+        journal.close();
+    }
+
+    @Test
+    public void rollAndCompact() throws Exception {
+        File dir = newDir();
+        Journal journal = new Journal(dir, 256);
+        for (int i = 1; i <= 50; i++) {
+            journal.appendEvent("a", i, new Box("event number " + i));
+        }
+        journal.sync(journal.appendSnapshot("a", 50, new Box(50)));
+        assertTrue(dir.listFiles().length > 1);
+
+        assertTrue(journal.compact() > 0);
+        assertEquals(dir.listFiles().length, 1);
+        journal.close();
+
+        journal = new Journal(dir, 256);
+        assertEquals(journal.readSnapshot("a").getLong(), 50);
+        assertEquals(journal.readEvents("a").size(), 0);
+        assertEquals(journal.getSequenceNumber("a"), 50);
+        journal.close();
+    }
+
+    @Test
+    public void tornRecordIsIgnored() throws Exception {
+        File dir = newDir();
+        Journal journal = new Journal(dir, 4096);
+        journal.appendEvent("a", 1, new Box("one"));
+        long end = journal.appendEvent("a", 2, new Box("two"));
+        journal.sync(end);
+        journal.close();
+
+        // Flip the last byte of the second record
+        RandomAccessFile f = new RandomAccessFile(dir.listFiles()[0], "rw");
+        f.seek((int)end - 1);
+        int b = f.read();
+        f.seek((int)end - 1);
+        f.write(b ^ 0xff);
+        f.close();
+
+        journal = new Journal(dir, 4096);
+        assertEquals(journal.readEvents("a").size(), 1);
+        journal.sync(journal.appendEvent("a", 2, new Box("again")));
+        assertEquals(journal.readEvents("a").get(1).getString(), "again");
+        journal.close();
+    }
+
+    @Test
+    public void corruptMiddleSegment() throws Exception {
+        File dir = newDir();
+        Journal journal = new Journal(dir, 256);
+        long end = 0;
+        for (int i = 1; i <= 30; i++) {
+            end = journal.appendEvent("a", i, new Box("event number " + i));
+        }
+        journal.sync(end);
+        journal.close();
+
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        assertTrue(files.length > 3);
+
+        // Flip a byte in the first record of the second segment
+        RandomAccessFile f = new RandomAccessFile(files[1], "rw");
+        f.seek(20);
+        int b = f.read();
+        f.seek(20);
+        f.write(b ^ 0xff);
+        f.close();
+
+        // Only the events before the bad record are recovered
+        journal = new Journal(dir, 256);
+        List<Box> events = journal.readEvents("a");
+        assertTrue(events.size() > 0);
+        assertTrue(events.size() < 30);
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(events.get(i).getString(),
+                         "event number " + (i + 1));
+        }
+        int recovered = events.size();
+        assertEquals(journal.getSequenceNumber("a"), recovered);
+        for (int i = 2; i < files.length; i++) {
+            assertFalse(files[i].exists());
+            assertTrue(new File(files[i].getPath() + ".discarded").exists());
+        }
+
+        // New events continue after the last good one
+        for (int i = recovered + 1; i <= recovered + 10; i++) {
+            end = journal.appendEvent("a", i, new Box("new number " + i));
+        }
+        journal.sync(end);
+        journal.close();
+
+        journal = new Journal(dir, 256);
+        events = journal.readEvents("a");
+        assertEquals(events.size(), recovered + 10);
+        assertEquals(events.get(recovered).getString(),
+                     "new number " + (recovered + 1));
+        assertEquals(events.get(recovered + 9).getString(),
+                     "new number " + (recovered + 10));
+        journal.close();
+    }
+
+    @Test
+    public void persistentActorRecovers() throws Exception {
+        File dir = newDir();
+        Journal journal = new Journal(dir, 4096);
+        MessageBus bus = new MessageBus();
+        Counter counter = new Counter(bus, journal, 25);
+        counter.setSnapshotInterval(10);
+        bus.start(counter.getAddress());
+        for (int i = 1; i <= 25; i++) {
+            bus.send(new Box(i), counter.getAddress());
+        }
+        assertTrue(counter.done.await(10, TimeUnit.SECONDS));
+        assertEquals(counter.count, 325);
+        bus.shutdown(true);
+        journal.close();
+
+        journal = new Journal(dir, 4096);
+        assertEquals(journal.readEvents("counter").size(), 5);
+
+        bus = new MessageBus();
+        counter = new Counter(bus, journal, 1);
+        bus.start(counter.getAddress());
+        bus.send(new Box(1000), counter.getAddress());
+        assertTrue(counter.done.await(10, TimeUnit.SECONDS));
+        assertEquals(counter.count, 1325);
+        assertEquals(counter.getSequenceNumber(), 26);
+        bus.shutdown(true);
+        journal.close();
+    }
+}